@@ -0,0 +1,51 @@
+#!/usr/bin/env python3
+"""
+Compare two JMH JSON results, e.g. the target/jmh-result.json of two releases.
+
+Prints the score of every benchmark and parameters in both results with the change, and marks as a regression a change
+worse than the threshold (slower for time modes, fewer operations for throughput). Exits with 1 if there is one.
+
+Usage: python3 scripts/compare_benchmarks.py baseline.json current.json [threshold-percent]
+"""
+import json
+import sys
+
+BASELINE = sys.argv[1]
+CURRENT = sys.argv[2]
+THRESHOLD = float(sys.argv[3]) if len(sys.argv) > 3 else 10.0
+
+
+def load(path):
+    with open(path) as file:
+        results = json.load(file)
+    scores = {}
+    for result in results:
+        params = ",".join(f"{name}={value}" for name, value in sorted(result.get("params", {}).items()))
+        name = result["benchmark"].rsplit(".", 2)[-2] + "." + result["benchmark"].rsplit(".", 1)[-1]
+        scores[(name, params, result["mode"])] = result["primaryMetric"]
+    return scores
+
+
+def change(mode, before, after):
+    """Change in percent, positive is better"""
+    if mode == "thrpt":
+        return (after - before) / before * 100
+    return (before - after) / before * 100
+
+
+if __name__ == "__main__":
+    baseline, current = load(BASELINE), load(CURRENT)
+    regressions = 0
+    for key in sorted(baseline.keys() & current.keys()):
+        name, params, mode = key
+        before, after = baseline[key], current[key]
+        percent = change(mode, before["score"], after["score"])
+        regression = percent < -THRESHOLD
+        regressions += regression
+        print(f"{name:<50} {params:<40} {before['score']:>12.3f} {after['score']:>12.3f} {after['scoreUnit']:<8} "
+              f"{percent:+7.1f}%{'  REGRESSION' if regression else ''}")
+    for key in sorted(baseline.keys() - current.keys()):
+        print(f"{key[0]:<50} {key[1]:<40} only in {BASELINE}")
+    for key in sorted(current.keys() - baseline.keys()):
+        print(f"{key[0]:<50} {key[1]:<40} only in {CURRENT}")
+    sys.exit(1 if regressions else 0)
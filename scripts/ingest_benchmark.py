@@ -0,0 +1,116 @@
+#!/usr/bin/env python3
+"""
+Compare ingestion throughput of the single reading endpoint, the bulk endpoint and the binary TCP listener.
+
+The binary path needs the application started with ingest.binary.enabled=true, it is skipped otherwise. Binary records are
+not acknowledged, the time runs until weather.ingest.binary.records counts them all as accepted.
+
+Usage: python3 scripts/ingest_benchmark.py [base-url] [readings] [binary-port]
+"""
+import http.client
+import json
+import re
+import socket
+import struct
+import sys
+import time
+from datetime import datetime, timedelta, timezone
+from urllib.parse import urlparse
+
+BASE_URL = sys.argv[1] if len(sys.argv) > 1 else "http://localhost:8080"
+READINGS = int(sys.argv[2]) if len(sys.argv) > 2 else 5000
+BINARY_PORT = int(sys.argv[3]) if len(sys.argv) > 3 else 9300
+PATH = "/api/v1/weather/metric"
+# codes of the metric names in the binary records
+METRIC_CODES = {"Temp": 0, "Humidity": 1, "WindSpeed": 2}
+ACCEPTED = re.compile(r'^weather_ingest_binary_records_total\{result="accepted"\} (\S+)$', re.MULTILINE)
+
+
+def reading(i, prefix):
+    return {
+        "sensorId": f"{prefix}-{i % 100}",
+        "timestamp": (datetime(2024, 12, 1) + timedelta(seconds=i)).isoformat(),
+        "metrics": [
+            {"metricName": "Temp", "metricValue": 20.0 + i % 10, "unit": "C"},
+            {"metricName": "Humidity", "metricValue": 50.0 + i % 7, "unit": "g/kg"},
+            {"metricName": "WindSpeed", "metricValue": 10.0 + i % 5, "unit": "km/h"},
+        ],
+    }
+
+
+def connection():
+    url = urlparse(BASE_URL)
+    return http.client.HTTPConnection(url.hostname, url.port or 80)
+
+
+def single():
+    conn = connection()
+    start = time.perf_counter()
+    for i in range(READINGS):
+        conn.request("POST", PATH, json.dumps(reading(i, "single")), {"Content-Type": "application/json"})
+        response = conn.getresponse()
+        response.read()
+        assert response.status == 200, response.status
+    return time.perf_counter() - start
+
+
+def bulk():
+    body = "\n".join(json.dumps(reading(i, "bulk")) for i in range(READINGS)).encode()
+    conn = connection()
+    start = time.perf_counter()
+    conn.request("POST", PATH + "/bulk", body, {"Content-Type": "application/x-ndjson"})
+    response = conn.getresponse()
+    summary = json.loads(response.read())
+    assert summary["accepted"] == READINGS, summary
+    return time.perf_counter() - start
+
+
+def record(i, prefix):
+    """Length-prefixed binary record of the reading, see BinaryRecordCodec"""
+    value = reading(i, prefix)
+    sensor_id = value["sensorId"].encode()
+    epoch_millis = int((datetime(2024, 12, 1) + timedelta(seconds=i)).replace(tzinfo=timezone.utc).timestamp() * 1000)
+    body = struct.pack(">B", len(sensor_id)) + sensor_id + struct.pack(">qB", epoch_millis, len(value["metrics"]))
+    for metric in value["metrics"]:
+        body += struct.pack(">Bd", METRIC_CODES[metric["metricName"]], metric["metricValue"])
+    return struct.pack(">i", len(body)) + body
+
+
+def binary_enabled():
+    try:
+        socket.create_connection((urlparse(BASE_URL).hostname, BINARY_PORT)).close()
+        return True
+    except OSError:
+        return False
+
+
+def binary_accepted():
+    conn = connection()
+    conn.request("GET", "/actuator/prometheus")
+    return float(ACCEPTED.search(conn.getresponse().read().decode()).group(1))
+
+
+def binary():
+    payload = b"".join(record(i, "binary") for i in range(READINGS))
+    before = binary_accepted()
+    start = time.perf_counter()
+    with socket.create_connection((urlparse(BASE_URL).hostname, BINARY_PORT)) as sock:
+        sock.sendall(payload)
+    while binary_accepted() < before + READINGS:
+        assert time.perf_counter() - start < 300, "binary records not all accepted"
+        time.sleep(0.05)
+    return time.perf_counter() - start
+
+
+if __name__ == "__main__":
+    runs = [("single", single), ("bulk", bulk)]
+    if binary_enabled():
+        runs.append(("binary", binary))
+    # warm up every path before measuring
+    saved, READINGS = READINGS, 1000
+    for name, run in runs:
+        run()
+    READINGS = saved
+    for name, run in runs:
+        elapsed = run()
+        print(f"{name:>6}: {READINGS} readings in {elapsed:.2f}s, {READINGS / elapsed:,.0f} readings/s")
@@ -0,0 +1,111 @@
+#!/usr/bin/env python3
+"""
+Latency percentiles of concurrent ingestion and multi-sensor statistic queries.
+
+Loads readings with the bulk endpoint, then for the given duration writer threads post single readings while
+reader threads query statistics of several sensors over random ranges, so the statistic cache rarely helps.
+
+Usage: python3 scripts/mixed_load_benchmark.py [base-url] [seconds] [writers] [readers] [sensors-per-query]
+"""
+import http.client
+import json
+import random
+import sys
+import threading
+import time
+from datetime import datetime, timedelta
+from urllib.parse import urlencode, urlparse
+
+BASE_URL = sys.argv[1] if len(sys.argv) > 1 else "http://localhost:8080"
+SECONDS = int(sys.argv[2]) if len(sys.argv) > 2 else 60
+WRITERS = int(sys.argv[3]) if len(sys.argv) > 3 else 4
+READERS = int(sys.argv[4]) if len(sys.argv) > 4 else 8
+SENSORS_PER_QUERY = int(sys.argv[5]) if len(sys.argv) > 5 else 20
+SENSORS = 100
+PRELOAD_DAYS = 14
+PATH = "/api/v1/weather/metric"
+START = datetime(2024, 12, 1)
+
+
+def reading(sensor, timestamp, value):
+    return {
+        "sensorId": f"sensor-{sensor}",
+        "timestamp": timestamp.isoformat(),
+        "metrics": [
+            {"metricName": "Temp", "metricValue": 20.0 + value % 10, "unit": "C"},
+            {"metricName": "Humidity", "metricValue": 50.0 + value % 7, "unit": "g/kg"},
+        ],
+    }
+
+
+def connection():
+    url = urlparse(BASE_URL)
+    return http.client.HTTPConnection(url.hostname, url.port or 80)
+
+
+def preload():
+    """A reading every 10 minutes of every sensor"""
+    conn = connection()
+    for day in range(PRELOAD_DAYS):
+        lines = [json.dumps(reading(sensor, START + timedelta(days=day, minutes=10 * i), i))
+                 for i in range(144) for sensor in range(SENSORS)]
+        conn.request("POST", PATH + "/bulk", "\n".join(lines).encode(), {"Content-Type": "application/x-ndjson"})
+        response = conn.getresponse()
+        summary = json.loads(response.read())
+        assert summary["accepted"] == len(lines), summary
+
+
+def writer(deadline, latencies):
+    conn = connection()
+    i = 0
+    while time.perf_counter() < deadline:
+        body = json.dumps(reading(random.randrange(SENSORS), START + timedelta(days=PRELOAD_DAYS, seconds=i), i))
+        start = time.perf_counter()
+        conn.request("POST", PATH, body, {"Content-Type": "application/json"})
+        response = conn.getresponse()
+        response.read()
+        latencies.append(time.perf_counter() - start)
+        assert response.status == 200, response.status
+        i += 1
+
+
+def reader(deadline, latencies):
+    conn = connection()
+    while time.perf_counter() < deadline:
+        start_date = START + timedelta(minutes=random.randrange(PRELOAD_DAYS * 1440 // 2))
+        params = [("sensorId", f"sensor-{sensor}") for sensor in random.sample(range(SENSORS), SENSORS_PER_QUERY)]
+        params += [("statistic", "avg"), ("statistic", "max"), ("startDate", start_date.isoformat()),
+                   ("endDate", (start_date + timedelta(days=PRELOAD_DAYS // 2, minutes=random.randrange(1440))).isoformat())]
+        start = time.perf_counter()
+        conn.request("GET", PATH + "/statistic?" + urlencode(params))
+        response = conn.getresponse()
+        response.read()
+        latencies.append(time.perf_counter() - start)
+        assert response.status == 200, response.status
+
+
+def percentile(values, p):
+    ordered = sorted(values)
+    return ordered[min(len(ordered) - 1, int(len(ordered) * p))] * 1000
+
+
+def run(seconds):
+    deadline = time.perf_counter() + seconds
+    writes, reads = [], []
+    threads = [threading.Thread(target=writer, args=(deadline, writes)) for _ in range(WRITERS)]
+    threads += [threading.Thread(target=reader, args=(deadline, reads)) for _ in range(READERS)]
+    for thread in threads:
+        thread.start()
+    for thread in threads:
+        thread.join()
+    return writes, reads
+
+
+if __name__ == "__main__":
+    preload()
+    # warm up before measuring
+    run(min(10, SECONDS))
+    writes, reads = run(SECONDS)
+    for name, latencies in (("ingest", writes), ("statistic", reads)):
+        print(f"{name:>9}: {len(latencies) / SECONDS:,.0f} req/s, p50 {percentile(latencies, 0.5):.1f} ms, "
+              f"p95 {percentile(latencies, 0.95):.1f} ms, p99 {percentile(latencies, 0.99):.1f} ms")
@@ -0,0 +1,76 @@
+package com.ghulam.weather.metrics.alert;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Alert rules evaluated on every saved reading, and where the alerts are sent
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "alert")
+public class AlertProperties {
+
+    public enum Type { THRESHOLD, ANOMALY }
+
+    private boolean enabled;
+
+    private List<Rule> rules = new ArrayList<>();
+
+    /**
+     * POST the alerts as JSON to this URL, not sent if empty
+     */
+    private String webhookUrl;
+
+    /**
+     * Alerts waiting to be posted, further alerts are dropped
+     */
+    private int webhookQueueCapacity = 1000;
+
+    @Data
+    public static class Rule {
+
+        private String name;
+
+        private Type type = Type.THRESHOLD;
+
+        private String metricName;
+
+        /**
+         * Sensor the rule applies to, every sensor if empty
+         */
+        private String sensorId;
+
+        /**
+         * Threshold rules, one of &gt;, &gt;=, &lt;, &lt;=
+         */
+        private String operator = ">";
+
+        private double threshold;
+
+        /**
+         * Threshold rules, fire once the threshold is breached by every reading for this long, 0 on the first breach
+         */
+        private Duration duration = Duration.ZERO;
+
+        /**
+         * Anomaly rules, fire when a reading is further than deviations standard deviations from the mean
+         */
+        private double deviations = 3;
+
+        /**
+         * Anomaly rules, time constant of the exponentially weighted mean and variance
+         */
+        private Duration window = Duration.ofHours(24);
+
+        /**
+         * Anomaly rules, readings of the sensor needed before the rule is evaluated
+         */
+        private int minSamples = 30;
+    }
+}
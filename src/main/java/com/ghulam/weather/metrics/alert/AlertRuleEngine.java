@@ -0,0 +1,281 @@
+package com.ghulam.weather.metrics.alert;
+
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.AlertEventModel;
+import com.ghulam.weather.metrics.service.WeatherMetricIngestListener;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ObjectUtils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Alert rules evaluated on every saved reading, e.g "Temp &gt; 40 for 10 minutes on any sensor" or "WindSpeed deviates 3
+ * standard deviations from its 24h mean".
+ * <p>
+ * Every rule keeps a constant size state per sensor, updated by the readings of its metric name: when the threshold breach
+ * started, or the count, mean and variance of the readings. The mean and variance of anomaly rules are weighted exponentially
+ * with the rule window as time constant, until the sensor sent about a window worth of readings they are the exact mean and
+ * variance of all its readings. Rules are indexed by metric name and sensor, rules of any sensor apart. The states of a sensor
+ * are built on its first reading of a metric name, for the rules of that metric name on any sensor and on that sensor only,
+ * so a reading costs one lookup of the states of its sensor and metric name, then O(1) per rule that applies to it.
+ * <p>
+ * A rule sends a FIRING event when it starts to fire for a sensor and a RESOLVED event when it stops. Readings older than the
+ * latest reading a rule evaluated for the sensor are ignored by it.
+ */
+@Component
+@Slf4j
+public class AlertRuleEngine implements WeatherMetricIngestListener, MeterBinder {
+
+    private static final Set<String> OPERATORS = Set.of(">", ">=", "<", "<=");
+
+    private final boolean enabled;
+    private final CompiledRule[] rules;
+    private final Map<String, List<CompiledRule>> anySensorRulesByMetricName = new HashMap<>();
+    private final Map<String, Map<String, List<CompiledRule>>> sensorRulesByMetricName = new HashMap<>();
+    private final List<AlertSink> alertSinks;
+    private final Map<String, Map<String, RuleState[]>> statesBySensor = new ConcurrentHashMap<>();
+    private final AtomicLong evaluations = new AtomicLong();
+    private final AtomicLong firing = new AtomicLong();
+    private final AtomicLong resolved = new AtomicLong();
+
+    @Autowired
+    public AlertRuleEngine(AlertProperties alertProperties, List<AlertSink> alertSinks) {
+        this.enabled = alertProperties.isEnabled();
+        this.rules = new CompiledRule[alertProperties.getRules().size()];
+        this.alertSinks = alertSinks;
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < rules.length; i++) {
+            AlertProperties.Rule rule = alertProperties.getRules().get(i);
+            validate(rule);
+            if (!names.add(rule.getName())) {
+                throw new IllegalArgumentException("Duplicate alert rule name: " + rule.getName());
+            }
+            rules[i] = new CompiledRule(rule);
+            if (rules[i].sensorId == null) {
+                anySensorRulesByMetricName.computeIfAbsent(rule.getMetricName(), key -> new ArrayList<>()).add(rules[i]);
+            } else {
+                sensorRulesByMetricName.computeIfAbsent(rule.getMetricName(), key -> new HashMap<>())
+                        .computeIfAbsent(rules[i].sensorId, key -> new ArrayList<>()).add(rules[i]);
+            }
+        }
+        if (enabled) {
+            log.info("Evaluating {} alert rules on ingest", rules.length);
+        }
+    }
+
+    private static void validate(AlertProperties.Rule rule) {
+        if (ObjectUtils.isEmpty(rule.getName()) || ObjectUtils.isEmpty(rule.getMetricName())) {
+            throw new IllegalArgumentException("Alert rules need a name and a metric name: " + rule);
+        }
+        if (rule.getType() == AlertProperties.Type.THRESHOLD && (!OPERATORS.contains(rule.getOperator()) || rule.getDuration().isNegative())) {
+            throw new IllegalArgumentException("Invalid operator or duration of alert rule " + rule.getName() + ", operators: " + OPERATORS);
+        }
+        if (rule.getType() == AlertProperties.Type.ANOMALY && (rule.getDeviations() <= 0 || rule.getWindow().isNegative() || rule.getWindow().isZero())) {
+            throw new IllegalArgumentException("Invalid deviations or window of alert rule " + rule.getName());
+        }
+    }
+
+    @Override
+    public void onSaved(List<WeatherMetricEntity> weatherMetrics) {
+        if (!enabled || rules.length == 0) {
+            return;
+        }
+        List<AlertEventModel> alerts = null;
+        long evaluated = 0;
+        for (WeatherMetricEntity weatherMetric : weatherMetrics) {
+            String sensorId = weatherMetric.getSensorId();
+            long epochMillis = weatherMetric.getTimestamp().toInstant(ZoneOffset.UTC).toEpochMilli();
+            Map<String, RuleState[]> states = null;
+            for (MetricEntity metric : weatherMetric.getMetrics()) {
+                String metricName = metric.getMetricName();
+                if (!anySensorRulesByMetricName.containsKey(metricName) && !sensorRulesByMetricName.containsKey(metricName)) {
+                    continue;
+                }
+                if (states == null) {
+                    states = statesBySensor.computeIfAbsent(sensorId, key -> new HashMap<>());
+                }
+                synchronized (states) {
+                    for (RuleState state : states.computeIfAbsent(metricName, key -> newStates(sensorId, metricName))) {
+                        CompiledRule rule = state.rule;
+                        evaluated++;
+                        AlertEventModel alert = rule.threshold
+                                ? state.evaluateThreshold(rule, sensorId, weatherMetric.getTimestamp(), epochMillis, metric.getMetricValue())
+                                : state.evaluateAnomaly(rule, sensorId, weatherMetric.getTimestamp(), epochMillis, metric.getMetricValue());
+                        if (alert != null) {
+                            alerts = alerts == null ? new ArrayList<>() : alerts;
+                            alerts.add(alert);
+                        }
+                    }
+                }
+            }
+        }
+        evaluations.addAndGet(evaluated);
+        if (alerts != null) {
+            alerts.forEach(this::send);
+        }
+    }
+
+    /**
+     * States of the rules of the metric name that apply to the sensor, empty if none does
+     */
+    private RuleState[] newStates(String sensorId, String metricName) {
+        List<RuleState> states = new ArrayList<>();
+        anySensorRulesByMetricName.getOrDefault(metricName, List.of()).forEach(rule -> states.add(new RuleState(rule)));
+        sensorRulesByMetricName.getOrDefault(metricName, Map.of()).getOrDefault(sensorId, List.of()).forEach(rule -> states.add(new RuleState(rule)));
+        return states.toArray(RuleState[]::new);
+    }
+
+    private void send(AlertEventModel alert) {
+        (alert.getState() == AlertEventModel.State.FIRING ? firing : resolved).incrementAndGet();
+        for (AlertSink alertSink : alertSinks) {
+            try {
+                alertSink.send(alert);
+            } catch (RuntimeException e) {
+                log.warn("Alert sink {} failed", alertSink.getClass().getSimpleName(), e);
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("weather.alert.evaluations", evaluations, AtomicLong::get)
+                .description("Alert rules evaluated against a reading").register(registry);
+        FunctionCounter.builder("weather.alert.events", firing, AtomicLong::get)
+                .description("Alert events sent").tag("state", "firing").register(registry);
+        FunctionCounter.builder("weather.alert.events", resolved, AtomicLong::get)
+                .description("Alert events sent").tag("state", "resolved").register(registry);
+    }
+
+    /**
+     * Rule with its settings unboxed for the ingest path
+     */
+    private static final class CompiledRule {
+
+        private final AlertProperties.Rule rule;
+        private final boolean threshold;
+        private final String sensorId;
+        private final String operator;
+        private final double thresholdValue;
+        private final long durationMillis;
+        private final double deviations;
+        private final double windowMillis;
+        private final long minSamples;
+
+        private CompiledRule(AlertProperties.Rule rule) {
+            this.rule = rule;
+            this.threshold = rule.getType() == AlertProperties.Type.THRESHOLD;
+            this.sensorId = ObjectUtils.isEmpty(rule.getSensorId()) ? null : rule.getSensorId();
+            this.operator = rule.getOperator();
+            this.thresholdValue = rule.getThreshold();
+            this.durationMillis = rule.getDuration().toMillis();
+            this.deviations = rule.getDeviations();
+            this.windowMillis = rule.getWindow().toMillis();
+            this.minSamples = rule.getMinSamples();
+        }
+
+        private boolean breaches(double value) {
+            return switch (operator) {
+                case ">" -> value > thresholdValue;
+                case ">=" -> value >= thresholdValue;
+                case "<" -> value < thresholdValue;
+                default -> value <= thresholdValue;
+            };
+        }
+    }
+
+    /**
+     * State of one rule for one sensor, guarded by the states map of the sensor. Timestamps are compared as epoch milliseconds.
+     */
+    private static final class RuleState {
+
+        private final CompiledRule rule;
+        private long latest = Long.MIN_VALUE;
+        private boolean firing;
+        private boolean breaching;
+        private long breachStart;
+        private LocalDateTime breachStartTimestamp;
+        private long count;
+        private double mean;
+        private double variance;
+
+        private RuleState(CompiledRule rule) {
+            this.rule = rule;
+        }
+
+        private AlertEventModel evaluateThreshold(CompiledRule rule, String sensorId, LocalDateTime timestamp, long epochMillis, double value) {
+            if (epochMillis < latest) {
+                return null;
+            }
+            latest = epochMillis;
+            if (!rule.breaches(value)) {
+                breaching = false;
+                if (!firing) {
+                    return null;
+                }
+                firing = false;
+                return alert(rule, AlertEventModel.State.RESOLVED, sensorId, timestamp, value,
+                        String.format("%s %s no longer %s %s", rule.rule.getMetricName(), value, rule.operator, rule.thresholdValue));
+            }
+            if (!breaching) {
+                breaching = true;
+                breachStart = epochMillis;
+                breachStartTimestamp = timestamp;
+            }
+            if (firing || epochMillis - breachStart < rule.durationMillis) {
+                return null;
+            }
+            firing = true;
+            return alert(rule, AlertEventModel.State.FIRING, sensorId, timestamp, value,
+                    String.format("%s %s %s %s since %s", rule.rule.getMetricName(), value, rule.operator, rule.thresholdValue, breachStartTimestamp));
+        }
+
+        private AlertEventModel evaluateAnomaly(CompiledRule rule, String sensorId, LocalDateTime timestamp, long epochMillis, double value) {
+            if (epochMillis < latest) {
+                return null;
+            }
+            AlertEventModel alert = null;
+            if (count >= rule.minSamples) {
+                double deviation = Math.abs(value - mean);
+                boolean anomalous = deviation > rule.deviations * Math.sqrt(variance);
+                if (anomalous != firing) {
+                    firing = anomalous;
+                    alert = alert(rule, anomalous ? AlertEventModel.State.FIRING : AlertEventModel.State.RESOLVED, sensorId, timestamp, value,
+                            String.format("%s %s deviates %.1f standard deviations from the mean %.2f", rule.rule.getMetricName(), value,
+                                    deviation / Math.sqrt(variance), mean));
+                }
+            }
+            // exponentially weighted, the exact mean and variance while 1 / count is the larger weight
+            long elapsedMillis = count == 0 ? 0 : epochMillis - latest;
+            count++;
+            double weight = Math.max(1 - Math.exp(-elapsedMillis / rule.windowMillis), 1.0 / count);
+            double difference = value - mean;
+            double increment = weight * difference;
+            mean += increment;
+            variance = (1 - weight) * (variance + difference * increment);
+            latest = epochMillis;
+            return alert;
+        }
+
+        private static AlertEventModel alert(CompiledRule rule, AlertEventModel.State state, String sensorId, LocalDateTime timestamp,
+                                             double value, String message) {
+            return AlertEventModel.builder()
+                    .ruleName(rule.rule.getName())
+                    .state(state)
+                    .sensorId(sensorId)
+                    .metricName(rule.rule.getMetricName())
+                    .metricValue(value)
+                    .timestamp(timestamp)
+                    .message(message).build();
+        }
+    }
+}
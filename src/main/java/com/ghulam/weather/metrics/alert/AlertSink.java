@@ -0,0 +1,15 @@
+package com.ghulam.weather.metrics.alert;
+
+import com.ghulam.weather.metrics.model.AlertEventModel;
+
+/**
+ * Destination of the alerts. Called on the ingest path, implementations must not block.
+ */
+public interface AlertSink {
+
+    /**
+     * An alert rule started or stopped to fire
+     * @param alert - alert event
+     */
+    void send(AlertEventModel alert);
+}
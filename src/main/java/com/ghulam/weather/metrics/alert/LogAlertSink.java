@@ -0,0 +1,22 @@
+package com.ghulam.weather.metrics.alert;
+
+import com.ghulam.weather.metrics.model.AlertEventModel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Log every alert, warn when firing and info when resolved
+ */
+@Component
+@Slf4j
+public class LogAlertSink implements AlertSink {
+
+    @Override
+    public void send(AlertEventModel alert) {
+        if (alert.getState() == AlertEventModel.State.FIRING) {
+            log.warn("Alert {} firing for {}: {}", alert.getRuleName(), alert.getSensorId(), alert.getMessage());
+        } else {
+            log.info("Alert {} resolved for {}: {}", alert.getRuleName(), alert.getSensorId(), alert.getMessage());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.ghulam.weather.metrics.alert;
+
+import com.ghulam.weather.metrics.model.AlertEventModel;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ObjectUtils;
+import org.springframework.web.client.RestClient;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * POST the alerts as JSON to alert.webhook-url, one at a time from a background thread so a slow receiver never blocks ingestion.
+ * Alerts are dropped once alert.webhook-queue-capacity are waiting, or if the receiver fails.
+ */
+@Component
+@Slf4j
+public class WebhookAlertSink implements AlertSink, MeterBinder, DisposableBean {
+
+    private final RestClient restClient;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Autowired
+    public WebhookAlertSink(AlertProperties alertProperties, RestClient.Builder restClientBuilder) {
+        if (ObjectUtils.isEmpty(alertProperties.getWebhookUrl())) {
+            this.restClient = null;
+            this.executor = null;
+            return;
+        }
+        this.restClient = restClientBuilder.baseUrl(alertProperties.getWebhookUrl()).build();
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(alertProperties.getWebhookQueueCapacity()), runnable -> {
+            Thread thread = new Thread(runnable, "alert-webhook");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void send(AlertEventModel alert) {
+        if (executor == null) {
+            return;
+        }
+        try {
+            executor.execute(() -> post(alert));
+        } catch (RejectedExecutionException e) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void post(AlertEventModel alert) {
+        try {
+            restClient.post().contentType(MediaType.APPLICATION_JSON).body(alert).retrieve().toBodilessEntity();
+        } catch (RuntimeException e) {
+            dropped.incrementAndGet();
+            log.warn("Alert {} for {} not posted to the webhook: {}", alert.getRuleName(), alert.getSensorId(), e.getMessage());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("weather.alert.webhook.dropped", dropped, AtomicLong::get)
+                .description("Alerts not posted to the webhook, queue full or receiver failed").register(registry);
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
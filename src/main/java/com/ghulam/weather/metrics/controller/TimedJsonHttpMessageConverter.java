@@ -0,0 +1,65 @@
+package com.ghulam.weather.metrics.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ghulam.weather.metrics.service.WeatherMetricInstrumentation;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * JSON converter of the request and response bodies timing the (de)serialization as weather.http.json, tagged with the body type.
+ * Replaces the converter configured by Spring Boot, with the same object mapper.
+ */
+@Component
+public class TimedJsonHttpMessageConverter extends MappingJackson2HttpMessageConverter {
+
+    private final WeatherMetricInstrumentation instrumentation;
+
+    @Autowired
+    public TimedJsonHttpMessageConverter(ObjectMapper objectMapper, WeatherMetricInstrumentation instrumentation) {
+        super(objectMapper);
+        this.instrumentation = instrumentation;
+    }
+
+    @Override
+    public Object read(Type type, @Nullable Class<?> contextClass, HttpInputMessage inputMessage) throws IOException, HttpMessageNotReadableException {
+        Timer.Sample sample = Timer.start();
+        try {
+            return super.read(type, contextClass, inputMessage);
+        } finally {
+            sample.stop(instrumentation.jsonTimer("read", typeName(ResolvableType.forType(type))));
+        }
+    }
+
+    @Override
+    protected void writeInternal(Object object, @Nullable Type type, HttpOutputMessage outputMessage) throws IOException, HttpMessageNotWritableException {
+        Timer.Sample sample = Timer.start();
+        try {
+            super.writeInternal(object, type, outputMessage);
+        } finally {
+            sample.stop(instrumentation.jsonTimer("write", typeName(type != null ? ResolvableType.forType(type) : ResolvableType.forInstance(object))));
+        }
+    }
+
+    /**
+     * Simple name of the body type, of the element type followed by [] for collections
+     */
+    private static String typeName(ResolvableType type) {
+        if (type.asCollection() != ResolvableType.NONE) {
+            Class<?> element = type.asCollection().getGeneric(0).resolve();
+            return (element != null ? element.getSimpleName() : "Object") + "[]";
+        }
+        Class<?> resolved = type.resolve();
+        return resolved != null ? resolved.getSimpleName() : "Object";
+    }
+}
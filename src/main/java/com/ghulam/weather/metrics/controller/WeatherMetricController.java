@@ -1,20 +1,39 @@
 package com.ghulam.weather.metrics.controller;
 
 import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.BulkIngestResponse;
+import com.ghulam.weather.metrics.model.MetricHistogramModel;
+import com.ghulam.weather.metrics.model.MetricName;
+import com.ghulam.weather.metrics.model.SensorSnapshotModel;
 import com.ghulam.weather.metrics.model.WeatherMetricStatisticModel;
 import com.ghulam.weather.metrics.model.WeatherMetricResponse;
+import com.ghulam.weather.metrics.service.WeatherMetricBulkIngestionService;
+import com.ghulam.weather.metrics.service.MetricSeriesService;
+import com.ghulam.weather.metrics.service.StatisticSubscriptionService;
+import com.ghulam.weather.metrics.service.WeatherMetricIngestionService;
 import com.ghulam.weather.metrics.service.WeatherMetricService;
+import com.ghulam.weather.metrics.service.WeatherMetricStreamingService;
+import com.ghulam.weather.metrics.statistic.QuantileSketch;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.ObjectUtils;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.List;
 import java.util.Set;
 
@@ -23,38 +42,133 @@ import java.util.Set;
 @Slf4j
 public class WeatherMetricController {
 
+    /**
+     * Header carrying the cursor of the next page, absent on the last page
+     */
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private static final String STATISTIC_AVG = "avg";
-    private static final Set<String> ALLOWED_METRICS = Set.of("Temp", "Humidity", "WindSpeed");
+    private static final Set<String> ALLOWED_METRICS = MetricName.NAMES;
     private static final Set<String> ALLOWED_STATISTIC = Set.of("min", "max", "avg", "sum");
+    private static final String DEFAULT_HISTOGRAM_BINS = "10";
+    private static final int MAX_HISTOGRAM_BINS = 100;
+    private static final List<String> DEFAULT_SERIES_INTERVALS = List.of("1m", "1h", "1d");
 
     @Value("${latestByDays}")
     private long latestByDays;
+    @Value("${query.page-size:500}")
+    private int defaultPageSize;
+    @Value("${query.max-page-size:5000}")
+    private int maxPageSize;
+    @Value("${query.max-buckets:10000}")
+    private long maxBuckets;
+    @Value("${statistic.cache.now-rounding-seconds:10}")
+    private long nowRoundingSeconds;
     @Autowired
     WeatherMetricService weatherMetricService;
+    @Autowired
+    WeatherMetricIngestionService weatherMetricIngestionService;
+    @Autowired
+    WeatherMetricBulkIngestionService weatherMetricBulkIngestionService;
+    @Autowired
+    WeatherMetricStreamingService weatherMetricStreamingService;
+    @Autowired
+    StatisticSubscriptionService statisticSubscriptionService;
 
     /**
      * API to receives weather metrics data from various sensors
+     * With async ingestion enabled, success is returned once the metrics are queued, they are persisted in batches
      *
      * @param weatherMetricEntity - Weather metrics input
-     * @return - success
+     * @return - success, 429 if the ingestion queue is full
      */
     @PostMapping("/metric")
     public ResponseEntity<String> addWeatherMetric(@Validated @RequestBody WeatherMetricEntity weatherMetricEntity) {
-        log.info("Received weather metrics at: {}", weatherMetricEntity.getTimestamp());
-        WeatherMetricEntity addedResponse = weatherMetricService.saveMetric(weatherMetricEntity);
+        log.debug("Received weather metrics at: {}", weatherMetricEntity.getTimestamp());
+        weatherMetricIngestionService.ingest(weatherMetricEntity);
         return ResponseEntity.ok("Success");
     }
 
+    /**
+     * API to receives many weather metrics in one request, from a JSON array or a newline-delimited JSON stream.
+     * Readings are parsed and validated one at a time, invalid readings are rejected without failing the others.
+     *
+     * @param body - JSON array or NDJSON of weather metrics
+     * @return - number of accepted and rejected readings, with the reason per rejected reading
+     * @throws IOException if the body can not be read
+     */
+    @PostMapping(value = "/metric/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<BulkIngestResponse> addWeatherMetrics(InputStream body) throws IOException {
+        BulkIngestResponse response = weatherMetricBulkIngestionService.ingest(body);
+        log.debug("Bulk weather metrics accepted: {}, rejected: {}", response.getAccepted(), response.getRejected());
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * API to get all weather metrics data, You can fetch it for given sensors if not return all available metrics.
+     * Weather metrics are returned by page in the same body as before paging, the cursor of the next page is sent in the
+     * X-Next-Cursor header and as the next Link, pass it as cursor to fetch the next page.
      * @param sensorId list of sensor id
+     * @param cursor cursor of the page, first page if not given
+     * @param limit maximum number of weather metrics in the page
      * @return return Weather metrics
      */
     @GetMapping("/metric")
-    public ResponseEntity<WeatherMetricResponse> getAllMetrics(@Valid @RequestParam( required = false) List<String> sensorId) {
-        log.info("Request to received to get all weather metrics");
-        WeatherMetricResponse response =  weatherMetricService.getWeatherActualData(sensorId);
-        return ResponseEntity.ok(response);
+    public ResponseEntity<WeatherMetricResponse> getAllMetrics(@Valid @RequestParam( required = false) List<String> sensorId,
+                                                               @RequestParam(required = false) Long cursor,
+                                                               @RequestParam(required = false) Integer limit) {
+        log.debug("Request to received to get all weather metrics");
+        int pageSize = limit == null ? defaultPageSize : limit;
+        if (pageSize < 1 || pageSize > maxPageSize) {
+            throw new IllegalArgumentException("Invalid limit provided: " + limit + ", allowed 1 to " + maxPageSize);
+        }
+        WeatherMetricResponse response =  weatherMetricService.getWeatherActualData(sensorId, cursor, pageSize);
+        if (response.getNextCursor() == null) {
+            return ResponseEntity.ok(response);
+        }
+        String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                .replaceQueryParam("cursor", response.getNextCursor())
+                .replaceQueryParam("limit", pageSize)
+                .toUriString();
+        return ResponseEntity.ok()
+                .header(NEXT_CURSOR_HEADER, String.valueOf(response.getNextCursor()))
+                .header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"")
+                .body(response);
+    }
+
+    /**
+     * What is each sensor reading right now? Latest value of every metric of the given sensors, if not of all sensors.
+     * Answered from the latest readings kept in memory, the cost does not depend on the number of stored weather metrics.
+     * @param sensorId list of sensor id
+     * @param metricName Metric name, Temp, Humidity, WindSpeed
+     * @return latest reading per sensor and metric
+     */
+    @GetMapping("/metric/latest")
+    public ResponseEntity<List<SensorSnapshotModel>> getLatestMetrics(@Valid @RequestParam(required = false) List<String> sensorId,
+                                                                      @Valid @RequestParam(required = false) List<String> metricName) {
+        log.debug("Request to received to get latest weather metrics");
+        if (!ObjectUtils.isEmpty(metricName) && metricName.stream().anyMatch(m -> !ALLOWED_METRICS.contains(m))) {
+            throw new IllegalArgumentException("Invalid metric name(s) provided: " + metricName);
+        }
+        return ResponseEntity.ok(weatherMetricService.getLatestReadings(sensorId, metricName));
+    }
+
+    /**
+     * API to stream all weather metrics data, You can stream it for given sensors if not stream all available metrics.
+     * Weather metrics are written while they are read from the database, as JSON or as newline-delimited JSON if requested by Accept header.
+     * @param sensorId list of sensor id
+     * @param accept Accept header
+     * @return return Weather metrics stream
+     */
+    @GetMapping(value = "/metric/stream", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> streamAllMetrics(@Valid @RequestParam( required = false) List<String> sensorId,
+                                                                  @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        log.debug("Request to received to stream all weather metrics");
+        boolean ndjson = accept != null && accept.contains(MediaType.APPLICATION_NDJSON_VALUE);
+        StreamingResponseBody body = outputStream -> weatherMetricStreamingService.streamWeatherActualData(sensorId, outputStream, ndjson);
+        return ResponseEntity.ok()
+                .contentType(ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON)
+                .body(body);
     }
 
 
@@ -65,41 +179,160 @@ public class WeatherMetricController {
      * This method return the Weather statistics for all metrics grouped by sensor id,
      * It will also allow to filter the data based on matching metrics, sensorId
      * By default Avg statistic will be provided
-     * It will also accept the statistic ( min or max or sum or avg)
+     * It will also accept the statistic ( min or max or sum or avg or a percentile e.g p50, p95, p99), or several of them
+     * e.g statistic=min,max,avg which are calculated from the same query. Percentiles are estimated within 1% of the value.
      * Statistic will be calculated based on given date range (start date, end date) if no range input, default latest is by one week.
      * <p>
-     * Default latest value can be configured by the user at deployment time in application.yaml
+     * Default latest value can be configured by the user at deployment time in application.yaml.
+     * Without end date, the range ends at the next multiple of statistic.cache.now-rounding-seconds, so the result can be cached.
+     * <p>
+     * With an interval (e.g 1m, 1h, 1d) one statistic is returned per sensor and bucket of the interval, for charting.
+     * With maxPoints the buckets of each sensor and metric are downsampled to at most maxPoints, keeping peaks and troughs,
+     * without interval the finest of 1m, 1h, 1d within the bucket limit is used.
      *
      * @param metricName Metric name, Temp, Humidity, WindSpeed
      * @param sensorId - Sensor Id
-     * @param statistic - min, max, sum, avg
+     * @param statistic - min, max, sum, avg, pNN, one or more
      * @param startDate - Date from statistic will be calculated
      * @param endDate  - End Date, Till date statistic will be calculated
+     * @param interval - Bucket size, number followed by m, h or d
+     * @param maxPoints - Maximum number of buckets per sensor and metric, at least 3
      * @return - return list of statistics of Weather Metrics
      */
     @GetMapping("/metric/statistic")
     public ResponseEntity<List<WeatherMetricStatisticModel>> getStatistics(
             @Valid @RequestParam(required = false) List<String> metricName,
             @Valid @RequestParam( required = false) List<String> sensorId,
-            @Valid @RequestParam(required = false, defaultValue = STATISTIC_AVG) String statistic,
+            @Valid @RequestParam(required = false, defaultValue = STATISTIC_AVG) List<String> statistic,
             @Valid @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
-            @Valid @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate) {
+            @Valid @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate,
+            @RequestParam(required = false) String interval,
+            @RequestParam(required = false) Integer maxPoints) {
 
-        LocalDateTime start = startDate==null? LocalDateTime.now().minusDays(latestByDays):startDate;
-        LocalDateTime end = endDate==null?LocalDateTime.now():endDate;
-        log.info("Retrieving statistic , start date {} to end date {}", start, end);
+        LocalDateTime now = roundUpNow();
+        LocalDateTime start = startDate==null? now.minusDays(latestByDays):startDate;
+        LocalDateTime end = endDate==null?now:endDate;
+        log.debug("Retrieving statistic , start date {} to end date {}", start, end);
 
         if (!ObjectUtils.isEmpty(metricName) && metricName.stream().anyMatch(m -> !ALLOWED_METRICS.contains(m))) {
             throw new IllegalArgumentException("Invalid metric name(s) provided: " + metricName);
         }
 
-        if(!ALLOWED_STATISTIC.contains(statistic)) {
+        if(statistic.stream().anyMatch(s -> !ALLOWED_STATISTIC.contains(s) && !QuantileSketch.isQuantileStatistic(s))) {
             throw new IllegalArgumentException("Invalid statistic name(s) provided: " + statistic);
         }
 
-        List<WeatherMetricStatisticModel> allMetricStatistics = weatherMetricService.getAllMetricStatistics(metricName, sensorId, statistic, start, end);
+        List<String> statistics = statistic.stream().distinct().toList();
+        if (interval != null || maxPoints != null) {
+            return ResponseEntity.ok(getStatisticSeries(metricName, sensorId, statistics, start, end, interval, maxPoints));
+        }
+        List<WeatherMetricStatisticModel> allMetricStatistics = weatherMetricService.getAllMetricStatistics(metricName, sensorId, statistics, start, end);
         return ResponseEntity.ok(allMetricStatistics);
 
     }
 
+    /**
+     * Current time rounded up to the next multiple of nowRoundingSeconds
+     */
+    private LocalDateTime roundUpNow() {
+        LocalDateTime now = LocalDateTime.now();
+        if (nowRoundingSeconds <= 0) {
+            return now;
+        }
+        long epochSecond = now.toEpochSecond(ZoneOffset.UTC);
+        long rounded = Math.floorDiv(epochSecond, nowRoundingSeconds) * nowRoundingSeconds;
+        if (rounded < epochSecond || now.getNano() > 0) {
+            rounded += nowRoundingSeconds;
+        }
+        return LocalDateTime.ofEpochSecond(rounded, 0, ZoneOffset.UTC);
+    }
+
+    private List<WeatherMetricStatisticModel> getStatisticSeries(List<String> metricName, List<String> sensorId, List<String> statistics,
+                                                                 LocalDateTime start, LocalDateTime end, String interval, Integer maxPoints) {
+        if (statistics.stream().anyMatch(QuantileSketch::isQuantileStatistic)) {
+            throw new IllegalArgumentException("Percentile statistics are not supported with interval or maxPoints: " + statistics);
+        }
+        if (maxPoints != null && maxPoints < 3) {
+            throw new IllegalArgumentException("Invalid maxPoints provided: " + maxPoints + ", at least 3");
+        }
+        String seriesInterval = interval != null ? interval : DEFAULT_SERIES_INTERVALS.stream()
+                .filter(candidate -> MetricSeriesService.bucketCount(start, end, MetricSeriesService.parseInterval(candidate)) <= maxBuckets)
+                .findFirst()
+                .orElse(DEFAULT_SERIES_INTERVALS.get(DEFAULT_SERIES_INTERVALS.size() - 1));
+        Duration bucketSize = MetricSeriesService.parseInterval(seriesInterval);
+        if (MetricSeriesService.bucketCount(start, end, bucketSize) > maxBuckets) {
+            throw new IllegalArgumentException("Interval " + seriesInterval + " gives more than " + maxBuckets + " buckets, use a larger interval or a shorter range");
+        }
+        return weatherMetricService.getMetricStatisticSeries(metricName, sensorId, statistics, start, end, bucketSize, maxPoints);
+    }
+
+    /**
+     * Keep me posted of the average temperature of sensor 1 over the last hour.
+     * <p>
+     * This method subscribes to the statistics of a sliding window ending now, sent as Server-Sent Events named statistic.
+     * The current statistics are sent by the next push, then at most once per subscription.push-interval-ms when readings are saved
+     * or leave the window. Percentiles are not supported.
+     *
+     * @param metricName Metric name, Temp, Humidity, WindSpeed
+     * @param sensorId - Sensor Id
+     * @param statistic - min, max, sum, avg, one or more
+     * @param window - Length of the window, number followed by m, h or d, default and at most latestByDays days
+     * @return - event stream of lists of statistics of Weather Metrics, 429 if too many subscriptions are open
+     */
+    @GetMapping(value = "/metric/statistic/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeStatistics(@Valid @RequestParam(required = false) List<String> metricName,
+                                          @Valid @RequestParam(required = false) List<String> sensorId,
+                                          @Valid @RequestParam(required = false, defaultValue = STATISTIC_AVG) List<String> statistic,
+                                          @RequestParam(required = false) String window) {
+        log.debug("Request to received to subscribe to statistics, window {}", window);
+        if (!ObjectUtils.isEmpty(metricName) && metricName.stream().anyMatch(m -> !ALLOWED_METRICS.contains(m))) {
+            throw new IllegalArgumentException("Invalid metric name(s) provided: " + metricName);
+        }
+        if (statistic.stream().anyMatch(s -> !ALLOWED_STATISTIC.contains(s))) {
+            throw new IllegalArgumentException("Invalid statistic name(s) provided: " + statistic + ", percentiles are not supported");
+        }
+        Duration maxWindow = Duration.ofDays(latestByDays);
+        Duration windowSize = window == null ? maxWindow : MetricSeriesService.parseInterval(window);
+        if (windowSize.compareTo(maxWindow) > 0) {
+            throw new IllegalArgumentException("Invalid window provided: " + window + ", at most " + latestByDays + "d");
+        }
+        return statisticSubscriptionService.subscribe(sensorId, metricName, statistic.stream().distinct().toList(), windowSize);
+    }
+
+    /**
+     * Give me the distribution of temperature for sensor 1 in the last week.
+     * <p>
+     * This method return a histogram per sensor and metric, with bins of equal width between the min and max of the range.
+     * Date range and defaults are the same as for the statistics
+     *
+     * @param metricName Metric name, Temp, Humidity, WindSpeed
+     * @param sensorId - Sensor Id
+     * @param bins - Number of bins, 1 to 100
+     * @param startDate - Date from histogram will be calculated
+     * @param endDate  - End Date, Till date histogram will be calculated
+     * @return - return list of histograms of Weather Metrics
+     */
+    @GetMapping("/metric/histogram")
+    public ResponseEntity<List<MetricHistogramModel>> getHistograms(
+            @Valid @RequestParam(required = false) List<String> metricName,
+            @Valid @RequestParam( required = false) List<String> sensorId,
+            @RequestParam(required = false, defaultValue = DEFAULT_HISTOGRAM_BINS) int bins,
+            @Valid @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
+            @Valid @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate) {
+
+        LocalDateTime start = startDate==null? LocalDateTime.now().minusDays(latestByDays):startDate;
+        LocalDateTime end = endDate==null?LocalDateTime.now():endDate;
+        log.debug("Retrieving histogram , start date {} to end date {}", start, end);
+
+        if (!ObjectUtils.isEmpty(metricName) && metricName.stream().anyMatch(m -> !ALLOWED_METRICS.contains(m))) {
+            throw new IllegalArgumentException("Invalid metric name(s) provided: " + metricName);
+        }
+
+        if (bins < 1 || bins > MAX_HISTOGRAM_BINS) {
+            throw new IllegalArgumentException("Invalid bins provided: " + bins + ", allowed 1 to " + MAX_HISTOGRAM_BINS);
+        }
+
+        return ResponseEntity.ok(weatherMetricService.getMetricHistograms(metricName, sensorId, bins, start, end));
+    }
+
 }
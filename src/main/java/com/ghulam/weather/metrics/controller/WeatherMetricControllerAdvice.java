@@ -1,5 +1,7 @@
 package com.ghulam.weather.metrics.controller;
 
+import com.ghulam.weather.metrics.exception.IngestionRejectedException;
+import com.ghulam.weather.metrics.exception.SubscriptionRejectedException;
 import com.ghulam.weather.metrics.exception.WeatherMetricException;
 import jakarta.validation.ConstraintViolationException;
 import lombok.extern.slf4j.Slf4j;
@@ -54,5 +56,17 @@ public class WeatherMetricControllerAdvice {
 
     }
 
+    @ExceptionHandler(IngestionRejectedException.class)
+    ResponseEntity<Object> handleIngestionRejected(IngestionRejectedException e) {
+        return new ResponseEntity<>(Map.of("error", e.getMessage()), HttpStatus.TOO_MANY_REQUESTS);
+
+    }
+
+    @ExceptionHandler(SubscriptionRejectedException.class)
+    ResponseEntity<Object> handleSubscriptionRejected(SubscriptionRejectedException e) {
+        return new ResponseEntity<>(Map.of("error", e.getMessage()), HttpStatus.TOO_MANY_REQUESTS);
+
+    }
+
 
 }
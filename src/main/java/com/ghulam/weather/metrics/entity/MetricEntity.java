@@ -18,20 +18,22 @@ import org.springframework.validation.annotation.Validated;
 public class MetricEntity {
 
     /**
-     * Primary key, auto generated
+     * Primary key, generated from a pooled sequence so Hibernate can batch the inserts
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "metric_seq")
+    @SequenceGenerator(name = "metric_seq", sequenceName = "metric_seq", allocationSize = 50)
     @JsonIgnore
     private Long id;
 
     /**
-     * metric name, what will be Temp, Humidity and WindSpeed
+     * metric name, what will be Temp, Humidity and WindSpeed, stored as the code of the {@link com.ghulam.weather.metrics.model.MetricName}
      */
     @Pattern(regexp = "Temp|Humidity|WindSpeed", message = "metricName must be either 'Temp' or 'Humidity' or WindSpeed")
     @NotNull(message = "metricName cannot be null")
     @NotEmpty(message = "metricName cannot be empty")
     @Column(name = "metric_name")
+    @Convert(converter = MetricNameConverter.class)
     private String metricName;
 
     /**
@@ -0,0 +1,23 @@
+package com.ghulam.weather.metrics.entity;
+
+import com.ghulam.weather.metrics.model.MetricName;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * Metric names are stored as the small code of their {@link MetricName}. Query parameters that are not metric names
+ * are converted to {@link MetricName#UNKNOWN} and match nothing.
+ */
+@Converter
+public class MetricNameConverter implements AttributeConverter<String, Short> {
+
+    @Override
+    public Short convertToDatabaseColumn(String metricName) {
+        return metricName == null ? null : (short) MetricName.codeOf(metricName);
+    }
+
+    @Override
+    public String convertToEntityAttribute(Short code) {
+        return code == null ? null : MetricName.nameOf(code);
+    }
+}
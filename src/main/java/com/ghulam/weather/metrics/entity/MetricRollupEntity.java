@@ -0,0 +1,73 @@
+package com.ghulam.weather.metrics.entity;
+
+import com.ghulam.weather.metrics.model.RollupGranularity;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Pre-aggregated count, sum, min and max of a metric of a sensor for one bucket (minute, hour or day),
+ * maintained incrementally when weather metrics are saved.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity(name = "metric_rollup")
+@IdClass(MetricRollupId.class)
+public class MetricRollupEntity {
+
+    /**
+     * Sensor identifier that is capturing weather metrics
+     */
+    @Id
+    @Column(name = "sensor_id")
+    private String sensorId;
+
+    /**
+     * metric name, what will be Temp, Humidity and WindSpeed
+     */
+    @Id
+    @Column(name = "metric_name")
+    private String metricName;
+
+    /**
+     * Bucket size, minute, hour or day
+     */
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(name = "granularity", length = 16)
+    private RollupGranularity granularity;
+
+    /**
+     * Start of the bucket, the bucket ends where next bucket starts
+     */
+    @Id
+    @Column(name = "bucket_start")
+    private LocalDateTime bucketStart;
+
+    /**
+     * Number of readings in the bucket
+     */
+    @Column(name = "reading_count")
+    private long count;
+
+    /**
+     * Sum of the values in the bucket
+     */
+    @Column(name = "value_sum")
+    private double sum;
+
+    /**
+     * Minimum value in the bucket
+     */
+    @Column(name = "value_min")
+    private double min;
+
+    /**
+     * Maximum value in the bucket
+     */
+    @Column(name = "value_max")
+    private double max;
+}
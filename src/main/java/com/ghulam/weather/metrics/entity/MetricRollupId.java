@@ -0,0 +1,26 @@
+package com.ghulam.weather.metrics.entity;
+
+import com.ghulam.weather.metrics.model.RollupGranularity;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Primary key of a rollup, one rollup per sensor, metric name and bucket
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MetricRollupId implements Serializable {
+
+    private String sensorId;
+
+    private String metricName;
+
+    private RollupGranularity granularity;
+
+    private LocalDateTime bucketStart;
+}
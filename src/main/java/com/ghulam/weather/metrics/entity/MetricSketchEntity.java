@@ -0,0 +1,55 @@
+package com.ghulam.weather.metrics.entity;
+
+import com.ghulam.weather.metrics.model.RollupGranularity;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Quantile sketch of the values of a metric of a sensor for one bucket (hour or day),
+ * maintained incrementally when weather metrics are saved. Same key as the rollup of the bucket.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity(name = "metric_sketch")
+@IdClass(MetricRollupId.class)
+public class MetricSketchEntity {
+
+    /**
+     * Sensor identifier that is capturing weather metrics
+     */
+    @Id
+    @Column(name = "sensor_id")
+    private String sensorId;
+
+    /**
+     * metric name, what will be Temp, Humidity and WindSpeed
+     */
+    @Id
+    @Column(name = "metric_name")
+    private String metricName;
+
+    /**
+     * Bucket size, hour or day
+     */
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(name = "granularity", length = 16)
+    private RollupGranularity granularity;
+
+    /**
+     * Start of the bucket, the bucket ends where next bucket starts
+     */
+    @Id
+    @Column(name = "bucket_start")
+    private LocalDateTime bucketStart;
+
+    /**
+     * Encoded {@link com.ghulam.weather.metrics.statistic.QuantileSketch}, at most 2 * 1024 bins of 12 bytes
+     */
+    @Column(name = "sketch", length = 32768)
+    private byte[] sketch;
+}
@@ -0,0 +1,33 @@
+package com.ghulam.weather.metrics.entity;
+
+import com.ghulam.weather.metrics.store.SensorRegistry;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sensor ids are stored as the integer key the {@link SensorRegistry} assigned them. Sensors must be registered before
+ * their readings are written, query parameters of unknown sensors are converted to {@link SensorRegistry#UNKNOWN} and match nothing.
+ */
+@Component
+@Converter
+public class SensorIdConverter implements AttributeConverter<String, Integer> {
+
+    private final SensorRegistry sensorRegistry;
+
+    @Autowired
+    public SensorIdConverter(SensorRegistry sensorRegistry) {
+        this.sensorRegistry = sensorRegistry;
+    }
+
+    @Override
+    public Integer convertToDatabaseColumn(String sensorId) {
+        return sensorId == null ? null : sensorRegistry.findKey(sensorId);
+    }
+
+    @Override
+    public String convertToEntityAttribute(Integer key) {
+        return key == null ? null : sensorRegistry.getSensorId(key);
+    }
+}
@@ -0,0 +1,26 @@
+package com.ghulam.weather.metrics.entity;
+
+import com.ghulam.weather.metrics.store.SensorRegistry;
+import jakarta.persistence.PrePersist;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Register the sensor of a weather metric before it is inserted, for weather metrics saved without
+ * {@link com.ghulam.weather.metrics.service.WeatherMetricService} which registers them before its transaction
+ */
+@Component
+public class SensorRegistrationListener {
+
+    private final SensorRegistry sensorRegistry;
+
+    @Autowired
+    public SensorRegistrationListener(SensorRegistry sensorRegistry) {
+        this.sensorRegistry = sensorRegistry;
+    }
+
+    @PrePersist
+    public void register(WeatherMetricEntity weatherMetric) {
+        sensorRegistry.register(weatherMetric.getSensorId());
+    }
+}
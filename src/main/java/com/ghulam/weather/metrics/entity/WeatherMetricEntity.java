@@ -7,12 +7,14 @@ import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
 import lombok.*;
+import org.hibernate.annotations.BatchSize;
 import org.springframework.format.annotation.DateTimeFormat;
 import java.time.LocalDateTime;
 import java.util.List;
 
 
 @Entity(name = "weather_metric")
+@EntityListeners(SensorRegistrationListener.class)
 @Builder
 @Data
 @NoArgsConstructor
@@ -20,20 +22,22 @@ import java.util.List;
 public class WeatherMetricEntity {
 
     /**
-     * Unique identifier for the metric. Auto-generated.
+     * Unique identifier for the metric. Generated from a pooled sequence so Hibernate can batch the inserts.
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "weather_metric_seq")
+    @SequenceGenerator(name = "weather_metric_seq", sequenceName = "weather_metric_seq", allocationSize = 50)
     @JsonIgnore
     private Long id;
 
     /**
-     * Sensor identifier that is capturing weather metrics
+     * Sensor identifier that is capturing weather metrics, stored as the key of the sensor
      */
     @NotNull(message = "Sensor ID cannot be null")
     @NotEmpty(message = "Sensor ID cannot be empty")
     @Valid
     @Column(name = "sensor_id", nullable = false)
+    @Convert(converter = SensorIdConverter.class)
     private String sensorId;
 
     /**
@@ -47,12 +51,14 @@ public class WeatherMetricEntity {
 
 
     /**
-     * List of metrics per sensor id, It will be one-to-many relationship with child table and it will Eager fetch, get deleted if sensor data deleted
+     * List of metrics per sensor id, It will be one-to-many relationship with child table, get deleted if sensor data deleted.
+     * Loaded lazily, the repository queries fetch it with JOIN FETCH, other loads fetch the metrics of up to 500 weather metrics per statement
      */
     @NotNull(message = "Metrics list cannot be null")
     @Size(min = 1, message = "Metrics list must have at least one metric")
-    @OneToMany(fetch = FetchType.EAGER, cascade = CascadeType.ALL)
-    @JoinColumn(name = "sensor_id")
+    @OneToMany(fetch = FetchType.LAZY, cascade = CascadeType.ALL)
+    @BatchSize(size = 500)
+    @JoinColumn(name = "weather_metric_id")
     List<MetricEntity> metrics;
 
 }
\ No newline at end of file
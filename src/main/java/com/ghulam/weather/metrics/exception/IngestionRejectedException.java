@@ -0,0 +1,12 @@
+package com.ghulam.weather.metrics.exception;
+
+/**
+ * Thrown when the ingestion queue is full and the weather metric can not be accepted,
+ * client is expected to retry later (HTTP 429)
+ */
+public class IngestionRejectedException extends WeatherMetricException {
+
+    public IngestionRejectedException(String errorMessage) {
+        super("INGESTION_REJECTED", errorMessage);
+    }
+}
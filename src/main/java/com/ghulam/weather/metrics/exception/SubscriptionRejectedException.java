@@ -0,0 +1,12 @@
+package com.ghulam.weather.metrics.exception;
+
+/**
+ * Thrown when the maximum number of live statistic subscriptions is reached,
+ * client is expected to retry later (HTTP 429)
+ */
+public class SubscriptionRejectedException extends WeatherMetricException {
+
+    public SubscriptionRejectedException(String errorMessage) {
+        super("SUBSCRIPTION_REJECTED", errorMessage);
+    }
+}
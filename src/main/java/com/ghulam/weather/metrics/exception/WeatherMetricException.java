@@ -6,20 +6,20 @@ public class WeatherMetricException extends RuntimeException{
     private String errorMessage;
 
     public WeatherMetricException(Throwable cause, String errorCode, String errorMessage) {
-        super(cause);
+        super(errorMessage, cause);
         this.errorCode = errorCode;
         this.errorMessage = errorMessage;
     }
 
 
     public WeatherMetricException(String errorCode, String errorMessage) {
-        super();
+        super(errorMessage);
         this.errorCode = errorCode;
         this.errorMessage = errorMessage;
     }
 
     public WeatherMetricException(String errorMessage) {
-        super();
+        super(errorMessage);
         this.errorMessage = errorMessage;
     }
 
@@ -0,0 +1,393 @@
+package com.ghulam.weather.metrics.ingest;
+
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.service.WeatherMetricIngestionService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Listener of the {@link BinaryRecordCodec binary records} of sensor gateways, over TCP and UDP, next to the REST API.
+ * <p>
+ * One selector thread reads the connections and datagrams into direct buffers and decodes the records in place. The decoded
+ * weather metrics are handed over in batches of up to ingest.batch-size, from every read of a select, to a persister thread that
+ * validates them like the request bodies of POST /metric and passes them to {@link WeatherMetricIngestionService}, so the
+ * selector thread never waits for an insert. When ingest.binary.pending-batches are waiting for the persister, or the ingestion
+ * queue has no space for the next batch, the selector stops reading until there is: TCP flow control slows the gateways down
+ * and datagrams are dropped by the system.
+ * <p>
+ * Nothing is sent back, accepted and rejected records are counted. A TCP connection sending an invalid length prefix is closed,
+ * a datagram holds whole records and its invalid or truncated records are rejected.
+ */
+@Component
+@Slf4j
+public class BinaryIngestServer implements SmartLifecycle, MeterBinder {
+
+    /**
+     * Port of a transport that is not listened on
+     */
+    public static final int DISABLED = -1;
+
+    private static final long SELECT_TIMEOUT_MS = 500;
+    private static final long PAUSED_SELECT_TIMEOUT_MS = 20;
+    private static final int MAX_DATAGRAM_BYTES = 65507;
+
+    private final WeatherMetricIngestionService weatherMetricIngestionService;
+    private final Validator validator;
+    private final boolean enabled;
+    private final String host;
+    private final int tcpPort;
+    private final int udpPort;
+    private final int maxRecordBytes;
+    private final int bufferBytes;
+    private final int batchSize;
+    private final Semaphore batchPermits;
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+
+    private Selector selector;
+    private ServerSocketChannel tcpChannel;
+    private DatagramChannel udpChannel;
+    private ByteBuffer datagramBuffer;
+    private BinaryRecordCodec codec;
+    private List<WeatherMetricEntity> batch;
+    private boolean paused;
+    private volatile boolean running;
+    private Thread selectorThread;
+    private ExecutorService persister;
+
+    @Autowired
+    public BinaryIngestServer(WeatherMetricIngestionService weatherMetricIngestionService,
+                              Validator validator,
+                              @Value("${ingest.binary.enabled:false}") boolean enabled,
+                              @Value("${ingest.binary.host:0.0.0.0}") String host,
+                              @Value("${ingest.binary.tcp-port:9300}") int tcpPort,
+                              @Value("${ingest.binary.udp-port:9301}") int udpPort,
+                              @Value("${ingest.binary.max-record-bytes:4096}") int maxRecordBytes,
+                              @Value("${ingest.binary.buffer-bytes:65536}") int bufferBytes,
+                              @Value("${ingest.binary.pending-batches:4}") int pendingBatches,
+                              @Value("${ingest.batch-size:500}") int batchSize) {
+        if (bufferBytes < BinaryRecordCodec.LENGTH_BYTES + maxRecordBytes) {
+            throw new IllegalArgumentException("ingest.binary.buffer-bytes must hold a record of ingest.binary.max-record-bytes");
+        }
+        this.weatherMetricIngestionService = weatherMetricIngestionService;
+        this.validator = validator;
+        this.enabled = enabled;
+        this.host = host;
+        this.tcpPort = tcpPort;
+        this.udpPort = udpPort;
+        this.maxRecordBytes = maxRecordBytes;
+        this.bufferBytes = bufferBytes;
+        this.batchSize = batchSize;
+        this.batchPermits = new Semaphore(pendingBatches);
+    }
+
+    /**
+     * Port the TCP listener is bound to, to find the port chosen by the system for port 0
+     * @return local port, {@link #DISABLED} if TCP is not listened on
+     */
+    public int getTcpPort() {
+        return tcpChannel == null ? DISABLED : tcpChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Port the UDP listener is bound to, to find the port chosen by the system for port 0
+     * @return local port, {@link #DISABLED} if UDP is not listened on
+     */
+    public int getUdpPort() {
+        return udpChannel == null ? DISABLED : udpChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("weather.ingest.binary.records", accepted, AtomicLong::get)
+                .description("Binary records received").tag("result", "accepted").register(registry);
+        FunctionCounter.builder("weather.ingest.binary.records", rejected, AtomicLong::get)
+                .description("Binary records received").tag("result", "rejected").register(registry);
+        Gauge.builder("weather.ingest.binary.connections", connections, AtomicLong::get)
+                .description("Open TCP connections of the binary listener").register(registry);
+    }
+
+    private void serve() {
+        while (running) {
+            try {
+                selector.select(paused ? PAUSED_SELECT_TIMEOUT_MS : SELECT_TIMEOUT_MS);
+                if (paused) {
+                    resume();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (paused) {
+                        // read once resumed, the key is selected again
+                        continue;
+                    } else if (key.channel() == udpChannel) {
+                        receive();
+                    } else {
+                        read(key);
+                    }
+                }
+                flush();
+            } catch (IOException | RuntimeException e) {
+                log.error("Binary ingest listener failed, records of the current batch are dropped", e);
+                rejected.addAndGet(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = tcpChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.register(selector, paused ? 0 : SelectionKey.OP_READ, ByteBuffer.allocateDirect(bufferBytes));
+        connections.incrementAndGet();
+        log.debug("Binary ingest connection from {}", channel.getRemoteAddress());
+    }
+
+    private void read(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+        try {
+            int read = channel.read(buffer);
+            buffer.flip();
+            decode(buffer);
+            buffer.compact();
+            if (read < 0) {
+                if (buffer.position() > 0) {
+                    // truncated last record
+                    rejected.incrementAndGet();
+                }
+                close(key);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.debug("Closing binary ingest connection", e);
+            rejected.incrementAndGet();
+            close(key);
+        }
+    }
+
+    private void receive() throws IOException {
+        while (!paused && udpChannel.receive(datagramBuffer) != null) {
+            datagramBuffer.flip();
+            try {
+                decode(datagramBuffer);
+                if (datagramBuffer.hasRemaining()) {
+                    rejected.incrementAndGet();
+                }
+            } catch (IllegalArgumentException e) {
+                log.debug("Dropping the rest of a binary ingest datagram", e);
+                rejected.incrementAndGet();
+            }
+            datagramBuffer.clear();
+        }
+    }
+
+    private void decode(ByteBuffer buffer) {
+        rejected.addAndGet(codec.decode(buffer, batch));
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Hand the decoded weather metrics over to the persister, stop reading if it or the ingestion queue has no space for them
+     */
+    private void flush() {
+        if (batch.isEmpty() || paused) {
+            return;
+        }
+        if (!weatherMetricIngestionService.canAccept(batch.size()) || !batchPermits.tryAcquire()) {
+            pause();
+            return;
+        }
+        List<WeatherMetricEntity> decoded = batch;
+        batch = new ArrayList<>(batchSize);
+        persister.execute(() -> {
+            try {
+                persist(decoded);
+            } finally {
+                batchPermits.release();
+                selector.wakeup();
+            }
+        });
+    }
+
+    /**
+     * Stop reading the connections and datagrams, the records already read stay in the batch
+     */
+    private void pause() {
+        paused = true;
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.channel() != tcpChannel) {
+                key.interestOps(0);
+            }
+        }
+    }
+
+    /**
+     * Read again and hand the batch over once the persister and the ingestion queue have space for it
+     */
+    private void resume() {
+        if (batchPermits.availablePermits() == 0 || !weatherMetricIngestionService.canAccept(batch.size())) {
+            return;
+        }
+        paused = false;
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.channel() != tcpChannel) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Validate the decoded weather metrics and pass the valid ones to the ingestion, on the persister thread
+     */
+    private void persist(List<WeatherMetricEntity> decoded) {
+        try {
+            List<WeatherMetricEntity> valid = new ArrayList<>(decoded.size());
+            for (WeatherMetricEntity weatherMetric : decoded) {
+                if (validator.validate(weatherMetric).isEmpty()) {
+                    valid.add(weatherMetric);
+                }
+            }
+            long notAccepted = valid.isEmpty() ? 0 : weatherMetricIngestionService.ingestBatch(valid).size();
+            accepted.addAndGet(valid.size() - notAccepted);
+            rejected.addAndGet(decoded.size() - valid.size() + notAccepted);
+        } catch (RuntimeException e) {
+            log.error("Binary ingest of {} records failed, they are dropped", decoded.size(), e);
+            rejected.addAndGet(decoded.size());
+        }
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            log.debug("Failed to close binary ingest connection", e);
+        }
+        connections.decrementAndGet();
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            selector = Selector.open();
+            if (tcpPort != DISABLED) {
+                tcpChannel = ServerSocketChannel.open();
+                tcpChannel.bind(new InetSocketAddress(host, tcpPort));
+                tcpChannel.configureBlocking(false);
+                tcpChannel.register(selector, SelectionKey.OP_ACCEPT);
+            }
+            if (udpPort != DISABLED) {
+                udpChannel = DatagramChannel.open(StandardProtocolFamily.INET);
+                udpChannel.bind(new InetSocketAddress(host, udpPort));
+                udpChannel.configureBlocking(false);
+                udpChannel.register(selector, SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open the binary ingest listener", e);
+        }
+        datagramBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_BYTES);
+        codec = new BinaryRecordCodec(maxRecordBytes);
+        batch = new ArrayList<>(batchSize);
+        paused = false;
+        persister = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "weather-metric-binary-persist"));
+        running = true;
+        selectorThread = new Thread(this::serve, "weather-metric-binary-ingest");
+        selectorThread.start();
+        log.info("Binary ingest listening on TCP port {} and UDP port {}", getTcpPort(), getUdpPort());
+    }
+
+    @Override
+    public void stop() {
+        if (selectorThread == null) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        selectorThread = null;
+        // records read while paused, the ingestion stops after this listener
+        if (!batch.isEmpty()) {
+            List<WeatherMetricEntity> decoded = batch;
+            batch = new ArrayList<>(batchSize);
+            persister.execute(() -> persist(decoded));
+        }
+        persister.shutdown();
+        try {
+            persister.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        persister = null;
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                log.debug("Failed to close binary ingest channel", e);
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.debug("Failed to close binary ingest selector", e);
+        }
+        tcpChannel = null;
+        udpChannel = null;
+        connections.set(0);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stop before the ingestion queue is flushed on shutdown, start after it
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 2048;
+    }
+}
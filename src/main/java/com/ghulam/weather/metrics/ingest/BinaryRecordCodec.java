@@ -0,0 +1,182 @@
+package com.ghulam.weather.metrics.ingest;
+
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.MetricName;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary format of weather metrics, for sensor gateways sending at high rate. Big-endian, one record per reading:
+ * <pre>
+ * int32   length of the rest of the record
+ * uint8   length of the sensor id, then the sensor id in UTF-8
+ * int64   timestamp, epoch milliseconds UTC
+ * uint8   number of metrics, then per metric:
+ *   uint8   code of the {@link MetricName}
+ *   float64 value
+ * </pre>
+ * Records are decoded straight from the buffer, heap or direct, without copying it or parsing text. Sensor ids are looked up by
+ * their bytes in a cache of the decoded ids, a known sensor costs no String. Not thread safe, use one codec per thread.
+ */
+public class BinaryRecordCodec {
+
+    public static final int LENGTH_BYTES = Integer.BYTES;
+    public static final int MAX_SENSOR_ID_BYTES = 255;
+    public static final int MAX_METRICS = 255;
+
+    private static final int METRIC_BYTES = Byte.BYTES + Double.BYTES;
+    private static final int MIN_RECORD_BYTES = Byte.BYTES + Long.BYTES + Byte.BYTES;
+    private static final int SENSOR_CACHE_SIZE = 4096;
+    private static final int MAX_PROBES = 8;
+
+    private final int maxRecordBytes;
+    private final byte[][] cachedSensorIdBytes = new byte[SENSOR_CACHE_SIZE][];
+    private final String[] cachedSensorIds = new String[SENSOR_CACHE_SIZE];
+
+    /**
+     * @param maxRecordBytes - largest record accepted, length prefix excluded
+     */
+    public BinaryRecordCodec(int maxRecordBytes) {
+        if (maxRecordBytes < MIN_RECORD_BYTES) {
+            throw new IllegalArgumentException("Invalid maximum record size provided: " + maxRecordBytes);
+        }
+        this.maxRecordBytes = maxRecordBytes;
+    }
+
+    /**
+     * Decode the complete records from the position of the buffer, the position is left at the start of the first incomplete record.
+     * A record that is not valid in the format, e.g. with an unknown metric code or a NaN or infinite value, is skipped.
+     * @param buffer - buffer in read mode
+     * @param weatherMetrics - where the decoded weather metrics are added
+     * @return number of records skipped
+     * @throws IllegalArgumentException if a length prefix is out of range, the following records can not be found
+     */
+    public int decode(ByteBuffer buffer, List<WeatherMetricEntity> weatherMetrics) {
+        int skipped = 0;
+        while (buffer.remaining() >= LENGTH_BYTES) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length < MIN_RECORD_BYTES || length > maxRecordBytes) {
+                throw new IllegalArgumentException("Invalid record length " + length + ", allowed " + MIN_RECORD_BYTES + " to " + maxRecordBytes);
+            }
+            if (buffer.remaining() < LENGTH_BYTES + length) {
+                break;
+            }
+            int end = start + LENGTH_BYTES + length;
+            WeatherMetricEntity weatherMetric = decodeRecord(buffer, start + LENGTH_BYTES, end);
+            if (weatherMetric == null) {
+                skipped++;
+            } else {
+                weatherMetrics.add(weatherMetric);
+            }
+            buffer.position(end);
+        }
+        return skipped;
+    }
+
+    /**
+     * Record between the offsets, null if its content does not match its length, has an unknown metric code or a value that is not finite
+     */
+    private WeatherMetricEntity decodeRecord(ByteBuffer buffer, int offset, int end) {
+        int sensorIdLength = buffer.get(offset) & 0xFF;
+        int timestampOffset = offset + Byte.BYTES + sensorIdLength;
+        if (timestampOffset + Long.BYTES + Byte.BYTES > end) {
+            return null;
+        }
+        long epochMillis = buffer.getLong(timestampOffset);
+        int count = buffer.get(timestampOffset + Long.BYTES) & 0xFF;
+        int metricOffset = timestampOffset + Long.BYTES + Byte.BYTES;
+        if (metricOffset + count * METRIC_BYTES != end) {
+            return null;
+        }
+        List<MetricEntity> metrics = new ArrayList<>(count);
+        for (int i = 0; i < count; i++, metricOffset += METRIC_BYTES) {
+            int code = buffer.get(metricOffset) & 0xFF;
+            if (code >= MetricName.count()) {
+                return null;
+            }
+            double value = buffer.getDouble(metricOffset + Byte.BYTES);
+            if (!Double.isFinite(value)) {
+                return null;
+            }
+            metrics.add(MetricEntity.builder().metricName(MetricName.nameOf(code)).metricValue(value).build());
+        }
+        return WeatherMetricEntity.builder()
+                .sensorId(sensorId(buffer, offset + Byte.BYTES, sensorIdLength))
+                .timestamp(LocalDateTime.ofEpochSecond(Math.floorDiv(epochMillis, 1000), (int) Math.floorMod(epochMillis, 1000) * 1_000_000, ZoneOffset.UTC))
+                .metrics(metrics).build();
+    }
+
+    /**
+     * Sensor id of the bytes, the cached instance if the sensor was decoded before
+     */
+    private String sensorId(ByteBuffer buffer, int offset, int length) {
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + buffer.get(offset + i);
+        }
+        int slot = hash & (SENSOR_CACHE_SIZE - 1);
+        for (int probe = 0; probe < MAX_PROBES; probe++, slot = (slot + 1) & (SENSOR_CACHE_SIZE - 1)) {
+            byte[] cached = cachedSensorIdBytes[slot];
+            if (cached == null) {
+                byte[] bytes = new byte[length];
+                buffer.get(offset, bytes);
+                cachedSensorIdBytes[slot] = bytes;
+                cachedSensorIds[slot] = new String(bytes, StandardCharsets.UTF_8);
+                return cachedSensorIds[slot];
+            }
+            if (matches(cached, buffer, offset, length)) {
+                return cachedSensorIds[slot];
+            }
+        }
+        // crowded slots, not cached
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean matches(byte[] cached, ByteBuffer buffer, int offset, int length) {
+        if (cached.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (cached[i] != buffer.get(offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encode the weather metric at the position of the buffer, for gateways and load generators. Units are not encoded.
+     * @param weatherMetric - weather metric with known metric names
+     * @param buffer - buffer in write mode
+     * @throws IllegalArgumentException if the sensor id, a metric name or the number of metrics can not be encoded
+     * @throws BufferOverflowException if the record does not fit in the buffer
+     */
+    public static void encode(WeatherMetricEntity weatherMetric, ByteBuffer buffer) {
+        byte[] sensorId = weatherMetric.getSensorId().getBytes(StandardCharsets.UTF_8);
+        List<MetricEntity> metrics = weatherMetric.getMetrics();
+        if (sensorId.length > MAX_SENSOR_ID_BYTES || metrics.size() > MAX_METRICS) {
+            throw new IllegalArgumentException("Sensor id or metrics too long to encode: " + weatherMetric.getSensorId());
+        }
+        buffer.putInt(MIN_RECORD_BYTES + sensorId.length + metrics.size() * METRIC_BYTES);
+        buffer.put((byte) sensorId.length).put(sensorId);
+        buffer.putLong(weatherMetric.getTimestamp().toInstant(ZoneOffset.UTC).toEpochMilli());
+        buffer.put((byte) metrics.size());
+        for (MetricEntity metric : metrics) {
+            int code = MetricName.codeOf(metric.getMetricName());
+            if (code == MetricName.UNKNOWN) {
+                throw new IllegalArgumentException("Unknown metric name: " + metric.getMetricName());
+            }
+            buffer.put((byte) code).putDouble(metric.getMetricValue());
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.ghulam.weather.metrics.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Alert rule starting or stopping to fire for one sensor
+ */
+@Data
+@Builder
+public class AlertEventModel {
+
+    public enum State { FIRING, RESOLVED }
+
+    /**
+     * Name of the alert rule
+     */
+    private String ruleName;
+
+    private State state;
+
+    /**
+     * Sensor identifier of the reading that changed the state
+     */
+    private String sensorId;
+
+    private String metricName;
+
+    /**
+     * Value of the reading that changed the state
+     */
+    private double metricValue;
+
+    /**
+     * Timestamp of the reading that changed the state
+     */
+    private LocalDateTime timestamp;
+
+    /**
+     * Human readable description, e.g "Temp 41.0 > 40.0 since 2024-12-13T20:45"
+     */
+    private String message;
+}
@@ -0,0 +1,43 @@
+package com.ghulam.weather.metrics.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Summary of a bulk ingestion, number of accepted and rejected readings with the reason per rejected reading
+ */
+@Data
+@Builder
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class BulkIngestResponse {
+
+    /**
+     * Number of readings accepted
+     */
+    private long accepted;
+
+    /**
+     * Number of readings rejected
+     */
+    private long rejected;
+
+    /**
+     * Rejected readings with the reason, limited to the first rejected readings
+     */
+    private List<RecordError> errors;
+
+    /**
+     * Rejected reading, index is the zero based position of the reading in the request body
+     */
+    @Data
+    @Builder
+    public static class RecordError {
+
+        private long index;
+
+        private List<String> messages;
+    }
+}
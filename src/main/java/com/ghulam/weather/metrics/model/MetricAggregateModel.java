@@ -0,0 +1,111 @@
+package com.ghulam.weather.metrics.model;
+
+import com.ghulam.weather.metrics.statistic.QuantileSketch;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Aggregated values of one metric for one sensor over a date range.
+ * Rows are produced directly by the database (GROUP BY sensor_id, metric_name), so only
+ * the result rows are transferred instead of every reading in the range.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MetricAggregateModel {
+
+    /**
+     * Sensor identifier that is capturing weather metrics
+     */
+    private String sensorId;
+
+    /**
+     * metric name, what will be Temp, Humidity and WindSpeed
+     */
+    private String metricName;
+
+    /**
+     * Earliest timestamp of the aggregated readings
+     */
+    private LocalDateTime timestamp;
+
+    /**
+     * Number of aggregated readings
+     */
+    private long count;
+
+    /**
+     * Minimum value of the metric
+     */
+    private double min;
+
+    /**
+     * Maximum value of the metric
+     */
+    private double max;
+
+    /**
+     * Sum of all values of the metric
+     */
+    private double sum;
+
+    /**
+     * Quantile sketch of the aggregated readings, only set when a quantile statistic is requested
+     */
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private QuantileSketch sketch;
+
+    /**
+     * Aggregate without sketch, used by the database queries
+     */
+    public MetricAggregateModel(String sensorId, String metricName, LocalDateTime timestamp, long count, double min, double max, double sum) {
+        this(sensorId, metricName, timestamp, count, min, max, sum, null);
+    }
+
+    /**
+     * Merge another aggregate of the same sensor and metric into this one
+     * @param other - aggregate of another range
+     * @return this aggregate
+     */
+    public MetricAggregateModel merge(MetricAggregateModel other) {
+        if (other.count == 0) {
+            return this;
+        }
+        if (count == 0) {
+            min = other.min;
+            max = other.max;
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        if (timestamp == null || (other.timestamp != null && other.timestamp.isBefore(timestamp))) {
+            timestamp = other.timestamp;
+        }
+        count += other.count;
+        sum += other.sum;
+        if (other.sketch != null) {
+            sketch = sketch == null ? other.sketch : sketch.merge(other.sketch);
+        }
+        return this;
+    }
+
+    /**
+     * Return the value for the given statistic
+     * @param statistic - min, max, sum, avg or a quantile e.g p99
+     * @return value of the statistic, average for unknown statistic, NaN for a quantile without sketch
+     */
+    public double getStatisticValue(String statistic) {
+        if (QuantileSketch.isQuantileStatistic(statistic)) {
+            return sketch == null ? Double.NaN : sketch.getQuantile(QuantileSketch.toQuantile(statistic));
+        }
+        return switch (statistic) {
+            case "max" -> max;
+            case "min" -> min;
+            case "sum" -> sum;
+            default -> count == 0 ? 0.0 : sum / count;
+        };
+    }
+}
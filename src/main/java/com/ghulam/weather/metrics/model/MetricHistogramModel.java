@@ -0,0 +1,59 @@
+package com.ghulam.weather.metrics.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Distribution of the values of one metric of one sensor over a date range, bins of equal width between min and max
+ */
+@Data
+@Builder
+public class MetricHistogramModel {
+
+    /**
+     * Sensor identifier that is capturing weather metrics
+     */
+    private String sensorId;
+
+    /**
+     * metric name, what will be Temp, Humidity and WindSpeed
+     */
+    private String metricName;
+
+    /**
+     * Number of readings
+     */
+    private long count;
+
+    /**
+     * Minimum value of the metric
+     */
+    private double min;
+
+    /**
+     * Maximum value of the metric
+     */
+    private double max;
+
+    /**
+     * Bins from min to max
+     */
+    private List<Bin> bins;
+
+    /**
+     * Number of readings with value in [lowerBound, upperBound), the last bin includes its upper bound.
+     * Counts are estimated from the quantile sketches, within 1% of the value.
+     */
+    @Data
+    @Builder
+    public static class Bin {
+
+        private double lowerBound;
+
+        private double upperBound;
+
+        private long count;
+    }
+}
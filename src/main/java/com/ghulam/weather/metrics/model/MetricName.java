@@ -0,0 +1,71 @@
+package com.ghulam.weather.metrics.model;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Metric names a sensor can send. Stored and aggregated by code (the ordinal), the name is only used at the API edge.
+ * New names are added at the end, the codes of the existing names must not change.
+ */
+public enum MetricName {
+
+    TEMP("Temp"),
+    HUMIDITY("Humidity"),
+    WIND_SPEED("WindSpeed");
+
+    /**
+     * Code of the names that are not metric names, matches no stored metric
+     */
+    public static final int UNKNOWN = -1;
+
+    private static final MetricName[] VALUES = values();
+
+    /**
+     * API names of all metric names
+     */
+    public static final Set<String> NAMES = Arrays.stream(VALUES).map(MetricName::getName).collect(Collectors.toUnmodifiableSet());
+
+    private final String name;
+
+    MetricName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return name used by the API, e.g Temp
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Code of the API name, without hashing the name
+     * @param name - e.g Temp
+     * @return code, {@link #UNKNOWN} if it is not a metric name
+     */
+    public static int codeOf(String name) {
+        for (MetricName metricName : VALUES) {
+            if (metricName.name.equals(name)) {
+                return metricName.ordinal();
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * API name of the code, the same String instance for every code so names read from storage compare by identity
+     * @param code - code of the metric name
+     * @return name, null if the code is unknown
+     */
+    public static String nameOf(int code) {
+        return code >= 0 && code < VALUES.length ? VALUES[code].name : null;
+    }
+
+    /**
+     * @return number of metric names, size of arrays indexed by code
+     */
+    public static int count() {
+        return VALUES.length;
+    }
+}
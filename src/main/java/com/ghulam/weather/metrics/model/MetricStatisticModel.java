@@ -3,6 +3,8 @@ package com.ghulam.weather.metrics.model;
 import lombok.Builder;
 import lombok.Data;
 
+import java.util.Map;
+
 @Data
 @Builder
 public class MetricStatisticModel {
@@ -13,12 +15,18 @@ public class MetricStatisticModel {
     private String metricName;
 
     /**
-     * Value of metric
+     * Value of metric, for the first requested statistic
      */
     private Double metricValue;
 
     /**
-     * Statistics, min, max, avg, sum
+     * Statistics, min, max, avg, sum, the first requested statistic
      */
     private String statistic;
+
+    /**
+     * Value of metric per requested statistic, in the requested order
+     * e.g {"min": 20.0, "max": 30.0, "avg": 25.0}
+     */
+    private Map<String, Double> statistics;
 }
@@ -0,0 +1,37 @@
+package com.ghulam.weather.metrics.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Rows reclaimed by one retention run
+ */
+@Data
+@Builder
+public class RetentionReportModel {
+
+    /**
+     * Metrics deleted from the readings
+     */
+    private long metrics;
+
+    /**
+     * Weather metrics deleted once all their metrics expired
+     */
+    private long weatherMetrics;
+
+    private long rollups;
+
+    private long sketches;
+
+    /**
+     * Points of the time series engine segments deleted, 0 when the engine is not selected
+     */
+    private long timeSeriesPoints;
+
+    private long durationMs;
+
+    public long getTotal() {
+        return metrics + weatherMetrics + rollups + sketches + timeSeriesPoints;
+    }
+}
@@ -0,0 +1,48 @@
+package com.ghulam.weather.metrics.model;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Bucket size of the pre-aggregated rollups, from the finest to the coarsest
+ */
+public enum RollupGranularity {
+
+    MINUTE(ChronoUnit.MINUTES),
+    HOUR(ChronoUnit.HOURS),
+    DAY(ChronoUnit.DAYS);
+
+    private final ChronoUnit unit;
+
+    RollupGranularity(ChronoUnit unit) {
+        this.unit = unit;
+    }
+
+    /**
+     * Length of a bucket
+     * @return bucket duration
+     */
+    public Duration getDuration() {
+        return unit.getDuration();
+    }
+
+    /**
+     * Start of the bucket the timestamp falls in
+     * @param timestamp - timestamp of the reading
+     * @return bucket start
+     */
+    public LocalDateTime bucketStart(LocalDateTime timestamp) {
+        return timestamp.truncatedTo(unit);
+    }
+
+    /**
+     * Start of the first bucket starting at or after the timestamp
+     * @param timestamp - timestamp
+     * @return bucket start
+     */
+    public LocalDateTime nextBucketStart(LocalDateTime timestamp) {
+        LocalDateTime bucketStart = bucketStart(timestamp);
+        return bucketStart.equals(timestamp) ? bucketStart : bucketStart.plus(1, unit);
+    }
+}
@@ -0,0 +1,46 @@
+package com.ghulam.weather.metrics.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Latest reading of every metric of one sensor, current conditions
+ */
+@Data
+@Builder
+public class SensorSnapshotModel {
+
+    /**
+     * Sensor identifier that is capturing weather metrics
+     */
+    private String sensorId;
+
+    /**
+     * Timestamp of the newest metric of the sensor
+     */
+    private LocalDateTime timestamp;
+
+    /**
+     * Latest value per metric name, ordered by metric name
+     */
+    private List<LatestMetric> metrics;
+
+    /**
+     * Latest value of one metric, metrics of a sensor can be read at different times
+     */
+    @Data
+    @Builder
+    public static class LatestMetric {
+
+        private String metricName;
+
+        private double metricValue;
+
+        private String unit;
+
+        private LocalDateTime timestamp;
+    }
+}
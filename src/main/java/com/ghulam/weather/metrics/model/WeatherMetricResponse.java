@@ -1,5 +1,6 @@
 package com.ghulam.weather.metrics.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
 import lombok.Builder;
@@ -20,4 +21,10 @@ public class WeatherMetricResponse {
      * List of Weather metric
      */
     List<WeatherMetricEntity> weatherMetrics;
+
+    /**
+     * Cursor to fetch the next page, null on the last page. Sent as a header, the body keeps its shape from before paging
+     */
+    @JsonIgnore
+    Long nextCursor;
 }
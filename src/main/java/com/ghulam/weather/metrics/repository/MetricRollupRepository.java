@@ -0,0 +1,94 @@
+package com.ghulam.weather.metrics.repository;
+
+import com.ghulam.weather.metrics.entity.MetricRollupEntity;
+import com.ghulam.weather.metrics.entity.MetricRollupId;
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import com.ghulam.weather.metrics.model.RollupGranularity;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+
+@Repository
+public interface MetricRollupRepository extends JpaRepository<MetricRollupEntity, MetricRollupId> {
+
+    /**
+     * Aggregate the rollups of the buckets starting in [startTimestamp, endTimestamp) per sensor and metric name
+     */
+    @Query("SELECT new com.ghulam.weather.metrics.model.MetricAggregateModel(r.sensorId, r.metricName, MIN(r.bucketStart), SUM(r.count), MIN(r.min), MAX(r.max), SUM(r.sum)) " +
+            "FROM metric_rollup r " +
+            "WHERE r.granularity = :granularity AND r.bucketStart >= :startTimestamp AND r.bucketStart < :endTimestamp " +
+            "GROUP BY r.sensorId, r.metricName")
+    List<MetricAggregateModel> aggregate(RollupGranularity granularity, LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * Aggregate the rollups of the given sensors of the buckets starting in [startTimestamp, endTimestamp) per sensor and metric name
+     */
+    @Query("SELECT new com.ghulam.weather.metrics.model.MetricAggregateModel(r.sensorId, r.metricName, MIN(r.bucketStart), SUM(r.count), MIN(r.min), MAX(r.max), SUM(r.sum)) " +
+            "FROM metric_rollup r " +
+            "WHERE r.sensorId IN :sensorIds AND r.granularity = :granularity AND r.bucketStart >= :startTimestamp AND r.bucketStart < :endTimestamp " +
+            "GROUP BY r.sensorId, r.metricName")
+    List<MetricAggregateModel> aggregateBySensorIds(List<String> sensorIds, RollupGranularity granularity, LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * Aggregate the rollups of the given metrics of the buckets starting in [startTimestamp, endTimestamp) per sensor and metric name
+     */
+    @Query("SELECT new com.ghulam.weather.metrics.model.MetricAggregateModel(r.sensorId, r.metricName, MIN(r.bucketStart), SUM(r.count), MIN(r.min), MAX(r.max), SUM(r.sum)) " +
+            "FROM metric_rollup r " +
+            "WHERE r.metricName IN :metricNames AND r.granularity = :granularity AND r.bucketStart >= :startTimestamp AND r.bucketStart < :endTimestamp " +
+            "GROUP BY r.sensorId, r.metricName")
+    List<MetricAggregateModel> aggregateByMetricNames(List<String> metricNames, RollupGranularity granularity, LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * Aggregate the rollups of the given sensors and metrics of the buckets starting in [startTimestamp, endTimestamp) per sensor and metric name
+     */
+    @Query("SELECT new com.ghulam.weather.metrics.model.MetricAggregateModel(r.sensorId, r.metricName, MIN(r.bucketStart), SUM(r.count), MIN(r.min), MAX(r.max), SUM(r.sum)) " +
+            "FROM metric_rollup r " +
+            "WHERE r.sensorId IN :sensorIds AND r.metricName IN :metricNames AND r.granularity = :granularity AND r.bucketStart >= :startTimestamp AND r.bucketStart < :endTimestamp " +
+            "GROUP BY r.sensorId, r.metricName")
+    List<MetricAggregateModel> aggregateBySensorIdsAndMetricNames(List<String> sensorIds, List<String> metricNames, RollupGranularity granularity, LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * Rollups of the buckets starting in [startTimestamp, endTimestamp), one aggregate per rollup stamped with its bucket start
+     */
+    @Query("SELECT new com.ghulam.weather.metrics.model.MetricAggregateModel(r.sensorId, r.metricName, r.bucketStart, r.count, r.min, r.max, r.sum) " +
+            "FROM metric_rollup r " +
+            "WHERE r.granularity = :granularity AND r.bucketStart >= :startTimestamp AND r.bucketStart < :endTimestamp")
+    List<MetricAggregateModel> findByBucketStartRange(RollupGranularity granularity, LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * Rollups of the given sensors of the buckets starting in [startTimestamp, endTimestamp), one aggregate per rollup stamped with its bucket start
+     */
+    @Query("SELECT new com.ghulam.weather.metrics.model.MetricAggregateModel(r.sensorId, r.metricName, r.bucketStart, r.count, r.min, r.max, r.sum) " +
+            "FROM metric_rollup r " +
+            "WHERE r.sensorId IN :sensorIds AND r.granularity = :granularity AND r.bucketStart >= :startTimestamp AND r.bucketStart < :endTimestamp")
+    List<MetricAggregateModel> findBySensorIdsAndBucketStartRange(List<String> sensorIds, RollupGranularity granularity, LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * Delete all rollups of the buckets starting in [startTimestamp, endTimestamp)
+     */
+    @Modifying
+    @Query("DELETE FROM metric_rollup r WHERE r.bucketStart >= :startTimestamp AND r.bucketStart < :endTimestamp")
+    int deleteByBucketStartRange(LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * Bucket starts of the rollups older than the timestamp in bucket start order, of the metric name if not null and not of the excluded metric names
+     */
+    @Query("SELECT r.bucketStart FROM metric_rollup r WHERE r.granularity = :granularity AND r.bucketStart < :timestamp " +
+            "AND (:metricName IS NULL OR r.metricName = :metricName) AND r.metricName NOT IN :excludedMetricNames ORDER BY r.bucketStart")
+    List<LocalDateTime> findBucketStartsBefore(RollupGranularity granularity, LocalDateTime timestamp, String metricName, Collection<String> excludedMetricNames, Limit limit);
+
+    /**
+     * Delete the rollups of the buckets starting at or before the bucket start, of the metric name if not null and not of the excluded metric names
+     */
+    @Modifying
+    @Query("DELETE FROM metric_rollup r WHERE r.granularity = :granularity AND r.bucketStart <= :bucketStart " +
+            "AND (:metricName IS NULL OR r.metricName = :metricName) AND r.metricName NOT IN :excludedMetricNames")
+    int deleteUpToBucketStart(RollupGranularity granularity, LocalDateTime bucketStart, String metricName, Collection<String> excludedMetricNames);
+}
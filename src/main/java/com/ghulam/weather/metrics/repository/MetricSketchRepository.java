@@ -0,0 +1,63 @@
+package com.ghulam.weather.metrics.repository;
+
+import com.ghulam.weather.metrics.entity.MetricRollupId;
+import com.ghulam.weather.metrics.entity.MetricSketchEntity;
+import com.ghulam.weather.metrics.model.RollupGranularity;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+
+@Repository
+public interface MetricSketchRepository extends JpaRepository<MetricSketchEntity, MetricRollupId> {
+
+    /**
+     * Sketches of the buckets starting in [startTimestamp, endTimestamp)
+     */
+    @Query("SELECT s FROM metric_sketch s WHERE s.granularity = :granularity AND s.bucketStart >= :startTimestamp AND s.bucketStart < :endTimestamp")
+    List<MetricSketchEntity> findByBucketStartRange(RollupGranularity granularity, LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * Sketches of the given sensors of the buckets starting in [startTimestamp, endTimestamp)
+     */
+    @Query("SELECT s FROM metric_sketch s WHERE s.sensorId IN :sensorIds AND s.granularity = :granularity AND s.bucketStart >= :startTimestamp AND s.bucketStart < :endTimestamp")
+    List<MetricSketchEntity> findBySensorIdsAndBucketStartRange(List<String> sensorIds, RollupGranularity granularity, LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * Sketches of the given sensors of the buckets starting at the given bucket starts, locked until the transaction ends
+     * so concurrent flushes merge into the stored sketch one after the other
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM metric_sketch s WHERE s.sensorId IN :sensorIds AND s.granularity = :granularity AND s.bucketStart IN :bucketStarts")
+    List<MetricSketchEntity> findBySensorIdsAndBucketStarts(Collection<String> sensorIds, RollupGranularity granularity, Collection<LocalDateTime> bucketStarts);
+
+    /**
+     * Delete all sketches of the buckets starting in [startTimestamp, endTimestamp)
+     */
+    @Modifying
+    @Query("DELETE FROM metric_sketch s WHERE s.bucketStart >= :startTimestamp AND s.bucketStart < :endTimestamp")
+    int deleteByBucketStartRange(LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * Bucket starts of the sketchs older than the timestamp in bucket start order, of the metric name if not null and not of the excluded metric names
+     */
+    @Query("SELECT s.bucketStart FROM metric_sketch s WHERE s.granularity = :granularity AND s.bucketStart < :timestamp " +
+            "AND (:metricName IS NULL OR s.metricName = :metricName) AND s.metricName NOT IN :excludedMetricNames ORDER BY s.bucketStart")
+    List<LocalDateTime> findBucketStartsBefore(RollupGranularity granularity, LocalDateTime timestamp, String metricName, Collection<String> excludedMetricNames, Limit limit);
+
+    /**
+     * Delete the sketchs of the buckets starting at or before the bucket start, of the metric name if not null and not of the excluded metric names
+     */
+    @Modifying
+    @Query("DELETE FROM metric_sketch s WHERE s.granularity = :granularity AND s.bucketStart <= :bucketStart " +
+            "AND (:metricName IS NULL OR s.metricName = :metricName) AND s.metricName NOT IN :excludedMetricNames")
+    int deleteUpToBucketStart(RollupGranularity granularity, LocalDateTime bucketStart, String metricName, Collection<String> excludedMetricNames);
+}
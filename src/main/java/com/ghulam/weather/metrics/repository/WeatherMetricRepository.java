@@ -1,22 +1,202 @@
 package com.ghulam.weather.metrics.repository;
 
 import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 
 @Repository
 public interface WeatherMetricRepository extends JpaRepository<WeatherMetricEntity, Long>  {
 
-    @Query("SELECT s FROM weather_metric s WHERE s.sensorId IN :sensorIds")
+    /*
+     * Queries returning weather metrics fetch their metrics in the same statement (JOIN FETCH),
+     * one statement per query whatever the number of weather metrics
+     */
+
+    @Query("SELECT s FROM weather_metric s JOIN FETCH s.metrics WHERE s.sensorId IN :sensorIds")
     List<WeatherMetricEntity> findBySensorIds(List<String> sensorIds);
 
-    @Query("SELECT s FROM weather_metric s WHERE s.sensorId IN :sensorIds AND s.timestamp BETWEEN :startTimestamp AND :endTimestamp")
+    @Query("SELECT s FROM weather_metric s JOIN FETCH s.metrics WHERE s.sensorId IN :sensorIds AND s.timestamp BETWEEN :startTimestamp AND :endTimestamp")
     List<WeatherMetricEntity> findBySensorIdsAndTimestampBetween(List<String> sensorIds,LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    @Query("SELECT s FROM weather_metric s JOIN FETCH s.metrics WHERE s.timestamp BETWEEN :start AND :end")
     List<WeatherMetricEntity> findByTimestampBetween(LocalDateTime start, LocalDateTime end);
+
+    /**
+     * Aggregate count, min, max and sum per sensor and metric name of readings in [startTimestamp, endTimestamp)
+     */
+    @Query("SELECT new com.ghulam.weather.metrics.model.MetricAggregateModel(s.sensorId, m.metricName, MIN(s.timestamp), COUNT(m.metricValue), MIN(m.metricValue), MAX(m.metricValue), SUM(m.metricValue)) " +
+            "FROM weather_metric s JOIN s.metrics m " +
+            "WHERE s.timestamp >= :startTimestamp AND s.timestamp < :endTimestamp " +
+            "GROUP BY s.sensorId, m.metricName")
+    List<MetricAggregateModel> aggregateByTimestampRange(LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * Aggregate count, min, max and sum per sensor and metric name of readings of the given sensors in [startTimestamp, endTimestamp)
+     */
+    @Query("SELECT new com.ghulam.weather.metrics.model.MetricAggregateModel(s.sensorId, m.metricName, MIN(s.timestamp), COUNT(m.metricValue), MIN(m.metricValue), MAX(m.metricValue), SUM(m.metricValue)) " +
+            "FROM weather_metric s JOIN s.metrics m " +
+            "WHERE s.sensorId IN :sensorIds AND s.timestamp >= :startTimestamp AND s.timestamp < :endTimestamp " +
+            "GROUP BY s.sensorId, m.metricName")
+    List<MetricAggregateModel> aggregateBySensorIdsAndTimestampRange(List<String> sensorIds, LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * Aggregate count, min, max and sum per sensor and metric name of readings of the given metrics in [startTimestamp, endTimestamp)
+     */
+    @Query("SELECT new com.ghulam.weather.metrics.model.MetricAggregateModel(s.sensorId, m.metricName, MIN(s.timestamp), COUNT(m.metricValue), MIN(m.metricValue), MAX(m.metricValue), SUM(m.metricValue)) " +
+            "FROM weather_metric s JOIN s.metrics m " +
+            "WHERE m.metricName IN :metricNames AND s.timestamp >= :startTimestamp AND s.timestamp < :endTimestamp " +
+            "GROUP BY s.sensorId, m.metricName")
+    List<MetricAggregateModel> aggregateByMetricNamesAndTimestampRange(List<String> metricNames, LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * Aggregate count, min, max and sum per sensor and metric name of readings of the given sensors and metrics in [startTimestamp, endTimestamp)
+     */
+    @Query("SELECT new com.ghulam.weather.metrics.model.MetricAggregateModel(s.sensorId, m.metricName, MIN(s.timestamp), COUNT(m.metricValue), MIN(m.metricValue), MAX(m.metricValue), SUM(m.metricValue)) " +
+            "FROM weather_metric s JOIN s.metrics m " +
+            "WHERE s.sensorId IN :sensorIds AND m.metricName IN :metricNames AND s.timestamp >= :startTimestamp AND s.timestamp < :endTimestamp " +
+            "GROUP BY s.sensorId, m.metricName")
+    List<MetricAggregateModel> aggregateBySensorIdsAndMetricNamesAndTimestampRange(List<String> sensorIds, List<String> metricNames, LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * Aggregate count, min, max and sum per sensor, metric name and minute of readings in [startTimestamp, endTimestamp),
+     * columns are sensorId, metricName, year, month, day, hour, minute, count, min, max, sum
+     */
+    @Query("SELECT s.sensorId, m.metricName, year(s.timestamp), month(s.timestamp), day(s.timestamp), hour(s.timestamp), minute(s.timestamp), " +
+            "COUNT(m.metricValue), MIN(m.metricValue), MAX(m.metricValue), SUM(m.metricValue) " +
+            "FROM weather_metric s JOIN s.metrics m " +
+            "WHERE s.timestamp >= :startTimestamp AND s.timestamp < :endTimestamp " +
+            "GROUP BY s.sensorId, m.metricName, year(s.timestamp), month(s.timestamp), day(s.timestamp), hour(s.timestamp), minute(s.timestamp)")
+    List<Object[]> aggregateByMinute(LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * Stream sensorId, metricName, timestamp and value of every reading in [startTimestamp, endTimestamp), rows are fetched from a cursor.
+     * Must be consumed inside a transaction and closed.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT s.sensorId, m.metricName, s.timestamp, m.metricValue FROM weather_metric s JOIN s.metrics m " +
+            "WHERE s.timestamp >= :startTimestamp AND s.timestamp < :endTimestamp")
+    Stream<Object[]> streamValuesByTimestampRange(LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * Stream sensorId, metricName, timestamp and value of every reading of the given sensors in [startTimestamp, endTimestamp), rows are fetched from a cursor.
+     * Must be consumed inside a transaction and closed.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT s.sensorId, m.metricName, s.timestamp, m.metricValue FROM weather_metric s JOIN s.metrics m " +
+            "WHERE s.sensorId IN :sensorIds AND s.timestamp >= :startTimestamp AND s.timestamp < :endTimestamp")
+    Stream<Object[]> streamValuesBySensorIdsAndTimestampRange(List<String> sensorIds, LocalDateTime startTimestamp, LocalDateTime endTimestamp);
+
+    /**
+     * sensorId, metricName, timestamp, value and unit of the latest reading of every sensor and metric name, ordered by id
+     * so the last saved of readings with the same timestamp comes last
+     */
+    @Query("SELECT s.sensorId, m.metricName, s.timestamp, m.metricValue, m.unit FROM weather_metric s JOIN s.metrics m " +
+            "WHERE s.timestamp = (SELECT MAX(l.timestamp) FROM weather_metric l JOIN l.metrics lm WHERE l.sensorId = s.sensorId AND lm.metricName = m.metricName) " +
+            "ORDER BY s.id, m.id")
+    List<Object[]> findLatestValues();
+
+    /**
+     * sensorId, metricName, timestamp, value and unit of the latest reading of the given sensors per metric name, ordered by id
+     */
+    @Query("SELECT s.sensorId, m.metricName, s.timestamp, m.metricValue, m.unit FROM weather_metric s JOIN s.metrics m " +
+            "WHERE s.sensorId IN :sensorIds " +
+            "AND s.timestamp = (SELECT MAX(l.timestamp) FROM weather_metric l JOIN l.metrics lm WHERE l.sensorId = s.sensorId AND lm.metricName = m.metricName) " +
+            "ORDER BY s.id, m.id")
+    List<Object[]> findLatestValuesBySensorIds(List<String> sensorIds);
+
+    /**
+     * Whether a reading of the sensor at the timestamp is saved, an index lookup on the unique sensor and timestamp
+     */
+    boolean existsBySensorIdAndTimestamp(String sensorId, LocalDateTime timestamp);
+
+    @Query("SELECT MIN(s.timestamp) FROM weather_metric s")
+    Optional<LocalDateTime> findMinTimestamp();
+
+    @Query("SELECT MAX(s.timestamp) FROM weather_metric s")
+    Optional<LocalDateTime> findMaxTimestamp();
+
+    /**
+     * Keyset page of weather metrics, ordered by id, starting after the given id.
+     * The page ids are selected first, a limit on a JOIN FETCH would be applied in memory to all rows.
+     */
+    default List<WeatherMetricEntity> findPageAfterId(Long afterId, Limit limit) {
+        return findAllByIds(findPageIdsAfterId(afterId, limit));
+    }
+
+    /**
+     * Keyset page of weather metrics for the given sensors, ordered by id, starting after the given id
+     */
+    default List<WeatherMetricEntity> findPageBySensorIdsAfterId(List<String> sensorIds, Long afterId, Limit limit) {
+        return findAllByIds(findPageIdsBySensorIdsAfterId(sensorIds, afterId, limit));
+    }
+
+    private List<WeatherMetricEntity> findAllByIds(List<Long> ids) {
+        return ids.isEmpty() ? List.of() : findByIdsOrderById(ids);
+    }
+
+    @Query("SELECT s.id FROM weather_metric s WHERE s.id > :afterId ORDER BY s.id")
+    List<Long> findPageIdsAfterId(Long afterId, Limit limit);
+
+    @Query("SELECT s.id FROM weather_metric s WHERE s.sensorId IN :sensorIds AND s.id > :afterId ORDER BY s.id")
+    List<Long> findPageIdsBySensorIdsAfterId(List<String> sensorIds, Long afterId, Limit limit);
+
+    @Query("SELECT s FROM weather_metric s JOIN FETCH s.metrics WHERE s.id IN :ids ORDER BY s.id")
+    List<WeatherMetricEntity> findByIdsOrderById(List<Long> ids);
+
+    /**
+     * Stream all weather metrics ordered by id, rows are fetched from a cursor. Must be consumed inside a transaction and closed.
+     * Rows of a weather metric must be consecutive to assemble its metrics, so the streams are ordered by id.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT s FROM weather_metric s JOIN FETCH s.metrics ORDER BY s.id")
+    Stream<WeatherMetricEntity> streamAll();
+
+    /**
+     * Stream weather metrics of the given sensors ordered by id, rows are fetched from a cursor. Must be consumed inside a transaction and closed.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT s FROM weather_metric s JOIN FETCH s.metrics WHERE s.sensorId IN :sensorIds ORDER BY s.id")
+    Stream<WeatherMetricEntity> streamBySensorIds(List<String> sensorIds);
+
+    /**
+     * Stream weather metrics with timestamp at or after the given timestamp ordered by id, rows are fetched from a cursor. Must be consumed inside a transaction and closed.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT s FROM weather_metric s JOIN FETCH s.metrics WHERE s.timestamp >= :startTimestamp ORDER BY s.id")
+    Stream<WeatherMetricEntity> streamByTimestampFrom(LocalDateTime startTimestamp);
+
+    /**
+     * Ids of the metrics of weather metrics older than the timestamp, of the metric name if not null and not of the excluded metric names
+     */
+    @Query("SELECT m.id FROM weather_metric s JOIN s.metrics m WHERE s.timestamp < :timestamp " +
+            "AND (:metricName IS NULL OR m.metricName = :metricName) AND m.metricName NOT IN :excludedMetricNames")
+    List<Long> findMetricIdsBefore(LocalDateTime timestamp, String metricName, Collection<String> excludedMetricNames, Limit limit);
+
+    @Modifying
+    @Query("DELETE FROM metric m WHERE m.id IN :ids")
+    int deleteMetricsByIds(List<Long> ids);
+
+    /**
+     * Ids of the weather metrics older than the timestamp left without metrics
+     */
+    @Query("SELECT s.id FROM weather_metric s WHERE s.timestamp < :timestamp AND s.metrics IS EMPTY")
+    List<Long> findIdsWithoutMetricsBefore(LocalDateTime timestamp, Limit limit);
+
+    @Modifying
+    @Query("DELETE FROM weather_metric s WHERE s.id IN :ids")
+    int deleteByIds(List<Long> ids);
 }
@@ -0,0 +1,212 @@
+package com.ghulam.weather.metrics.service;
+
+import com.ghulam.weather.metrics.model.RetentionReportModel;
+import com.ghulam.weather.metrics.model.RollupGranularity;
+import com.ghulam.weather.metrics.repository.MetricRollupRepository;
+import com.ghulam.weather.metrics.repository.MetricSketchRepository;
+import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import com.ghulam.weather.metrics.store.StatisticResultCache;
+import com.ghulam.weather.metrics.store.TimeSeriesMetricStorage;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Delete the readings, rollups and sketches older than their retention, see {@link MetricRetentionProperties}.
+ * <p>
+ * Expired readings are already downsampled by the minute, hour and day rollups and sketches maintained on ingest, statistics
+ * over expired ranges are read from the rollups left. Rows are deleted in transactions of about batch-size rows,
+ * so ingestion only waits for one batch.
+ */
+@Component
+@Slf4j
+public class MetricRetentionJob implements MeterBinder {
+
+    private final WeatherMetricRepository weatherMetricRepository;
+    private final MetricRollupRepository metricRollupRepository;
+    private final MetricSketchRepository metricSketchRepository;
+    private final Optional<TimeSeriesMetricStorage> timeSeriesMetricStorage;
+    private final StatisticResultCache statisticResultCache;
+    private final WeatherMetricDeduplicator deduplicator;
+    private final MetricRetentionProperties properties;
+    private final TransactionTemplate transactionTemplate;
+
+    private final AtomicLong deletedMetrics = new AtomicLong();
+    private final AtomicLong deletedWeatherMetrics = new AtomicLong();
+    private final AtomicLong deletedRollups = new AtomicLong();
+    private final AtomicLong deletedSketches = new AtomicLong();
+    private final AtomicLong deletedTimeSeriesPoints = new AtomicLong();
+    private final AtomicLong lastDurationMs = new AtomicLong();
+
+    @Autowired
+    public MetricRetentionJob(WeatherMetricRepository weatherMetricRepository,
+                              MetricRollupRepository metricRollupRepository,
+                              MetricSketchRepository metricSketchRepository,
+                              Optional<TimeSeriesMetricStorage> timeSeriesMetricStorage,
+                              StatisticResultCache statisticResultCache,
+                              WeatherMetricDeduplicator deduplicator,
+                              MetricRetentionProperties properties,
+                              PlatformTransactionManager transactionManager) {
+        this.weatherMetricRepository = weatherMetricRepository;
+        this.metricRollupRepository = metricRollupRepository;
+        this.metricSketchRepository = metricSketchRepository;
+        this.timeSeriesMetricStorage = timeSeriesMetricStorage;
+        this.statisticResultCache = statisticResultCache;
+        this.deduplicator = deduplicator;
+        this.properties = properties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Scheduled(fixedDelayString = "${retention.interval-ms:3600000}", initialDelayString = "${retention.interval-ms:3600000}")
+    public void run() {
+        if (properties.isEnabled()) {
+            purge(LocalDateTime.now());
+        }
+    }
+
+    /**
+     * Delete everything older than its retention at the given time
+     * @param now - time the retention days are counted back from
+     * @return rows deleted per kind and duration
+     */
+    public synchronized RetentionReportModel purge(LocalDateTime now) {
+        long start = System.currentTimeMillis();
+        long metrics = 0;
+        long rollups = 0;
+        long sketches = 0;
+        // the top level policy covers the metric names without override, then one pass per override
+        List<String> metricNames = new ArrayList<>();
+        metricNames.add(null);
+        metricNames.addAll(properties.getMetrics().keySet());
+        for (String metricName : metricNames) {
+            Collection<String> excluded = metricName == null ? properties.getMetrics().keySet() : List.of();
+            int rawDays = properties.getRawDays(metricName);
+            if (rawDays > 0) {
+                metrics += deleteMetrics(now.minusDays(rawDays), metricName, excluded);
+            }
+            for (RollupGranularity granularity : RollupGranularity.values()) {
+                int days = properties.getDays(metricName, granularity);
+                if (days > 0) {
+                    LocalDateTime cutoff = granularity.bucketStart(now.minusDays(days));
+                    rollups += deleteBatches(() -> deleteRollups(granularity, cutoff, metricName, excluded));
+                    sketches += deleteBatches(() -> deleteSketches(granularity, cutoff, metricName, excluded));
+                }
+            }
+        }
+        long weatherMetrics = deleteWeatherMetricsWithoutMetrics(now, metricNames);
+        long timeSeriesPoints = deleteTimeSeries(now, metricNames);
+
+        RetentionReportModel report = RetentionReportModel.builder()
+                .metrics(metrics)
+                .weatherMetrics(weatherMetrics)
+                .rollups(rollups)
+                .sketches(sketches)
+                .timeSeriesPoints(timeSeriesPoints)
+                .durationMs(System.currentTimeMillis() - start)
+                .build();
+        if (report.getTotal() > 0) {
+            statisticResultCache.clear();
+        }
+        if (weatherMetrics > 0) {
+            deduplicator.clearRecentKeys();
+        }
+        deletedMetrics.addAndGet(metrics);
+        deletedWeatherMetrics.addAndGet(weatherMetrics);
+        deletedRollups.addAndGet(rollups);
+        deletedSketches.addAndGet(sketches);
+        deletedTimeSeriesPoints.addAndGet(timeSeriesPoints);
+        lastDurationMs.set(report.getDurationMs());
+        log.info("Retention deleted {} metrics, {} weather metrics, {} rollups, {} sketches and {} time series points in {} ms",
+                metrics, weatherMetrics, rollups, sketches, timeSeriesPoints, report.getDurationMs());
+        return report;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindDeleted(registry, "metric", deletedMetrics);
+        bindDeleted(registry, "weather_metric", deletedWeatherMetrics);
+        bindDeleted(registry, "rollup", deletedRollups);
+        bindDeleted(registry, "sketch", deletedSketches);
+        bindDeleted(registry, "time_series_point", deletedTimeSeriesPoints);
+        TimeGauge.builder("weather.retention.duration", lastDurationMs, TimeUnit.MILLISECONDS, AtomicLong::get)
+                .description("Duration of the last retention run").register(registry);
+    }
+
+    private static void bindDeleted(MeterRegistry registry, String kind, AtomicLong deleted) {
+        FunctionCounter.builder("weather.retention.deleted", deleted, AtomicLong::get).tag("kind", kind)
+                .description("Rows deleted by the retention").register(registry);
+    }
+
+    private long deleteMetrics(LocalDateTime cutoff, String metricName, Collection<String> excluded) {
+        return deleteBatches(() -> {
+            List<Long> ids = weatherMetricRepository.findMetricIdsBefore(cutoff, metricName, excluded, Limit.of(properties.getBatchSize()));
+            return ids.isEmpty() ? 0 : weatherMetricRepository.deleteMetricsByIds(ids);
+        });
+    }
+
+    /**
+     * Weather metrics whose metrics all expired, only older than the shortest raw retention can be left without metrics
+     */
+    private long deleteWeatherMetricsWithoutMetrics(LocalDateTime now, List<String> metricNames) {
+        OptionalInt rawDays = metricNames.stream().mapToInt(properties::getRawDays).filter(days -> days > 0).min();
+        if (rawDays.isEmpty()) {
+            return 0;
+        }
+        LocalDateTime cutoff = now.minusDays(rawDays.getAsInt());
+        return deleteBatches(() -> {
+            List<Long> ids = weatherMetricRepository.findIdsWithoutMetricsBefore(cutoff, Limit.of(properties.getBatchSize()));
+            return ids.isEmpty() ? 0 : weatherMetricRepository.deleteByIds(ids);
+        });
+    }
+
+    /**
+     * Segments hold every metric of a sensor, they are deleted once older than the longest raw retention
+     */
+    private long deleteTimeSeries(LocalDateTime now, List<String> metricNames) {
+        if (timeSeriesMetricStorage.isEmpty() || metricNames.stream().anyMatch(metricName -> properties.getRawDays(metricName) <= 0)) {
+            return 0;
+        }
+        int rawDays = metricNames.stream().mapToInt(properties::getRawDays).max().orElseThrow();
+        return timeSeriesMetricStorage.get().deleteBefore(now.minusDays(rawDays));
+    }
+
+    /**
+     * Delete up to the batch-size-th oldest bucket start, the rows sharing that bucket start go in the same batch
+     */
+    private int deleteRollups(RollupGranularity granularity, LocalDateTime cutoff, String metricName, Collection<String> excluded) {
+        List<LocalDateTime> bucketStarts = metricRollupRepository.findBucketStartsBefore(granularity, cutoff, metricName, excluded, Limit.of(properties.getBatchSize()));
+        return bucketStarts.isEmpty() ? 0 : metricRollupRepository.deleteUpToBucketStart(granularity, bucketStarts.get(bucketStarts.size() - 1), metricName, excluded);
+    }
+
+    private int deleteSketches(RollupGranularity granularity, LocalDateTime cutoff, String metricName, Collection<String> excluded) {
+        List<LocalDateTime> bucketStarts = metricSketchRepository.findBucketStartsBefore(granularity, cutoff, metricName, excluded, Limit.of(properties.getBatchSize()));
+        return bucketStarts.isEmpty() ? 0 : metricSketchRepository.deleteUpToBucketStart(granularity, bucketStarts.get(bucketStarts.size() - 1), metricName, excluded);
+    }
+
+    /**
+     * Run the batch in its own transaction until it deletes nothing
+     */
+    private long deleteBatches(IntSupplier batch) {
+        long deleted = 0;
+        int count;
+        do {
+            count = transactionTemplate.execute(status -> batch.getAsInt());
+            deleted += count;
+        } while (count > 0);
+        return deleted;
+    }
+}
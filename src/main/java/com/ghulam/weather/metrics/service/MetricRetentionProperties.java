@@ -0,0 +1,91 @@
+package com.ghulam.weather.metrics.service;
+
+import com.ghulam.weather.metrics.model.RollupGranularity;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Retention of the readings, rollups and sketches, in days, 0 keeps forever. The top level days apply to every metric name,
+ * a metric name under metrics overrides some of them.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "retention")
+public class MetricRetentionProperties {
+
+    /**
+     * Delete expired data every interval-ms
+     */
+    private boolean enabled;
+
+    /**
+     * Rows deleted per transaction
+     */
+    private int batchSize = 1000;
+
+    private int rawDays = 7;
+
+    private int minuteDays = 30;
+
+    private int hourDays = 90;
+
+    private int dayDays;
+
+    /**
+     * Overrides per metric name, days left null are the top level days
+     */
+    private Map<String, Policy> metrics = new LinkedHashMap<>();
+
+    /**
+     * Days kept of the readings of the metric name
+     */
+    public int getRawDays(String metricName) {
+        Policy policy = metricName == null ? null : metrics.get(metricName);
+        return policy != null && policy.getRawDays() != null ? policy.getRawDays() : rawDays;
+    }
+
+    /**
+     * Days kept of the readings of every metric name, 0 if no readings expire
+     */
+    public int getShortestRawDays() {
+        return Stream.concat(Stream.of((String) null), metrics.keySet().stream())
+                .mapToInt(this::getRawDays).filter(days -> days > 0).min().orElse(0);
+    }
+
+    /**
+     * Days kept of the rollups and sketches of the granularity of the metric name
+     */
+    public int getDays(String metricName, RollupGranularity granularity) {
+        Policy policy = metricName == null ? null : metrics.get(metricName);
+        Integer days = policy == null ? null : switch (granularity) {
+            case MINUTE -> policy.getMinuteDays();
+            case HOUR -> policy.getHourDays();
+            case DAY -> policy.getDayDays();
+        };
+        if (days != null) {
+            return days;
+        }
+        return switch (granularity) {
+            case MINUTE -> minuteDays;
+            case HOUR -> hourDays;
+            case DAY -> dayDays;
+        };
+    }
+
+    @Data
+    public static class Policy {
+
+        private Integer rawDays;
+
+        private Integer minuteDays;
+
+        private Integer hourDays;
+
+        private Integer dayDays;
+    }
+}
@@ -0,0 +1,91 @@
+package com.ghulam.weather.metrics.service;
+
+import com.ghulam.weather.metrics.model.RollupGranularity;
+import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Build the rollups and quantile sketches from the existing weather metrics at startup, when they are enabled on a database
+ * that already has weather metrics.
+ * <p>
+ * A day is rebuilt from scratch, so with retention enabled only the days after the shortest raw retention are rebuilt,
+ * the rollups and sketches of the days that lost readings are kept.
+ */
+@Component
+@Slf4j
+public class MetricRollupBackfillJob implements ApplicationRunner {
+
+    private final MetricRollupService metricRollupService;
+    private final MetricSketchService metricSketchService;
+    private final WeatherMetricRepository weatherMetricRepository;
+    private final MetricRetentionProperties retentionProperties;
+    private final boolean backfillOnStartup;
+
+    @Autowired
+    public MetricRollupBackfillJob(MetricRollupService metricRollupService,
+                                   MetricSketchService metricSketchService,
+                                   WeatherMetricRepository weatherMetricRepository,
+                                   MetricRetentionProperties retentionProperties,
+                                   @Value("${rollup.backfill-on-startup:false}") boolean backfillOnStartup) {
+        this.metricRollupService = metricRollupService;
+        this.metricSketchService = metricSketchService;
+        this.weatherMetricRepository = weatherMetricRepository;
+        this.retentionProperties = retentionProperties;
+        this.backfillOnStartup = backfillOnStartup;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (backfillOnStartup && (metricRollupService.isEnabled() || metricSketchService.isEnabled())) {
+            backfill();
+        }
+    }
+
+    /**
+     * Rebuild the rollups and sketches, if enabled, of all days having weather metrics, see {@link #backfill(LocalDateTime)}
+     * @return number of rollups and sketches written
+     */
+    public long backfill() {
+        return backfill(LocalDateTime.now());
+    }
+
+    /**
+     * Rebuild the rollups and sketches, if enabled, of the days having all their weather metrics at the given time
+     * @param now - time the raw retention days are counted back from
+     * @return number of rollups and sketches written
+     */
+    public long backfill(LocalDateTime now) {
+        Optional<LocalDateTime> first = weatherMetricRepository.findMinTimestamp();
+        Optional<LocalDateTime> last = weatherMetricRepository.findMaxTimestamp();
+        if (first.isEmpty() || last.isEmpty()) {
+            log.info("No weather metrics to backfill rollups from");
+            return 0;
+        }
+        LocalDateTime from = first.get();
+        int rawDays = retentionProperties.isEnabled() ? retentionProperties.getShortestRawDays() : 0;
+        if (rawDays > 0) {
+            // the day of the retention cutoff and the days before may have lost readings
+            LocalDateTime covered = RollupGranularity.DAY.nextBucketStart(now.minusDays(rawDays));
+            if (covered.isAfter(from)) {
+                from = covered;
+            }
+        }
+        if (from.isAfter(last.get())) {
+            log.info("No day with all its weather metrics left to backfill rollups from");
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        long rollups = metricRollupService.isEnabled() ? metricRollupService.backfill(from, last.get().plusNanos(1)) : 0;
+        long sketches = metricSketchService.isEnabled() ? metricSketchService.backfill(from, last.get().plusNanos(1)) : 0;
+        log.info("Backfilled {} rollups and {} sketches from {} to {} in {} ms", rollups, sketches, from, last.get(), System.currentTimeMillis() - start);
+        return rollups + sketches;
+    }
+}
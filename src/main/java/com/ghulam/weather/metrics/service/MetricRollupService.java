@@ -0,0 +1,234 @@
+package com.ghulam.weather.metrics.service;
+
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.MetricRollupEntity;
+import com.ghulam.weather.metrics.entity.MetricRollupId;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import com.ghulam.weather.metrics.model.RollupGranularity;
+import com.ghulam.weather.metrics.repository.MetricRollupRepository;
+import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import com.ghulam.weather.metrics.store.MetricStorage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.ObjectUtils;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Maintain minute, hour and day rollups (count, sum, min, max per sensor, metric name and bucket) and answer
+ * range aggregations from them.
+ * <p>
+ * Rollups are incremented in the transaction saving the weather metrics, so they commit or roll back with the readings.
+ * Increments of a batch are combined per bucket first and written as one JDBC batch of upserts in key order, concurrent
+ * batches wait on the row locks of the buckets they share only, a bucket is never inserted twice.
+ * <p>
+ * A range is answered with the coarsest buckets that fit completely inside it, the edges that do not fill
+ * a minute are aggregated from the raw readings of the {@link MetricStorage}, so a 30 day range reads a few hundred rollups.
+ */
+@Service
+@Slf4j
+public class MetricRollupService implements WeatherMetricIngestListener {
+
+    private static final List<RollupGranularity> COARSEST_FIRST = List.of(RollupGranularity.DAY, RollupGranularity.HOUR, RollupGranularity.MINUTE);
+
+    /**
+     * Add count and sum to the rollup and widen its min and max, insert it if missing
+     */
+    private static final String UPSERT = "MERGE INTO metric_rollup r " +
+            "USING (VALUES (CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(16)), CAST(? AS TIMESTAMP), " +
+            "CAST(? AS BIGINT), CAST(? AS DOUBLE PRECISION), CAST(? AS DOUBLE PRECISION), CAST(? AS DOUBLE PRECISION))) " +
+            "AS i (sensor_id, metric_name, granularity, bucket_start, reading_count, value_sum, value_min, value_max) " +
+            "ON r.sensor_id = i.sensor_id AND r.metric_name = i.metric_name AND r.granularity = i.granularity AND r.bucket_start = i.bucket_start " +
+            "WHEN MATCHED THEN UPDATE SET reading_count = r.reading_count + i.reading_count, value_sum = r.value_sum + i.value_sum, " +
+            "value_min = LEAST(r.value_min, i.value_min), value_max = GREATEST(r.value_max, i.value_max) " +
+            "WHEN NOT MATCHED THEN INSERT (sensor_id, metric_name, granularity, bucket_start, reading_count, value_sum, value_min, value_max) " +
+            "VALUES (i.sensor_id, i.metric_name, i.granularity, i.bucket_start, i.reading_count, i.value_sum, i.value_min, i.value_max)";
+
+    /**
+     * Upsert order, transactions sharing buckets lock them in the same order and never deadlock
+     */
+    private static final Comparator<MetricRollupEntity> KEY_ORDER = Comparator.comparing(MetricRollupEntity::getSensorId)
+            .thenComparing(MetricRollupEntity::getMetricName)
+            .thenComparing(MetricRollupEntity::getGranularity)
+            .thenComparing(MetricRollupEntity::getBucketStart);
+
+    private final MetricRollupRepository metricRollupRepository;
+    private final WeatherMetricRepository weatherMetricRepository;
+    private final MetricStorage metricStorage;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+
+    @Autowired
+    public MetricRollupService(MetricRollupRepository metricRollupRepository,
+                               WeatherMetricRepository weatherMetricRepository,
+                               MetricStorage metricStorage,
+                               JdbcTemplate jdbcTemplate,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${rollup.enabled:true}") boolean enabled) {
+        this.metricRollupRepository = metricRollupRepository;
+        this.weatherMetricRepository = weatherMetricRepository;
+        this.metricStorage = metricStorage;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.enabled = enabled;
+    }
+
+    /**
+     * Rollups are maintained and used for statistics
+     * @return true if enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void onSaving(List<WeatherMetricEntity> weatherMetrics) {
+        if (!enabled) {
+            return;
+        }
+        upsert(toRollups(weatherMetrics).values());
+    }
+
+    /**
+     * Aggregate count, sum, min and max per sensor and metric name in [startDate, endDate]
+     * @param sensorIds - List of sensor id wanted to query, all if empty
+     * @param metricNames - List of metric names wanted to query, all if empty
+     * @param startDate - date from statistic will be start calculating
+     * @param endDate - date till statistic will stop calculating, inclusive
+     * @return aggregate per sensor and metric name
+     */
+    public List<MetricAggregateModel> aggregate(List<String> sensorIds, List<String> metricNames, LocalDateTime startDate, LocalDateTime endDate) {
+        Map<List<String>, MetricAggregateModel> merged = new LinkedHashMap<>();
+        aggregate(sensorIds, metricNames, startDate, endDate.plusNanos(1), 0, merged);
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * Rebuild the rollups of [startDate, endDate) from the raw weather metrics, one day per transaction.
+     * Meant for data saved before rollups were enabled, readings saved for a day while it is rebuilt can be counted twice.
+     * @param startDate - first day to rebuild
+     * @param endDate - end of the range to rebuild, exclusive
+     * @return number of rollups written
+     */
+    public long backfill(LocalDateTime startDate, LocalDateTime endDate) {
+        long written = 0;
+        for (LocalDateTime day = RollupGranularity.DAY.bucketStart(startDate); day.isBefore(endDate); day = day.plusDays(1)) {
+            LocalDateTime dayStart = day;
+            LocalDateTime dayEnd = day.plusDays(1);
+            written += transactionTemplate.execute(status -> rebuildDay(dayStart, dayEnd));
+        }
+        return written;
+    }
+
+    /**
+     * Split [start, end) into full buckets of the granularity and edges handled by the next finer granularity, raw below minute
+     */
+    private void aggregate(List<String> sensorIds, List<String> metricNames, LocalDateTime start, LocalDateTime end, int level,
+                           Map<List<String>, MetricAggregateModel> merged) {
+        if (!start.isBefore(end)) {
+            return;
+        }
+        if (level == COARSEST_FIRST.size()) {
+            merge(merged, metricStorage.aggregate(sensorIds, metricNames, start, end));
+            return;
+        }
+        RollupGranularity granularity = COARSEST_FIRST.get(level);
+        LocalDateTime firstBucket = granularity.nextBucketStart(start);
+        LocalDateTime endBucket = granularity.bucketStart(end);
+        if (!firstBucket.isBefore(endBucket)) {
+            aggregate(sensorIds, metricNames, start, end, level + 1, merged);
+            return;
+        }
+        aggregate(sensorIds, metricNames, start, firstBucket, level + 1, merged);
+        merge(merged, aggregateRollups(sensorIds, metricNames, granularity, firstBucket, endBucket));
+        aggregate(sensorIds, metricNames, endBucket, end, level + 1, merged);
+    }
+
+    private List<MetricAggregateModel> aggregateRollups(List<String> sensorIds, List<String> metricNames, RollupGranularity granularity,
+                                                        LocalDateTime startBucket, LocalDateTime endBucket) {
+        if (ObjectUtils.isEmpty(metricNames)) {
+            return ObjectUtils.isEmpty(sensorIds)
+                    ? metricRollupRepository.aggregate(granularity, startBucket, endBucket)
+                    : metricRollupRepository.aggregateBySensorIds(sensorIds, granularity, startBucket, endBucket);
+        }
+        return ObjectUtils.isEmpty(sensorIds)
+                ? metricRollupRepository.aggregateByMetricNames(metricNames, granularity, startBucket, endBucket)
+                : metricRollupRepository.aggregateBySensorIdsAndMetricNames(sensorIds, metricNames, granularity, startBucket, endBucket);
+    }
+
+    private static void merge(Map<List<String>, MetricAggregateModel> merged, List<MetricAggregateModel> aggregates) {
+        for (MetricAggregateModel aggregate : aggregates) {
+            merged.merge(List.of(aggregate.getSensorId(), aggregate.getMetricName()), aggregate, MetricAggregateModel::merge);
+        }
+    }
+
+    /**
+     * Combine the readings per rollup, for every granularity
+     */
+    private static Map<MetricRollupId, MetricRollupEntity> toRollups(List<WeatherMetricEntity> weatherMetrics) {
+        Map<MetricRollupId, MetricRollupEntity> rollups = new HashMap<>();
+        for (WeatherMetricEntity weatherMetric : weatherMetrics) {
+            for (MetricEntity metric : weatherMetric.getMetrics()) {
+                for (RollupGranularity granularity : RollupGranularity.values()) {
+                    add(rollups, weatherMetric.getSensorId(), metric.getMetricName(), granularity,
+                            granularity.bucketStart(weatherMetric.getTimestamp()), 1, metric.getMetricValue(), metric.getMetricValue(), metric.getMetricValue());
+                }
+            }
+        }
+        return rollups;
+    }
+
+    private static void add(Map<MetricRollupId, MetricRollupEntity> rollups, String sensorId, String metricName, RollupGranularity granularity,
+                            LocalDateTime bucketStart, long count, double sum, double min, double max) {
+        MetricRollupId id = new MetricRollupId(sensorId, metricName, granularity, bucketStart);
+        MetricRollupEntity rollup = rollups.get(id);
+        if (rollup == null) {
+            rollups.put(id, MetricRollupEntity.builder().sensorId(sensorId).metricName(metricName).granularity(granularity)
+                    .bucketStart(bucketStart).count(count).sum(sum).min(min).max(max).build());
+        } else {
+            rollup.setCount(rollup.getCount() + count);
+            rollup.setSum(rollup.getSum() + sum);
+            rollup.setMin(Math.min(rollup.getMin(), min));
+            rollup.setMax(Math.max(rollup.getMax(), max));
+        }
+    }
+
+    /**
+     * Increment the existing rollups and insert the missing ones in one JDBC batch, in the current transaction
+     */
+    private void upsert(Collection<MetricRollupEntity> increments) {
+        List<Object[]> rows = increments.stream().sorted(KEY_ORDER)
+                .map(rollup -> new Object[]{rollup.getSensorId(), rollup.getMetricName(), rollup.getGranularity().name(),
+                        Timestamp.valueOf(rollup.getBucketStart()), rollup.getCount(), rollup.getSum(), rollup.getMin(), rollup.getMax()})
+                .toList();
+        jdbcTemplate.batchUpdate(UPSERT, rows);
+    }
+
+    private long rebuildDay(LocalDateTime dayStart, LocalDateTime dayEnd) {
+        metricRollupRepository.deleteByBucketStartRange(dayStart, dayEnd);
+        Map<MetricRollupId, MetricRollupEntity> rollups = new HashMap<>();
+        for (Object[] row : weatherMetricRepository.aggregateByMinute(dayStart, dayEnd)) {
+            LocalDateTime minute = LocalDateTime.of(((Number) row[2]).intValue(), ((Number) row[3]).intValue(), ((Number) row[4]).intValue(),
+                    ((Number) row[5]).intValue(), ((Number) row[6]).intValue());
+            for (RollupGranularity granularity : RollupGranularity.values()) {
+                add(rollups, (String) row[0], (String) row[1], granularity, granularity.bucketStart(minute),
+                        ((Number) row[7]).longValue(), ((Number) row[10]).doubleValue(), ((Number) row[8]).doubleValue(), ((Number) row[9]).doubleValue());
+            }
+        }
+        // upserted, a reading saved meanwhile may have inserted a bucket of the day again
+        upsert(rollups.values());
+        log.debug("Rebuilt {} rollups of {}", rollups.size(), dayStart.toLocalDate());
+        return rollups.size();
+    }
+}
@@ -0,0 +1,183 @@
+package com.ghulam.weather.metrics.service;
+
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import com.ghulam.weather.metrics.model.RollupGranularity;
+import com.ghulam.weather.metrics.repository.MetricRollupRepository;
+import com.ghulam.weather.metrics.statistic.MetricAccumulator;
+import com.ghulam.weather.metrics.store.MetricStorage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.ObjectUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Aggregate count, sum, min and max per sensor, metric name and time bucket of a fixed interval, for charting.
+ * <p>
+ * Buckets are aligned to the interval since 1970-01-01T00:00, so 1h buckets start on the hour and 1d buckets at midnight.
+ * When the interval is a multiple of a rollup granularity, the buckets are built from the rollups that fit completely inside the range,
+ * finer rollups and then raw readings fill the edges, every rollup or reading is read once.
+ */
+@Service
+@Slf4j
+public class MetricSeriesService {
+
+    private static final Pattern INTERVAL = Pattern.compile("(\\d+)([mhd])");
+    private static final List<RollupGranularity> COARSEST_FIRST = List.of(RollupGranularity.DAY, RollupGranularity.HOUR, RollupGranularity.MINUTE);
+
+    private final MetricRollupRepository metricRollupRepository;
+    private final MetricStorage metricStorage;
+    private final MetricRollupService metricRollupService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public MetricSeriesService(MetricRollupRepository metricRollupRepository,
+                               MetricStorage metricStorage,
+                               MetricRollupService metricRollupService,
+                               PlatformTransactionManager transactionManager) {
+        this.metricRollupRepository = metricRollupRepository;
+        this.metricStorage = metricStorage;
+        this.metricRollupService = metricRollupService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Parse an interval as number and unit, m for minutes, h for hours, d for days e.g 1m, 15m, 1h, 1d
+     * @param interval - interval text
+     * @return interval duration
+     * @throws IllegalArgumentException if the interval is not valid
+     */
+    public static Duration parseInterval(String interval) {
+        Matcher matcher = INTERVAL.matcher(interval);
+        long amount = matcher.matches() ? Long.parseLong(matcher.group(1)) : 0;
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Invalid interval provided: " + interval + ", expected e.g 1m, 1h, 1d");
+        }
+        return switch (matcher.group(2)) {
+            case "m" -> Duration.ofMinutes(amount);
+            case "h" -> Duration.ofHours(amount);
+            default -> Duration.ofDays(amount);
+        };
+    }
+
+    /**
+     * Number of buckets of the interval needed to cover [startDate, endDate]
+     * @param startDate - start of the range
+     * @param endDate - end of the range, inclusive
+     * @param interval - bucket size
+     * @return bucket count per sensor and metric
+     */
+    public static long bucketCount(LocalDateTime startDate, LocalDateTime endDate, Duration interval) {
+        long seconds = interval.toSeconds();
+        return Math.floorDiv(endDate.toEpochSecond(ZoneOffset.UTC), seconds) - Math.floorDiv(startDate.toEpochSecond(ZoneOffset.UTC), seconds) + 1;
+    }
+
+    /**
+     * Aggregate per sensor, metric name and bucket of the interval the readings in [startDate, endDate]
+     * @param sensorIds - List of sensor id wanted to query, all if empty
+     * @param metricNames - List of metric names wanted to query, all if empty
+     * @param startDate - date from series will be start calculating
+     * @param endDate - date till series will stop calculating, inclusive
+     * @param interval - bucket size, at least a minute
+     * @return aggregate per sensor, metric name and bucket stamped with the bucket start, ordered by sensor, metric and bucket
+     */
+    public List<MetricAggregateModel> aggregate(List<String> sensorIds, List<String> metricNames, LocalDateTime startDate, LocalDateTime endDate, Duration interval) {
+        Buckets buckets = new Buckets(metricNames, interval.toSeconds());
+        LocalDateTime end = endDate.plusNanos(1);
+        int level = COARSEST_FIRST.size();
+        if (metricRollupService.isEnabled()) {
+            // coarsest rollup whose buckets fall inside one interval bucket
+            level = 0;
+            while (level < COARSEST_FIRST.size() && interval.toSeconds() % COARSEST_FIRST.get(level).getDuration().toSeconds() != 0) {
+                level++;
+            }
+        }
+        int firstLevel = level;
+        transactionTemplate.executeWithoutResult(status -> aggregate(sensorIds, startDate, end, firstLevel, buckets));
+        return buckets.toAggregates();
+    }
+
+    /**
+     * Split [start, end) into full rollups of the granularity and edges handled by the next finer granularity, raw below minute
+     */
+    private void aggregate(List<String> sensorIds, LocalDateTime start, LocalDateTime end, int level, Buckets buckets) {
+        if (!start.isBefore(end)) {
+            return;
+        }
+        if (level == COARSEST_FIRST.size()) {
+            metricStorage.forEachValue(sensorIds, start, end, buckets::add);
+            return;
+        }
+        RollupGranularity granularity = COARSEST_FIRST.get(level);
+        LocalDateTime firstBucket = granularity.nextBucketStart(start);
+        LocalDateTime endBucket = granularity.bucketStart(end);
+        if (!firstBucket.isBefore(endBucket)) {
+            aggregate(sensorIds, start, end, level + 1, buckets);
+            return;
+        }
+        aggregate(sensorIds, start, firstBucket, level + 1, buckets);
+        List<MetricAggregateModel> rollups = ObjectUtils.isEmpty(sensorIds)
+                ? metricRollupRepository.findByBucketStartRange(granularity, firstBucket, endBucket)
+                : metricRollupRepository.findBySensorIdsAndBucketStartRange(sensorIds, granularity, firstBucket, endBucket);
+        rollups.forEach(buckets::add);
+        aggregate(sensorIds, endBucket, end, level + 1, buckets);
+    }
+
+    /**
+     * Accumulators per sensor, metric name and bucket index
+     */
+    private static class Buckets {
+
+        private final Set<String> metricNames;
+        private final long intervalSeconds;
+        private final Map<List<String>, TreeMap<Long, MetricAccumulator>> series = new TreeMap<>(
+                Comparator.<List<String>, String>comparing(key -> key.get(0)).thenComparing(key -> key.get(1)));
+
+        private Buckets(List<String> metricNames, long intervalSeconds) {
+            this.metricNames = ObjectUtils.isEmpty(metricNames) ? null : new HashSet<>(metricNames);
+            this.intervalSeconds = intervalSeconds;
+        }
+
+        private void add(String sensorId, String metricName, LocalDateTime timestamp, double value) {
+            MetricAccumulator accumulator = accumulator(sensorId, metricName, timestamp);
+            if (accumulator != null) {
+                accumulator.add(value, timestamp);
+            }
+        }
+
+        private void add(MetricAggregateModel rollup) {
+            MetricAccumulator accumulator = accumulator(rollup.getSensorId(), rollup.getMetricName(), rollup.getTimestamp());
+            if (accumulator != null) {
+                accumulator.add(rollup.getCount(), rollup.getSum(), rollup.getMin(), rollup.getMax(), rollup.getTimestamp());
+            }
+        }
+
+        private MetricAccumulator accumulator(String sensorId, String metricName, LocalDateTime timestamp) {
+            if (metricNames != null && !metricNames.contains(metricName)) {
+                return null;
+            }
+            long bucket = Math.floorDiv(timestamp.toEpochSecond(ZoneOffset.UTC), intervalSeconds);
+            return series.computeIfAbsent(List.of(sensorId, metricName), key -> new TreeMap<>())
+                    .computeIfAbsent(bucket, index -> new MetricAccumulator());
+        }
+
+        private List<MetricAggregateModel> toAggregates() {
+            List<MetricAggregateModel> aggregates = new ArrayList<>();
+            series.forEach((key, buckets) -> buckets.forEach((bucket, accumulator) -> {
+                MetricAggregateModel aggregate = accumulator.toAggregate(key.get(0), key.get(1));
+                aggregate.setTimestamp(LocalDateTime.ofEpochSecond(bucket * intervalSeconds, 0, ZoneOffset.UTC));
+                aggregates.add(aggregate);
+            }));
+            return aggregates;
+        }
+    }
+}
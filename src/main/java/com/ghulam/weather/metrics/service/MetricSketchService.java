@@ -0,0 +1,257 @@
+package com.ghulam.weather.metrics.service;
+
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.MetricRollupId;
+import com.ghulam.weather.metrics.entity.MetricSketchEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.RollupGranularity;
+import com.ghulam.weather.metrics.repository.MetricSketchRepository;
+import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import com.ghulam.weather.metrics.statistic.QuantileSketch;
+import com.ghulam.weather.metrics.store.MetricStorage;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.ObjectUtils;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Maintain hour and day quantile sketches per sensor and metric name and merge them to answer quantiles of a range.
+ * <p>
+ * The values of the saved weather metrics are sketched per bucket in memory, ingestion only contends on the buckets it
+ * shares with another batch. The pending sketches are merged into the stored ones every sketch.flush-interval-ms and before
+ * quantiles are read, in one transaction loading and locking the stored sketches of a granularity with one query.
+ * Flushes and backfill of this instance are serialized, flushes of other instances wait for the row locks, and two
+ * instances inserting the same new sketch fail one flush, which is retried. Pending sketches are lost if the process
+ * dies before they are flushed, rebuild them with the backfill.
+ * <p>
+ * A range is answered with the day and hour sketches that fit completely inside it, the edges that do not fill
+ * an hour are sketched from the raw readings of the {@link MetricStorage}, so quantiles over a month merge a few dozen sketches.
+ */
+@Service
+@Slf4j
+public class MetricSketchService implements WeatherMetricIngestListener, DisposableBean {
+
+    private static final List<RollupGranularity> COARSEST_FIRST = List.of(RollupGranularity.DAY, RollupGranularity.HOUR);
+
+    private final MetricSketchRepository metricSketchRepository;
+    private final WeatherMetricRepository weatherMetricRepository;
+    private final MetricStorage metricStorage;
+    private final EntityManager entityManager;
+    private final TransactionTemplate writeTransactionTemplate;
+    private final TransactionTemplate readTransactionTemplate;
+    private final boolean enabled;
+
+    /**
+     * Sketches of the saved values not merged into the stored sketches yet, by bucket
+     */
+    private final ConcurrentMap<MetricRollupId, QuantileSketch> pending = new ConcurrentHashMap<>();
+    private final Object flushLock = new Object();
+
+    @Autowired
+    public MetricSketchService(MetricSketchRepository metricSketchRepository,
+                               WeatherMetricRepository weatherMetricRepository,
+                               MetricStorage metricStorage,
+                               EntityManager entityManager,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${sketch.enabled:true}") boolean enabled) {
+        this.metricSketchRepository = metricSketchRepository;
+        this.weatherMetricRepository = weatherMetricRepository;
+        this.metricStorage = metricStorage;
+        this.entityManager = entityManager;
+        this.writeTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.writeTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.readTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readTransactionTemplate.setReadOnly(true);
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sketches are maintained and used for quantiles
+     * @return true if enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void onSaved(List<WeatherMetricEntity> weatherMetrics) {
+        if (!enabled) {
+            return;
+        }
+        // merged per bucket under the lock of the bucket, a pending sketch is only changed until the flush removes it
+        toSketches(weatherMetrics).forEach((id, sketch) -> pending.merge(id, sketch, QuantileSketch::merge));
+    }
+
+    /**
+     * Merge the pending sketches into the stored ones, they are kept pending for the next flush if the transaction fails
+     */
+    @Scheduled(fixedDelayString = "${sketch.flush-interval-ms:1000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        synchronized (flushLock) {
+            Map<MetricRollupId, QuantileSketch> updates = new HashMap<>();
+            for (MetricRollupId id : pending.keySet()) {
+                updates.put(id, pending.remove(id));
+            }
+            if (updates.isEmpty()) {
+                return;
+            }
+            try {
+                writeTransactionTemplate.executeWithoutResult(status -> update(updates));
+            } catch (RuntimeException e) {
+                log.warn("Failed to flush {} sketches, retrying on the next flush", updates.size(), e);
+                updates.forEach((id, sketch) -> pending.merge(id, sketch, QuantileSketch::merge));
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        flush();
+    }
+
+    /**
+     * Quantile sketch per sensor and metric name of the readings in [startDate, endDate].
+     * If sketches are disabled every reading of the range is sketched, memory stays bounded but all readings are read.
+     * @param sensorIds - List of sensor id wanted to query, all if empty
+     * @param startDate - date from statistic will be start calculating
+     * @param endDate - date till statistic will stop calculating, inclusive
+     * @return sketch per sensor id and metric name
+     */
+    public Map<List<String>, QuantileSketch> aggregate(List<String> sensorIds, LocalDateTime startDate, LocalDateTime endDate) {
+        if (enabled) {
+            flush();
+        }
+        return readTransactionTemplate.execute(status -> {
+            Map<List<String>, QuantileSketch> merged = new LinkedHashMap<>();
+            aggregate(sensorIds, startDate, endDate.plusNanos(1), enabled ? 0 : COARSEST_FIRST.size(), merged);
+            return merged;
+        });
+    }
+
+    /**
+     * Rebuild the sketches of [startDate, endDate) from the raw weather metrics, one day per transaction.
+     * Readings saved for a day while it is rebuilt can be counted twice.
+     * @param startDate - first day to rebuild
+     * @param endDate - end of the range to rebuild, exclusive
+     * @return number of sketches written
+     */
+    public long backfill(LocalDateTime startDate, LocalDateTime endDate) {
+        flush();
+        long written = 0;
+        for (LocalDateTime day = RollupGranularity.DAY.bucketStart(startDate); day.isBefore(endDate); day = day.plusDays(1)) {
+            LocalDateTime dayStart = day;
+            LocalDateTime dayEnd = day.plusDays(1);
+            synchronized (flushLock) {
+                written += writeTransactionTemplate.execute(status -> rebuildDay(dayStart, dayEnd));
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Split [start, end) into full buckets of the granularity and edges handled by the next finer granularity, raw below hour
+     */
+    private void aggregate(List<String> sensorIds, LocalDateTime start, LocalDateTime end, int level, Map<List<String>, QuantileSketch> merged) {
+        if (!start.isBefore(end)) {
+            return;
+        }
+        if (level == COARSEST_FIRST.size()) {
+            metricStorage.forEachValue(sensorIds, start, end, (sensorId, metricName, timestamp, value) ->
+                    merged.computeIfAbsent(List.of(sensorId, metricName), key -> new QuantileSketch()).add(value));
+            return;
+        }
+        RollupGranularity granularity = COARSEST_FIRST.get(level);
+        LocalDateTime firstBucket = granularity.nextBucketStart(start);
+        LocalDateTime endBucket = granularity.bucketStart(end);
+        if (!firstBucket.isBefore(endBucket)) {
+            aggregate(sensorIds, start, end, level + 1, merged);
+            return;
+        }
+        aggregate(sensorIds, start, firstBucket, level + 1, merged);
+        List<MetricSketchEntity> sketches = ObjectUtils.isEmpty(sensorIds)
+                ? metricSketchRepository.findByBucketStartRange(granularity, firstBucket, endBucket)
+                : metricSketchRepository.findBySensorIdsAndBucketStartRange(sensorIds, granularity, firstBucket, endBucket);
+        for (MetricSketchEntity sketch : sketches) {
+            merged.merge(List.of(sketch.getSensorId(), sketch.getMetricName()), QuantileSketch.fromBytes(sketch.getSketch()), QuantileSketch::merge);
+        }
+        aggregate(sensorIds, endBucket, end, level + 1, merged);
+    }
+
+    /**
+     * Sketch the readings per bucket, for every granularity
+     */
+    private static Map<MetricRollupId, QuantileSketch> toSketches(List<WeatherMetricEntity> weatherMetrics) {
+        Map<MetricRollupId, QuantileSketch> sketches = new HashMap<>();
+        for (WeatherMetricEntity weatherMetric : weatherMetrics) {
+            for (MetricEntity metric : weatherMetric.getMetrics()) {
+                add(sketches, weatherMetric.getSensorId(), metric.getMetricName(), weatherMetric.getTimestamp(), metric.getMetricValue());
+            }
+        }
+        return sketches;
+    }
+
+    private static void add(Map<MetricRollupId, QuantileSketch> sketches, String sensorId, String metricName, LocalDateTime timestamp, double value) {
+        for (RollupGranularity granularity : COARSEST_FIRST) {
+            sketches.computeIfAbsent(new MetricRollupId(sensorId, metricName, granularity, granularity.bucketStart(timestamp)), id -> new QuantileSketch())
+                    .add(value);
+        }
+    }
+
+    /**
+     * Merge the new values into the stored sketches, insert the missing ones.
+     * The stored sketches stay locked until the transaction commits, so no concurrent flush overwrites the merge.
+     */
+    private void update(Map<MetricRollupId, QuantileSketch> updates) {
+        Map<MetricRollupId, MetricSketchEntity> stored = new HashMap<>();
+        updates.keySet().stream().collect(Collectors.groupingBy(MetricRollupId::getGranularity)).forEach((granularity, ids) -> {
+            // sensors and bucket starts of the granularity select a superset of the updated sketches
+            Set<String> sensorIds = ids.stream().map(MetricRollupId::getSensorId).collect(Collectors.toSet());
+            Set<LocalDateTime> bucketStarts = ids.stream().map(MetricRollupId::getBucketStart).collect(Collectors.toSet());
+            for (MetricSketchEntity sketch : metricSketchRepository.findBySensorIdsAndBucketStarts(sensorIds, granularity, bucketStarts)) {
+                stored.put(new MetricRollupId(sketch.getSensorId(), sketch.getMetricName(), sketch.getGranularity(), sketch.getBucketStart()), sketch);
+            }
+        });
+        for (Map.Entry<MetricRollupId, QuantileSketch> update : updates.entrySet()) {
+            MetricSketchEntity sketch = stored.get(update.getKey());
+            if (sketch == null) {
+                entityManager.persist(toEntity(update.getKey(), update.getValue()));
+            } else {
+                // managed entity, written when the transaction commits
+                sketch.setSketch(QuantileSketch.fromBytes(sketch.getSketch()).merge(update.getValue()).toBytes());
+            }
+        }
+    }
+
+    private long rebuildDay(LocalDateTime dayStart, LocalDateTime dayEnd) {
+        metricSketchRepository.deleteByBucketStartRange(dayStart, dayEnd);
+        Map<MetricRollupId, QuantileSketch> sketches = new HashMap<>();
+        try (Stream<Object[]> values = weatherMetricRepository.streamValuesByTimestampRange(dayStart, dayEnd)) {
+            values.forEach(row -> add(sketches, (String) row[0], (String) row[1], (LocalDateTime) row[2], ((Number) row[3]).doubleValue()));
+        }
+        sketches.forEach((id, sketch) -> entityManager.persist(toEntity(id, sketch)));
+        log.debug("Rebuilt {} sketches of {}", sketches.size(), dayStart.toLocalDate());
+        return sketches.size();
+    }
+
+    private static MetricSketchEntity toEntity(MetricRollupId id, QuantileSketch sketch) {
+        return MetricSketchEntity.builder().sensorId(id.getSensorId()).metricName(id.getMetricName()).granularity(id.getGranularity())
+                .bucketStart(id.getBucketStart()).sketch(sketch.toBytes()).build();
+    }
+}
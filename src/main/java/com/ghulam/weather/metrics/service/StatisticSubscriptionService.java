@@ -0,0 +1,312 @@
+package com.ghulam.weather.metrics.service;
+
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.exception.SubscriptionRejectedException;
+import com.ghulam.weather.metrics.model.WeatherMetricStatisticModel;
+import com.ghulam.weather.metrics.statistic.SlidingWindowAggregator;
+import com.ghulam.weather.metrics.store.MetricStorage;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.ObjectUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live statistics over a sliding window, pushed to the subscribers as Server-Sent Events.
+ * <p>
+ * The readings of the subscribed sensors are kept in one {@link SlidingWindowAggregator} of minute buckets shared by all
+ * subscriptions, so memory follows the number of series and the longest window, not the ingest rate nor the number of
+ * subscriptions. The statistics of a subscription are aggregated from the buckets of its window.
+ * <p>
+ * Everything runs on the push every push-interval-ms, off the request and ingest threads. The saved weather metrics are only
+ * queued by the ingest threads, the push loads the window of the new subscriptions from the {@link MetricStorage}, applies
+ * the queued readings, evicts the minutes that left the longest window and sends the statistics that changed.
+ * A subscription is registered before its window is loaded, a reading saved meanwhile is both queued and loaded, the keys
+ * (sensor and timestamp) of the loaded readings are kept for one more push so it is counted once.
+ */
+@Service
+@Slf4j
+public class StatisticSubscriptionService implements WeatherMetricIngestListener, MeterBinder {
+
+    public static final String EVENT_NAME = "statistic";
+
+    /**
+     * End of the range loaded for a new subscription, readings stamped in the future are in the window too
+     */
+    private static final LocalDateTime LOAD_END = LocalDateTime.of(9999, 12, 31, 0, 0);
+
+    private final MetricStorage metricStorage;
+    private final int maxSubscriptions;
+    private final long timeoutMs;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final Queue<Subscription> pendingLoads = new ConcurrentLinkedQueue<>();
+    private final Queue<List<WeatherMetricEntity>> savedReadings = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pushes = new AtomicLong();
+
+    /**
+     * Saved readings are queued, from the first subscription until the windows are dropped once none is left
+     */
+    private volatile boolean tracking;
+
+    // state of the push, guarded by this
+    private final SlidingWindowAggregator windows = new SlidingWindowAggregator();
+    private final Map<String, LocalDateTime> coveredFrom = new HashMap<>();
+    private LocalDateTime allCoveredFrom;
+    private Set<ReadingKey> recentlyLoaded = Set.of();
+    private LocalDateTime lastPushMinute;
+
+    @Autowired
+    public StatisticSubscriptionService(MetricStorage metricStorage,
+                                        @Value("${subscription.max-subscriptions:1000}") int maxSubscriptions,
+                                        @Value("${subscription.timeout-ms:1800000}") long timeoutMs) {
+        this.metricStorage = metricStorage;
+        this.maxSubscriptions = maxSubscriptions;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Subscribe to the statistics of the sensors and metric names over the last window, the current statistics are sent
+     * by the next push, then every time they change
+     * @param sensorIds - List of sensor id wanted to query, all if empty
+     * @param metricNames - List of metrics wanted to query, all if empty
+     * @param statistics - Expected statistics e.g - min, max, sum, avg
+     * @param window - length of the sliding window ending now
+     * @return emitter of the statistic events
+     * @throws SubscriptionRejectedException if the maximum number of subscriptions is reached
+     */
+    public SseEmitter subscribe(List<String> sensorIds, List<String> metricNames, List<String> statistics, Duration window) {
+        if (subscriptions.size() >= maxSubscriptions) {
+            throw new SubscriptionRejectedException("Maximum number of statistic subscriptions reached, retry later");
+        }
+        Subscription subscription = new Subscription(sensorIds, metricNames, statistics, window, new SseEmitter(timeoutMs));
+        subscription.emitter.onCompletion(() -> unsubscribe(subscription));
+        subscription.emitter.onTimeout(() -> unsubscribe(subscription));
+        subscription.emitter.onError(error -> unsubscribe(subscription));
+        // registered first, the readings saved from now on are queued, then loaded by the push
+        subscriptions.add(subscription);
+        pendingLoads.add(subscription);
+        return subscription.emitter;
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    @Override
+    public void onSaved(List<WeatherMetricEntity> weatherMetrics) {
+        if (tracking || !subscriptions.isEmpty()) {
+            savedReadings.add(weatherMetrics);
+        }
+    }
+
+    /**
+     * Load the windows of the new subscriptions, apply the saved readings, evict the minutes that left the windows and send
+     * the statistics that changed
+     */
+    @Scheduled(fixedDelayString = "${subscription.push-interval-ms:1000}")
+    public synchronized void pushChanges() {
+        LocalDateTime now = LocalDateTime.now();
+        if (subscriptions.isEmpty() && pendingLoads.isEmpty()) {
+            if (tracking) {
+                reset();
+            }
+            return;
+        }
+        tracking = true;
+        List<List<WeatherMetricEntity>> saved = new ArrayList<>();
+        for (List<WeatherMetricEntity> weatherMetrics; (weatherMetrics = savedReadings.poll()) != null; ) {
+            saved.add(weatherMetrics);
+        }
+        Set<ReadingKey> loaded = new HashSet<>();
+        for (Subscription subscription; (subscription = pendingLoads.poll()) != null; ) {
+            if (subscriptions.contains(subscription)) {
+                load(subscription, now, loaded);
+            }
+        }
+        Set<String> changedSensors = apply(saved, loaded);
+        recentlyLoaded = loaded;
+        evict(now);
+
+        LocalDateTime minute = SlidingWindowAggregator.bucketStart(now);
+        boolean windowsMoved = !minute.equals(lastPushMinute);
+        lastPushMinute = minute;
+        for (Subscription subscription : subscriptions) {
+            if (subscription.loaded && (windowsMoved || subscription.sent == null || subscription.isAffectedBy(changedSensors))) {
+                push(subscription, now);
+            }
+        }
+    }
+
+    /**
+     * Load the readings of the window of the subscription not in the windows yet
+     */
+    private void load(Subscription subscription, LocalDateTime now, Set<ReadingKey> loaded) {
+        LocalDateTime start = SlidingWindowAggregator.bucketStart(now.minus(subscription.window));
+        MetricStorage.ValueConsumer consumer = (sensorId, metricName, timestamp, value) -> {
+            if (!isCovered(sensorId, timestamp)) {
+                windows.add(sensorId, metricName, timestamp, value);
+                loaded.add(new ReadingKey(sensorId, timestamp));
+            }
+        };
+        if (subscription.sensorIds.isEmpty()) {
+            if (allCoveredFrom == null || allCoveredFrom.isAfter(start)) {
+                metricStorage.forEachValue(null, start, allCoveredFrom == null ? LOAD_END : allCoveredFrom, consumer);
+                allCoveredFrom = start;
+            }
+        } else {
+            List<String> missing = subscription.sensorIds.stream().filter(sensorId -> !isCovered(sensorId, start)).sorted().toList();
+            if (!missing.isEmpty()) {
+                metricStorage.forEachValue(missing, start, LOAD_END, consumer);
+            }
+            subscription.sensorIds.forEach(sensorId -> coveredFrom.merge(sensorId, start, (from, newFrom) -> from.isBefore(newFrom) ? from : newFrom));
+        }
+        subscription.loaded = true;
+    }
+
+    /**
+     * Add the saved readings of the covered sensors, except the ones loaded with a window
+     * @return sensors that got readings
+     */
+    private Set<String> apply(List<List<WeatherMetricEntity>> saved, Set<ReadingKey> loaded) {
+        Set<String> changedSensors = new HashSet<>();
+        for (List<WeatherMetricEntity> weatherMetrics : saved) {
+            for (WeatherMetricEntity weatherMetric : weatherMetrics) {
+                if (!isCovered(weatherMetric.getSensorId(), weatherMetric.getTimestamp())) {
+                    continue;
+                }
+                ReadingKey key = new ReadingKey(weatherMetric.getSensorId(), weatherMetric.getTimestamp());
+                if (loaded.contains(key) || recentlyLoaded.contains(key)) {
+                    continue;
+                }
+                for (MetricEntity metric : weatherMetric.getMetrics()) {
+                    windows.add(weatherMetric.getSensorId(), metric.getMetricName(), weatherMetric.getTimestamp(), metric.getMetricValue());
+                }
+                changedSensors.add(weatherMetric.getSensorId());
+            }
+        }
+        return changedSensors;
+    }
+
+    /**
+     * Evict the minutes before the longest window and the sensors no subscription reads anymore
+     */
+    private void evict(LocalDateTime now) {
+        Duration longest = subscriptions.stream().map(subscription -> subscription.window).max(Comparator.naturalOrder()).orElse(Duration.ZERO);
+        LocalDateTime start = SlidingWindowAggregator.bucketStart(now.minus(longest));
+        windows.evictBefore(start);
+        coveredFrom.replaceAll((sensorId, from) -> from.isBefore(start) ? start : from);
+        if (allCoveredFrom != null && allCoveredFrom.isBefore(start)) {
+            allCoveredFrom = start;
+        }
+        if (subscriptions.stream().anyMatch(subscription -> subscription.sensorIds.isEmpty())) {
+            return;
+        }
+        Set<String> subscribed = new HashSet<>();
+        subscriptions.forEach(subscription -> subscribed.addAll(subscription.sensorIds));
+        if (allCoveredFrom != null) {
+            // the sensors left keep every reading since the subscriptions of all sensors were loaded
+            LocalDateTime from = allCoveredFrom;
+            subscribed.forEach(sensorId -> coveredFrom.merge(sensorId, from, (sensorFrom, allFrom) -> sensorFrom.isBefore(allFrom) ? sensorFrom : allFrom));
+            allCoveredFrom = null;
+        }
+        coveredFrom.keySet().retainAll(subscribed);
+        new ArrayList<>(windows.getSensorIds()).stream().filter(sensorId -> !subscribed.contains(sensorId)).forEach(windows::remove);
+    }
+
+    /**
+     * Drop the windows once no subscription is left, the saved readings are not queued anymore
+     */
+    private void reset() {
+        tracking = false;
+        savedReadings.clear();
+        new ArrayList<>(windows.getSensorIds()).forEach(windows::remove);
+        coveredFrom.clear();
+        allCoveredFrom = null;
+        recentlyLoaded = Set.of();
+        log.debug("Dropped the statistic windows, no subscription left");
+    }
+
+    /**
+     * Every reading of the sensor from the timestamp on is in the windows
+     */
+    private boolean isCovered(String sensorId, LocalDateTime timestamp) {
+        LocalDateTime from = coveredFrom.get(sensorId);
+        return (from != null && !timestamp.isBefore(from)) || (allCoveredFrom != null && !timestamp.isBefore(allCoveredFrom));
+    }
+
+    private void push(Subscription subscription, LocalDateTime now) {
+        List<WeatherMetricStatisticModel> statistics = WeatherMetricService.toStatisticModels(
+                windows.getAggregates(subscription.sensorIds, subscription.metricNames, SlidingWindowAggregator.bucketStart(now.minus(subscription.window))),
+                subscription.statistics);
+        if (statistics.equals(subscription.sent)) {
+            return;
+        }
+        subscription.sent = statistics;
+        try {
+            subscription.emitter.send(SseEmitter.event().name(EVENT_NAME).data(statistics, MediaType.APPLICATION_JSON));
+            pushes.incrementAndGet();
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Dropping statistic subscription, the client is gone", e);
+            unsubscribe(subscription);
+            subscription.emitter.completeWithError(e);
+        }
+    }
+
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("weather.subscription.active", this, StatisticSubscriptionService::getSubscriptionCount)
+                .description("Live statistic subscriptions").register(registry);
+        FunctionCounter.builder("weather.subscription.pushes", pushes, AtomicLong::get)
+                .description("Statistic events sent to the subscribers").register(registry);
+    }
+
+    private static final class Subscription {
+
+        private final Set<String> sensorIds;
+        private final Set<String> metricNames;
+        private final List<String> statistics;
+        private final Duration window;
+        private final SseEmitter emitter;
+        // read and written by the push only
+        private boolean loaded;
+        private List<WeatherMetricStatisticModel> sent;
+
+        private Subscription(List<String> sensorIds, List<String> metricNames, List<String> statistics, Duration window, SseEmitter emitter) {
+            this.sensorIds = ObjectUtils.isEmpty(sensorIds) ? Set.of() : Set.copyOf(sensorIds);
+            this.metricNames = ObjectUtils.isEmpty(metricNames) ? Set.of() : Set.copyOf(metricNames);
+            this.statistics = statistics;
+            this.window = window;
+            this.emitter = emitter;
+        }
+
+        private boolean isAffectedBy(Set<String> changedSensors) {
+            if (sensorIds.isEmpty()) {
+                return !changedSensors.isEmpty();
+            }
+            return sensorIds.stream().anyMatch(changedSensors::contains);
+        }
+    }
+
+    private record ReadingKey(String sensorId, LocalDateTime timestamp) {
+    }
+}
@@ -0,0 +1,143 @@
+package com.ghulam.weather.metrics.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.BulkIngestResponse;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Bulk ingestion of weather metrics from a JSON array or a newline-delimited JSON stream.
+ * <p>
+ * Readings are parsed and validated one at a time from the request stream, so the payload is never buffered as a whole,
+ * valid readings are handed over to {@link WeatherMetricIngestionService} in batches.
+ */
+@Service
+@Slf4j
+public class WeatherMetricBulkIngestionService {
+
+    /**
+     * Maximum number of rejected readings reported back with their reason
+     */
+    private static final int MAX_REPORTED_ERRORS = 1000;
+
+    private final WeatherMetricIngestionService weatherMetricIngestionService;
+    private final Validator validator;
+    private final ObjectReader reader;
+    private final int batchSize;
+
+    @Autowired
+    public WeatherMetricBulkIngestionService(WeatherMetricIngestionService weatherMetricIngestionService,
+                                             Validator validator,
+                                             ObjectMapper objectMapper,
+                                             @Value("${ingest.batch-size:500}") int batchSize) {
+        this.weatherMetricIngestionService = weatherMetricIngestionService;
+        this.validator = validator;
+        this.reader = objectMapper.readerFor(WeatherMetricEntity.class);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Parse, validate and persist the readings of the body.
+     * The body is either a JSON array of readings or readings separated by new line (NDJSON)
+     *
+     * @param body - request body
+     * @return number of accepted and rejected readings
+     * @throws IOException if the body can not be read
+     */
+    public BulkIngestResponse ingest(InputStream body) throws IOException {
+        BulkResult result = new BulkResult();
+        List<WeatherMetricEntity> batch = new ArrayList<>(batchSize);
+        List<Long> batchIndexes = new ArrayList<>(batchSize);
+        long index = 0;
+
+        // MappingIterator reads the elements of a root level array or a sequence of root level values the same way
+        try (MappingIterator<WeatherMetricEntity> iterator = reader.readValues(body)) {
+            while (true) {
+                WeatherMetricEntity weatherMetricEntity;
+                try {
+                    if (!iterator.hasNextValue()) {
+                        break;
+                    }
+                    weatherMetricEntity = iterator.nextValue();
+                } catch (JsonMappingException e) {
+                    // invalid reading, the iterator skips to the next one
+                    result.reject(index++, List.of(e.getOriginalMessage()));
+                    continue;
+                } catch (JsonProcessingException e) {
+                    // malformed json, the rest of the stream can not be parsed
+                    result.reject(index, List.of(e.getOriginalMessage()));
+                    break;
+                }
+
+                List<String> violations = validator.validate(weatherMetricEntity).stream()
+                        .map(ConstraintViolation::getMessage)
+                        .toList();
+                if (!violations.isEmpty()) {
+                    result.reject(index++, violations);
+                    continue;
+                }
+
+                batch.add(weatherMetricEntity);
+                batchIndexes.add(index++);
+                if (batch.size() >= batchSize) {
+                    flush(batch, batchIndexes, result);
+                    batch = new ArrayList<>(batchSize);
+                    batchIndexes = new ArrayList<>(batchSize);
+                }
+            }
+        }
+        flush(batch, batchIndexes, result);
+
+        log.debug("Bulk ingestion accepted {} and rejected {} weather metrics", result.accepted, result.rejected);
+        return BulkIngestResponse.builder()
+                .accepted(result.accepted)
+                .rejected(result.rejected)
+                .errors(result.errors)
+                .build();
+    }
+
+    private void flush(List<WeatherMetricEntity> batch, List<Long> batchIndexes, BulkResult result) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<WeatherMetricEntity> notAccepted = weatherMetricIngestionService.ingestBatch(batch);
+        Set<WeatherMetricEntity> notAcceptedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        notAcceptedSet.addAll(notAccepted);
+        for (int i = 0; i < batch.size(); i++) {
+            if (notAcceptedSet.contains(batch.get(i))) {
+                result.reject(batchIndexes.get(i), List.of("Weather metric could not be ingested, retry later"));
+            } else {
+                result.accepted++;
+            }
+        }
+    }
+
+    /**
+     * Running counters of one bulk ingestion
+     */
+    private static class BulkResult {
+        private long accepted;
+        private long rejected;
+        private final List<BulkIngestResponse.RecordError> errors = new ArrayList<>();
+
+        private void reject(long index, List<String> messages) {
+            rejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(BulkIngestResponse.RecordError.builder().index(index).messages(messages).build());
+            }
+        }
+    }
+}
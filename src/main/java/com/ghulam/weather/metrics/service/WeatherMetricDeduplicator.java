@@ -0,0 +1,192 @@
+package com.ghulam.weather.metrics.service;
+
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import com.ghulam.weather.metrics.store.RecentReadingFilter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drops the readings already saved for their sensor and timestamp, gateways retry on timeouts and a duplicate would be counted
+ * twice by every statistic.
+ * <p>
+ * The keys of the recent saved readings are kept in a {@link RecentReadingFilter}, a new reading is certainly not a duplicate
+ * when the filter never saw its key and is saved without a lookup. The keys of the last saved readings are also kept exactly,
+ * a gateway retrying a reading is answered from them. Only the other readings the filter may have seen are looked up in the
+ * database, either older duplicates or false positives. Keys are added once their readings are committed, see {@link #markSaved}.
+ * The unique constraint on the sensor and timestamp of weather_metric catches what the filter can not: readings saved before
+ * the start or forgotten by the filter, and duplicates saved concurrently.
+ */
+@Component
+@Slf4j
+public class WeatherMetricDeduplicator implements MeterBinder {
+
+    /**
+     * Unique constraint of V4__unique_weather_metric_sensor_timestamp
+     */
+    public static final String UNIQUE_CONSTRAINT = "uk_weather_metric_sensor_timestamp";
+
+    private final WeatherMetricRepository weatherMetricRepository;
+    private final boolean enabled;
+    private final RecentReadingFilter filter;
+    private final Map<Key, Boolean> recentKeys;
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong filterDuplicates = new AtomicLong();
+    private final AtomicLong constraintDuplicates = new AtomicLong();
+
+    @Autowired
+    public WeatherMetricDeduplicator(WeatherMetricRepository weatherMetricRepository,
+                                     @Value("${ingest.dedup.enabled:true}") boolean enabled,
+                                     @Value("${ingest.dedup.expected-keys:1000000}") long expectedKeys,
+                                     @Value("${ingest.dedup.false-positive-rate:0.01}") double falsePositiveRate,
+                                     @Value("${ingest.dedup.recent-keys:100000}") int recentKeyCount) {
+        this.weatherMetricRepository = weatherMetricRepository;
+        this.enabled = enabled;
+        this.filter = new RecentReadingFilter(expectedKeys, falsePositiveRate);
+        this.recentKeys = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+                return size() > recentKeyCount;
+            }
+        };
+        if (enabled) {
+            log.info("Deduplicating readings with a filter of 2 x {} KB and the keys of the last {} saved readings",
+                    filter.getBits() / 8 / 1024, recentKeyCount);
+        }
+    }
+
+    /**
+     * @param weatherMetric - reading to be saved
+     * @return true if a reading of the sensor and timestamp is already saved
+     */
+    public boolean isDuplicate(WeatherMetricEntity weatherMetric) {
+        return removeDuplicates(List.of(weatherMetric)).isEmpty();
+    }
+
+    /**
+     * Readings that are neither saved nor a duplicate of an earlier reading of the list, each reading is counted as checked once
+     * @param weatherMetrics - readings to be saved
+     * @return readings to save, in the given order
+     */
+    public List<WeatherMetricEntity> removeDuplicates(List<WeatherMetricEntity> weatherMetrics) {
+        if (!enabled) {
+            return weatherMetrics;
+        }
+        checked.addAndGet(weatherMetrics.size());
+        List<WeatherMetricEntity> unique = new ArrayList<>(weatherMetrics.size());
+        Set<Key> listKeys = weatherMetrics.size() > 1 ? new HashSet<>(weatherMetrics.size() * 2) : null;
+        for (WeatherMetricEntity weatherMetric : weatherMetrics) {
+            Key key = new Key(weatherMetric.getSensorId(), weatherMetric.getTimestamp());
+            boolean duplicate = listKeys != null && !listKeys.add(key);
+            if (!duplicate && filter.mightContain(key.sensorId(), key.timestamp())) {
+                // seen by the filter, a duplicate of a saved reading or a false positive
+                duplicate = isRecent(key) || lookup(weatherMetric);
+            }
+            if (duplicate) {
+                filterDuplicates.incrementAndGet();
+                log.debug("Dropping duplicate reading of sensor {} at {}", weatherMetric.getSensorId(), weatherMetric.getTimestamp());
+                continue;
+            }
+            unique.add(weatherMetric);
+        }
+        return unique;
+    }
+
+    /**
+     * Whether a reading that was already checked is saved meanwhile, looked up in the database without the filter and not
+     * counted as checked again, for readings of a batch that failed to save and are retried one by one
+     * @param weatherMetric - reading to be saved again
+     * @return true if a reading of the sensor and timestamp is saved
+     */
+    public boolean isSaved(WeatherMetricEntity weatherMetric) {
+        return enabled && lookup(weatherMetric);
+    }
+
+    /**
+     * Remember the keys of the committed readings, the keys of readings that are rolled back are never added
+     * @param saved - readings saved
+     */
+    public void markSaved(List<WeatherMetricEntity> saved) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (recentKeys) {
+            for (WeatherMetricEntity weatherMetric : saved) {
+                filter.put(weatherMetric.getSensorId(), weatherMetric.getTimestamp());
+                recentKeys.put(new Key(weatherMetric.getSensorId(), weatherMetric.getTimestamp()), Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * Forget the keys of the last saved readings, e.g. after readings are deleted. The filter is kept, it only costs lookups.
+     */
+    public void clearRecentKeys() {
+        synchronized (recentKeys) {
+            recentKeys.clear();
+        }
+    }
+
+    private boolean isRecent(Key key) {
+        synchronized (recentKeys) {
+            return recentKeys.containsKey(key);
+        }
+    }
+
+    private boolean lookup(WeatherMetricEntity weatherMetric) {
+        lookups.incrementAndGet();
+        return weatherMetricRepository.existsBySensorIdAndTimestamp(weatherMetric.getSensorId(), weatherMetric.getTimestamp());
+    }
+
+    /**
+     * Whether the insert failed on the unique constraint of the sensor and timestamp, the duplicate is counted if so
+     * @param e - failure of the insert of one reading
+     * @return true if the reading is a duplicate
+     */
+    public boolean isDuplicate(DataIntegrityViolationException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().toLowerCase(Locale.ROOT).contains(UNIQUE_CONSTRAINT)) {
+                constraintDuplicates.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return share of the checked readings that were duplicates, 0 before any reading
+     */
+    public double getDuplicateRate() {
+        long total = checked.get();
+        return total == 0 ? 0 : (double) (filterDuplicates.get() + constraintDuplicates.get()) / total;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("weather.ingest.dedup.checked", checked, AtomicLong::get)
+                .description("Readings checked for duplicates").register(registry);
+        FunctionCounter.builder("weather.ingest.dedup.lookups", lookups, AtomicLong::get)
+                .description("Database lookups of the readings the filter may have seen and of the retried readings").register(registry);
+        FunctionCounter.builder("weather.ingest.duplicates", filterDuplicates, AtomicLong::get)
+                .description("Duplicate readings dropped").tag("detected_by", "filter").register(registry);
+        FunctionCounter.builder("weather.ingest.duplicates", constraintDuplicates, AtomicLong::get)
+                .description("Duplicate readings dropped").tag("detected_by", "constraint").register(registry);
+        Gauge.builder("weather.ingest.dedup.rate", this, WeatherMetricDeduplicator::getDuplicateRate)
+                .description("Share of the checked readings that were duplicates").register(registry);
+    }
+
+    private record Key(String sensorId, LocalDateTime timestamp) {
+    }
+}
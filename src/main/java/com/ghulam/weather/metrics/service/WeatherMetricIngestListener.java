@@ -0,0 +1,27 @@
+package com.ghulam.weather.metrics.service;
+
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+
+import java.util.List;
+
+/**
+ * Callback for components maintaining derived data from the ingested weather metrics.
+ * Called by {@link WeatherMetricService} inside the transaction saving the weather metrics, for data that commits with them,
+ * and once that transaction committed, for data kept outside the database.
+ */
+public interface WeatherMetricIngestListener {
+
+    /**
+     * Weather metrics are being saved, a failure rolls them back
+     * @param weatherMetrics - weather metrics saved by the current transaction
+     */
+    default void onSaving(List<WeatherMetricEntity> weatherMetrics) {
+    }
+
+    /**
+     * Weather metrics have been saved
+     * @param weatherMetrics - saved weather metrics
+     */
+    default void onSaved(List<WeatherMetricEntity> weatherMetrics) {
+    }
+}
@@ -0,0 +1,329 @@
+package com.ghulam.weather.metrics.service;
+
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.exception.IngestionRejectedException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Ingestion stage in front of {@link WeatherMetricService}.
+ * <p>
+ * When async ingestion is enabled a weather metric is acknowledged as soon as it is in a bounded in-memory queue,
+ * a single flusher thread persists the queued metrics in batches, a batch is flushed when it reaches the batch size
+ * or when the flush interval elapsed since its first metric.
+ * If the queue is full the metric is rejected (HTTP 429) or the caller blocks until there is space, based on the backpressure mode.
+ * The metrics of a batch that fail to persist, e.g. during a database outage, are retried with a doubling backoff while the
+ * queue fills up, and only dropped and counted once the retries are exhausted.
+ * On shutdown the queue is drained and flushed before the application context is closed.
+ * <p>
+ * When async ingestion is disabled, the metric is persisted on the caller thread.
+ */
+@Service
+@Slf4j
+public class WeatherMetricIngestionService implements SmartLifecycle, MeterBinder {
+
+    public static final String BACKPRESSURE_REJECT = "reject";
+    public static final String BACKPRESSURE_BLOCK = "block";
+
+    private static final long MAX_RETRY_BACKOFF_MS = 30_000;
+
+    private final WeatherMetricService weatherMetricService;
+    private final boolean async;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final String backpressure;
+    private final long blockTimeoutMs;
+    private final int queueCapacity;
+    private final int maxRetries;
+    private final long retryBackoffMs;
+    private final BlockingQueue<WeatherMetricEntity> queue;
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Held shared to check running and enqueue, exclusive to stop running, so no metric is queued once the flusher may have exited
+     */
+    private final ReadWriteLock lifecycleLock = new ReentrantReadWriteLock();
+
+    private volatile boolean running;
+    private Thread flusher;
+
+    @Autowired
+    public WeatherMetricIngestionService(WeatherMetricService weatherMetricService,
+                                         @Value("${ingest.async:false}") boolean async,
+                                         @Value("${ingest.queue-capacity:10000}") int queueCapacity,
+                                         @Value("${ingest.batch-size:500}") int batchSize,
+                                         @Value("${ingest.flush-interval-ms:200}") long flushIntervalMs,
+                                         @Value("${ingest.backpressure:reject}") String backpressure,
+                                         @Value("${ingest.block-timeout-ms:1000}") long blockTimeoutMs,
+                                         @Value("${ingest.max-retries:5}") int maxRetries,
+                                         @Value("${ingest.retry-backoff-ms:500}") long retryBackoffMs) {
+        if (!BACKPRESSURE_REJECT.equals(backpressure) && !BACKPRESSURE_BLOCK.equals(backpressure)) {
+            throw new IllegalArgumentException("Invalid ingest.backpressure provided: " + backpressure);
+        }
+        this.weatherMetricService = weatherMetricService;
+        this.async = async;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.backpressure = backpressure;
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.queueCapacity = queueCapacity;
+        this.maxRetries = maxRetries;
+        this.retryBackoffMs = retryBackoffMs;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Accept the weather metric, it is queued for a batch insert if async ingestion is running, otherwise persisted directly
+     * @param weatherMetricEntity - Metrics to be added
+     * @throws IngestionRejectedException if the queue is full
+     */
+    public void ingest(WeatherMetricEntity weatherMetricEntity) {
+        lifecycleLock.readLock().lock();
+        try {
+            if (async && running) {
+                if (!enqueue(weatherMetricEntity)) {
+                    rejected.incrementAndGet();
+                    throw new IngestionRejectedException("Ingestion queue is full, retry later");
+                }
+                return;
+            }
+        } finally {
+            lifecycleLock.readLock().unlock();
+        }
+        weatherMetricService.saveMetric(weatherMetricEntity);
+    }
+
+    /**
+     * Accept a batch of weather metrics, it is queued if async ingestion is running, otherwise persisted directly in one batch
+     * @param weatherMetricEntities - Metrics to be added
+     * @return metrics that could not be accepted, empty if all are accepted
+     */
+    public List<WeatherMetricEntity> ingestBatch(List<WeatherMetricEntity> weatherMetricEntities) {
+        lifecycleLock.readLock().lock();
+        try {
+            if (async && running) {
+                List<WeatherMetricEntity> rejected = new ArrayList<>();
+                for (WeatherMetricEntity weatherMetricEntity : weatherMetricEntities) {
+                    if (!enqueue(weatherMetricEntity)) {
+                        rejected.add(weatherMetricEntity);
+                    }
+                }
+                this.rejected.addAndGet(rejected.size());
+                return rejected;
+            }
+        } finally {
+            lifecycleLock.readLock().unlock();
+        }
+        return persist(weatherMetricEntities);
+    }
+
+    /**
+     * Whether a batch would be accepted without waiting, for listeners that stop reading rather than get metrics rejected
+     * @param count - number of metrics of the batch, a batch larger than the queue only needs an empty queue
+     * @return true if the queue has space for the batch or metrics are persisted directly
+     */
+    public boolean canAccept(int count) {
+        return !(async && running) || queue.remainingCapacity() >= Math.min(count, queueCapacity);
+    }
+
+    /**
+     * Number of weather metrics waiting to be flushed
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("weather.ingest.queue.depth", this, WeatherMetricIngestionService::getQueueDepth)
+                .description("Weather metrics waiting to be flushed").register(registry);
+        FunctionCounter.builder("weather.ingest.rejected", rejected, AtomicLong::get)
+                .description("Weather metrics rejected because the queue was full").register(registry);
+        FunctionCounter.builder("weather.ingest.dropped", dropped, AtomicLong::get)
+                .description("Queued weather metrics dropped after their retries failed").register(registry);
+    }
+
+    private boolean enqueue(WeatherMetricEntity weatherMetricEntity) {
+        if (BACKPRESSURE_REJECT.equals(backpressure)) {
+            return queue.offer(weatherMetricEntity);
+        }
+        try {
+            return queue.offer(weatherMetricEntity, blockTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Flusher loop, collect a batch until it is full or the flush interval elapsed, keep draining after stop until the queue is empty
+     */
+    private void flushLoop() {
+        List<WeatherMetricEntity> batch = new ArrayList<>(batchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                WeatherMetricEntity first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    WeatherMetricEntity next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                batch = persistBatch(batch);
+            }
+        } catch (InterruptedException e) {
+            // every later poll would throw at once, stop queueing and drain the queue without waiting
+            log.warn("Ingestion flusher interrupted, persisting the {} queued weather metrics", batch.size() + queue.size());
+            stopRunning();
+            do {
+                queue.drainTo(batch, batchSize - batch.size());
+                batch = persistBatch(batch);
+            } while (!queue.isEmpty());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Persist the batch if not empty, retry the metrics that failed with a doubling backoff, drop and count them once
+     * ingest.max-retries are exhausted. No metric is taken from the queue meanwhile, so the backpressure applies.
+     * @return the next batch to collect into
+     */
+    private List<WeatherMetricEntity> persistBatch(List<WeatherMetricEntity> batch) {
+        if (batch.isEmpty()) {
+            return batch;
+        }
+        List<WeatherMetricEntity> failed = persist(batch);
+        long backoffMs = retryBackoffMs;
+        for (int retry = 0; retry < maxRetries && !failed.isEmpty(); retry++) {
+            log.warn("Retrying {} weather metrics in {} ms", failed.size(), backoffMs);
+            try {
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                // seen by the next poll of the flusher, which drains the queue without waiting
+                Thread.currentThread().interrupt();
+                break;
+            }
+            failed = retry(failed);
+            backoffMs = Math.min(backoffMs * 2, MAX_RETRY_BACKOFF_MS);
+        }
+        if (!failed.isEmpty()) {
+            dropped.addAndGet(failed.size());
+            for (WeatherMetricEntity weatherMetricEntity : failed) {
+                log.error("Dropping weather metric of sensor {} at {}", weatherMetricEntity.getSensorId(), weatherMetricEntity.getTimestamp());
+            }
+        }
+        return new ArrayList<>(batchSize);
+    }
+
+    /**
+     * Once it returns, metrics are persisted directly and the flusher exits when the queue is empty
+     */
+    private void stopRunning() {
+        lifecycleLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            lifecycleLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Persist the batch, if the batch insert fails retry one by one so a single invalid metric does not drop the whole batch
+     * @param batch - Metrics to be added
+     * @return metrics that could not be persisted
+     */
+    private List<WeatherMetricEntity> persist(List<WeatherMetricEntity> batch) {
+        try {
+            weatherMetricService.saveMetrics(batch);
+            log.debug("Persisted {} weather metrics", batch.size());
+            return List.of();
+        } catch (Exception e) {
+            log.warn("Batch insert of {} weather metrics failed, retrying one by one", batch.size(), e);
+        }
+        return retry(batch);
+    }
+
+    /**
+     * Persist the metrics one by one, they were already checked for duplicates by the batch
+     * @return metrics that could not be persisted
+     */
+    private List<WeatherMetricEntity> retry(List<WeatherMetricEntity> weatherMetricEntities) {
+        List<WeatherMetricEntity> failed = new ArrayList<>();
+        for (WeatherMetricEntity weatherMetricEntity : weatherMetricEntities) {
+            try {
+                weatherMetricService.retryMetric(weatherMetricEntity);
+            } catch (Exception e) {
+                log.warn("Failed to persist weather metric of sensor {} at {}", weatherMetricEntity.getSensorId(), weatherMetricEntity.getTimestamp(), e);
+                failed.add(weatherMetricEntity);
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public void start() {
+        if (!async) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::flushLoop, "weather-metric-ingest");
+        flusher.start();
+    }
+
+    @Override
+    public void stop() {
+        if (flusher == null) {
+            return;
+        }
+        // no interrupt, the flusher wakes up within the flush interval and must not be interrupted inside a JDBC call
+        stopRunning();
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flusher = null;
+        log.info("Ingestion queue flushed on shutdown");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stop after the web server stopped accepting requests, so every acknowledged metric is in the queue before the last flush
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+}
@@ -0,0 +1,104 @@
+package com.ghulam.weather.metrics.service;
+
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Timers, counters and summaries of the ingest and statistic hot paths, exposed on /actuator/metrics and /actuator/prometheus.
+ * <p>
+ * The readings ingested are counted per sensor for the first sensor-tag-limit sensors, the others are counted under sensor "other"
+ * so the number of time series stays bounded.
+ */
+@Component
+public class WeatherMetricInstrumentation {
+
+    public static final String PHASE_FETCH = "fetch";
+    public static final String PHASE_AGGREGATION = "aggregation";
+    public static final String OTHER_SENSORS = "other";
+
+    private final MeterRegistry registry;
+    private final int sensorTagLimit;
+    private final Map<String, Counter> ingestedBySensor = new ConcurrentHashMap<>();
+    private final Map<String, Timer> statisticTimers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> statisticRows = new ConcurrentHashMap<>();
+    private final Map<String, Timer> jsonTimers = new ConcurrentHashMap<>();
+    private final DistributionSummary batchSizes;
+
+    @Autowired
+    public WeatherMetricInstrumentation(MeterRegistry registry, @Value("${instrumentation.sensor-tag-limit:1000}") int sensorTagLimit) {
+        this.registry = registry;
+        this.sensorTagLimit = sensorTagLimit;
+        this.batchSizes = DistributionSummary.builder("weather.ingest.batch.size")
+                .description("Weather metrics saved per transaction").baseUnit("readings").register(registry);
+    }
+
+    /**
+     * Time a phase of a statistic query
+     * @param phase - fetch or aggregation
+     * @param source - where the readings come from, e.g. hot_window, database, storage
+     * @param task - phase to run
+     * @return result of the task
+     */
+    public <T> T timeStatistic(String phase, String source, Supplier<T> task) {
+        Timer timer = statisticTimers.computeIfAbsent(phase + '/' + source, key -> Timer.builder("weather.statistic.phase")
+                .description("Duration of the phases of statistic queries")
+                .tag("phase", phase).tag("source", source).register(registry));
+        return timer.record(task);
+    }
+
+    /**
+     * Record the rows of a statistic query, the metric values read when they are aggregated in memory,
+     * the readings covered by the aggregates otherwise
+     * @param source - where the readings come from
+     * @param rows - rows read or aggregated
+     */
+    public void recordStatisticRows(String source, long rows) {
+        statisticRows.computeIfAbsent(source, key -> DistributionSummary.builder("weather.statistic.rows")
+                .description("Metric values read or aggregated per statistic query")
+                .baseUnit("rows").tag("source", source).register(registry)).record(rows);
+    }
+
+    /**
+     * Count the saved weather metrics per sensor and record the size of the transaction
+     * @param saved - weather metrics saved in one transaction
+     */
+    public void recordSaved(List<WeatherMetricEntity> saved) {
+        batchSizes.record(saved.size());
+        for (WeatherMetricEntity weatherMetric : saved) {
+            ingestedCounter(weatherMetric.getSensorId()).increment();
+        }
+    }
+
+    private Counter ingestedCounter(String sensorId) {
+        Counter counter = ingestedBySensor.get(sensorId);
+        if (counter != null) {
+            return counter;
+        }
+        String sensor = ingestedBySensor.size() < sensorTagLimit ? sensorId : OTHER_SENSORS;
+        return ingestedBySensor.computeIfAbsent(sensor, key -> Counter.builder("weather.ingest.readings")
+                .description("Weather metrics saved per sensor").tag("sensor", key).register(registry));
+    }
+
+    /**
+     * Timer of the JSON (de)serialization of the request and response bodies
+     * @param operation - read or write
+     * @param type - simple name of the body type
+     * @return timer
+     */
+    public Timer jsonTimer(String operation, String type) {
+        return jsonTimers.computeIfAbsent(operation + '/' + type, key -> Timer.builder("weather.http.json")
+                .description("Duration of the JSON (de)serialization of request and response bodies")
+                .tag("operation", operation).tag("type", type).register(registry));
+    }
+}
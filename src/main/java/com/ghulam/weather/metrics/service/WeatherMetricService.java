@@ -1,212 +1,573 @@
 package com.ghulam.weather.metrics.service;
 
-import com.ghulam.weather.metrics.entity.MetricEntity;
 import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import com.ghulam.weather.metrics.model.MetricHistogramModel;
 import com.ghulam.weather.metrics.model.MetricStatisticModel;
+import com.ghulam.weather.metrics.model.SensorSnapshotModel;
 import com.ghulam.weather.metrics.model.WeatherMetricStatisticModel;
 import com.ghulam.weather.metrics.model.WeatherMetricResponse;
 import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import com.ghulam.weather.metrics.statistic.LargestTriangleThreeBuckets;
+import com.ghulam.weather.metrics.statistic.ParallelStatisticAggregator;
+import com.ghulam.weather.metrics.statistic.QuantileSketch;
+import com.ghulam.weather.metrics.statistic.StatisticAggregator;
+import com.ghulam.weather.metrics.store.HotWindowMetricStore;
+import com.ghulam.weather.metrics.store.LatestReadingStore;
+import com.ghulam.weather.metrics.store.MetricStorage;
+import com.ghulam.weather.metrics.store.SensorRegistry;
+import com.ghulam.weather.metrics.store.StatisticResultCache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.ObjectUtils;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class WeatherMetricService {
 
+    private static final String SOURCE_HOT_WINDOW = "hot_window";
+    private static final String SOURCE_PUSH_DOWN = "push_down";
+    private static final String SOURCE_IN_MEMORY = "in_memory";
+    private static final String SOURCE_SKETCH = "sketch";
+
     WeatherMetricRepository weatherMetricRepository;
 
+    MetricStorage metricStorage;
+
+    MetricRollupService metricRollupService;
+
+    HotWindowMetricStore hotWindowMetricStore;
+
+    LatestReadingStore latestReadingStore;
+
+    MetricSketchService metricSketchService;
+
+    MetricSeriesService metricSeriesService;
+
+    StatisticResultCache statisticResultCache;
+
+    ParallelStatisticAggregator parallelStatisticAggregator;
+
+    WeatherMetricInstrumentation instrumentation;
+
+    SensorRegistry sensorRegistry;
+
+    WeatherMetricDeduplicator deduplicator;
+
+    /**
+     * Transaction saving weather metrics, started once their sensors are registered
+     */
+    TransactionTemplate transactionTemplate;
+
+    /**
+     * Runs the fetch and aggregate tasks of multi-sensor statistic queries, on virtual threads when enabled on Java 21
+     */
+    Executor statisticExecutor;
+
+    /**
+     * Components maintaining derived data, notified when weather metrics are saved
+     */
+    @Autowired(required = false)
+    private List<WeatherMetricIngestListener> ingestListeners = List.of();
+
+    /**
+     * Aggregate the statistic inside the database, if disabled all readings are loaded and aggregated in memory
+     */
+    @Value("${statistic.push-down:true}")
+    private boolean statisticPushDown;
+
+    /**
+     * Maximum number of concurrent fetch and aggregate tasks a multi-sensor statistic query is split into, 1 to aggregate on the request thread,
+     * 0 for the number of processors
+     */
+    @Value("${statistic.parallelism:1}")
+    private int statisticParallelism;
+
+    /**
+     * Sensor groups of all statistic queries running or queued on the statistic executor, the groups beyond it are aggregated
+     * on their request thread so statistic queries never fill the application task executor
+     */
+    private final Semaphore statisticTaskPermits;
+
     @Autowired
-    public WeatherMetricService(WeatherMetricRepository weatherMetricRepository) {
+    public WeatherMetricService(WeatherMetricRepository weatherMetricRepository, MetricStorage metricStorage, MetricRollupService metricRollupService,
+                                HotWindowMetricStore hotWindowMetricStore, LatestReadingStore latestReadingStore, MetricSketchService metricSketchService,
+                                MetricSeriesService metricSeriesService, StatisticResultCache statisticResultCache,
+                                ParallelStatisticAggregator parallelStatisticAggregator, WeatherMetricInstrumentation instrumentation,
+                                SensorRegistry sensorRegistry, WeatherMetricDeduplicator deduplicator, PlatformTransactionManager transactionManager,
+                                @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor statisticExecutor,
+                                @Value("${statistic.max-concurrent-tasks:4}") int statisticMaxConcurrentTasks) {
         this.weatherMetricRepository = weatherMetricRepository;
+        this.metricStorage = metricStorage;
+        this.metricRollupService = metricRollupService;
+        this.hotWindowMetricStore = hotWindowMetricStore;
+        this.latestReadingStore = latestReadingStore;
+        this.metricSketchService = metricSketchService;
+        this.metricSeriesService = metricSeriesService;
+        this.statisticResultCache = statisticResultCache;
+        this.parallelStatisticAggregator = parallelStatisticAggregator;
+        this.instrumentation = instrumentation;
+        this.sensorRegistry = sensorRegistry;
+        this.deduplicator = deduplicator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.statisticExecutor = statisticExecutor;
+        this.statisticTaskPermits = new Semaphore(statisticMaxConcurrentTasks);
     }
 
     /**
-     *  Persist the weather metrics into database
+     *  Persist the weather metrics into database, the sensor is registered before the transaction.
+     *  A duplicate of a saved reading of the sensor and timestamp is dropped, ingesting a reading again has no effect.
      * @param weatherMetricEntity - Metrics to be added
-     * @return - return the save entity
+     * @return - return the save entity, not saved if it is a duplicate
      */
     public WeatherMetricEntity saveMetric(WeatherMetricEntity weatherMetricEntity) {
-        return weatherMetricRepository.save(weatherMetricEntity);
+        if (deduplicator.isDuplicate(weatherMetricEntity)) {
+            return weatherMetricEntity;
+        }
+        return insert(weatherMetricEntity);
+    }
+
+    /**
+     *  Persist a weather metric of a batch {@link #saveMetrics} failed to save. The batch checked and counted it, it is only
+     *  looked up in the database as the batch may have dropped it as a duplicate or its copy may be saved meanwhile.
+     * @param weatherMetricEntity - Metrics to be added
+     * @return - return the save entity, not saved if it is a duplicate
+     */
+    public WeatherMetricEntity retryMetric(WeatherMetricEntity weatherMetricEntity) {
+        if (deduplicator.isSaved(weatherMetricEntity)) {
+            return weatherMetricEntity;
+        }
+        return insert(weatherMetricEntity);
+    }
+
+    private WeatherMetricEntity insert(WeatherMetricEntity weatherMetricEntity) {
+        sensorRegistry.register(weatherMetricEntity.getSensorId());
+        try {
+            return transactionTemplate.execute(status -> {
+                WeatherMetricEntity saved = weatherMetricRepository.save(weatherMetricEntity);
+                notifyIngestListeners(List.of(saved));
+                return saved;
+            });
+        } catch (DataIntegrityViolationException e) {
+            // saved before the filter knew the key, or concurrently
+            if (deduplicator.isDuplicate(e)) {
+                log.debug("Dropping duplicate reading of sensor {} at {}", weatherMetricEntity.getSensorId(), weatherMetricEntity.getTimestamp());
+                return weatherMetricEntity;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     *  Persist a batch of weather metrics into database in one transaction, the sensors are registered before,
+     *  inserts are sent to the database as JDBC batches. Duplicates of saved readings and within the batch are dropped,
+     *  if the unique constraint still fails the batch the caller retries it one by one with {@link #retryMetric}.
+     * @param weatherMetricEntities - Metrics to be added
+     * @return - return the saved entities
+     */
+    public List<WeatherMetricEntity> saveMetrics(List<WeatherMetricEntity> weatherMetricEntities) {
+        List<WeatherMetricEntity> unique = deduplicator.removeDuplicates(weatherMetricEntities);
+        if (unique.isEmpty()) {
+            return List.of();
+        }
+        unique.forEach(weatherMetricEntity -> sensorRegistry.register(weatherMetricEntity.getSensorId()));
+        try {
+            return transactionTemplate.execute(status -> {
+                List<WeatherMetricEntity> saved = weatherMetricRepository.saveAll(unique);
+                notifyIngestListeners(saved);
+                return saved;
+            });
+        } catch (RuntimeException e) {
+            // ids were assigned by the rolled back transaction, cleared so the readings are inserted when saved again
+            unique.forEach(weatherMetricEntity -> {
+                weatherMetricEntity.setId(null);
+                weatherMetricEntity.getMetrics().forEach(metric -> metric.setId(null));
+            });
+            throw e;
+        }
+    }
+
+    /**
+     * Let the listeners write in the transaction saving the weather metrics, then notify them once it committed,
+     * so derived data never contains rolled back metrics
+     */
+    private void notifyIngestListeners(List<WeatherMetricEntity> saved) {
+        ingestListeners.forEach(ingestListener -> ingestListener.onSaving(saved));
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            onSaved(saved);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                onSaved(saved);
+            }
+        });
+    }
 
+    private void onSaved(List<WeatherMetricEntity> saved) {
+        deduplicator.markSaved(saved);
+        instrumentation.recordSaved(saved);
+        ingestListeners.forEach(ingestListener -> ingestListener.onSaved(saved));
+        // once rollups, sketches and hot window are up to date, a statistic computed meanwhile is not cached
+        statisticResultCache.invalidate(saved);
     }
 
     /**
-     * Weather metrics for the given sensor
+     * One page of weather metrics for the given sensor, pages are ordered by id and addressed by the id of the last returned metric (keyset),
+     * so every page costs the same regardless of its position.
      * @param sensorIds fetch weather metrics for given sensors if not fetch all
-     * @return weather metrics data
+     * @param cursor id of the last metric of the previous page, null for the first page
+     * @param limit maximum number of weather metrics of the page
+     * @return weather metrics data with the cursor of the next page
      */
-    public WeatherMetricResponse getWeatherActualData(List<String> sensorIds) {
-        var all = ObjectUtils.isEmpty(sensorIds) ? weatherMetricRepository.findAll() : weatherMetricRepository.findBySensorIds(sensorIds);
-        return WeatherMetricResponse.builder().weatherMetrics(all).build();
+    public WeatherMetricResponse getWeatherActualData(List<String> sensorIds, Long cursor, int limit) {
+        long afterId = cursor == null ? 0L : cursor;
+        var page = ObjectUtils.isEmpty(sensorIds)
+                ? weatherMetricRepository.findPageAfterId(afterId, Limit.of(limit))
+                : weatherMetricRepository.findPageBySensorIdsAfterId(sensorIds, afterId, Limit.of(limit));
+        Long nextCursor = page.size() < limit ? null : page.get(page.size() - 1).getId();
+        return WeatherMetricResponse.builder().weatherMetrics(page).nextCursor(nextCursor).build();
 
     }
 
+    /**
+     * Latest reading of every metric of the given sensors, looked up in memory without reading the weather metrics
+     * @param sensorIds - List of sensor id wanted to query, all sensors if empty
+     * @param metricNamesToMatch - List of metrics wanted to query, all if empty
+     * @return one snapshot per sensor having a reading, in the order of the given sensors or ordered by sensor id
+     */
+    public List<SensorSnapshotModel> getLatestReadings(List<String> sensorIds, List<String> metricNamesToMatch) {
+        return latestReadingStore.getLatest(sensorIds, metricNamesToMatch);
+    }
+
     /**
      *  This method is to return the Weather statistics for all metrics grouped by sensor id,
      *  It will also allow to filter the data based on matching metric name, sensorId
-     *  By default Avg statistic will be provided
+     *  By default Avg statistic will be provided, all requested statistics are calculated from the same scan of the data
      *  Statistic will be calculated based on given date range (start date, end date) if no range provided, default latest is one week.
+     *  Results are cached until a reading inside the range is saved, the returned list must not be modified.
      * <p>
      *
      * @param metricNamesToMatch -  List of metrics wanted to query
      * @param sensorId - List of sensor id wanted to query
-     * @param statistic - Expected statistic e.g - min, max, sum, avg
+     * @param statistics - Expected statistics e.g - min, max, sum, avg, p50, p99
      * @param startDate - date from statistic will be start calculating
      * @param endDate - date till statistic will stop calculating
      * @return List of Weather Metrics with calculated statistics
      */
-    public List<WeatherMetricStatisticModel> getAllMetricStatistics(List<String> metricNamesToMatch, List<String> sensorId, String statistic, LocalDateTime startDate, LocalDateTime endDate) {
+    public List<WeatherMetricStatisticModel> getAllMetricStatistics(List<String> metricNamesToMatch, List<String> sensorId, List<String> statistics, LocalDateTime startDate, LocalDateTime endDate) {
+        if (!statisticResultCache.isEnabled()) {
+            return calculateMetricStatistics(metricNamesToMatch, sensorId, statistics, startDate, endDate);
+        }
+        return statisticResultCache.get(metricNamesToMatch, sensorId, statistics, startDate, endDate,
+                () -> calculateMetricStatistics(metricNamesToMatch, sensorId, statistics, startDate, endDate));
+    }
 
-        // Fetch the data from Db based on given queries, SensorIds And date range
-        List<WeatherMetricEntity> all = ObjectUtils.isEmpty(sensorId)
-                ? weatherMetricRepository.findByTimestampBetween(startDate, endDate)
-                : weatherMetricRepository.findBySensorIdsAndTimestampBetween(sensorId, startDate, endDate);
+    private List<WeatherMetricStatisticModel> calculateMetricStatistics(List<String> metricNamesToMatch, List<String> sensorId, List<String> statistics, LocalDateTime startDate, LocalDateTime endDate) {
+        List<List<String>> sensorGroups = partition(sensorId);
+        String source = statisticSource(metricNamesToMatch, sensorId, startDate);
+        if (sensorGroups.size() < 2 || SOURCE_HOT_WINDOW.equals(source)) {
+            List<MetricAggregateModel> aggregates = calculateAggregates(metricNamesToMatch, sensorId, statistics, startDate, endDate);
+            return instrumentation.timeStatistic(WeatherMetricInstrumentation.PHASE_AGGREGATION, source, () -> toStatisticModels(aggregates, statistics));
+        }
+        // Fetch and aggregate the sensor groups concurrently, the first on the request thread, groups do not share sensors so
+        // their aggregates are concatenated
+        List<CompletableFuture<List<MetricAggregateModel>>> tasks = new ArrayList<>(sensorGroups.size());
+        for (List<String> sensors : sensorGroups.subList(1, sensorGroups.size())) {
+            tasks.add(submitStatisticTask(() -> calculateAggregates(metricNamesToMatch, sensors, statistics, startDate, endDate)));
+        }
+        List<MetricAggregateModel> aggregates = new ArrayList<>(calculateAggregates(metricNamesToMatch, sensorGroups.get(0), statistics, startDate, endDate));
+        for (int i = 0; i < tasks.size(); i++) {
+            aggregates.addAll(tasks.get(i) != null
+                    ? join(tasks.get(i))
+                    : calculateAggregates(metricNamesToMatch, sensorGroups.get(i + 1), statistics, startDate, endDate));
+        }
+        return instrumentation.timeStatistic(WeatherMetricInstrumentation.PHASE_AGGREGATION, source, () -> toStatisticModels(aggregates, statistics));
+    }
+
+    /**
+     * Where the readings of a statistic query starting at the date are read from, tag of its timers
+     */
+    private String statisticSource(List<String> metricNamesToMatch, List<String> sensorId, LocalDateTime startDate) {
+        if (hotWindowMetricStore.canServe(sensorId, metricNamesToMatch, startDate)) {
+            return SOURCE_HOT_WINDOW;
+        }
+        return statisticPushDown ? SOURCE_PUSH_DOWN : SOURCE_IN_MEMORY;
+    }
 
-        //Calculate Statistic for given metric, if not, process all metricName
-        if(ObjectUtils.isEmpty(metricNamesToMatch)){
-                return calculateStatics(all, statistic);
+    /**
+     * Split the sensors into at most statistic.parallelism groups of consecutive sensors
+     */
+    private List<List<String>> partition(List<String> sensorId) {
+        int parallelism = statisticParallelism > 0 ? statisticParallelism : Runtime.getRuntime().availableProcessors();
+        if (ObjectUtils.isEmpty(sensorId) || parallelism < 2) {
+            return List.of();
+        }
+        List<String> sensors = new ArrayList<>(new LinkedHashSet<>(sensorId));
+        int groupCount = Math.min(parallelism, sensors.size());
+        List<List<String>> groups = new ArrayList<>(groupCount);
+        for (int i = 0; i < groupCount; i++) {
+            groups.add(sensors.subList(sensors.size() * i / groupCount, sensors.size() * (i + 1) / groupCount));
+        }
+        return groups;
+    }
+
+    /**
+     * Run the task on the statistic executor if a permit is left
+     * @return the running task, null if the caller has to run it
+     */
+    private <T> CompletableFuture<T> submitStatisticTask(Supplier<T> task) {
+        if (!statisticTaskPermits.tryAcquire()) {
+            return null;
+        }
+        try {
+            return CompletableFuture.supplyAsync(task, statisticExecutor).whenComplete((result, e) -> statisticTaskPermits.release());
+        } catch (RejectedExecutionException e) {
+            statisticTaskPermits.release();
+            return null;
         }
-        List<WeatherMetricEntity> filteredWeatherMetrics = all.stream()
-                .map(wm ->
-                        WeatherMetricEntity.builder()
-                                .sensorId(wm.getSensorId())
-                                .timestamp(wm.getTimestamp())
-                                .metrics(wm.getMetrics().stream()
-                                        .filter(metric -> metricNamesToMatch.contains(metric.getMetricName())) // Filter metrics by metricName
-                                        .collect(Collectors.toList())).build()
+    }
 
+    /**
+     * Result of the task, rethrowing its exception as is so invalid arguments still map to a bad request
+     */
+    private static <T> T join(CompletableFuture<T> task) {
+        try {
+            return task.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
 
-                )
-                .filter(wm -> !wm.getMetrics().isEmpty()) // Retain only entities with matching metrics
-                .toList(); // Collect the final list of WeatherMetricEntity
+    private List<MetricAggregateModel> calculateAggregates(List<String> metricNamesToMatch, List<String> sensorId, List<String> statistics, LocalDateTime startDate, LocalDateTime endDate) {
+        List<MetricAggregateModel> aggregates;
+        String source = statisticSource(metricNamesToMatch, sensorId, startDate);
+        if (SOURCE_HOT_WINDOW.equals(source)) {
+            // Recent range, aggregate the in-memory hot window without touching the database
+            aggregates = instrumentation.timeStatistic(WeatherMetricInstrumentation.PHASE_FETCH, source,
+                    () -> hotWindowMetricStore.aggregate(sensorId, metricNamesToMatch, startDate, endDate));
+            instrumentation.recordStatisticRows(source, countReadings(aggregates));
+        } else if (statisticPushDown) {
+            aggregates = instrumentation.timeStatistic(WeatherMetricInstrumentation.PHASE_FETCH, source,
+                    () -> getAggregatedMetrics(metricNamesToMatch, sensorId, startDate, endDate));
+            instrumentation.recordStatisticRows(source, countReadings(aggregates));
+        } else {
+            // Read every value of the given sensors in the date range and calculate the statistic of given metric in the same pass, if not, process all metricName.
+            // Large ranges are aggregated in chunks on the fork-join pool while they are read, the fetch time includes the aggregation of the first values
+            ParallelStatisticAggregator.Collector collector = parallelStatisticAggregator.collector(metricNamesToMatch);
+            instrumentation.timeStatistic(WeatherMetricInstrumentation.PHASE_FETCH, source, () -> {
+                metricStorage.forEachValue(sensorId, startDate, endDate.plusNanos(1), collector::add);
+                return null;
+            });
+            aggregates = instrumentation.timeStatistic(WeatherMetricInstrumentation.PHASE_AGGREGATION, source, collector::getAggregates);
+            instrumentation.recordStatisticRows(source, collector.getScanned());
+        }
 
-        return calculateStatics(filteredWeatherMetrics, statistic); // Calculate static for filtered data
+        // Quantiles come from the sketches of the range, merged per sensor and metric
+        if (statistics.stream().anyMatch(QuantileSketch::isQuantileStatistic)) {
+            Map<List<String>, QuantileSketch> sketches = instrumentation.timeStatistic(WeatherMetricInstrumentation.PHASE_FETCH, SOURCE_SKETCH,
+                    () -> metricSketchService.aggregate(sensorId, startDate, endDate));
+            aggregates.forEach(aggregate -> aggregate.setSketch(sketches.get(List.of(aggregate.getSensorId(), aggregate.getMetricName()))));
+        }
+        return aggregates;
+    }
 
+    private static long countReadings(List<MetricAggregateModel> aggregates) {
+        long count = 0;
+        for (MetricAggregateModel aggregate : aggregates) {
+            count += aggregate.getCount();
+        }
+        return count;
     }
 
     /**
-     * Calculate the statistic for Weather metrics group by sensor id
-     * @param all -  Weather metrics data
-     * @param statistic - Expected statistic e.g - min, max, sum, avg
-     * @return return Weather metrics statistic
+     *  Weather statistics per sensor and bucket of the interval, for charting. One Weather statistic is returned per sensor and bucket
+     *  having readings, stamped with the bucket start, ordered by sensor and bucket.
+     *  If maxPoints is given, the buckets of every sensor and metric are downsampled with Largest-Triangle-Three-Buckets on the first statistic,
+     *  so the kept buckets of the metrics of a sensor can differ.
+     *
+     * @param metricNamesToMatch -  List of metrics wanted to query
+     * @param sensorId - List of sensor id wanted to query
+     * @param statistics - Expected statistics e.g - min, max, sum, avg
+     * @param startDate - date from statistic will be start calculating
+     * @param endDate - date till statistic will stop calculating
+     * @param interval - bucket size
+     * @param maxPoints - maximum number of buckets per sensor and metric, null to keep all
+     * @return List of Weather Metrics with calculated statistics per bucket
      */
-    public static List<WeatherMetricStatisticModel> calculateStatics(List<WeatherMetricEntity> all, String statistic) {
-       return all.stream()
-                // Group by sensorId
-                .collect(Collectors.groupingBy(WeatherMetricEntity::getSensorId)).entrySet().stream().map(entry -> {
-                    String sensorId = entry.getKey();
-                    List<WeatherMetricEntity> metricsBySensor = entry.getValue();
-
-                   Map<String, Double> statisticMappedByMetricName = getStatisticMappedByMetricName(metricsBySensor, statistic);
-
-                   // Aggregate MetricStatisticModel from Statistic mapped by metricName
-                    List<MetricStatisticModel> aggregatedMetrics = statisticMappedByMetricName.entrySet().stream()
-                            .map(avgEntry -> MetricStatisticModel.builder()
-                                    .metricName(avgEntry.getKey())
-                                    .metricValue(avgEntry.getValue())
-                                    .statistic(statistic).build()
-                            )
-                            .collect(Collectors.toList());
-
-
-                    // Transform the Weather Metric Statistic
-                    return WeatherMetricStatisticModel.builder()
-                            .metrics(aggregatedMetrics)
-                            .sensorId(sensorId)
-                            .timestamp(metricsBySensor.get(0).getTimestamp())
-                            .build();
-
-                })
-                .collect(Collectors.toList());
+    public List<WeatherMetricStatisticModel> getMetricStatisticSeries(List<String> metricNamesToMatch, List<String> sensorId, List<String> statistics,
+                                                                      LocalDateTime startDate, LocalDateTime endDate, Duration interval, Integer maxPoints) {
+        List<MetricAggregateModel> aggregates = metricSeriesService.aggregate(sensorId, metricNamesToMatch, startDate, endDate, interval);
+        if (maxPoints != null) {
+            String firstStatistic = statistics.get(0);
+            aggregates = aggregates.stream()
+                    .collect(Collectors.groupingBy(aggregate -> List.of(aggregate.getSensorId(), aggregate.getMetricName()), LinkedHashMap::new, Collectors.toList()))
+                    .values().stream()
+                    .flatMap(series -> LargestTriangleThreeBuckets.downsample(series, maxPoints,
+                            aggregate -> aggregate.getTimestamp().toEpochSecond(ZoneOffset.UTC),
+                            aggregate -> aggregate.getStatisticValue(firstStatistic)).stream())
+                    .toList();
+        }
+
+        // one Weather statistic per sensor and bucket
+        Map<String, TreeMap<LocalDateTime, List<MetricAggregateModel>>> bySensor = new LinkedHashMap<>();
+        for (MetricAggregateModel aggregate : aggregates) {
+            bySensor.computeIfAbsent(aggregate.getSensorId(), key -> new TreeMap<>())
+                    .computeIfAbsent(aggregate.getTimestamp(), key -> new ArrayList<>())
+                    .add(aggregate);
+        }
+        List<WeatherMetricStatisticModel> series = new ArrayList<>();
+        bySensor.values().forEach(buckets -> buckets.values().forEach(bucket -> series.addAll(toStatisticModels(bucket, statistics))));
+        return series;
     }
 
     /**
-     * Calculate the statistics (min, max, sum, avg) for a metric on given sensor data
-     * @param metricsBySensor - Sensor data
-     * @param statistic - Expected statistic e.g - min, max, sum, avg
-     * @return return map of metric and its statistic (Temp, Avg)
+     * Distribution of the values per sensor and metric in the date range, from the merged quantile sketches
+     *
+     * @param metricNamesToMatch -  List of metrics wanted to query
+     * @param sensorId - List of sensor id wanted to query
+     * @param binCount - Number of bins of equal width between min and max
+     * @param startDate - date from histogram will be start calculating
+     * @param endDate - date till histogram will stop calculating
+     * @return histogram per sensor and metric having readings in the range
      */
-    private static Map<String, Double> getStatisticMappedByMetricName(List<WeatherMetricEntity> metricsBySensor, String statistic) {
-        // Step 2: Flatten the metrics and calculate statistics by metricName
-        return switch (statistic) {
-            case "max" -> getMax(metricsBySensor);
-            case "min" -> getMin(metricsBySensor);
-            case "sum" -> getSum(metricsBySensor);
-            case "avg" -> getAverage(metricsBySensor);
-            default -> // Handle default or invalid statistic type
-                    getAverage(metricsBySensor); // return average by all  other case
-        };
+    public List<MetricHistogramModel> getMetricHistograms(List<String> metricNamesToMatch, List<String> sensorId, int binCount, LocalDateTime startDate, LocalDateTime endDate) {
+        List<MetricHistogramModel> histograms = new ArrayList<>();
+        metricSketchService.aggregate(sensorId, startDate, endDate).forEach((key, sketch) -> {
+            String metricName = key.get(1);
+            if (!ObjectUtils.isEmpty(metricNamesToMatch) && !metricNamesToMatch.contains(metricName)) {
+                return;
+            }
+            long[] counts = sketch.getHistogram(binCount);
+            double width = (sketch.getMax() - sketch.getMin()) / binCount;
+            List<MetricHistogramModel.Bin> bins = new ArrayList<>(binCount);
+            for (int i = 0; i < binCount; i++) {
+                bins.add(MetricHistogramModel.Bin.builder()
+                        .lowerBound(sketch.getMin() + i * width)
+                        .upperBound(i == binCount - 1 ? sketch.getMax() : sketch.getMin() + (i + 1) * width)
+                        .count(counts[i]).build());
+            }
+            histograms.add(MetricHistogramModel.builder()
+                    .sensorId(key.get(0))
+                    .metricName(metricName)
+                    .count(sketch.getCount())
+                    .min(sketch.getMin())
+                    .max(sketch.getMax())
+                    .bins(bins).build());
+        });
+        return histograms;
     }
 
     /**
-     * Calculate the Average for all metric
+     * Aggregate with GROUP BY sensor id, metric name in the database,
+     * only the aggregated rows of the requested metrics are loaded instead of every reading in the date range.
+     * If rollups are enabled, the pre-aggregated rollups are combined with the readings at the edges of the date range.
      *
-     * @param metricsBySensor sensor data
-     * @return return map of metric and average metric
+     * @param metricNamesToMatch -  List of metrics wanted to query
+     * @param sensorId - List of sensor id wanted to query
+     * @param startDate - date from statistic will be start calculating
+     * @param endDate - date till statistic will stop calculating
+     * @return count, sum, min and max per sensor and metric
      */
-    private static Map<String, Double> getAverage(List<WeatherMetricEntity> metricsBySensor) {
-        return metricsBySensor.stream()
-                .flatMap(wm -> wm.getMetrics().stream())
-                .collect(Collectors.groupingBy(
-                        MetricEntity::getMetricName,
-                        Collectors.averagingDouble(MetricEntity::getMetricValue)
-                ));
+    private List<MetricAggregateModel> getAggregatedMetrics(List<String> metricNamesToMatch, List<String> sensorId, LocalDateTime startDate, LocalDateTime endDate) {
+        if (metricRollupService.isEnabled()) {
+            // full days, hours and minutes from the rollups, only the edges from the readings
+            return metricRollupService.aggregate(sensorId, metricNamesToMatch, startDate, endDate);
+        }
+        return metricStorage.aggregate(sensorId, metricNamesToMatch, startDate, endDate.plusNanos(1));
     }
 
     /**
-     * Calculate the min for all metrics
-     *
-     * @param metricsBySensor sensor data
-     * @return return map of metric and min metrics
+     * Transform the aggregated metrics into Weather metrics statistic grouped by sensor id,
+     * every requested statistic is derived from the same count, sum, min and max
+     * @param aggregates - aggregated metrics, one per sensor and metric name
+     * @param statistics - Expected statistics e.g - min, max, sum, avg
+     * @return return Weather metrics statistic
      */
-    private static Map<String, Double> getMin(List<WeatherMetricEntity> metricsBySensor) {
-        return metricsBySensor.stream()
-                .flatMap(wm -> wm.getMetrics().stream())
-                .collect(Collectors.groupingBy(
-                        MetricEntity::getMetricName,
-                        Collectors.collectingAndThen(
-                                Collectors.minBy(Comparator.comparingDouble(MetricEntity::getMetricValue)),
-                                min -> min.map(MetricEntity::getMetricValue).orElse(0.0) // Default to 0.0 if no value exists
-                        )
-                ));
+    public static List<WeatherMetricStatisticModel> toStatisticModels(List<MetricAggregateModel> aggregates, List<String> statistics) {
+        String firstStatistic = statistics.get(0);
+        return aggregates.stream()
+                .collect(Collectors.groupingBy(MetricAggregateModel::getSensorId, LinkedHashMap::new, Collectors.toList()))
+                .entrySet().stream().map(entry -> WeatherMetricStatisticModel.builder()
+                        .sensorId(entry.getKey())
+                        .timestamp(entry.getValue().stream()
+                                .map(MetricAggregateModel::getTimestamp)
+                                .filter(Objects::nonNull)
+                                .min(Comparator.naturalOrder())
+                                .orElse(null))
+                        .metrics(entry.getValue().stream()
+                                .map(aggregate -> MetricStatisticModel.builder()
+                                        .metricName(aggregate.getMetricName())
+                                        .metricValue(toStatisticValue(aggregate, firstStatistic))
+                                        .statistic(firstStatistic)
+                                        .statistics(toStatisticValues(aggregate, statistics)).build())
+                                .collect(Collectors.toList()))
+                        .build())
+                .collect(Collectors.toList());
+    }
+
+    private static Map<String, Double> toStatisticValues(MetricAggregateModel aggregate, List<String> statistics) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (String statistic : statistics) {
+            values.put(statistic, toStatisticValue(aggregate, statistic));
+        }
+        return values;
     }
 
     /**
-     * Calculate the max for all metrics
-     *
-     * @param metricsBySensor sensor data
-     * @return return map of metric and max metrics
+     * Statistic value, null if it can not be calculated e.g quantile without readings in the sketches
      */
-    private static Map<String, Double> getMax(List<WeatherMetricEntity> metricsBySensor) {
-        return metricsBySensor.stream()
-                .flatMap(wm -> wm.getMetrics().stream())
-                .collect(Collectors.groupingBy(
-                        MetricEntity::getMetricName,
-                        Collectors.collectingAndThen(
-                                Collectors.maxBy(Comparator.comparingDouble(MetricEntity::getMetricValue)),
-                                max -> max.map(MetricEntity::getMetricValue).orElse(0.0) // Default to 0.0 if no value exists
-                        )
-                ));
+    private static Double toStatisticValue(MetricAggregateModel aggregate, String statistic) {
+        double value = aggregate.getStatisticValue(statistic);
+        return Double.isNaN(value) ? null : value;
     }
 
     /**
-     * Calculate the sum for all metrics
-     *
-     * @param metricsBySensor sensor data
-     * @return return map of metric and sum of metrics
-     */
-    private static Map<String, Double> getSum(List<WeatherMetricEntity> metricsBySensor) {
-        return metricsBySensor.stream()
-                .flatMap(wm -> wm.getMetrics().stream())
-                .collect(Collectors.groupingBy(
-                        MetricEntity::getMetricName,
-                        Collectors.summingDouble(MetricEntity::getMetricValue)
-                ));
+     * Calculate the statistics for Weather metrics group by sensor id,
+     * count, sum, min and max of every sensor and metric are accumulated in one pass over the data
+     * @param all -  Weather metrics data
+     * @param statistics - Expected statistics e.g - min, max, sum, avg
+     * @return return Weather metrics statistic
+     */
+    public static List<WeatherMetricStatisticModel> calculateStatics(List<WeatherMetricEntity> all, List<String> statistics) {
+        return toStatisticModels(new StatisticAggregator().addAll(all).getAggregates(), statistics);
+    }
+
+    /**
+     * Calculate the statistics for Weather metrics group by sensor id, above the fork-join threshold the weather metrics are
+     * aggregated in chunks in parallel and the partial count, sum, min and max are merged
+     * @param all -  Weather metrics data
+     * @param statistics - Expected statistics e.g - min, max, sum, avg
+     * @param parallelStatisticAggregator - fork-join aggregator
+     * @return return Weather metrics statistic
+     */
+    public static List<WeatherMetricStatisticModel> calculateStatics(List<WeatherMetricEntity> all, List<String> statistics, ParallelStatisticAggregator parallelStatisticAggregator) {
+        return toStatisticModels(parallelStatisticAggregator.aggregate(all, null), statistics);
     }
 }
@@ -0,0 +1,89 @@
+package com.ghulam.weather.metrics.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.ObjectUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Write weather metrics to the response while they are read from a database cursor.
+ * <p>
+ * Each weather metric is serialized and detached from the persistence context as soon as it is written,
+ * so memory stays constant regardless of the number of rows returned.
+ */
+@Service
+@Slf4j
+public class WeatherMetricStreamingService {
+
+    private final WeatherMetricRepository weatherMetricRepository;
+    private final EntityManager entityManager;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter writer;
+
+    @Autowired
+    public WeatherMetricStreamingService(WeatherMetricRepository weatherMetricRepository, EntityManager entityManager, ObjectMapper objectMapper) {
+        this.weatherMetricRepository = weatherMetricRepository;
+        this.entityManager = entityManager;
+        this.objectMapper = objectMapper;
+        // the generator buffers and flushes as its buffer fills, not once per row
+        this.writer = objectMapper.writerFor(WeatherMetricEntity.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Write the weather metrics for the given sensor as a JSON document {"weatherMetrics": [...]}, same as the paged API
+     * or as newline-delimited JSON, one weather metric per line
+     *
+     * @param sensorIds stream weather metrics for given sensors if not stream all
+     * @param outputStream response body
+     * @param ndjson true for newline-delimited JSON
+     * @throws IOException if the response can not be written
+     */
+    @Transactional(readOnly = true)
+    public void streamWeatherActualData(List<String> sensorIds, OutputStream outputStream, boolean ndjson) throws IOException {
+        try (Stream<WeatherMetricEntity> weatherMetrics = ObjectUtils.isEmpty(sensorIds)
+                ? weatherMetricRepository.streamAll()
+                : weatherMetricRepository.streamBySensorIds(sensorIds);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+
+            if (ndjson) {
+                generator.setRootValueSeparator(null);
+            } else {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("weatherMetrics");
+            }
+
+            long count = 0;
+            Iterator<WeatherMetricEntity> iterator = weatherMetrics.iterator();
+            while (iterator.hasNext()) {
+                WeatherMetricEntity weatherMetricEntity = iterator.next();
+                writer.writeValue(generator, weatherMetricEntity);
+                if (ndjson) {
+                    generator.writeRaw('\n');
+                }
+                // keep the persistence context from growing with every row read
+                entityManager.detach(weatherMetricEntity);
+                count++;
+            }
+
+            if (!ndjson) {
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            log.debug("Streamed {} weather metrics", count);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.ghulam.weather.metrics.statistic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling of a series for charting.
+ * <p>
+ * The first and last points are kept, the points in between are split into maxPoints - 2 buckets and from each bucket
+ * the point forming the largest triangle with the point kept before and the average of the next bucket is kept,
+ * so peaks and troughs survive the downsampling, unlike averaging.
+ */
+public final class LargestTriangleThreeBuckets {
+
+    private LargestTriangleThreeBuckets() {
+    }
+
+    /**
+     * Keep at most maxPoints points of the series
+     * @param points - points ordered by x
+     * @param maxPoints - maximum number of points to keep, at least 3
+     * @param x - x of a point, e.g. epoch seconds
+     * @param y - y of a point, e.g. the metric value
+     * @return kept points in the same order, the series itself if it has no more than maxPoints points
+     * @param <T> point type
+     */
+    public static <T> List<T> downsample(List<T> points, int maxPoints, ToDoubleFunction<T> x, ToDoubleFunction<T> y) {
+        if (maxPoints < 3) {
+            throw new IllegalArgumentException("Invalid max points provided: " + maxPoints + ", at least 3");
+        }
+        if (points.size() <= maxPoints) {
+            return points;
+        }
+        List<T> kept = new ArrayList<>(maxPoints);
+        kept.add(points.get(0));
+        double bucketSize = (double) (points.size() - 2) / (maxPoints - 2);
+        int previous = 0;
+        for (int bucket = 0; bucket < maxPoints - 2; bucket++) {
+            int start = (int) (bucket * bucketSize) + 1;
+            int end = (int) ((bucket + 1) * bucketSize) + 1;
+
+            // average of the next bucket, the last point for the last bucket
+            int nextStart = end;
+            int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1, points.size());
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                averageX += x.applyAsDouble(points.get(i));
+                averageY += y.applyAsDouble(points.get(i));
+            }
+            int nextCount = nextEnd - nextStart;
+            averageX /= nextCount;
+            averageY /= nextCount;
+
+            double previousX = x.applyAsDouble(points.get(previous));
+            double previousY = y.applyAsDouble(points.get(previous));
+            double largestArea = -1;
+            int largest = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((previousX - averageX) * (y.applyAsDouble(points.get(i)) - previousY)
+                        - (previousX - x.applyAsDouble(points.get(i))) * (averageY - previousY));
+                if (area > largestArea) {
+                    largestArea = area;
+                    largest = i;
+                }
+            }
+            kept.add(points.get(largest));
+            previous = largest;
+        }
+        kept.add(points.get(points.size() - 1));
+        return kept;
+    }
+}
@@ -0,0 +1,102 @@
+package com.ghulam.weather.metrics.statistic;
+
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+
+import java.time.LocalDateTime;
+
+/**
+ * Primitive running count, sum, min and max of one metric of one sensor, every statistic is derived from these.
+ * Adding a value does not allocate.
+ */
+public final class MetricAccumulator {
+
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private LocalDateTime firstTimestamp;
+
+    /**
+     * Add one reading
+     * @param value - value of the metric
+     * @param timestamp - timestamp of the reading
+     */
+    public void add(double value, LocalDateTime timestamp) {
+        count++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        if (timestamp != null && (firstTimestamp == null || timestamp.isBefore(firstTimestamp))) {
+            firstTimestamp = timestamp;
+        }
+    }
+
+    /**
+     * Add pre-aggregated readings, e.g. a rollup
+     * @param count - number of readings
+     * @param sum - sum of the values
+     * @param min - minimum value
+     * @param max - maximum value
+     * @param timestamp - earliest timestamp of the readings
+     */
+    public void add(long count, double sum, double min, double max, LocalDateTime timestamp) {
+        if (count == 0) {
+            return;
+        }
+        this.count += count;
+        this.sum += sum;
+        this.min = Math.min(this.min, min);
+        this.max = Math.max(this.max, max);
+        if (timestamp != null && (firstTimestamp == null || timestamp.isBefore(firstTimestamp))) {
+            firstTimestamp = timestamp;
+        }
+    }
+
+    /**
+     * Add the readings of another accumulator, e.g. a partial result of another chunk
+     * @param other - accumulator of the same sensor and metric
+     */
+    public void merge(MetricAccumulator other) {
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        if (other.firstTimestamp != null && (firstTimestamp == null || other.firstTimestamp.isBefore(firstTimestamp))) {
+            firstTimestamp = other.firstTimestamp;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public LocalDateTime getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    /**
+     * Aggregate of the accumulated readings
+     * @param sensorId - Sensor id
+     * @param metricName - metric name
+     * @return aggregate model
+     */
+    public MetricAggregateModel toAggregate(String sensorId, String metricName) {
+        return new MetricAggregateModel(sensorId, metricName, firstTimestamp, count, min, max, sum);
+    }
+}
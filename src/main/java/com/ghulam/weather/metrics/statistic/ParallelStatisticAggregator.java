@@ -0,0 +1,194 @@
+package com.ghulam.weather.metrics.statistic;
+
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parallel mode of the {@link StatisticAggregator} for large in-memory windows.
+ * <p>
+ * Above the threshold the readings are split into chunks, each chunk is accumulated into its own partial
+ * {@link StatisticAggregator} on a bounded {@link ForkJoinPool} and the partials are merged. Below the threshold the readings are
+ * aggregated on the calling thread, small windows do not pay for the tasks.
+ */
+@Component
+public class ParallelStatisticAggregator implements DisposableBean {
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+    private final int chunkSize;
+
+    /**
+     * @param parallelism - threads of the pool, 0 for the number of processors
+     * @param threshold - readings from which they are aggregated in parallel
+     * @param chunkSize - readings per task
+     */
+    @Autowired
+    public ParallelStatisticAggregator(@Value("${statistic.fork-join.parallelism:0}") int parallelism,
+                                       @Value("${statistic.fork-join.threshold:200000}") int threshold,
+                                       @Value("${statistic.fork-join.chunk-size:50000}") int chunkSize) {
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.threshold = threshold;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Aggregate the weather metrics per sensor and metric name, sensors in the order they are first seen
+     * @param weatherMetrics - readings
+     * @param metricNamesToMatch - metric names to aggregate, all if null or empty
+     * @return aggregates
+     */
+    public List<MetricAggregateModel> aggregate(List<WeatherMetricEntity> weatherMetrics, Collection<String> metricNamesToMatch) {
+        if (weatherMetrics.size() < threshold) {
+            return new StatisticAggregator(metricNamesToMatch).addAll(weatherMetrics).getAggregates();
+        }
+        return pool.invoke(new ChunkTask(weatherMetrics, metricNamesToMatch)).getAggregates();
+    }
+
+    /**
+     * Collector of streamed metric values, aggregated on the calling thread up to the threshold, then buffered into chunks
+     * aggregated on the pool while the stream is read
+     * @param metricNamesToMatch - metric names to aggregate, all if null or empty
+     * @return collector, to be used by one thread
+     */
+    public Collector collector(Collection<String> metricNamesToMatch) {
+        return new Collector(metricNamesToMatch);
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    @Override
+    public void destroy() {
+        pool.shutdown();
+    }
+
+    /**
+     * Halves the readings until a chunk is small enough, the left partial is merged first to keep the sensor order
+     */
+    private class ChunkTask extends RecursiveTask<StatisticAggregator> {
+
+        private final List<WeatherMetricEntity> weatherMetrics;
+        private final Collection<String> metricNamesToMatch;
+
+        private ChunkTask(List<WeatherMetricEntity> weatherMetrics, Collection<String> metricNamesToMatch) {
+            this.weatherMetrics = weatherMetrics;
+            this.metricNamesToMatch = metricNamesToMatch;
+        }
+
+        @Override
+        protected StatisticAggregator compute() {
+            if (weatherMetrics.size() <= chunkSize) {
+                return new StatisticAggregator(metricNamesToMatch).addAll(weatherMetrics);
+            }
+            int middle = weatherMetrics.size() / 2;
+            ChunkTask left = new ChunkTask(weatherMetrics.subList(0, middle), metricNamesToMatch);
+            left.fork();
+            StatisticAggregator right = new ChunkTask(weatherMetrics.subList(middle, weatherMetrics.size()), metricNamesToMatch).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    public class Collector {
+
+        private final Set<String> metricNamesToMatch;
+        private final StatisticAggregator aggregator;
+        private final Deque<ForkJoinTask<StatisticAggregator>> pending = new ArrayDeque<>();
+        private long scanned;
+        private long count;
+
+        private String[] sensorIds;
+        private String[] metricNames;
+        private LocalDateTime[] timestamps;
+        private double[] values;
+        private int size;
+
+        private Collector(Collection<String> metricNamesToMatch) {
+            this.metricNamesToMatch = metricNamesToMatch == null || metricNamesToMatch.isEmpty() ? null : new HashSet<>(metricNamesToMatch);
+            this.aggregator = new StatisticAggregator(metricNamesToMatch);
+        }
+
+        /**
+         * Add one metric value
+         * @param sensorId - Sensor id
+         * @param metricName - metric name
+         * @param timestamp - timestamp of the reading
+         * @param value - value of the metric
+         */
+        public void add(String sensorId, String metricName, LocalDateTime timestamp, double value) {
+            scanned++;
+            if (metricNamesToMatch != null && !metricNamesToMatch.contains(metricName)) {
+                return;
+            }
+            if (count++ < threshold) {
+                aggregator.add(sensorId, metricName, timestamp, value);
+                return;
+            }
+            if (sensorIds == null) {
+                sensorIds = new String[chunkSize];
+                metricNames = new String[chunkSize];
+                timestamps = new LocalDateTime[chunkSize];
+                values = new double[chunkSize];
+            }
+            sensorIds[size] = sensorId;
+            metricNames[size] = metricName;
+            timestamps[size] = timestamp;
+            values[size] = value;
+            if (++size == chunkSize) {
+                submit();
+            }
+        }
+
+        /**
+         * @return number of added values, including the values of metric names not aggregated
+         */
+        public long getScanned() {
+            return scanned;
+        }
+
+        /**
+         * Aggregates of all added values, waits for the chunks still aggregated on the pool
+         * @return aggregates
+         */
+        public List<MetricAggregateModel> getAggregates() {
+            if (size > 0) {
+                submit();
+            }
+            while (!pending.isEmpty()) {
+                aggregator.merge(pending.removeFirst().join());
+            }
+            return aggregator.getAggregates();
+        }
+
+        private void submit() {
+            String[] chunkSensorIds = sensorIds;
+            String[] chunkMetricNames = metricNames;
+            LocalDateTime[] chunkTimestamps = timestamps;
+            double[] chunkValues = values;
+            int chunkLength = size;
+            pending.addLast(pool.submit(() -> {
+                StatisticAggregator partial = new StatisticAggregator();
+                for (int i = 0; i < chunkLength; i++) {
+                    partial.add(chunkSensorIds[i], chunkMetricNames[i], chunkTimestamps[i], chunkValues[i]);
+                }
+                return partial;
+            }));
+            sensorIds = null;
+            size = 0;
+            // bound the buffered chunks when the stream is read faster than it is aggregated
+            while (pending.size() > 2 * pool.getParallelism()) {
+                aggregator.merge(pending.removeFirst().join());
+            }
+        }
+    }
+}
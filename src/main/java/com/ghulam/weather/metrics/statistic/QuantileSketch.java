@@ -0,0 +1,318 @@
+package com.ghulam.weather.metrics.statistic;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Mergeable quantile sketch with bounded memory, in the style of DDSketch.
+ * <p>
+ * Values are counted in logarithmic bins, bin i holds the values in (gamma^(i-1), gamma^i], so any quantile is
+ * returned with a relative error below {@link #RELATIVE_ACCURACY}, min and max are exact. Negative values are counted in their own bins
+ * and values close to zero in a zero bin. Sketches of different sensors or ranges merge by adding their bins,
+ * the result is the same as a sketch of all their values.
+ * <p>
+ * Each sign keeps at most {@link #MAX_BINS} bins, when exceeded the bins closest to zero are collapsed, so only
+ * quantiles of the values closest to zero lose accuracy. Weather metrics of a bucket use a few dozen bins.
+ */
+public class QuantileSketch {
+
+    public static final double RELATIVE_ACCURACY = 0.01;
+
+    public static final int MAX_BINS = 1024;
+
+    /**
+     * Quantile statistic names, p50, p95, p99, p99.9 ...
+     */
+    private static final Pattern QUANTILE_STATISTIC = Pattern.compile("p(100|\\d{1,2}(\\.\\d+)?)");
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final double MIN_INDEXABLE_VALUE = 1e-9;
+    private static final byte ENCODING_VERSION = 1;
+
+    private final Bins positive = new Bins();
+    private final Bins negative = new Bins();
+    private long zeroCount;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Statistic is a quantile, e.g p99
+     * @param statistic - statistic name
+     * @return true for pNN statistics
+     */
+    public static boolean isQuantileStatistic(String statistic) {
+        return QUANTILE_STATISTIC.matcher(statistic).matches();
+    }
+
+    /**
+     * Quantile of a quantile statistic name, p99 gives 0.99
+     * @param statistic - quantile statistic name
+     * @return quantile between 0 and 1
+     */
+    public static double toQuantile(String statistic) {
+        return Double.parseDouble(statistic.substring(1)) / 100;
+    }
+
+    /**
+     * Count one value
+     * @param value - metric value
+     * @return this sketch
+     */
+    public QuantileSketch add(double value) {
+        if (value > MIN_INDEXABLE_VALUE) {
+            positive.add(index(value), 1);
+        } else if (value < -MIN_INDEXABLE_VALUE) {
+            negative.add(index(-value), 1);
+        } else {
+            zeroCount++;
+        }
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        return this;
+    }
+
+    /**
+     * Add the values counted by another sketch
+     * @param other - sketch of another sensor or range
+     * @return this sketch
+     */
+    public QuantileSketch merge(QuantileSketch other) {
+        if (other.count == 0) {
+            return this;
+        }
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        return this;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * Value at the given quantile
+     * @param quantile - between 0 and 1, 0.99 for p99
+     * @return estimated value, NaN if the sketch is empty
+     */
+    public double getQuantile(double quantile) {
+        if (count == 0 || quantile < 0 || quantile > 1) {
+            return Double.NaN;
+        }
+        long rank = (long) (quantile * (count - 1));
+        // lowest and highest values are kept exactly
+        if (rank == 0) {
+            return min;
+        }
+        if (rank == count - 1) {
+            return max;
+        }
+        double value;
+        if (rank < negative.count) {
+            // negative bins from the most negative value, highest index first
+            value = -negative.valueAtRank(negative.count - 1 - rank);
+        } else if (rank < negative.count + zeroCount) {
+            value = 0;
+        } else {
+            value = positive.valueAtRank(rank - negative.count - zeroCount);
+        }
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * Count of values per bin of equal width between min and max, each sketch bin is counted in the bin of its value
+     * @param binCount - number of bins
+     * @return counts, the first bin starts at min, the last ends at max
+     */
+    public long[] getHistogram(int binCount) {
+        long[] histogram = new long[binCount];
+        if (count == 0) {
+            return histogram;
+        }
+        double width = (max - min) / binCount;
+        negative.forEach((value, binValues) -> histogram[histogramBin(-value, width, binCount)] += binValues);
+        if (zeroCount > 0) {
+            histogram[histogramBin(0, width, binCount)] += zeroCount;
+        }
+        positive.forEach((value, binValues) -> histogram[histogramBin(value, width, binCount)] += binValues);
+        return histogram;
+    }
+
+    private int histogramBin(double value, double width, int binCount) {
+        if (width == 0) {
+            return 0;
+        }
+        int bin = (int) ((Math.max(min, Math.min(max, value)) - min) / width);
+        return Math.min(bin, binCount - 1);
+    }
+
+    /**
+     * Serialize the sketch, only the non empty bins are written
+     * @return encoded sketch
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 8 + 8 + 8 + positive.encodedSize() + negative.encodedSize());
+        buffer.put(ENCODING_VERSION);
+        buffer.putLong(zeroCount);
+        buffer.putLong(count);
+        buffer.putDouble(min);
+        buffer.putDouble(max);
+        positive.encode(buffer);
+        negative.encode(buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Deserialize a sketch written by {@link #toBytes()}
+     * @param bytes - encoded sketch
+     * @return sketch
+     */
+    public static QuantileSketch fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte version = buffer.get();
+        if (version != ENCODING_VERSION) {
+            throw new IllegalArgumentException("Unsupported sketch encoding version: " + version);
+        }
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.zeroCount = buffer.getLong();
+        sketch.count = buffer.getLong();
+        sketch.min = buffer.getDouble();
+        sketch.max = buffer.getDouble();
+        sketch.positive.decode(buffer);
+        sketch.negative.decode(buffer);
+        return sketch;
+    }
+
+    private static int index(double value) {
+        return (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+    }
+
+    /**
+     * Middle of bin i, within the relative accuracy of every value of the bin
+     */
+    private static double value(int index) {
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    /**
+     * Contiguous counts of the bins from offset to offset + counts.length - 1
+     */
+    private static class Bins {
+
+        private long[] counts = new long[0];
+        private int offset;
+        private long count;
+
+        private void add(int index, long binCount) {
+            if (counts.length == 0) {
+                counts = new long[8];
+                offset = index - 4;
+            }
+            if (index < offset || index >= offset + counts.length) {
+                index = grow(index);
+            }
+            counts[index - offset] += binCount;
+            count += binCount;
+        }
+
+        /**
+         * Extend the range to the index, collapse the lowest bins when more than MAX_BINS are needed
+         * @return index to count the value in, lowest kept bin if collapsed
+         */
+        private int grow(int index) {
+            int low = Math.min(offset, index);
+            int high = Math.max(offset + counts.length - 1, index);
+            if (high - low + 1 > MAX_BINS) {
+                int collapsedLow = high - MAX_BINS + 1;
+                long[] collapsed = new long[MAX_BINS];
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] != 0) {
+                        collapsed[Math.max(offset + i, collapsedLow) - collapsedLow] += counts[i];
+                    }
+                }
+                counts = collapsed;
+                offset = collapsedLow;
+                return Math.max(index, collapsedLow);
+            }
+            // double the size to amortize the copies
+            int length = Math.min(MAX_BINS, Math.max(high - low + 1, counts.length * 2));
+            int newOffset = index < offset ? Math.max(high - length + 1, index - (length - (high - low + 1)) / 2) : low;
+            long[] grown = new long[length];
+            System.arraycopy(counts, 0, grown, offset - newOffset, counts.length);
+            counts = grown;
+            offset = newOffset;
+            return index;
+        }
+
+        private void merge(Bins other) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+
+        /**
+         * Value of the bin holding the value of the given rank, ranks counted from the lowest bin
+         */
+        private double valueAtRank(long rank) {
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen > rank) {
+                    return value(offset + i);
+                }
+            }
+            return value(offset + counts.length - 1);
+        }
+
+        private void forEach(BinConsumer consumer) {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    consumer.accept(value(offset + i), counts[i]);
+                }
+            }
+        }
+
+        private int encodedSize() {
+            return 4 + (int) Arrays.stream(counts).filter(binCount -> binCount != 0).count() * 12;
+        }
+
+        private void encode(ByteBuffer buffer) {
+            buffer.putInt((encodedSize() - 4) / 12);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    buffer.putInt(offset + i);
+                    buffer.putLong(counts[i]);
+                }
+            }
+        }
+
+        private void decode(ByteBuffer buffer) {
+            int bins = buffer.getInt();
+            for (int i = 0; i < bins; i++) {
+                add(buffer.getInt(), buffer.getLong());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface BinConsumer {
+        void accept(double value, long binCount);
+    }
+}
@@ -0,0 +1,184 @@
+package com.ghulam.weather.metrics.statistic;
+
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * Count, sum, min and max per sensor, metric name and minute of the readings of the last windows, for live statistics.
+ * <p>
+ * One bucket per minute holding readings, shared by every window over the series, so memory follows the length of the
+ * longest window and not the number of readings nor of windows. A window is aggregated from the buckets of the minutes it
+ * starts in and after, a reading leaves a window with its minute. Readings may arrive out of order.
+ * Not thread safe.
+ */
+public class SlidingWindowAggregator {
+
+    private final Map<String, Map<String, Series>> seriesBySensor = new TreeMap<>();
+
+    /**
+     * Start of the minute of the timestamp, the first timestamp of its bucket
+     * @param timestamp - timestamp of a reading
+     * @return timestamp truncated to the minute
+     */
+    public static LocalDateTime bucketStart(LocalDateTime timestamp) {
+        return timestamp.truncatedTo(ChronoUnit.MINUTES);
+    }
+
+    /**
+     * Add one reading to the bucket of its minute
+     * @param sensorId - Sensor id
+     * @param metricName - metric name
+     * @param timestamp - timestamp of the reading
+     * @param value - value of the metric
+     */
+    public void add(String sensorId, String metricName, LocalDateTime timestamp, double value) {
+        seriesBySensor.computeIfAbsent(sensorId, key -> new TreeMap<>())
+                .computeIfAbsent(metricName, key -> new Series())
+                .add(toMinute(timestamp), value);
+    }
+
+    /**
+     * Evict the buckets of the minutes before the bucket start
+     * @param bucketStart - first bucket kept
+     * @return true if any bucket was evicted
+     */
+    public boolean evictBefore(LocalDateTime bucketStart) {
+        long minute = toMinute(bucketStart);
+        boolean evicted = false;
+        Iterator<Map<String, Series>> sensors = seriesBySensor.values().iterator();
+        while (sensors.hasNext()) {
+            Map<String, Series> metrics = sensors.next();
+            Iterator<Series> series = metrics.values().iterator();
+            while (series.hasNext()) {
+                Series current = series.next();
+                evicted |= current.evictBefore(minute);
+                if (current.isEmpty()) {
+                    series.remove();
+                }
+            }
+            if (metrics.isEmpty()) {
+                sensors.remove();
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Drop the buckets of the sensor
+     * @param sensorId - Sensor id
+     */
+    public void remove(String sensorId) {
+        seriesBySensor.remove(sensorId);
+    }
+
+    /**
+     * Sensors with buckets
+     * @return sensor ids, ordered
+     */
+    public Set<String> getSensorIds() {
+        return Collections.unmodifiableSet(seriesBySensor.keySet());
+    }
+
+    /**
+     * Aggregates of a window, each stamped with the start of its first bucket
+     * @param sensorIds - sensors of the window, all if empty
+     * @param metricNames - metric names of the window, all if empty
+     * @param bucketStart - first bucket of the window
+     * @return aggregates of the series with readings in the window, ordered by sensor id and metric name
+     */
+    public List<MetricAggregateModel> getAggregates(Set<String> sensorIds, Set<String> metricNames, LocalDateTime bucketStart) {
+        long minute = toMinute(bucketStart);
+        List<MetricAggregateModel> aggregates = new ArrayList<>();
+        Collection<String> sensors = sensorIds.isEmpty() ? seriesBySensor.keySet() : new TreeSet<>(sensorIds);
+        for (String sensorId : sensors) {
+            Map<String, Series> metrics = seriesBySensor.get(sensorId);
+            if (metrics == null) {
+                continue;
+            }
+            metrics.forEach((metricName, series) -> {
+                if (metricNames.isEmpty() || metricNames.contains(metricName)) {
+                    MetricAggregateModel aggregate = series.toAggregate(sensorId, metricName, minute);
+                    if (aggregate != null) {
+                        aggregates.add(aggregate);
+                    }
+                }
+            });
+        }
+        return aggregates;
+    }
+
+    private static long toMinute(LocalDateTime timestamp) {
+        return Math.floorDiv(timestamp.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    private static final class Series {
+
+        private final TreeMap<Long, Bucket> buckets = new TreeMap<>();
+
+        private void add(long minute, double value) {
+            Bucket bucket = buckets.get(minute);
+            if (bucket == null) {
+                buckets.put(minute, new Bucket(value));
+            } else {
+                bucket.add(value);
+            }
+        }
+
+        private boolean evictBefore(long minute) {
+            SortedMap<Long, Bucket> evicted = buckets.headMap(minute);
+            if (evicted.isEmpty()) {
+                return false;
+            }
+            evicted.clear();
+            return true;
+        }
+
+        private boolean isEmpty() {
+            return buckets.isEmpty();
+        }
+
+        private MetricAggregateModel toAggregate(String sensorId, String metricName, long fromMinute) {
+            SortedMap<Long, Bucket> window = buckets.tailMap(fromMinute);
+            if (window.isEmpty()) {
+                return null;
+            }
+            long count = 0;
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (Bucket bucket : window.values()) {
+                count += bucket.count;
+                sum += bucket.sum;
+                min = Math.min(min, bucket.min);
+                max = Math.max(max, bucket.max);
+            }
+            LocalDateTime first = LocalDateTime.ofEpochSecond(window.firstKey() * 60, 0, ZoneOffset.UTC);
+            return new MetricAggregateModel(sensorId, metricName, first, count, min, max, sum);
+        }
+    }
+
+    private static final class Bucket {
+
+        private long count = 1;
+        private double sum;
+        private double min;
+        private double max;
+
+        private Bucket(double value) {
+            this.sum = value;
+            this.min = value;
+            this.max = value;
+        }
+
+        private void add(double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+    }
+}
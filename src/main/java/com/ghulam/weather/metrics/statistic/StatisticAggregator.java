@@ -0,0 +1,134 @@
+package com.ghulam.weather.metrics.statistic;
+
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import com.ghulam.weather.metrics.model.MetricName;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Single pass statistic engine, accumulates count, sum, min and max for every sensor and metric name at once
+ * with one {@link MetricAccumulator} per key, instead of one collector chain per statistic.
+ * <p>
+ * The accumulators of a sensor are an array indexed by the code of the {@link MetricName}, a reading costs one lookup of its
+ * sensor whatever the number of its metrics. Names that are not metric names are skipped.
+ * <p>
+ * Readings can come from JPA entities or from any other source through {@link #add(String, String, LocalDateTime, double)},
+ * partial aggregators can be merged. Not thread safe, use one aggregator per thread and merge them.
+ */
+public class StatisticAggregator {
+
+    private final boolean[] metricCodesToMatch;
+    private final Map<String, MetricAccumulator[]> accumulatorsBySensor = new LinkedHashMap<>();
+
+    /**
+     * Aggregator of all metric names
+     */
+    public StatisticAggregator() {
+        this(null);
+    }
+
+    /**
+     * Aggregator of the given metric names, other metrics are skipped while reading
+     * @param metricNamesToMatch - metric names to aggregate, all if empty
+     */
+    public StatisticAggregator(Collection<String> metricNamesToMatch) {
+        this.metricCodesToMatch = new boolean[MetricName.count()];
+        for (int code = 0; code < metricCodesToMatch.length; code++) {
+            metricCodesToMatch[code] = metricNamesToMatch == null || metricNamesToMatch.isEmpty() || metricNamesToMatch.contains(MetricName.nameOf(code));
+        }
+    }
+
+    /**
+     * Add every metric of the weather metric
+     * @param weatherMetric - reading of a sensor
+     * @return this aggregator
+     */
+    public StatisticAggregator add(WeatherMetricEntity weatherMetric) {
+        MetricAccumulator[] accumulators = null;
+        for (MetricEntity metric : weatherMetric.getMetrics()) {
+            int code = MetricName.codeOf(metric.getMetricName());
+            if (code == MetricName.UNKNOWN || !metricCodesToMatch[code]) {
+                continue;
+            }
+            if (accumulators == null) {
+                accumulators = accumulatorsBySensor.computeIfAbsent(weatherMetric.getSensorId(), sensorId -> new MetricAccumulator[MetricName.count()]);
+            }
+            accumulator(accumulators, code).add(metric.getMetricValue(), weatherMetric.getTimestamp());
+        }
+        return this;
+    }
+
+    /**
+     * Add all weather metrics
+     * @param weatherMetrics - readings
+     * @return this aggregator
+     */
+    public StatisticAggregator addAll(Iterable<WeatherMetricEntity> weatherMetrics) {
+        for (WeatherMetricEntity weatherMetric : weatherMetrics) {
+            add(weatherMetric);
+        }
+        return this;
+    }
+
+    /**
+     * Add one metric value
+     * @param sensorId - Sensor id
+     * @param metricName - metric name
+     * @param timestamp - timestamp of the reading
+     * @param value - value of the metric
+     * @return this aggregator
+     */
+    public StatisticAggregator add(String sensorId, String metricName, LocalDateTime timestamp, double value) {
+        int code = MetricName.codeOf(metricName);
+        if (code == MetricName.UNKNOWN || !metricCodesToMatch[code]) {
+            return this;
+        }
+        accumulator(accumulatorsBySensor.computeIfAbsent(sensorId, key -> new MetricAccumulator[MetricName.count()]), code)
+                .add(value, timestamp);
+        return this;
+    }
+
+    private static MetricAccumulator accumulator(MetricAccumulator[] accumulators, int code) {
+        MetricAccumulator accumulator = accumulators[code];
+        if (accumulator == null) {
+            accumulator = accumulators[code] = new MetricAccumulator();
+        }
+        return accumulator;
+    }
+
+    /**
+     * Merge the accumulators of another aggregator into this one
+     * @param other - partial aggregator
+     * @return this aggregator
+     */
+    public StatisticAggregator merge(StatisticAggregator other) {
+        other.accumulatorsBySensor.forEach((sensorId, otherAccumulators) -> {
+            MetricAccumulator[] accumulators = accumulatorsBySensor.computeIfAbsent(sensorId, key -> new MetricAccumulator[MetricName.count()]);
+            for (int code = 0; code < otherAccumulators.length; code++) {
+                if (otherAccumulators[code] != null) {
+                    accumulator(accumulators, code).merge(otherAccumulators[code]);
+                }
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Aggregate per sensor and metric name, sensors in the order they were first seen, metric names in code order
+     * @return aggregates
+     */
+    public List<MetricAggregateModel> getAggregates() {
+        List<MetricAggregateModel> aggregates = new ArrayList<>();
+        accumulatorsBySensor.forEach((sensorId, accumulators) -> {
+            for (int code = 0; code < accumulators.length; code++) {
+                if (accumulators[code] != null) {
+                    aggregates.add(accumulators[code].toAggregate(sensorId, MetricName.nameOf(code)));
+                }
+            }
+        });
+        return aggregates;
+    }
+}
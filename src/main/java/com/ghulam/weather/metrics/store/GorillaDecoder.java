@@ -0,0 +1,116 @@
+package com.ghulam.weather.metrics.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sequential reader of a block written by {@link GorillaEncoder}.
+ * <p>
+ * Reads the payload in place with absolute gets, so several decoders can read the same memory-mapped segment concurrently.
+ */
+public final class GorillaDecoder {
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int count;
+    private long bitPosition;
+    private int read;
+
+    private long timestamp;
+    private long delta;
+    private long valueBits;
+    private int leading;
+    private int trailing;
+
+    /**
+     * @param buffer - buffer holding the payload
+     * @param offset - position of the payload in the buffer
+     * @param count - number of points of the block
+     */
+    public GorillaDecoder(ByteBuffer buffer, int offset, int count) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.count = count;
+    }
+
+    /**
+     * Move to the next point
+     * @return false when all points have been read
+     */
+    public boolean next() {
+        if (read == count) {
+            return false;
+        }
+        if (read == 0) {
+            timestamp = readBits(64);
+            valueBits = readBits(64);
+        } else {
+            delta += readDeltaOfDelta();
+            timestamp += delta;
+            valueBits ^= readXor();
+        }
+        read++;
+        return true;
+    }
+
+    /**
+     * @return epoch microseconds of the current point
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return value of the current point
+     */
+    public double getValue() {
+        return Double.longBitsToDouble(valueBits);
+    }
+
+    private long readDeltaOfDelta() {
+        if (readBits(1) == 0) {
+            return 0;
+        }
+        if (readBits(1) == 0) {
+            return readSigned(7);
+        }
+        if (readBits(1) == 0) {
+            return readSigned(9);
+        }
+        if (readBits(1) == 0) {
+            return readSigned(12);
+        }
+        return readBits(1) == 0 ? readSigned(32) : readBits(64);
+    }
+
+    private long readXor() {
+        if (readBits(1) == 0) {
+            return 0;
+        }
+        if (readBits(1) == 1) {
+            leading = (int) readBits(5);
+            int meaningful = (int) readBits(6);
+            trailing = 64 - leading - (meaningful == 0 ? 64 : meaningful);
+        }
+        return readBits(64 - leading - trailing) << trailing;
+    }
+
+    private long readSigned(int n) {
+        return (readBits(n) << (64 - n)) >> (64 - n);
+    }
+
+    /**
+     * Next n bits, most significant first
+     */
+    private long readBits(int n) {
+        int wordIndex = (int) (bitPosition >>> 6);
+        int used = (int) (bitPosition & 63);
+        long word = buffer.getLong(offset + wordIndex * 8) << used;
+        int available = 64 - used;
+        bitPosition += n;
+        if (n <= available) {
+            return word >>> (64 - n);
+        }
+        long next = buffer.getLong(offset + (wordIndex + 1) * 8);
+        return (word >>> (64 - n)) | (next >>> (64 - (n - available)));
+    }
+}
@@ -0,0 +1,138 @@
+package com.ghulam.weather.metrics.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Gorilla compression of a block of (timestamp, value) points, as described in "Gorilla: A Fast, Scalable,
+ * In-Memory Time Series Database".
+ * <p>
+ * The first point is written raw. Then each timestamp is written as the difference between its delta and the previous delta
+ * (delta-of-delta), a single 0 bit for readings at a regular interval. Each value is XOR-ed with the previous one,
+ * a single 0 bit when unchanged, otherwise only the meaningful bits between the leading and trailing zeros are written.
+ * Timestamps do not need to be ordered, out of order readings just cost more bits.
+ */
+public final class GorillaEncoder {
+
+    private long[] words = new long[16];
+    private long bitCount;
+    private int count;
+
+    private long previousTimestamp;
+    private long previousDelta;
+    private long previousValue;
+    private int previousLeading = -1;
+    private int previousTrailing;
+
+    /**
+     * Append one point
+     * @param timestamp - epoch microseconds
+     * @param value - metric value
+     */
+    public void add(long timestamp, double value) {
+        long valueBits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            writeBits(timestamp, 64);
+            writeBits(valueBits, 64);
+        } else {
+            long delta = timestamp - previousTimestamp;
+            writeDeltaOfDelta(delta - previousDelta);
+            writeValue(valueBits ^ previousValue);
+            previousDelta = delta;
+        }
+        previousTimestamp = timestamp;
+        previousValue = valueBits;
+        count++;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Encoded points, padded to whole 8 byte words so they can be read a word at a time
+     * @return encoded block payload
+     */
+    public byte[] toBytes() {
+        int wordCount = (int) ((bitCount + 63) >>> 6);
+        ByteBuffer buffer = ByteBuffer.allocate(wordCount * 8);
+        for (int i = 0; i < wordCount; i++) {
+            buffer.putLong(words[i]);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Delta-of-delta in the smallest of 0, 7, 9, 12, 32 or 64 bits, prefixed by its size
+     */
+    private void writeDeltaOfDelta(long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            writeBits(0b0, 1);
+        } else if (fits(deltaOfDelta, 7)) {
+            writeBits(0b10, 2);
+            writeBits(deltaOfDelta, 7);
+        } else if (fits(deltaOfDelta, 9)) {
+            writeBits(0b110, 3);
+            writeBits(deltaOfDelta, 9);
+        } else if (fits(deltaOfDelta, 12)) {
+            writeBits(0b1110, 4);
+            writeBits(deltaOfDelta, 12);
+        } else if (fits(deltaOfDelta, 32)) {
+            writeBits(0b11110, 5);
+            writeBits(deltaOfDelta, 32);
+        } else {
+            writeBits(0b11111, 5);
+            writeBits(deltaOfDelta, 64);
+        }
+    }
+
+    /**
+     * XOR with the previous value, reusing the previous meaningful bits window when the new bits fit in it
+     */
+    private void writeValue(long xor) {
+        if (xor == 0) {
+            writeBits(0b0, 1);
+            return;
+        }
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+            writeBits(0b10, 2);
+            writeBits(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            return;
+        }
+        int meaningful = 64 - leading - trailing;
+        writeBits(0b11, 2);
+        writeBits(leading, 5);
+        // 64 meaningful bits are written as 0, 0 never happens for a non zero xor
+        writeBits(meaningful & 63, 6);
+        writeBits(xor >>> trailing, meaningful);
+        previousLeading = leading;
+        previousTrailing = trailing;
+    }
+
+    private static boolean fits(long value, int bits) {
+        return value >= -(1L << (bits - 1)) && value < (1L << (bits - 1));
+    }
+
+    /**
+     * Append the lowest n bits of the value, most significant first
+     */
+    private void writeBits(long value, int n) {
+        if (n < 64) {
+            value &= (1L << n) - 1;
+        }
+        int wordIndex = (int) (bitCount >>> 6);
+        if (wordIndex + 1 >= words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        int free = 64 - (int) (bitCount & 63);
+        if (n <= free) {
+            words[wordIndex] |= value << (free - n);
+        } else {
+            words[wordIndex] |= value >>> (n - free);
+            words[wordIndex + 1] |= value << (64 - (n - free));
+        }
+        bitCount += n;
+    }
+}
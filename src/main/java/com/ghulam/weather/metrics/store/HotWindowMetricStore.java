@@ -0,0 +1,246 @@
+package com.ghulam.weather.metrics.store;
+
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import com.ghulam.weather.metrics.service.WeatherMetricIngestListener;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.ObjectUtils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Optional in-process store of the recent readings, one {@link MetricRingBuffer} per sensor and metric name.
+ * <p>
+ * At startup, before the web server accepts requests, the last latestByDays days are loaded from the database,
+ * afterwards the store is fed by every saved weather metric and readings leaving the window are evicted every
+ * hot-window.evict-interval-ms. A statistic range can be served from the store when it starts inside the window
+ * and no buffer of the queried series overwrote readings inside the range, otherwise the caller falls back to the database.
+ */
+@Component
+@Slf4j
+public class HotWindowMetricStore implements WeatherMetricIngestListener, SmartLifecycle {
+
+    private final WeatherMetricRepository weatherMetricRepository;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final long windowDays;
+    private final int capacityPerSeries;
+    private final Map<String, Map<String, MetricRingBuffer>> seriesBySensor = new ConcurrentHashMap<>();
+
+    /**
+     * Readings from this timestamp (epoch microseconds) on are all in the store, unless overwritten
+     */
+    private volatile long coveredFrom = Long.MAX_VALUE;
+    private volatile boolean running;
+
+    @Autowired
+    public HotWindowMetricStore(WeatherMetricRepository weatherMetricRepository,
+                                EntityManager entityManager,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${hot-window.enabled:false}") boolean enabled,
+                                @Value("${latestByDays}") long windowDays,
+                                @Value("${hot-window.capacity-per-series:10080}") int capacityPerSeries) {
+        this.weatherMetricRepository = weatherMetricRepository;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.enabled = enabled;
+        this.windowDays = windowDays;
+        this.capacityPerSeries = capacityPerSeries;
+    }
+
+    /**
+     * The store has every reading of the range of the queried series
+     * @param sensorIds - List of sensor id wanted to query, all if empty
+     * @param metricNames - List of metric names wanted to query, all if empty
+     * @param startDate - date from statistic will be start calculating
+     * @return true if the range can be aggregated from the store
+     */
+    public boolean canServe(List<String> sensorIds, List<String> metricNames, LocalDateTime startDate) {
+        if (!running) {
+            return false;
+        }
+        long from = toEpochMicros(startDate);
+        if (from < coveredFrom) {
+            return false;
+        }
+        Iterable<String> sensors = ObjectUtils.isEmpty(sensorIds) ? seriesBySensor.keySet() : sensorIds;
+        for (String sensorId : sensors) {
+            Map<String, MetricRingBuffer> series = seriesBySensor.get(sensorId);
+            if (series == null) {
+                continue;
+            }
+            for (Map.Entry<String, MetricRingBuffer> entry : series.entrySet()) {
+                if (!ObjectUtils.isEmpty(metricNames) && !metricNames.contains(entry.getKey())) {
+                    continue;
+                }
+                if (entry.getValue().getEvictedUpTo() >= from) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Aggregate count, sum, min and max per sensor and metric name in [startDate, endDate]
+     * @param sensorIds - List of sensor id wanted to query, all if empty
+     * @param metricNames - List of metric names wanted to query, all if empty
+     * @param startDate - date from statistic will be start calculating
+     * @param endDate - date till statistic will stop calculating, inclusive
+     * @return aggregate per sensor and metric name having readings in the range
+     */
+    public List<MetricAggregateModel> aggregate(List<String> sensorIds, List<String> metricNames, LocalDateTime startDate, LocalDateTime endDate) {
+        long from = toEpochMicros(startDate);
+        long to = toEpochMicros(endDate);
+        MetricRingBuffer.Accumulator accumulator = new MetricRingBuffer.Accumulator();
+        List<MetricAggregateModel> aggregates = new ArrayList<>();
+        Iterable<String> sensors = ObjectUtils.isEmpty(sensorIds) ? seriesBySensor.keySet() : sensorIds;
+        for (String sensorId : sensors) {
+            Map<String, MetricRingBuffer> series = seriesBySensor.get(sensorId);
+            if (series == null) {
+                continue;
+            }
+            for (Map.Entry<String, MetricRingBuffer> entry : series.entrySet()) {
+                if (!ObjectUtils.isEmpty(metricNames) && !metricNames.contains(entry.getKey())) {
+                    continue;
+                }
+                entry.getValue().aggregate(from, to, accumulator);
+                if (accumulator.count == 0) {
+                    continue;
+                }
+                aggregates.add(new MetricAggregateModel(sensorId, entry.getKey(), fromEpochMicros(accumulator.firstTimestamp),
+                        accumulator.count, accumulator.min, accumulator.max, accumulator.sum));
+            }
+        }
+        return aggregates;
+    }
+
+    @Override
+    public void onSaved(List<WeatherMetricEntity> weatherMetrics) {
+        if (!running) {
+            return;
+        }
+        weatherMetrics.forEach(this::add);
+    }
+
+    private void add(WeatherMetricEntity weatherMetric) {
+        long timestamp = toEpochMicros(weatherMetric.getTimestamp());
+        if (timestamp < coveredFrom) {
+            // before the window, never served from the store
+            return;
+        }
+        Map<String, MetricRingBuffer> series = seriesBySensor.computeIfAbsent(weatherMetric.getSensorId(), sensorId -> new ConcurrentHashMap<>());
+        for (MetricEntity metric : weatherMetric.getMetrics()) {
+            // appended inside compute, so an eviction can not drop the buffer between lookup and append
+            series.compute(metric.getMetricName(), (metricName, buffer) -> {
+                MetricRingBuffer target = buffer != null ? buffer : new MetricRingBuffer(capacityPerSeries);
+                target.append(timestamp, metric.getMetricValue());
+                return target;
+            });
+        }
+    }
+
+    /**
+     * Evict the readings that left the last latestByDays days
+     */
+    @Scheduled(fixedDelayString = "${hot-window.evict-interval-ms:60000}", initialDelayString = "${hot-window.evict-interval-ms:60000}")
+    public void evictExpired() {
+        if (!running) {
+            return;
+        }
+        evictBefore(LocalDateTime.now().minusDays(windowDays));
+    }
+
+    /**
+     * Evict the readings before the timestamp and release the buffers left empty
+     * @param timestamp - new start of the window, inclusive
+     */
+    public void evictBefore(LocalDateTime timestamp) {
+        long cutoff = toEpochMicros(timestamp);
+        if (cutoff <= coveredFrom) {
+            return;
+        }
+        // ranges before the cutoff go to the database before their readings are dropped
+        coveredFrom = cutoff;
+        for (Map<String, MetricRingBuffer> series : seriesBySensor.values()) {
+            for (String metricName : series.keySet()) {
+                // a buffer that overwrote readings inside the window is kept to remember it
+                series.computeIfPresent(metricName, (name, buffer) ->
+                        buffer.evictBefore(cutoff) == 0 && buffer.getEvictedUpTo() < cutoff ? null : buffer);
+            }
+        }
+    }
+
+    /**
+     * Load the last window from the database before requests are accepted, later readings are added by {@link #onSaved(List)}
+     */
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime windowStart = LocalDateTime.now().minusDays(windowDays);
+        long start = System.currentTimeMillis();
+        coveredFrom = toEpochMicros(windowStart);
+        Long loaded = transactionTemplate.execute(status -> {
+            long count = 0;
+            try (Stream<WeatherMetricEntity> weatherMetrics = weatherMetricRepository.streamByTimestampFrom(windowStart)) {
+                for (WeatherMetricEntity weatherMetric : (Iterable<WeatherMetricEntity>) weatherMetrics::iterator) {
+                    add(weatherMetric);
+                    entityManager.detach(weatherMetric);
+                    count++;
+                }
+            }
+            return count;
+        });
+        running = true;
+        log.info("Hot window store loaded {} weather metrics since {} in {} ms", loaded, windowStart, System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        seriesBySensor.clear();
+        coveredFrom = Long.MAX_VALUE;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Start before the web server accepts requests
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    private static long toEpochMicros(LocalDateTime timestamp) {
+        return ChronoUnit.MICROS.between(LocalDateTime.of(1970, 1, 1, 0, 0), timestamp);
+    }
+
+    private static LocalDateTime fromEpochMicros(long epochMicros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochMicros, 1_000_000L), (int) Math.floorMod(epochMicros, 1_000_000L) * 1000, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,50 @@
+package com.ghulam.weather.metrics.store;
+
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.ObjectUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Readings from the weather metric tables, aggregated with GROUP BY and streamed from a cursor
+ */
+@Component
+@ConditionalOnProperty(name = "storage.engine", havingValue = "jpa", matchIfMissing = true)
+public class JpaMetricStorage implements MetricStorage {
+
+    private final WeatherMetricRepository weatherMetricRepository;
+
+    @Autowired
+    public JpaMetricStorage(WeatherMetricRepository weatherMetricRepository) {
+        this.weatherMetricRepository = weatherMetricRepository;
+    }
+
+    @Override
+    public List<MetricAggregateModel> aggregate(List<String> sensorIds, List<String> metricNames, LocalDateTime startDate, LocalDateTime endDate) {
+        if (ObjectUtils.isEmpty(metricNames)) {
+            return ObjectUtils.isEmpty(sensorIds)
+                    ? weatherMetricRepository.aggregateByTimestampRange(startDate, endDate)
+                    : weatherMetricRepository.aggregateBySensorIdsAndTimestampRange(sensorIds, startDate, endDate);
+        }
+        return ObjectUtils.isEmpty(sensorIds)
+                ? weatherMetricRepository.aggregateByMetricNamesAndTimestampRange(metricNames, startDate, endDate)
+                : weatherMetricRepository.aggregateBySensorIdsAndMetricNamesAndTimestampRange(sensorIds, metricNames, startDate, endDate);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachValue(List<String> sensorIds, LocalDateTime startDate, LocalDateTime endDate, ValueConsumer consumer) {
+        try (Stream<Object[]> values = ObjectUtils.isEmpty(sensorIds)
+                ? weatherMetricRepository.streamValuesByTimestampRange(startDate, endDate)
+                : weatherMetricRepository.streamValuesBySensorIdsAndTimestampRange(sensorIds, startDate, endDate)) {
+            values.forEach(row -> consumer.accept((String) row[0], (String) row[1], (LocalDateTime) row[2], ((Number) row[3]).doubleValue()));
+        }
+    }
+}
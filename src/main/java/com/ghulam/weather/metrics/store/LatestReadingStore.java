@@ -0,0 +1,164 @@
+package com.ghulam.weather.metrics.store;
+
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.SensorSnapshotModel;
+import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import com.ghulam.weather.metrics.service.WeatherMetricIngestListener;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ObjectUtils;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Latest reading of every sensor and metric name, for current conditions without scanning the readings.
+ * <p>
+ * At startup, before the web server accepts requests, the latest reading per sensor and metric name is loaded from the database,
+ * afterwards every saved weather metric replaces the readings it is newer than (or as new as). The readings are swapped with
+ * compare-and-set, ingestion threads never wait for each other or for the queries. When disabled, the latest readings are
+ * looked up in the database on every query.
+ */
+@Component
+@Slf4j
+public class LatestReadingStore implements WeatherMetricIngestListener, SmartLifecycle {
+
+    private final WeatherMetricRepository weatherMetricRepository;
+    private final boolean enabled;
+    private final Map<String, Map<String, AtomicReference<Reading>>> latestBySensor = new ConcurrentHashMap<>();
+    private volatile boolean running;
+
+    @Autowired
+    public LatestReadingStore(WeatherMetricRepository weatherMetricRepository, @Value("${snapshot.enabled:true}") boolean enabled) {
+        this.weatherMetricRepository = weatherMetricRepository;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Latest reading of every metric of the given sensors
+     * @param sensorIds - List of sensor id wanted to query, all sensors ordered by id if empty
+     * @param metricNames - List of metric names wanted to query, all if empty
+     * @return one snapshot per sensor having a reading of the metric names, in the order of the given sensors
+     */
+    public List<SensorSnapshotModel> getLatest(List<String> sensorIds, List<String> metricNames) {
+        Map<String, Map<String, AtomicReference<Reading>>> latest = latestBySensor;
+        if (!running) {
+            latest = new HashMap<>();
+            load(latest, ObjectUtils.isEmpty(sensorIds) ? weatherMetricRepository.findLatestValues() : weatherMetricRepository.findLatestValuesBySensorIds(sensorIds));
+        }
+        Collection<String> sensors = ObjectUtils.isEmpty(sensorIds) ? new TreeSet<>(latest.keySet()) : new LinkedHashSet<>(sensorIds);
+        List<SensorSnapshotModel> snapshots = new ArrayList<>();
+        for (String sensorId : sensors) {
+            Map<String, AtomicReference<Reading>> metrics = latest.get(sensorId);
+            if (metrics == null) {
+                continue;
+            }
+            List<SensorSnapshotModel.LatestMetric> latestMetrics = new ArrayList<>();
+            LocalDateTime timestamp = null;
+            for (Map.Entry<String, AtomicReference<Reading>> entry : new TreeMap<>(metrics).entrySet()) {
+                Reading reading = entry.getValue().get();
+                if (reading == null || !ObjectUtils.isEmpty(metricNames) && !metricNames.contains(entry.getKey())) {
+                    continue;
+                }
+                latestMetrics.add(SensorSnapshotModel.LatestMetric.builder()
+                        .metricName(entry.getKey())
+                        .metricValue(reading.value)
+                        .unit(reading.unit)
+                        .timestamp(reading.timestamp).build());
+                timestamp = timestamp == null || reading.timestamp.isAfter(timestamp) ? reading.timestamp : timestamp;
+            }
+            if (!latestMetrics.isEmpty()) {
+                snapshots.add(SensorSnapshotModel.builder().sensorId(sensorId).timestamp(timestamp).metrics(latestMetrics).build());
+            }
+        }
+        return snapshots;
+    }
+
+    @Override
+    public void onSaved(List<WeatherMetricEntity> weatherMetrics) {
+        if (!running) {
+            return;
+        }
+        for (WeatherMetricEntity weatherMetric : weatherMetrics) {
+            for (MetricEntity metric : weatherMetric.getMetrics()) {
+                update(latestBySensor, weatherMetric.getSensorId(), metric.getMetricName(),
+                        new Reading(weatherMetric.getTimestamp(), metric.getMetricValue(), metric.getUnit()));
+            }
+        }
+    }
+
+    private static void load(Map<String, Map<String, AtomicReference<Reading>>> latest, List<Object[]> rows) {
+        for (Object[] row : rows) {
+            update(latest, (String) row[0], (String) row[1], new Reading((LocalDateTime) row[2], ((Number) row[3]).doubleValue(), (String) row[4]));
+        }
+    }
+
+    /**
+     * Replace the latest reading of the sensor and metric name unless it is newer than the given reading, the maps are only
+     * written the first time a sensor or metric name is seen
+     */
+    private static void update(Map<String, Map<String, AtomicReference<Reading>>> latest, String sensorId, String metricName, Reading reading) {
+        Map<String, AtomicReference<Reading>> metrics = latest.get(sensorId);
+        if (metrics == null) {
+            metrics = latest.computeIfAbsent(sensorId, key -> new ConcurrentHashMap<>());
+        }
+        AtomicReference<Reading> current = metrics.get(metricName);
+        if (current == null) {
+            current = metrics.computeIfAbsent(metricName, key -> new AtomicReference<>());
+        }
+        current.accumulateAndGet(reading, (previous, candidate) ->
+                previous == null || !candidate.timestamp.isBefore(previous.timestamp) ? candidate : previous);
+    }
+
+    /**
+     * Load the latest readings from the database before requests are accepted, later readings are added by {@link #onSaved(List)}
+     */
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        load(latestBySensor, weatherMetricRepository.findLatestValues());
+        running = true;
+        log.info("Latest reading store loaded {} sensors in {} ms", latestBySensor.size(), System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        latestBySensor.clear();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Start before the web server accepts requests
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    private static final class Reading {
+
+        private final LocalDateTime timestamp;
+        private final double value;
+        private final String unit;
+
+        private Reading(LocalDateTime timestamp, double value, String unit) {
+            this.timestamp = timestamp;
+            this.value = value;
+            this.unit = unit;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.ghulam.weather.metrics.store;
+
+/**
+ * Fixed capacity ring buffer of the readings of one metric of one sensor, in primitive columns:
+ * timestamps in epoch microseconds and values, 16 bytes per reading.
+ * <p>
+ * When full, the oldest inserted reading is overwritten and the newest overwritten timestamp is remembered,
+ * so a caller can tell whether a range is still complete in the buffer.
+ * Readings may arrive out of order, aggregation scans every slot.
+ */
+public class MetricRingBuffer {
+
+    private final long[] timestamps;
+    private final double[] values;
+    private int head;
+    private int size;
+    private long evictedUpTo = Long.MIN_VALUE;
+
+    public MetricRingBuffer(int capacity) {
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    /**
+     * Append a reading, overwriting the oldest inserted reading if the buffer is full
+     * @param timestamp - epoch microseconds of the reading
+     * @param value - value of the metric
+     */
+    public synchronized void append(long timestamp, double value) {
+        int slot = slot(size);
+        if (size == timestamps.length) {
+            evictedUpTo = Math.max(evictedUpTo, timestamps[head]);
+            head = slot(1);
+        } else {
+            size++;
+        }
+        timestamps[slot] = timestamp;
+        values[slot] = value;
+    }
+
+    /**
+     * Drop the oldest inserted readings while they are before the timestamp, they left the window and are not counted as overwritten.
+     * A late reading older than the timestamp stays until the readings inserted before it are dropped.
+     * @param timestamp - epoch microseconds, inclusive start of the readings to keep
+     * @return number of readings left
+     */
+    public synchronized int evictBefore(long timestamp) {
+        while (size > 0 && timestamps[head] < timestamp) {
+            head = slot(1);
+            size--;
+        }
+        return size;
+    }
+
+    /**
+     * Newest timestamp overwritten so far, readings at or before it may be missing
+     * @return epoch microseconds, Long.MIN_VALUE if nothing was overwritten
+     */
+    public synchronized long getEvictedUpTo() {
+        return evictedUpTo;
+    }
+
+    /**
+     * Aggregate the readings with timestamp in [from, to] into the accumulator
+     * @param from - epoch microseconds, inclusive
+     * @param to - epoch microseconds, inclusive
+     * @param accumulator - count, sum, min, max and first timestamp of the range
+     */
+    public synchronized void aggregate(long from, long to, Accumulator accumulator) {
+        long count = 0;
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        long first = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            int slot = slot(i);
+            long timestamp = timestamps[slot];
+            if (timestamp < from || timestamp > to) {
+                continue;
+            }
+            double value = values[slot];
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            first = Math.min(first, timestamp);
+        }
+        accumulator.count = count;
+        accumulator.sum = sum;
+        accumulator.min = min;
+        accumulator.max = max;
+        accumulator.firstTimestamp = first;
+    }
+
+    /**
+     * Number of readings in the buffer
+     * @return size
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Slot of the reading inserted offset readings after the oldest one
+     */
+    private int slot(int offset) {
+        int slot = head + offset;
+        return slot >= timestamps.length ? slot - timestamps.length : slot;
+    }
+
+    /**
+     * Result of {@link #aggregate(long, long, Accumulator)}, reused by the caller across buffers
+     */
+    public static class Accumulator {
+        public long count;
+        public double sum;
+        public double min;
+        public double max;
+        public long firstTimestamp;
+    }
+}
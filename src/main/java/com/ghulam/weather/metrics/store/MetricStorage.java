@@ -0,0 +1,38 @@
+package com.ghulam.weather.metrics.store;
+
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Storage the raw readings of statistics, series and percentiles are read from, selected by storage.engine:
+ * jpa reads the weather metric tables ({@link JpaMetricStorage}), timeseries reads the embedded file engine ({@link TimeSeriesMetricStorage}).
+ * Weather metrics are always saved through the repository, paging and streaming read the repository.
+ */
+public interface MetricStorage {
+
+    /**
+     * Aggregate count, sum, min and max per sensor and metric name of readings in [startDate, endDate)
+     * @param sensorIds - List of sensor id wanted to query, all if empty
+     * @param metricNames - List of metric names wanted to query, all if empty
+     * @param startDate - start of the range, inclusive
+     * @param endDate - end of the range, exclusive
+     * @return aggregate per sensor and metric name having readings in the range
+     */
+    List<MetricAggregateModel> aggregate(List<String> sensorIds, List<String> metricNames, LocalDateTime startDate, LocalDateTime endDate);
+
+    /**
+     * Pass every reading value in [startDate, endDate) to the consumer
+     * @param sensorIds - List of sensor id wanted to query, all if empty
+     * @param startDate - start of the range, inclusive
+     * @param endDate - end of the range, exclusive
+     * @param consumer - receives sensor id, metric name, timestamp and value of each reading
+     */
+    void forEachValue(List<String> sensorIds, LocalDateTime startDate, LocalDateTime endDate, ValueConsumer consumer);
+
+    @FunctionalInterface
+    interface ValueConsumer {
+        void accept(String sensorId, String metricName, LocalDateTime timestamp, double value);
+    }
+}
@@ -0,0 +1,137 @@
+package com.ghulam.weather.metrics.store;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of the keys (sensor id and timestamp) of the recent readings, tells that a reading was certainly not seen without
+ * a database lookup.
+ * <p>
+ * Keys are added to the current generation of expectedKeys keys, a full generation becomes the previous one and the keys of the
+ * generation before are forgotten, so the filter covers the last expectedKeys to 2 * expectedKeys readings in a constant size.
+ * Both generations are checked, at most twice the false positive rate of one generation. Bits are set with compare-and-set, thread safe.
+ */
+public class RecentReadingFilter {
+
+    private final long expectedKeys;
+    private final int bits;
+    private final int hashes;
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    /**
+     * @param expectedKeys - keys per generation
+     * @param falsePositiveRate - false positive rate of a full generation, e.g 0.01
+     */
+    public RecentReadingFilter(long expectedKeys, double falsePositiveRate) {
+        if (expectedKeys < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid expected keys or false positive rate provided: " + expectedKeys + ", " + falsePositiveRate);
+        }
+        long optimalBits = (long) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        if (optimalBits > Integer.MAX_VALUE - Long.SIZE) {
+            throw new IllegalArgumentException("Too many expected keys provided: " + expectedKeys);
+        }
+        this.expectedKeys = expectedKeys;
+        this.bits = (int) ((optimalBits + Long.SIZE - 1) / Long.SIZE * Long.SIZE);
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedKeys * Math.log(2)));
+        this.current = new Generation(bits);
+        this.previous = new Generation(bits);
+    }
+
+    /**
+     * Add the key of the reading
+     * @param sensorId - sensor id
+     * @param timestamp - timestamp of the reading
+     * @return false if the key was certainly not added before, true if it may have been
+     */
+    public boolean put(String sensorId, LocalDateTime timestamp) {
+        long hash1 = hash(sensorId, timestamp);
+        long hash2 = mix(hash1 + 0x9E3779B97F4A7C15L) | 1;
+        Generation generation = current;
+        boolean seen = !generation.set(hash1, hash2, bits, hashes) || previous.contains(hash1, hash2, bits, hashes);
+        if (generation.keys.incrementAndGet() == expectedKeys) {
+            synchronized (this) {
+                previous = generation;
+                current = new Generation(bits);
+            }
+        }
+        return seen;
+    }
+
+    /**
+     * @param sensorId - sensor id
+     * @param timestamp - timestamp of the reading
+     * @return false if the key was certainly not added, true if it may have been
+     */
+    public boolean mightContain(String sensorId, LocalDateTime timestamp) {
+        long hash1 = hash(sensorId, timestamp);
+        long hash2 = mix(hash1 + 0x9E3779B97F4A7C15L) | 1;
+        return current.contains(hash1, hash2, bits, hashes) || previous.contains(hash1, hash2, bits, hashes);
+    }
+
+    /**
+     * @return size of one generation in bits
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    private static long hash(String sensorId, LocalDateTime timestamp) {
+        long epochNanos = timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + timestamp.getNano();
+        return mix(mix(epochNanos) ^ sensorId.hashCode());
+    }
+
+    /**
+     * Finalizer of SplitMix64, spreads every input bit over the 64 bits
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    private static final class Generation {
+
+        private final AtomicLongArray words;
+        private final AtomicLong keys = new AtomicLong();
+
+        private Generation(int bits) {
+            this.words = new AtomicLongArray(bits / Long.SIZE);
+        }
+
+        /**
+         * Set the bits of the key, double hashing
+         * @return true if any bit was not set before
+         */
+        private boolean set(long hash1, long hash2, int bits, int hashes) {
+            boolean changed = false;
+            for (int i = 0; i < hashes; i++) {
+                int bit = (int) Long.remainderUnsigned(hash1 + i * hash2, bits);
+                long mask = 1L << bit;
+                int word = bit >>> 6;
+                long value = words.get(word);
+                while ((value & mask) == 0) {
+                    long witness = words.compareAndExchange(word, value, value | mask);
+                    if (witness == value) {
+                        changed = true;
+                        break;
+                    }
+                    value = witness;
+                }
+            }
+            return changed;
+        }
+
+        private boolean contains(long hash1, long hash2, int bits, int hashes) {
+            for (int i = 0; i < hashes; i++) {
+                int bit = (int) Long.remainderUnsigned(hash1 + i * hash2, bits);
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.ghulam.weather.metrics.store;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of the sensor ids, assigns every sensor a compact integer key stored in the weather metric rows instead of the
+ * sensor id. The rollup and sketch rows keep the sensor id, one row per sensor, metric name and bucket.
+ * <p>
+ * The keys are cached in both directions, sensor ids by key in an array. A new sensor is inserted into the sensor table in its
+ * own transaction, committed whether or not the readings of the sensor are, so the key is never rolled back while cached.
+ * The registry uses JDBC and its own transaction manager rather than JPA as it is needed by the JPA converters.
+ */
+@Component
+@Slf4j
+public class SensorRegistry {
+
+    /**
+     * Key of the sensor ids that are not registered, matches no stored row
+     */
+    public static final int UNKNOWN = -1;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Map<String, Integer> keys = new ConcurrentHashMap<>();
+    private volatile String[] sensorIds = new String[64];
+
+    @Autowired
+    public SensorRegistry(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Key of the sensor, registered if it is new. Call it before the transaction writing the readings of the sensor,
+     * otherwise that transaction holds a connection while the registration takes another.
+     * @param sensorId - sensor id
+     * @return key of the sensor
+     */
+    public int register(String sensorId) {
+        Integer key = keys.get(sensorId);
+        if (key != null) {
+            return key;
+        }
+        synchronized (this) {
+            key = findKey(sensorId);
+            if (key != UNKNOWN) {
+                return key;
+            }
+            try {
+                key = transactionTemplate.execute(status -> insert(sensorId));
+            } catch (DuplicateKeyException e) {
+                // registered by another instance meanwhile
+                key = transactionTemplate.execute(status -> select(sensorId));
+            }
+            cache(sensorId, key);
+            log.debug("Registered sensor {} as {}", sensorId, key);
+            return key;
+        }
+    }
+
+    /**
+     * Key of a registered sensor, for queries
+     * @param sensorId - sensor id
+     * @return key of the sensor, {@link #UNKNOWN} if it is not registered
+     */
+    public int findKey(String sensorId) {
+        Integer key = keys.get(sensorId);
+        if (key != null) {
+            return key;
+        }
+        key = select(sensorId);
+        if (key == null) {
+            return UNKNOWN;
+        }
+        cache(sensorId, key);
+        return key;
+    }
+
+    /**
+     * Sensor id of a key
+     * @param key - key of the sensor
+     * @return sensor id, the same String instance for every row of the sensor
+     * @throws IllegalArgumentException if no sensor has the key
+     */
+    public String getSensorId(int key) {
+        String[] cached = sensorIds;
+        if (key >= 0 && key < cached.length && cached[key] != null) {
+            return cached[key];
+        }
+        List<String> found = jdbcTemplate.queryForList("SELECT sensor_id FROM sensor WHERE id = ?", String.class, key);
+        if (found.isEmpty()) {
+            throw new IllegalArgumentException("No sensor with key " + key);
+        }
+        cache(found.get(0), key);
+        return sensorIds[key];
+    }
+
+    private Integer insert(String sensorId) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement("INSERT INTO sensor (sensor_id) VALUES (?)", Statement.RETURN_GENERATED_KEYS);
+            statement.setString(1, sensorId);
+            return statement;
+        }, keyHolder);
+        return keyHolder.getKey().intValue();
+    }
+
+    private Integer select(String sensorId) {
+        List<Integer> found = jdbcTemplate.queryForList("SELECT id FROM sensor WHERE sensor_id = ?", Integer.class, sensorId);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    private synchronized void cache(String sensorId, int key) {
+        String[] cached = sensorIds;
+        if (key >= cached.length) {
+            cached = Arrays.copyOf(cached, Math.max(key + 1, cached.length * 2));
+        }
+        if (cached[key] == null) {
+            cached[key] = sensorId;
+        }
+        sensorIds = cached;
+        keys.putIfAbsent(sensorId, key);
+    }
+}
@@ -0,0 +1,239 @@
+package com.ghulam.weather.metrics.store;
+
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.WeatherMetricStatisticModel;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ObjectUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of statistic results, keyed by sensors, metric names, statistics and date range.
+ * <p>
+ * Entries are evicted least recently used first above max-entries and expire after the ttl. A saved reading only
+ * invalidates the entries whose sensors and metric names include the reading and whose range includes its timestamp.
+ * A result computed while a matching reading was saved is not cached, it may miss that reading.
+ * <p>
+ * Invalidation only sees readings saved by this instance, with several instances the ttl bounds how stale a result can be.
+ */
+@Component
+public class StatisticResultCache implements MeterBinder {
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<List<Object>, Entry> entries;
+    private final Set<Query> pending = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @Autowired
+    public StatisticResultCache(@Value("${statistic.cache.enabled:true}") boolean enabled,
+                                @Value("${statistic.cache.max-entries:1000}") int maxEntries,
+                                @Value("${statistic.cache.ttl-seconds:60}") long ttlSeconds) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = Duration.ofSeconds(ttlSeconds).toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+                if (size() > StatisticResultCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Results are cached
+     * @return true if enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Cached statistic of the query, computed by the loader and cached if missing
+     * @param metricNames - List of metrics wanted to query, all if empty
+     * @param sensorIds - List of sensor id wanted to query, all if empty
+     * @param statistics - Expected statistics
+     * @param startDate - date from statistic will be start calculating
+     * @param endDate - date till statistic will stop calculating, inclusive
+     * @param loader - computes the statistic on a miss
+     * @return statistic of the query, must not be modified
+     */
+    public List<WeatherMetricStatisticModel> get(List<String> metricNames, List<String> sensorIds, List<String> statistics,
+                                                 LocalDateTime startDate, LocalDateTime endDate,
+                                                 Supplier<List<WeatherMetricStatisticModel>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        Set<String> sensors = toSet(sensorIds);
+        Set<String> metrics = toSet(metricNames);
+        List<Object> key = List.of(sensors, metrics, statistics, startDate, endDate);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt - System.nanoTime() > 0) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.incrementAndGet();
+
+        // readings saved while the statistic is computed mark it, so it is not cached
+        Query computing = new Query(sensors, metrics, startDate, endDate);
+        pending.add(computing);
+        try {
+            List<WeatherMetricStatisticModel> value = loader.get();
+            synchronized (entries) {
+                if (!computing.invalidated) {
+                    entries.put(key, new Entry(computing, value, System.nanoTime() + ttlNanos));
+                }
+            }
+            return value;
+        } finally {
+            pending.remove(computing);
+        }
+    }
+
+    /**
+     * Drop the entries including any of the saved readings, call once the readings are visible to the statistic queries
+     * @param weatherMetrics - saved weather metrics
+     */
+    public void invalidate(List<WeatherMetricEntity> weatherMetrics) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (entries) {
+            for (Query computing : pending) {
+                if (computing.matchesAny(weatherMetrics)) {
+                    computing.invalidated = true;
+                }
+            }
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().query.matchesAny(weatherMetrics)) {
+                    iterator.remove();
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop all entries, e.g. after readings are deleted
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            pending.forEach(computing -> computing.invalidated = true);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("weather.statistic.cache.requests", hits, AtomicLong::get).tag("result", "hit")
+                .description("Statistic queries answered from the cache").register(registry);
+        FunctionCounter.builder("weather.statistic.cache.requests", misses, AtomicLong::get).tag("result", "miss")
+                .description("Statistic queries computed").register(registry);
+        FunctionCounter.builder("weather.statistic.cache.evictions", evictions, AtomicLong::get)
+                .description("Entries evicted to stay within max entries").register(registry);
+        FunctionCounter.builder("weather.statistic.cache.invalidations", invalidations, AtomicLong::get)
+                .description("Entries dropped because a reading inside their range was saved").register(registry);
+        Gauge.builder("weather.statistic.cache.size", this, StatisticResultCache::size)
+                .description("Cached statistic results").register(registry);
+    }
+
+    private static Set<String> toSet(List<String> values) {
+        return ObjectUtils.isEmpty(values) ? Set.of() : Set.copyOf(values);
+    }
+
+    /**
+     * Sensors, metric names and range of a query, empty sets match all
+     */
+    private static class Query {
+
+        private final Set<String> sensorIds;
+        private final Set<String> metricNames;
+        private final LocalDateTime startDate;
+        private final LocalDateTime endDate;
+        private volatile boolean invalidated;
+
+        private Query(Set<String> sensorIds, Set<String> metricNames, LocalDateTime startDate, LocalDateTime endDate) {
+            this.sensorIds = sensorIds;
+            this.metricNames = metricNames;
+            this.startDate = startDate;
+            this.endDate = endDate;
+        }
+
+        private boolean matchesAny(List<WeatherMetricEntity> weatherMetrics) {
+            for (WeatherMetricEntity weatherMetric : weatherMetrics) {
+                if ((sensorIds.isEmpty() || sensorIds.contains(weatherMetric.getSensorId()))
+                        && !weatherMetric.getTimestamp().isBefore(startDate) && !weatherMetric.getTimestamp().isAfter(endDate)
+                        && matchesMetric(weatherMetric)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean matchesMetric(WeatherMetricEntity weatherMetric) {
+            if (metricNames.isEmpty()) {
+                return true;
+            }
+            for (MetricEntity metric : weatherMetric.getMetrics()) {
+                if (metricNames.contains(metric.getMetricName())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class Entry {
+
+        private final Query query;
+        private final List<WeatherMetricStatisticModel> value;
+        private final long expiresAt;
+
+        private Entry(Query query, List<WeatherMetricStatisticModel> value, long expiresAt) {
+            this.query = query;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,609 @@
+package com.ghulam.weather.metrics.store;
+
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Embedded append-only time-series storage of the readings, one directory of segment files per sensor.
+ * <p>
+ * Points of a sensor and metric name are buffered in an open block, when full (or flushed) the block is compressed
+ * with {@link GorillaEncoder} and appended to the current segment file of the sensor, a new segment is started once it
+ * reaches the segment size or a block starts in a later segment period than the first block of the segment, so whole
+ * segments expire with the retention. Every block header holds the count, sum, min, max and time range of its points, kept in memory
+ * as the index, so a range aggregation only decodes the blocks overlapping the range edges and reads the others from the index.
+ * Blocks are read from memory-mapped segments.
+ * <p>
+ * The index is rebuilt from the block headers when the engine is opened, a block partially written by a crash is truncated.
+ * Points of open blocks are lost on a crash, {@link #flush()} writes them.
+ * <p>
+ * Segment layout: magic, sensor id, then blocks of: magic, metric name, count, min and max timestamp, sum, min, max,
+ * payload length, payload. Timestamps are epoch microseconds.
+ */
+@Slf4j
+public class TimeSeriesEngine implements Closeable {
+
+    private static final int SEGMENT_MAGIC = 0x54534731;
+    private static final int BLOCK_MAGIC = 0x424c4b31;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * Block header size without the metric name
+     */
+    private static final int BLOCK_HEADER_BYTES = 4 + 2 + 4 + 8 + 8 + 8 + 8 + 8 + 4;
+
+    private final Path directory;
+    private final int blockSize;
+    private final long segmentBytes;
+    private final long segmentMicros;
+    private final Map<String, Sensor> sensors = new LinkedHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Open the engine, creating the directory if missing and indexing the existing segments
+     * @param directory - root directory of the segments
+     * @param blockSize - points per block
+     * @param segmentBytes - size from which a new segment file is started
+     * @param segmentMicros - period of the points of a segment file in microseconds, a block of a later period starts a new one
+     * @throws IOException if the segments can not be read
+     */
+    public TimeSeriesEngine(Path directory, int blockSize, long segmentBytes, long segmentMicros) throws IOException {
+        this.directory = directory;
+        this.blockSize = blockSize;
+        this.segmentBytes = segmentBytes;
+        this.segmentMicros = segmentMicros;
+        Files.createDirectories(directory);
+        try (Stream<Path> sensorDirectories = Files.list(directory)) {
+            for (Path sensorDirectory : sensorDirectories.filter(Files::isDirectory).sorted().toList()) {
+                load(sensorDirectory);
+            }
+        }
+    }
+
+    /**
+     * Append one point, written to disk once its block is full or flushed
+     * @param sensorId - sensor id
+     * @param metricName - metric name
+     * @param timestamp - epoch microseconds
+     * @param value - metric value
+     * @throws IOException if a full block can not be written
+     */
+    public void append(String sensorId, String metricName, long timestamp, double value) throws IOException {
+        lock.writeLock().lock();
+        try {
+            Sensor sensor = sensors.get(sensorId);
+            if (sensor == null) {
+                sensor = new Sensor(sensorId, directory.resolve(HexFormat.of().formatHex(sensorId.getBytes(StandardCharsets.UTF_8))));
+                sensors.put(sensorId, sensor);
+            }
+            Series series = sensor.series.computeIfAbsent(metricName, Series::new);
+            series.append(timestamp, value, blockSize);
+            if (series.openCount == blockSize) {
+                sensor.write(series);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Write the open blocks and force the segments to disk
+     * @throws IOException if a block can not be written
+     */
+    public void flush() throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (Sensor sensor : sensors.values()) {
+                for (Series series : sensor.series.values()) {
+                    if (series.openCount > 0) {
+                        sensor.write(series);
+                    }
+                }
+                if (sensor.active != null) {
+                    sensor.active.channel.force(false);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Aggregate count, sum, min and max per sensor and metric name of the points in [from, to)
+     * @param sensorIds - sensors to aggregate, all if null or empty
+     * @param metricNames - metrics to aggregate, all if null or empty
+     * @param from - epoch microseconds, inclusive
+     * @param to - epoch microseconds, exclusive
+     * @return aggregate per sensor and metric name having points in the range
+     */
+    public List<MetricAggregateModel> aggregate(Collection<String> sensorIds, Collection<String> metricNames, long from, long to) {
+        List<MetricAggregateModel> aggregates = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Sensor sensor : select(sensorIds)) {
+                for (Series series : sensor.series.values()) {
+                    if (metricNames != null && !metricNames.isEmpty() && !metricNames.contains(series.metricName)) {
+                        continue;
+                    }
+                    Accumulator accumulator = new Accumulator();
+                    for (Block block : series.blocks) {
+                        if (block.maxTimestamp < from || block.minTimestamp >= to) {
+                            continue;
+                        }
+                        if (block.minTimestamp >= from && block.maxTimestamp < to) {
+                            accumulator.add(block.count, block.sum, block.min, block.max, block.minTimestamp);
+                            continue;
+                        }
+                        // range edge, decode the block
+                        GorillaDecoder decoder = block.decoder();
+                        while (decoder.next()) {
+                            accumulator.add(decoder.getTimestamp(), decoder.getValue(), from, to);
+                        }
+                    }
+                    for (int i = 0; i < series.openCount; i++) {
+                        accumulator.add(series.openTimestamps[i], series.openValues[i], from, to);
+                    }
+                    if (accumulator.count > 0) {
+                        aggregates.add(new MetricAggregateModel(sensor.sensorId, series.metricName, fromEpochMicros(accumulator.firstTimestamp),
+                                accumulator.count, accumulator.min, accumulator.max, accumulator.sum));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return aggregates;
+    }
+
+    /**
+     * Pass every point in [from, to) to the consumer, blocks are decoded sequentially. The consumer must not call the engine.
+     * @param sensorIds - sensors to read, all if null or empty
+     * @param from - epoch microseconds, inclusive
+     * @param to - epoch microseconds, exclusive
+     * @param consumer - receives the points
+     */
+    public void forEachPoint(Collection<String> sensorIds, long from, long to, PointConsumer consumer) {
+        lock.readLock().lock();
+        try {
+            for (Sensor sensor : select(sensorIds)) {
+                for (Series series : sensor.series.values()) {
+                    for (Block block : series.blocks) {
+                        if (block.maxTimestamp < from || block.minTimestamp >= to) {
+                            continue;
+                        }
+                        GorillaDecoder decoder = block.decoder();
+                        while (decoder.next()) {
+                            if (decoder.getTimestamp() >= from && decoder.getTimestamp() < to) {
+                                consumer.accept(sensor.sensorId, series.metricName, decoder.getTimestamp(), decoder.getValue());
+                            }
+                        }
+                    }
+                    for (int i = 0; i < series.openCount; i++) {
+                        if (series.openTimestamps[i] >= from && series.openTimestamps[i] < to) {
+                            consumer.accept(sensor.sensorId, series.metricName, series.openTimestamps[i], series.openValues[i]);
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Delete the segment files holding only points before the timestamp, an expired active segment included,
+     * the next block of its sensor starts a new one
+     * @param before - epoch microseconds, exclusive
+     * @return number of points deleted
+     * @throws IOException if a segment can not be deleted
+     */
+    public long deleteSegmentsBefore(long before) throws IOException {
+        long deleted = 0;
+        lock.writeLock().lock();
+        try {
+            for (Sensor sensor : sensors.values()) {
+                Iterator<Segment> segments = sensor.segments.iterator();
+                while (segments.hasNext()) {
+                    Segment segment = segments.next();
+                    if (segment.maxTimestamp >= before) {
+                        continue;
+                    }
+                    for (Series series : sensor.series.values()) {
+                        for (Block block : series.blocks) {
+                            if (block.segment == segment) {
+                                deleted += block.count;
+                            }
+                        }
+                        series.blocks.removeIf(block -> block.segment == segment);
+                    }
+                    segment.channel.close();
+                    Files.delete(segment.path);
+                    segments.remove();
+                    if (segment == sensor.active) {
+                        sensor.active = null;
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return deleted;
+    }
+
+    /**
+     * Number of blocks written, per sensor and metric name
+     * @return total written blocks
+     */
+    public long getBlockCount() {
+        lock.readLock().lock();
+        try {
+            return sensors.values().stream().flatMap(sensor -> sensor.series.values().stream()).mapToLong(series -> series.blocks.size()).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Size of the segment files
+     * @return bytes written
+     */
+    public long getSegmentBytes() {
+        lock.readLock().lock();
+        try {
+            return sensors.values().stream().flatMap(sensor -> sensor.segments.stream()).mapToLong(segment -> segment.size).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flush the open blocks and close the segment files
+     * @throws IOException if a block can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        lock.writeLock().lock();
+        try {
+            for (Sensor sensor : sensors.values()) {
+                for (Segment segment : sensor.segments) {
+                    segment.channel.close();
+                }
+            }
+            sensors.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static long toEpochMicros(LocalDateTime timestamp) {
+        return ChronoUnit.MICROS.between(LocalDateTime.of(1970, 1, 1, 0, 0), timestamp);
+    }
+
+    public static LocalDateTime fromEpochMicros(long epochMicros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochMicros, 1_000_000L), (int) Math.floorMod(epochMicros, 1_000_000L) * 1000, ZoneOffset.UTC);
+    }
+
+    private Collection<Sensor> select(Collection<String> sensorIds) {
+        if (sensorIds == null || sensorIds.isEmpty()) {
+            return sensors.values();
+        }
+        List<Sensor> selected = new ArrayList<>();
+        for (String sensorId : new LinkedHashSet<>(sensorIds)) {
+            Sensor sensor = sensors.get(sensorId);
+            if (sensor != null) {
+                selected.add(sensor);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Index the blocks of the segments of a sensor directory, truncate a partially written last block
+     */
+    private void load(Path sensorDirectory) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(sensorDirectory)) {
+            paths = files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+        Sensor sensor = null;
+        int nextSegment = 1;
+        for (Path path : paths) {
+            nextSegment = Math.max(nextSegment, segmentNumber(path) + 1);
+            Segment segment = new Segment(path, FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            if (segment.size < 6) {
+                // crashed while the segment was created
+                segment.channel.close();
+                Files.delete(path);
+                continue;
+            }
+            ByteBuffer buffer = segment.buffer(segment.size);
+            if (buffer.getInt(0) != SEGMENT_MAGIC) {
+                log.warn("Skipping time series segment {}, not a segment", path);
+                segment.channel.close();
+                continue;
+            }
+            byte[] sensorIdBytes = new byte[buffer.getShort(4)];
+            buffer.get(6, sensorIdBytes);
+            if (sensor == null) {
+                sensor = new Sensor(new String(sensorIdBytes, StandardCharsets.UTF_8), sensorDirectory);
+            }
+            int position = 6 + sensorIdBytes.length;
+            while (position < segment.size) {
+                int next = readBlock(sensor, segment, buffer, position);
+                if (next < 0) {
+                    log.warn("Truncating time series segment {} at {} of {} bytes, last block is incomplete", path, position, segment.size);
+                    segment.channel.truncate(position);
+                    segment.size = position;
+                    segment.mapped = null;
+                    break;
+                }
+                position = next;
+            }
+            sensor.segments.add(segment);
+            sensor.active = segment;
+        }
+        if (sensor != null) {
+            sensor.nextSegment = nextSegment;
+            sensors.put(sensor.sensorId, sensor);
+        }
+    }
+
+    /**
+     * Index the block at the position
+     * @return position of the next block, -1 if the block is incomplete
+     */
+    private static int readBlock(Sensor sensor, Segment segment, ByteBuffer buffer, int position) {
+        if (segment.size - position < BLOCK_HEADER_BYTES || buffer.getInt(position) != BLOCK_MAGIC) {
+            return -1;
+        }
+        int nameLength = buffer.getShort(position + 4);
+        int header = position + 6 + nameLength;
+        if (segment.size - position < BLOCK_HEADER_BYTES + nameLength) {
+            return -1;
+        }
+        byte[] name = new byte[nameLength];
+        buffer.get(position + 6, name);
+        Block block = new Block();
+        block.segment = segment;
+        block.count = buffer.getInt(header);
+        block.minTimestamp = buffer.getLong(header + 4);
+        block.maxTimestamp = buffer.getLong(header + 12);
+        block.sum = buffer.getDouble(header + 20);
+        block.min = buffer.getDouble(header + 28);
+        block.max = buffer.getDouble(header + 36);
+        int payloadLength = buffer.getInt(header + 44);
+        block.payloadOffset = header + 48;
+        if (payloadLength < 0 || segment.size - block.payloadOffset < payloadLength) {
+            return -1;
+        }
+        sensor.series.computeIfAbsent(new String(name, StandardCharsets.UTF_8), Series::new).blocks.add(block);
+        segment.add(block);
+        return block.payloadOffset + payloadLength;
+    }
+
+    private static int segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    @FunctionalInterface
+    public interface PointConsumer {
+        void accept(String sensorId, String metricName, long timestamp, double value);
+    }
+
+    /**
+     * Segments and series of one sensor
+     */
+    private class Sensor {
+
+        private final String sensorId;
+        private final Path directory;
+        private final List<Segment> segments = new ArrayList<>();
+        private final Map<String, Series> series = new LinkedHashMap<>();
+        private Segment active;
+        private int nextSegment = 1;
+
+        private Sensor(String sensorId, Path directory) {
+            this.sensorId = sensorId;
+            this.directory = directory;
+        }
+
+        /**
+         * Compress the open block of the series and append it to the active segment
+         */
+        private void write(Series series) throws IOException {
+            GorillaEncoder encoder = new GorillaEncoder();
+            Block block = new Block();
+            block.count = series.openCount;
+            block.minTimestamp = Long.MAX_VALUE;
+            block.maxTimestamp = Long.MIN_VALUE;
+            block.min = Double.POSITIVE_INFINITY;
+            block.max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < series.openCount; i++) {
+                long timestamp = series.openTimestamps[i];
+                double value = series.openValues[i];
+                encoder.add(timestamp, value);
+                block.minTimestamp = Math.min(block.minTimestamp, timestamp);
+                block.maxTimestamp = Math.max(block.maxTimestamp, timestamp);
+                block.sum += value;
+                block.min = Math.min(block.min, value);
+                block.max = Math.max(block.max, value);
+            }
+            // a late block of an earlier period stays in the active segment, it only delays the deletion of the segment
+            if (active == null || active.size >= segmentBytes || period(block.minTimestamp) > period(active.minTimestamp)) {
+                roll();
+            }
+            block.segment = active;
+            byte[] payload = encoder.toBytes();
+            byte[] name = series.metricName.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.allocate(BLOCK_HEADER_BYTES + name.length + payload.length);
+            buffer.putInt(BLOCK_MAGIC).putShort((short) name.length).put(name)
+                    .putInt(block.count).putLong(block.minTimestamp).putLong(block.maxTimestamp)
+                    .putDouble(block.sum).putDouble(block.min).putDouble(block.max)
+                    .putInt(payload.length).put(payload).flip();
+            block.payloadOffset = (int) active.size + buffer.limit() - payload.length;
+            active.write(buffer);
+            active.add(block);
+            series.blocks.add(block);
+            series.openCount = 0;
+        }
+
+        /**
+         * Segment period of the timestamp, the period of an empty segment is never before the one of a block
+         */
+        private long period(long timestamp) {
+            return timestamp == Long.MAX_VALUE ? Long.MAX_VALUE : Math.floorDiv(timestamp, segmentMicros);
+        }
+
+        private void roll() throws IOException {
+            Files.createDirectories(directory);
+            Path path = directory.resolve(String.format("%08d%s", nextSegment++, SEGMENT_SUFFIX));
+            Segment segment = new Segment(path, FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            byte[] sensorIdBytes = sensorId.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer header = ByteBuffer.allocate(6 + sensorIdBytes.length);
+            header.putInt(SEGMENT_MAGIC).putShort((short) sensorIdBytes.length).put(sensorIdBytes).flip();
+            segment.write(header);
+            if (active != null) {
+                active.channel.force(false);
+            }
+            segments.add(segment);
+            active = segment;
+        }
+    }
+
+    /**
+     * Written blocks and open block of a sensor and metric name
+     */
+    private static class Series {
+
+        private final String metricName;
+        private final List<Block> blocks = new ArrayList<>();
+        private long[] openTimestamps = new long[0];
+        private double[] openValues = new double[0];
+        private int openCount;
+
+        private Series(String metricName) {
+            this.metricName = metricName;
+        }
+
+        private void append(long timestamp, double value, int blockSize) {
+            if (openCount == openTimestamps.length) {
+                int length = Math.min(blockSize, Math.max(16, openCount * 2));
+                openTimestamps = Arrays.copyOf(openTimestamps, length);
+                openValues = Arrays.copyOf(openValues, length);
+            }
+            openTimestamps[openCount] = timestamp;
+            openValues[openCount] = value;
+            openCount++;
+        }
+    }
+
+    /**
+     * Index entry of a written block
+     */
+    private static class Block {
+
+        private Segment segment;
+        private int payloadOffset;
+        private int count;
+        private long minTimestamp;
+        private long maxTimestamp;
+        private double sum;
+        private double min;
+        private double max;
+
+        private GorillaDecoder decoder() {
+            return new GorillaDecoder(segment.buffer(segment.size), payloadOffset, count);
+        }
+    }
+
+    /**
+     * Segment file, appended through the channel and read through a read-only mapping
+     */
+    private static class Segment {
+
+        private final Path path;
+        private final FileChannel channel;
+        private long size;
+        private long minTimestamp = Long.MAX_VALUE;
+        private long maxTimestamp = Long.MIN_VALUE;
+        private MappedByteBuffer mapped;
+
+        private Segment(Path path, FileChannel channel) throws IOException {
+            this.path = path;
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                size += channel.write(buffer, size);
+            }
+        }
+
+        /**
+         * Extend the time range of the segment by the block written to it
+         */
+        private void add(Block block) {
+            minTimestamp = Math.min(minTimestamp, block.minTimestamp);
+            maxTimestamp = Math.max(maxTimestamp, block.maxTimestamp);
+        }
+
+        /**
+         * Mapping covering at least the first length bytes, remapped when the segment grew since it was mapped
+         */
+        private synchronized ByteBuffer buffer(long length) {
+            if (mapped == null || mapped.capacity() < length) {
+                try {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Can not map time series segment " + path, e);
+                }
+            }
+            return mapped;
+        }
+    }
+
+    /**
+     * Running count, sum, min and max of the points in a range
+     */
+    private static class Accumulator {
+
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private long firstTimestamp = Long.MAX_VALUE;
+
+        private void add(long timestamp, double value, long from, long to) {
+            if (timestamp >= from && timestamp < to) {
+                add(1, value, value, value, timestamp);
+            }
+        }
+
+        private void add(long count, double sum, double min, double max, long timestamp) {
+            this.count += count;
+            this.sum += sum;
+            this.min = Math.min(this.min, min);
+            this.max = Math.max(this.max, max);
+            this.firstTimestamp = Math.min(firstTimestamp, timestamp);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.ghulam.weather.metrics.store;
+
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import com.ghulam.weather.metrics.service.WeatherMetricIngestListener;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Readings from the embedded {@link TimeSeriesEngine}, fed by every saved weather metric.
+ * <p>
+ * Open blocks are written every flush interval and on shutdown, a crash loses the readings of the last interval.
+ * The engine only holds readings saved while it is selected, existing weather metrics are not copied.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.engine", havingValue = "timeseries")
+@Slf4j
+public class TimeSeriesMetricStorage implements MetricStorage, WeatherMetricIngestListener, SmartLifecycle {
+
+    private final TimeSeriesEngine engine;
+    private final long flushIntervalMs;
+    private volatile boolean running;
+    private Thread flusher;
+
+    @Autowired
+    public TimeSeriesMetricStorage(@Value("${storage.timeseries.directory:data/timeseries}") String directory,
+                                   @Value("${storage.timeseries.block-size:1024}") int blockSize,
+                                   @Value("${storage.timeseries.segment-size-mb:64}") long segmentSizeMb,
+                                   @Value("${storage.timeseries.segment-hours:24}") long segmentHours,
+                                   @Value("${storage.timeseries.flush-interval-ms:5000}") long flushIntervalMs) throws IOException {
+        long start = System.currentTimeMillis();
+        this.engine = new TimeSeriesEngine(Path.of(directory), blockSize, segmentSizeMb * 1024 * 1024, TimeUnit.HOURS.toMicros(segmentHours));
+        this.flushIntervalMs = flushIntervalMs;
+        log.info("Time series engine opened {} with {} blocks in {} ms", directory, engine.getBlockCount(), System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public List<MetricAggregateModel> aggregate(List<String> sensorIds, List<String> metricNames, LocalDateTime startDate, LocalDateTime endDate) {
+        return engine.aggregate(sensorIds, metricNames, ceilEpochMicros(startDate), ceilEpochMicros(endDate));
+    }
+
+    @Override
+    public void forEachValue(List<String> sensorIds, LocalDateTime startDate, LocalDateTime endDate, ValueConsumer consumer) {
+        engine.forEachPoint(sensorIds, ceilEpochMicros(startDate), ceilEpochMicros(endDate),
+                (sensorId, metricName, timestamp, value) -> consumer.accept(sensorId, metricName, TimeSeriesEngine.fromEpochMicros(timestamp), value));
+    }
+
+    @Override
+    public void onSaved(List<WeatherMetricEntity> weatherMetrics) {
+        try {
+            for (WeatherMetricEntity weatherMetric : weatherMetrics) {
+                long timestamp = TimeSeriesEngine.toEpochMicros(weatherMetric.getTimestamp());
+                for (MetricEntity metric : weatherMetric.getMetrics()) {
+                    engine.append(weatherMetric.getSensorId(), metric.getMetricName(), timestamp, metric.getMetricValue());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not append weather metrics to the time series engine", e);
+        }
+    }
+
+    /**
+     * Delete the segments holding only readings before the timestamp
+     * @param timestamp - retention cutoff, exclusive
+     * @return number of readings deleted
+     */
+    public long deleteBefore(LocalDateTime timestamp) {
+        try {
+            return engine.deleteSegmentsBefore(ceilEpochMicros(timestamp));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not delete time series segments", e);
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        flusher = new Thread(this::flushLoop, "time-series-flush");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join();
+            engine.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("Time series engine not closed cleanly", e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stop after the ingestion queue is flushed
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 8192;
+    }
+
+    /**
+     * Readings are kept to the microsecond, a bound with nanoseconds (an inclusive end plus one nano) is rounded up
+     */
+    private static long ceilEpochMicros(LocalDateTime timestamp) {
+        long epochMicros = TimeSeriesEngine.toEpochMicros(timestamp);
+        return timestamp.getNano() % 1000 == 0 ? epochMicros : epochMicros + 1;
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                Thread.sleep(flushIntervalMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                engine.flush();
+            } catch (IOException e) {
+                log.error("Time series flush failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+-- Schema as generated by Hibernate before the schema was managed by migrations,
+-- the rollup granularity is a varchar with a check constraint instead of the H2 enum type
+
+create sequence weather_metric_seq start with 1 increment by 50;
+create sequence metric_seq start with 1 increment by 50;
+
+create table weather_metric (
+    id bigint not null,
+    sensor_id varchar(255) not null,
+    timestamp timestamp(6) not null,
+    primary key (id)
+);
+
+-- sensor_id holds the id of the parent weather_metric row, not the sensor id
+create table metric (
+    id bigint not null,
+    sensor_id bigint,
+    metric_name varchar(255) not null,
+    metric_value float(53) not null,
+    unit varchar(255),
+    primary key (id)
+);
+
+alter table metric add constraint fk_metric_weather_metric foreign key (sensor_id) references weather_metric;
+
+create table metric_rollup (
+    sensor_id varchar(255) not null,
+    metric_name varchar(255) not null,
+    granularity varchar(16) not null,
+    bucket_start timestamp(6) not null,
+    reading_count bigint,
+    value_sum float(53),
+    value_min float(53),
+    value_max float(53),
+    primary key (bucket_start, metric_name, sensor_id, granularity),
+    constraint ck_metric_rollup_granularity check (granularity in ('DAY','HOUR','MINUTE'))
+);
+
+create table metric_sketch (
+    sensor_id varchar(255) not null,
+    metric_name varchar(255) not null,
+    granularity varchar(16) not null,
+    bucket_start timestamp(6) not null,
+    sketch varbinary(32768),
+    primary key (bucket_start, metric_name, sensor_id, granularity),
+    constraint ck_metric_sketch_granularity check (granularity in ('DAY','HOUR','MINUTE'))
+);
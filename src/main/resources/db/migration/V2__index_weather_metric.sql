@@ -0,0 +1,15 @@
+-- Name the child foreign key after the parent it references
+alter table metric rename column sensor_id to weather_metric_id;
+
+-- Readings of some sensors in a range: findBySensorIdsAndTimestampBetween and the statistic queries filtered by sensor
+create index idx_weather_metric_sensor_timestamp on weather_metric (sensor_id, timestamp);
+
+-- Readings of all sensors in a range: findByTimestampBetween and the statistic queries of all sensors
+create index idx_weather_metric_timestamp on weather_metric (timestamp);
+
+-- Metrics of a weather metric, by name
+create index idx_metric_weather_metric_name on metric (weather_metric_id, metric_name);
+
+-- Rollups and sketches of a granularity in a range, the primary key starts with bucket_start
+create index idx_metric_rollup_granularity_bucket on metric_rollup (granularity, bucket_start);
+create index idx_metric_sketch_granularity_bucket on metric_sketch (granularity, bucket_start);
@@ -0,0 +1,32 @@
+-- Sensor ids are stored once in the sensor table, rows reference them by an integer key
+create table sensor (
+    id integer generated by default as identity,
+    sensor_id varchar(255) not null,
+    primary key (id),
+    constraint uk_sensor_sensor_id unique (sensor_id)
+);
+
+insert into sensor (sensor_id)
+select distinct sensor_id from weather_metric;
+
+-- Metric names are stored as the code of their MetricName: Temp 0, Humidity 1, WindSpeed 2. Any other name is left null
+-- and fails the migration on set not null, rename or delete those metrics before migrating, no code can read them back
+
+drop index idx_weather_metric_sensor_timestamp;
+alter table weather_metric add column sensor_key integer;
+update weather_metric w set sensor_key = (select s.id from sensor s where s.sensor_id = w.sensor_id);
+alter table weather_metric drop column sensor_id;
+alter table weather_metric rename column sensor_key to sensor_id;
+alter table weather_metric alter column sensor_id set not null;
+alter table weather_metric add constraint fk_weather_metric_sensor foreign key (sensor_id) references sensor;
+create index idx_weather_metric_sensor_timestamp on weather_metric (sensor_id, timestamp);
+
+drop index idx_metric_weather_metric_name;
+alter table metric add column metric_code smallint;
+update metric set metric_code = case metric_name when 'Temp' then 0 when 'Humidity' then 1 when 'WindSpeed' then 2 end;
+alter table metric drop column metric_name;
+alter table metric rename column metric_code to metric_name;
+alter table metric alter column metric_name set not null;
+create index idx_metric_weather_metric_name on metric (weather_metric_id, metric_name);
+
+-- metric_rollup and metric_sketch keep their sensor_id and metric_name, their rows are already one per sensor, metric name and bucket
@@ -0,0 +1,11 @@
+-- A reading is unique per sensor and timestamp, retried readings are dropped on ingest.
+-- The first saved copy of a duplicated reading is kept, rebuild the rollups and sketches with rollup.backfill-on-startup: true
+delete from metric m where exists (
+    select 1 from weather_metric w join weather_metric o on o.sensor_id = w.sensor_id and o.timestamp = w.timestamp and o.id < w.id
+    where w.id = m.weather_metric_id);
+delete from weather_metric w where exists (
+    select 1 from weather_metric o where o.sensor_id = w.sensor_id and o.timestamp = w.timestamp and o.id < w.id);
+
+-- the unique index serves the sensor and range queries of idx_weather_metric_sensor_timestamp
+drop index idx_weather_metric_sensor_timestamp;
+alter table weather_metric add constraint uk_weather_metric_sensor_timestamp unique (sensor_id, timestamp);
@@ -0,0 +1,85 @@
+package com.ghulam.weather.metrics.benchmark;
+
+import com.ghulam.weather.metrics.alert.AlertProperties;
+import com.ghulam.weather.metrics.alert.AlertRuleEngine;
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingest overhead of the alert rules, time of {@link AlertRuleEngine#onSaved} per reading of 3 metrics from 1000 sensors.
+ * Half of the rules are thresholds and half anomalies, spread over the metric names, every rule applies to every sensor.
+ * <p>
+ * Run with: mvn -Pbenchmark test -DskipTests -Dbenchmark.include=AlertEngineBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlertEngineBenchmark {
+
+    private static final List<String> METRIC_NAMES = List.of("Temp", "Humidity", "WindSpeed");
+
+    @Param({"0", "10", "100", "1000"})
+    public int rules;
+
+    @Param({"1000"})
+    public int sensors;
+
+    private AlertRuleEngine alertRuleEngine;
+
+    private List<List<WeatherMetricEntity>> readings;
+
+    private int reading;
+
+    @Setup
+    public void setUp() {
+        AlertProperties alertProperties = new AlertProperties();
+        alertProperties.setEnabled(true);
+        for (int i = 0; i < rules; i++) {
+            AlertProperties.Rule rule = new AlertProperties.Rule();
+            rule.setName("rule-" + i);
+            rule.setMetricName(METRIC_NAMES.get(i % METRIC_NAMES.size()));
+            rule.setType(i % 2 == 0 ? AlertProperties.Type.THRESHOLD : AlertProperties.Type.ANOMALY);
+            rule.setThreshold(90 + i % 10);
+            rule.setDuration(Duration.ofMinutes(10));
+            alertProperties.getRules().add(rule);
+        }
+        alertRuleEngine = new AlertRuleEngine(alertProperties, List.of(alert -> { }));
+
+        Random random = new Random(42);
+        LocalDateTime start = LocalDateTime.of(2024, 12, 1, 0, 0);
+        readings = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            readings.add(List.of(WeatherMetricEntity.builder()
+                    .sensorId("sensor-" + (i % sensors))
+                    .timestamp(start.plusSeconds(i))
+                    .metrics(List.of(
+                            MetricEntity.builder().metricName("Temp").metricValue(random.nextDouble() * 40).unit("C").build(),
+                            MetricEntity.builder().metricName("Humidity").metricValue(random.nextDouble() * 100).unit("g/kg").build(),
+                            MetricEntity.builder().metricName("WindSpeed").metricValue(random.nextDouble() * 80).unit("km/h").build()))
+                    .build()));
+        }
+    }
+
+    /**
+     * Readings are replayed in a loop, moved after the previous pass so they are never late
+     */
+    @Benchmark
+    public void onSaved() {
+        if (reading == readings.size()) {
+            reading = 0;
+            readings.forEach(batch -> batch.get(0).setTimestamp(batch.get(0).getTimestamp().plusSeconds(readings.size())));
+        }
+        alertRuleEngine.onSaved(readings.get(reading++));
+    }
+}
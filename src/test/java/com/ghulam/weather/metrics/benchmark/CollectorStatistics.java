@@ -0,0 +1,141 @@
+package com.ghulam.weather.metrics.benchmark;
+
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.MetricStatisticModel;
+import com.ghulam.weather.metrics.model.WeatherMetricStatisticModel;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Stream collector implementation of the statistic, as it was before the single pass {@link com.ghulam.weather.metrics.statistic.StatisticAggregator}.
+ * Kept as baseline of the benchmarks.
+ */
+final class CollectorStatistics {
+
+    private CollectorStatistics() {
+    }
+
+    /**
+     * Calculate the statistic for Weather metrics group by sensor id, one collector chain per statistic
+     * @param all -  Weather metrics data
+     * @param statistic - Expected statistic e.g - min, max, sum, avg
+     * @return return Weather metrics statistic
+     */
+    static List<WeatherMetricStatisticModel> calculateStatics(List<WeatherMetricEntity> all, String statistic) {
+       return all.stream()
+                // Group by sensorId
+                .collect(Collectors.groupingBy(WeatherMetricEntity::getSensorId)).entrySet().stream().map(entry -> {
+                    String sensorId = entry.getKey();
+                    List<WeatherMetricEntity> metricsBySensor = entry.getValue();
+
+                   Map<String, Double> statisticMappedByMetricName = getStatisticMappedByMetricName(metricsBySensor, statistic);
+
+                   // Aggregate MetricStatisticModel from Statistic mapped by metricName
+                    List<MetricStatisticModel> aggregatedMetrics = statisticMappedByMetricName.entrySet().stream()
+                            .map(avgEntry -> MetricStatisticModel.builder()
+                                    .metricName(avgEntry.getKey())
+                                    .metricValue(avgEntry.getValue())
+                                    .statistic(statistic).build()
+                            )
+                            .collect(Collectors.toList());
+
+
+                    // Transform the Weather Metric Statistic
+                    return WeatherMetricStatisticModel.builder()
+                            .metrics(aggregatedMetrics)
+                            .sensorId(sensorId)
+                            .timestamp(metricsBySensor.get(0).getTimestamp())
+                            .build();
+
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Calculate the statistics (min, max, sum, avg) for a metric on given sensor data
+     * @param metricsBySensor - Sensor data
+     * @param statistic - Expected statistic e.g - min, max, sum, avg
+     * @return return map of metric and its statistic (Temp, Avg)
+     */
+    private static Map<String, Double> getStatisticMappedByMetricName(List<WeatherMetricEntity> metricsBySensor, String statistic) {
+        // Step 2: Flatten the metrics and calculate statistics by metricName
+        return switch (statistic) {
+            case "max" -> getMax(metricsBySensor);
+            case "min" -> getMin(metricsBySensor);
+            case "sum" -> getSum(metricsBySensor);
+            case "avg" -> getAverage(metricsBySensor);
+            default -> // Handle default or invalid statistic type
+                    getAverage(metricsBySensor); // return average by all  other case
+        };
+    }
+
+    /**
+     * Calculate the Average for all metric
+     *
+     * @param metricsBySensor sensor data
+     * @return return map of metric and average metric
+     */
+    private static Map<String, Double> getAverage(List<WeatherMetricEntity> metricsBySensor) {
+        return metricsBySensor.stream()
+                .flatMap(wm -> wm.getMetrics().stream())
+                .collect(Collectors.groupingBy(
+                        MetricEntity::getMetricName,
+                        Collectors.averagingDouble(MetricEntity::getMetricValue)
+                ));
+    }
+
+    /**
+     * Calculate the min for all metrics
+     *
+     * @param metricsBySensor sensor data
+     * @return return map of metric and min metrics
+     */
+    private static Map<String, Double> getMin(List<WeatherMetricEntity> metricsBySensor) {
+        return metricsBySensor.stream()
+                .flatMap(wm -> wm.getMetrics().stream())
+                .collect(Collectors.groupingBy(
+                        MetricEntity::getMetricName,
+                        Collectors.collectingAndThen(
+                                Collectors.minBy(Comparator.comparingDouble(MetricEntity::getMetricValue)),
+                                min -> min.map(MetricEntity::getMetricValue).orElse(0.0) // Default to 0.0 if no value exists
+                        )
+                ));
+    }
+
+    /**
+     * Calculate the max for all metrics
+     *
+     * @param metricsBySensor sensor data
+     * @return return map of metric and max metrics
+     */
+    private static Map<String, Double> getMax(List<WeatherMetricEntity> metricsBySensor) {
+        return metricsBySensor.stream()
+                .flatMap(wm -> wm.getMetrics().stream())
+                .collect(Collectors.groupingBy(
+                        MetricEntity::getMetricName,
+                        Collectors.collectingAndThen(
+                                Collectors.maxBy(Comparator.comparingDouble(MetricEntity::getMetricValue)),
+                                max -> max.map(MetricEntity::getMetricValue).orElse(0.0) // Default to 0.0 if no value exists
+                        )
+                ));
+    }
+
+    /**
+     * Calculate the sum for all metrics
+     *
+     * @param metricsBySensor sensor data
+     * @return return map of metric and sum of metrics
+     */
+    private static Map<String, Double> getSum(List<WeatherMetricEntity> metricsBySensor) {
+        return metricsBySensor.stream()
+                .flatMap(wm -> wm.getMetrics().stream())
+                .collect(Collectors.groupingBy(
+                        MetricEntity::getMetricName,
+                        Collectors.summingDouble(MetricEntity::getMetricValue)
+                ));
+    }
+}
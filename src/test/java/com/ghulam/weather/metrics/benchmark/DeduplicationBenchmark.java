@@ -0,0 +1,99 @@
+package com.ghulam.weather.metrics.benchmark;
+
+import com.ghulam.weather.metrics.WeatherMetricsApplication;
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import com.ghulam.weather.metrics.service.WeatherMetricDeduplicator;
+import com.ghulam.weather.metrics.service.WeatherMetricService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the duplicate check of a reading, {@link WeatherMetricDeduplicator#isDuplicate} of a new reading answered by the filter,
+ * of a recent duplicate answered by the keys of the last 10K saved readings, of an older duplicate looked up in the database,
+ * and the lookup alone that the filter saves for new readings. 100K readings of 100 sensors are saved first, in-memory H2 database.
+ * <p>
+ * Run with: mvn -Pbenchmark test -DskipTests -Dbenchmark.include=DeduplicationBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeduplicationBenchmark {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 12, 1, 0, 0);
+    private static final int SAVED = 100_000;
+    private static final int RECENT = 10_000;
+
+    private ConfigurableApplicationContext context;
+
+    private WeatherMetricDeduplicator deduplicator;
+
+    private WeatherMetricRepository weatherMetricRepository;
+
+    private long reading;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(WeatherMetricsApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.datasource.url=jdbc:h2:mem:deduplication-benchmark", "logging.level.root=warn",
+                        "ingest.dedup.recent-keys=" + RECENT)
+                .run();
+        deduplicator = context.getBean(WeatherMetricDeduplicator.class);
+        weatherMetricRepository = context.getBean(WeatherMetricRepository.class);
+        WeatherMetricService weatherMetricService = context.getBean(WeatherMetricService.class);
+        List<WeatherMetricEntity> batch = new ArrayList<>();
+        for (long i = 0; i < SAVED; i++) {
+            batch.add(weatherMetric(i));
+            if (batch.size() == 1000) {
+                weatherMetricService.saveMetrics(batch);
+                batch = new ArrayList<>();
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public boolean newReading() {
+        return deduplicator.isDuplicate(weatherMetric(SAVED + reading++));
+    }
+
+    @Benchmark
+    public boolean recentDuplicateReading() {
+        return deduplicator.isDuplicate(weatherMetric(SAVED - 1 - reading++ % RECENT));
+    }
+
+    @Benchmark
+    public boolean duplicateReading() {
+        return deduplicator.isDuplicate(weatherMetric(reading++ % (SAVED - RECENT)));
+    }
+
+    @Benchmark
+    public boolean lookup() {
+        WeatherMetricEntity weatherMetric = weatherMetric(SAVED + reading++);
+        return weatherMetricRepository.existsBySensorIdAndTimestamp(weatherMetric.getSensorId(), weatherMetric.getTimestamp());
+    }
+
+    private static WeatherMetricEntity weatherMetric(long i) {
+        return WeatherMetricEntity.builder()
+                .sensorId("sensor-" + (i % 100))
+                .timestamp(START.plusSeconds(i))
+                .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue(20.0 + i % 10).unit("C").build()))
+                .build();
+    }
+}
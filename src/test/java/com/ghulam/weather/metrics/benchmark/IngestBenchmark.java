@@ -0,0 +1,63 @@
+package com.ghulam.weather.metrics.benchmark;
+
+import com.ghulam.weather.metrics.WeatherMetricsApplication;
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.service.WeatherMetricService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link WeatherMetricService#saveMetric} with the default configuration, in-memory H2 database, rollups,
+ * sketches and statistic cache maintained on every save.
+ * <p>
+ * Run with: mvn -Pbenchmark test -DskipTests -Dbenchmark.include=IngestBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IngestBenchmark {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 12, 1, 0, 0);
+
+    private ConfigurableApplicationContext context;
+
+    private WeatherMetricService weatherMetricService;
+
+    private long reading;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(WeatherMetricsApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.datasource.url=jdbc:h2:mem:ingest-benchmark", "logging.level.root=warn")
+                .run();
+        weatherMetricService = context.getBean(WeatherMetricService.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public WeatherMetricEntity saveMetric() {
+        long i = reading++;
+        return weatherMetricService.saveMetric(WeatherMetricEntity.builder()
+                .sensorId("sensor-" + (i % 100))
+                .timestamp(START.plusSeconds(i))
+                .metrics(List.of(
+                        MetricEntity.builder().metricName("Temp").metricValue(20.0 + i % 10).unit("C").build(),
+                        MetricEntity.builder().metricName("Humidity").metricValue(50.0 + i % 7).unit("g/kg").build()))
+                .build());
+    }
+}
@@ -0,0 +1,108 @@
+package com.ghulam.weather.metrics.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.ingest.BinaryRecordCodec;
+import com.ghulam.weather.metrics.model.WeatherMetricStatisticModel;
+import com.ghulam.weather.metrics.service.WeatherMetricService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON (de)serialization of a posted reading and of a statistic response of 100 sensors, with the object mapper
+ * configuration of the application. The decoding of the same reading as a binary record from a direct buffer is measured
+ * next to it.
+ * <p>
+ * Run with: mvn -Pbenchmark test -DskipTests -Dbenchmark.include=JsonBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    private ObjectWriter writer;
+
+    private ObjectReader weatherMetricReader;
+
+    private WeatherMetricEntity weatherMetric;
+
+    private byte[] weatherMetricJson;
+
+    private List<WeatherMetricStatisticModel> statistics;
+
+    private BinaryRecordCodec codec;
+
+    private ByteBuffer weatherMetricRecord;
+
+    private final List<WeatherMetricEntity> decoded = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        writer = objectMapper.writer();
+        weatherMetricReader = objectMapper.readerFor(WeatherMetricEntity.class);
+
+        LocalDateTime start = LocalDateTime.of(2024, 12, 1, 0, 0);
+        weatherMetric = reading("sensor-1", start, 0);
+        weatherMetricJson = writer.writeValueAsBytes(weatherMetric);
+        codec = new BinaryRecordCodec(4096);
+        weatherMetricRecord = ByteBuffer.allocateDirect(256);
+        BinaryRecordCodec.encode(weatherMetric, weatherMetricRecord);
+        weatherMetricRecord.flip();
+
+        List<WeatherMetricEntity> weatherMetrics = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            weatherMetrics.add(reading("sensor-" + (i % 100), start.plusMinutes(i), i));
+        }
+        statistics = WeatherMetricService.calculateStatics(weatherMetrics, List.of("min", "max", "avg"));
+    }
+
+    private static WeatherMetricEntity reading(String sensorId, LocalDateTime timestamp, int i) {
+        return WeatherMetricEntity.builder()
+                .sensorId(sensorId)
+                .timestamp(timestamp)
+                .metrics(List.of(
+                        MetricEntity.builder().metricName("Temp").metricValue(20.0 + i % 10).unit("C").build(),
+                        MetricEntity.builder().metricName("Humidity").metricValue(50.0 + i % 7).unit("g/kg").build(),
+                        MetricEntity.builder().metricName("WindSpeed").metricValue(10.0 + i % 13).unit("km/h").build()))
+                .build();
+    }
+
+    @Benchmark
+    public byte[] serializeWeatherMetric() throws IOException {
+        return writer.writeValueAsBytes(weatherMetric);
+    }
+
+    @Benchmark
+    public WeatherMetricEntity deserializeWeatherMetric() throws IOException {
+        return weatherMetricReader.readValue(weatherMetricJson);
+    }
+
+    @Benchmark
+    public WeatherMetricEntity decodeBinaryWeatherMetric() {
+        decoded.clear();
+        codec.decode(weatherMetricRecord.rewind(), decoded);
+        return decoded.get(0);
+    }
+
+    @Benchmark
+    public byte[] serializeStatistics() throws IOException {
+        return writer.writeValueAsBytes(statistics);
+    }
+}
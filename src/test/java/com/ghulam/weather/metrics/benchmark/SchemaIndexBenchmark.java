@@ -0,0 +1,137 @@
+package com.ghulam.weather.metrics.benchmark;
+
+import org.flywaydb.core.Flyway;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Query plans, latencies and database size of the weather metric queries before and after the indexes of V2__index_weather_metric
+ * and the sensor and metric name codes of V3__dictionary_encode_sensors_and_metric_names.
+ * <p>
+ * Loads the readings (3 metrics each, 1000 sensors, one reading per sensor and minute from 2024-12-01) into a file H2 database
+ * migrated to V1, runs the queries, then migrates to V2 and to V3 running them again after each migration. The size is measured
+ * after compacting the database.
+ * <p>
+ * Run with: mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * && java -Xmx3g -cp target/test-classes:target/classes:$(cat target/cp.txt) com.ghulam.weather.metrics.benchmark.SchemaIndexBenchmark 10000000
+ */
+public class SchemaIndexBenchmark {
+
+    private static final int SENSORS = 1000;
+    private static final int RUNS = 5;
+
+    private static final String[][] QUERIES = {
+            {"findBySensorIdsAndTimestampBetween, 1 sensor, 6 hours",
+                    "SELECT w.id, w.sensor_id, w.timestamp, m.metric_name, m.metric_value FROM weather_metric w JOIN metric m ON m.%1$s = w.id " +
+                            "WHERE w.sensor_id IN (%2$s) AND w.timestamp BETWEEN TIMESTAMP '2024-12-01 06:00:00' AND TIMESTAMP '2024-12-01 11:59:59'"},
+            {"findByTimestampBetween, all sensors, 1 minute",
+                    "SELECT w.id, w.sensor_id, w.timestamp, m.metric_name, m.metric_value FROM weather_metric w JOIN metric m ON m.%1$s = w.id " +
+                            "WHERE w.timestamp BETWEEN TIMESTAMP '2024-12-01 12:00:00' AND TIMESTAMP '2024-12-01 12:00:59'"},
+            {"aggregateBySensorIdsAndTimestampBetween, 1 sensor, 6 hours",
+                    "SELECT w.sensor_id, m.metric_name, MIN(w.timestamp), COUNT(m.metric_value), MIN(m.metric_value), MAX(m.metric_value), SUM(m.metric_value) " +
+                            "FROM weather_metric w JOIN metric m ON m.%1$s = w.id " +
+                            "WHERE w.sensor_id IN (%2$s) AND w.timestamp BETWEEN TIMESTAMP '2024-12-01 06:00:00' AND TIMESTAMP '2024-12-01 11:59:59' " +
+                            "GROUP BY w.sensor_id, m.metric_name"},
+    };
+
+    private static final String SENSOR = "sensor-7";
+
+    public static void main(String[] args) throws Exception {
+        long readings = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000;
+        Path directory = Path.of("target", "schema-benchmark");
+        deleteDirectory(directory);
+        String url = "jdbc:h2:file:" + directory.toAbsolutePath().resolve("weather") + ";CACHE_SIZE=1048576;OPTIMIZE_REUSE_RESULTS=FALSE";
+
+        Flyway.configure().dataSource(url, "sa", "").target("1").load().migrate();
+        try (Connection connection = DriverManager.getConnection(url, "sa", "")) {
+            load(connection, readings);
+            run(connection, "V1, no indexes", "sensor_id", "'" + SENSOR + "'");
+            compact(connection, directory);
+        }
+        Flyway.configure().dataSource(url, "sa", "").target("2").load().migrate();
+        try (Connection connection = DriverManager.getConnection(url, "sa", "")) {
+            run(connection, "V2, indexes", "weather_metric_id", "'" + SENSOR + "'");
+            compact(connection, directory);
+        }
+        Flyway.configure().dataSource(url, "sa", "").target("3").load().migrate();
+        try (Connection connection = DriverManager.getConnection(url, "sa", "")) {
+            run(connection, "V3, sensor and metric name codes", "weather_metric_id", String.valueOf(sensorKey(connection)));
+            compact(connection, directory);
+        }
+    }
+
+    /**
+     * Key of the sensor, the application resolves it from the cache of the sensor registry before querying
+     */
+    private static int sensorKey(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT id FROM sensor WHERE sensor_id = '" + SENSOR + "'")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private static void compact(Connection connection, Path directory) throws Exception {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN COMPACT");
+        }
+        System.out.printf("database size %d MB%n", Files.size(directory.resolve("weather.mv.db")) / (1024 * 1024));
+    }
+
+    private static void load(Connection connection, long readings) throws SQLException {
+        long started = System.nanoTime();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO weather_metric (id, sensor_id, timestamp) " +
+                    "SELECT x, 'sensor-' || MOD(x, " + SENSORS + "), DATEADD(MINUTE, x / " + SENSORS + ", TIMESTAMP '2024-12-01 00:00:00') " +
+                    "FROM SYSTEM_RANGE(1, " + readings + ")");
+            statement.execute("INSERT INTO metric (id, sensor_id, metric_name, metric_value, unit) " +
+                    "SELECT 3 * x + k, x, CASEWHEN(k = 0, 'Temp', CASEWHEN(k = 1, 'Humidity', 'WindSpeed')), RAND() * 40, 'C' " +
+                    "FROM SYSTEM_RANGE(1, " + readings + ") CROSS JOIN (VALUES 0, 1, 2) v(k)");
+            statement.execute("ANALYZE");
+        }
+        System.out.printf("Loaded %d weather metrics and %d metrics in %d s%n", readings, 3 * readings, (System.nanoTime() - started) / 1_000_000_000);
+    }
+
+    private static void run(Connection connection, String schema, String foreignKey, String sensor) throws SQLException {
+        System.out.println("== " + schema);
+        for (String[] query : QUERIES) {
+            String sql = String.format(query[1], foreignKey, sensor);
+            System.out.println("-- " + query[0]);
+            try (Statement statement = connection.createStatement(); ResultSet plan = statement.executeQuery("EXPLAIN " + sql)) {
+                plan.next();
+                // access path of each table
+                plan.getString(1).lines().filter(line -> line.trim().startsWith("/* PUBLIC.")).forEach(System.out::println);
+            }
+            long[] nanos = new long[RUNS];
+            long rows = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long started = System.nanoTime();
+                rows = 0;
+                try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
+                    while (resultSet.next()) {
+                        rows++;
+                    }
+                }
+                nanos[run] = System.nanoTime() - started;
+            }
+            Arrays.sort(nanos);
+            System.out.printf("rows %d, median %.1f ms, min %.1f ms%n", rows, nanos[RUNS / 2] / 1e6, nanos[0] / 1e6);
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws Exception {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
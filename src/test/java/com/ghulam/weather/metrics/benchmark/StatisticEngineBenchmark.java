@@ -0,0 +1,66 @@
+package com.ghulam.weather.metrics.benchmark;
+
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.WeatherMetricStatisticModel;
+import com.ghulam.weather.metrics.service.WeatherMetricService;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the single pass statistic engine with the stream collector implementation.
+ * <p>
+ * Run with: mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * && java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.openjdk.jmh.Main StatisticEngineBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatisticEngineBenchmark {
+
+    @Param({"100000"})
+    public int readings;
+
+    @Param({"100"})
+    public int sensors;
+
+    @Param({"min", "avg"})
+    public String statistic;
+
+    private List<WeatherMetricEntity> weatherMetrics;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        LocalDateTime start = LocalDateTime.of(2024, 12, 1, 0, 0);
+        weatherMetrics = new ArrayList<>(readings);
+        for (int i = 0; i < readings; i++) {
+            weatherMetrics.add(WeatherMetricEntity.builder()
+                    .sensorId("sensor-" + (i % sensors))
+                    .timestamp(start.plusSeconds(i))
+                    .metrics(List.of(
+                            MetricEntity.builder().metricName("Temp").metricValue(random.nextDouble() * 40).unit("C").build(),
+                            MetricEntity.builder().metricName("Humidity").metricValue(random.nextDouble() * 100).unit("g/kg").build(),
+                            MetricEntity.builder().metricName("WindSpeed").metricValue(random.nextDouble() * 80).unit("km/h").build()))
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public List<WeatherMetricStatisticModel> collectors() {
+        return CollectorStatistics.calculateStatics(weatherMetrics, statistic);
+    }
+
+    @Benchmark
+    public List<WeatherMetricStatisticModel> singlePass() {
+        return WeatherMetricService.calculateStatics(weatherMetrics, List.of(statistic));
+    }
+}
@@ -0,0 +1,72 @@
+package com.ghulam.weather.metrics.benchmark;
+
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.WeatherMetricStatisticModel;
+import com.ghulam.weather.metrics.service.WeatherMetricService;
+import com.ghulam.weather.metrics.statistic.StatisticAggregator;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory statistics per statistic from 1K to 10M readings, of every metric and of one metric name.
+ * <p>
+ * The window repeats 100000 distinct readings (3 metrics, 100 sensors) so 10M readings fit in a small heap, the readings
+ * are still read one by one from memory.
+ * <p>
+ * Run with: mvn -Pbenchmark test -DskipTests -Dbenchmark.include=StatisticScalingBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class StatisticScalingBenchmark {
+
+    private static final int DISTINCT_READINGS = 100_000;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int readings;
+
+    @Param({"min", "max", "sum", "avg"})
+    public String statistic;
+
+    private List<WeatherMetricEntity> weatherMetrics;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        LocalDateTime start = LocalDateTime.of(2024, 12, 1, 0, 0);
+        List<WeatherMetricEntity> distinct = new ArrayList<>(DISTINCT_READINGS);
+        for (int i = 0; i < Math.min(readings, DISTINCT_READINGS); i++) {
+            distinct.add(WeatherMetricEntity.builder()
+                    .sensorId("sensor-" + (i % 100))
+                    .timestamp(start.plusSeconds(i))
+                    .metrics(List.of(
+                            MetricEntity.builder().metricName("Temp").metricValue(random.nextDouble() * 40).unit("C").build(),
+                            MetricEntity.builder().metricName("Humidity").metricValue(random.nextDouble() * 100).unit("g/kg").build(),
+                            MetricEntity.builder().metricName("WindSpeed").metricValue(random.nextDouble() * 80).unit("km/h").build()))
+                    .build());
+        }
+        weatherMetrics = new ArrayList<>(readings);
+        for (int i = 0; i < readings; i++) {
+            weatherMetrics.add(distinct.get(i % distinct.size()));
+        }
+    }
+
+    @Benchmark
+    public List<WeatherMetricStatisticModel> allMetrics() {
+        return WeatherMetricService.calculateStatics(weatherMetrics, List.of(statistic));
+    }
+
+    @Benchmark
+    public List<WeatherMetricStatisticModel> metricNameFilter() {
+        return WeatherMetricService.toStatisticModels(new StatisticAggregator(List.of("Temp")).addAll(weatherMetrics).getAggregates(), List.of(statistic));
+    }
+}
@@ -1,24 +1,65 @@
 package com.ghulam.weather.metrics.integration;
 
+import com.ghulam.weather.metrics.controller.WeatherMetricController;
 import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.MetricRollupId;
+import com.ghulam.weather.metrics.entity.MetricSketchEntity;
 import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.ingest.BinaryIngestServer;
+import com.ghulam.weather.metrics.ingest.BinaryRecordCodec;
+import com.ghulam.weather.metrics.model.RetentionReportModel;
+import com.ghulam.weather.metrics.model.RollupGranularity;
+import com.ghulam.weather.metrics.repository.MetricRollupRepository;
+import com.ghulam.weather.metrics.repository.MetricSketchRepository;
 import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import com.ghulam.weather.metrics.service.MetricRetentionJob;
+import com.ghulam.weather.metrics.service.MetricRetentionProperties;
+import com.ghulam.weather.metrics.service.MetricRollupBackfillJob;
+import com.ghulam.weather.metrics.service.MetricSketchService;
+import com.ghulam.weather.metrics.service.StatisticSubscriptionService;
+import com.ghulam.weather.metrics.service.WeatherMetricDeduplicator;
+import com.ghulam.weather.metrics.service.WeatherMetricService;
+import com.ghulam.weather.metrics.statistic.QuantileSketch;
+import com.ghulam.weather.metrics.store.MetricStorage;
+import com.ghulam.weather.metrics.store.StatisticResultCache;
+import jakarta.persistence.EntityManager;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-@SpringBootTest
+@SpringBootTest(properties = {"ingest.binary.enabled=true", "ingest.binary.host=127.0.0.1", "ingest.binary.tcp-port=0", "ingest.binary.udp-port=0"})
 @AutoConfigureMockMvc
+@AutoConfigureObservability(tracing = false)
 public class WeatherMetricApplicationTest {
 
     @Autowired
@@ -27,9 +68,52 @@ public class WeatherMetricApplicationTest {
     @Autowired
     private WeatherMetricRepository repository;
 
+    @Autowired
+    private MetricRollupRepository rollupRepository;
+
+    @Autowired
+    private MetricSketchRepository sketchRepository;
+
+    @Autowired
+    private WeatherMetricService weatherMetricService;
+
+    @Autowired
+    private MetricRollupBackfillJob metricRollupBackfillJob;
+
+    @Autowired
+    private StatisticResultCache statisticResultCache;
+
+    @Autowired
+    private WeatherMetricDeduplicator deduplicator;
+
+    @Autowired
+    private MetricRetentionJob metricRetentionJob;
+
+    @Autowired
+    private MetricRetentionProperties retentionProperties;
+
+    @Autowired
+    private StatisticSubscriptionService statisticSubscriptionService;
+
+    @Autowired
+    private BinaryIngestServer binaryIngestServer;
+
+    @Autowired
+    private MetricStorage metricStorage;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @BeforeEach
     void setup() {
         repository.deleteAll();
+        rollupRepository.deleteAll();
+        sketchRepository.deleteAll();
+        statisticResultCache.clear();
+        deduplicator.clearRecentKeys();
     }
 
     @Test
@@ -83,4 +167,573 @@ public class WeatherMetricApplicationTest {
 
     }
 
+    @Test
+    void testGetStatisticIntegration() throws Exception {
+        // populate two readings for the same sensor, statistic is aggregated in the database
+        weatherMetricService.saveMetric(WeatherMetricEntity.builder().sensorId("sensor-3").timestamp(LocalDateTime.now().minusHours(2))
+                .metrics(List.of(
+                        MetricEntity.builder().metricName("Temp").metricValue(20.0).unit("C").build(),
+                        MetricEntity.builder().metricName("Humidity").metricValue(40.0).unit("g/kg").build())).build());
+        weatherMetricService.saveMetric(WeatherMetricEntity.builder().sensorId("sensor-3").timestamp(LocalDateTime.now().minusHours(1))
+                .metrics(List.of(
+                        MetricEntity.builder().metricName("Temp").metricValue(30.0).unit("C").build(),
+                        MetricEntity.builder().metricName("Humidity").metricValue(60.0).unit("g/kg").build())).build());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic")
+                        .param("sensorId", "sensor-3")
+                        .param("metricName", "Temp")
+                        .param("statistic", "avg")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].sensorId").value("sensor-3"))
+                .andExpect(jsonPath("$[0].metrics.length()").value(1))
+                .andExpect(jsonPath("$[0].metrics[0].metricName").value("Temp"))
+                .andExpect(jsonPath("$[0].metrics[0].metricValue").value(25.0));
+
+        // several statistics from the same query
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic")
+                        .param("sensorId", "sensor-3")
+                        .param("metricName", "Humidity")
+                        .param("statistic", "min,max,avg")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].metrics[0].metricName").value("Humidity"))
+                .andExpect(jsonPath("$[0].metrics[0].statistics.min").value(40.0))
+                .andExpect(jsonPath("$[0].metrics[0].statistics.max").value(60.0))
+                .andExpect(jsonPath("$[0].metrics[0].statistics.avg").value(50.0));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic")
+                        .param("statistic", "min", "median"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testBulkCreateMetricIntegration() throws Exception {
+        // second reading has no sensor id, third reading can not be mapped
+        String requestBody = """
+                [
+                  {"sensorId": "sensor-4", "timestamp": "2024-12-13T20:55:16", "metrics": [{"metricName": "Temp", "metricValue": 34.0, "unit": "C"}]},
+                  {"timestamp": "2024-12-13T20:56:16", "metrics": [{"metricName": "Temp", "metricValue": 35.0, "unit": "C"}]},
+                  {"sensorId": "sensor-4", "timestamp": "2024-12-13T20:57:16", "metrics": [{"metricName": "Temp", "metricValue": "hot", "unit": "C"}]},
+                  {"sensorId": "sensor-4", "timestamp": "2024-12-13T20:58:16", "metrics": [{"metricName": "Temp", "metricValue": 36.0, "unit": "C"}]}
+                ]
+                """;
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/weather/metric/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(requestBody))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.rejected").value(2))
+                .andExpect(jsonPath("$.errors[0].index").value(1))
+                .andExpect(jsonPath("$.errors[1].index").value(2));
+
+        assertEquals(2, repository.findBySensorIds(List.of("sensor-4")).size());
+    }
+
+    @Test
+    void testBulkCreateMetricNdjsonIntegration() throws Exception {
+        String requestBody = """
+                {"sensorId": "sensor-5", "timestamp": "2024-12-13T20:55:16", "metrics": [{"metricName": "Temp", "metricValue": 34.0, "unit": "C"}]}
+                {"sensorId": "sensor-5", "timestamp": "2024-12-13T20:56:16", "metrics": [{"metricName": "Humidity", "metricValue": 50.0, "unit": "g/kg"}]}
+                """;
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/weather/metric/bulk")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(requestBody))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.rejected").value(0));
+
+        assertEquals(2, repository.findBySensorIds(List.of("sensor-5")).size());
+    }
+
+    @Test
+    void testGetMetricsPagedIntegration() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            repository.save(WeatherMetricEntity.builder().sensorId("sensor-6").timestamp(LocalDateTime.now())
+                    .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue(20.0 + i).unit("C").build())).build());
+        }
+
+        MvcResult firstPage = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric")
+                        .param("sensorId", "sensor-6")
+                        .param("limit", "2")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.weatherMetrics.length()").value(2))
+                .andExpect(jsonPath("$.nextCursor").doesNotExist())
+                .andExpect(header().string(HttpHeaders.LINK, containsString("limit=2")))
+                .andReturn();
+        String cursor = firstPage.getResponse().getHeader(WeatherMetricController.NEXT_CURSOR_HEADER);
+        assertTrue(firstPage.getResponse().getHeader(HttpHeaders.LINK).contains("cursor=" + cursor));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric")
+                        .param("sensorId", "sensor-6")
+                        .param("limit", "2")
+                        .param("cursor", cursor)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.weatherMetrics.length()").value(1))
+                .andExpect(jsonPath("$.weatherMetrics[0].metrics[0].metricValue").value(22.0))
+                .andExpect(header().doesNotExist(WeatherMetricController.NEXT_CURSOR_HEADER))
+                .andExpect(header().doesNotExist(HttpHeaders.LINK));
+    }
+
+    @Test
+    void testStreamMetricsIntegration() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            repository.save(WeatherMetricEntity.builder().sensorId("sensor-7").timestamp(LocalDateTime.now())
+                    .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue(20.0 + i).unit("C").build())).build());
+        }
+
+        MvcResult json = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/stream")
+                        .param("sensorId", "sensor-7")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(json))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.weatherMetrics.length()").value(3));
+
+        MvcResult ndjson = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/stream")
+                        .param("sensorId", "sensor-7")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(ndjson))
+                .andExpect(status().isOk());
+        assertEquals(3, ndjson.getResponse().getContentAsString().lines().count());
+    }
+
+    @Test
+    void testGetStatisticFromRollupsIntegration() throws Exception {
+        // readings over three days, statistic combines day, hour and minute rollups with the raw edges
+        LocalDateTime start = LocalDateTime.of(2024, 12, 1, 10, 30, 15);
+        for (int i = 0; i < 60; i++) {
+            weatherMetricService.saveMetric(WeatherMetricEntity.builder().sensorId("sensor-8").timestamp(start.plusMinutes(77L * i))
+                    .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue((double) i).unit("C").build())).build());
+        }
+
+        // readings 1..58, the first and the last one are outside the range
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic")
+                        .param("sensorId", "sensor-8")
+                        .param("statistic", "sum")
+                        .param("startDate", start.plusSeconds(1).toString())
+                        .param("endDate", start.plusMinutes(77L * 58).toString())
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].metrics[0].metricValue").value(1711.0));
+
+        // rebuilding the rollups from the readings gives the same statistic
+        rollupRepository.deleteAll();
+        metricRollupBackfillJob.backfill();
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic")
+                        .param("sensorId", "sensor-8")
+                        .param("metricName", "Temp")
+                        .param("statistic", "max")
+                        .param("startDate", start.toString())
+                        .param("endDate", start.plusDays(5).toString())
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].metrics[0].metricValue").value(59.0));
+    }
+
+    @Test
+    void testStatisticCacheIntegration() throws Exception {
+        weatherMetricService.saveMetric(WeatherMetricEntity.builder().sensorId("sensor-11").timestamp(LocalDateTime.now().minusHours(1))
+                .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue(10.0).unit("C").build())).build());
+        long hits = statisticResultCache.getHits();
+
+        // second identical query is answered from the cache
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic")
+                            .param("sensorId", "sensor-11")
+                            .param("statistic", "max")
+                            .accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[0].metrics[0].metricValue").value(10.0));
+        }
+        assertEquals(hits + 1, statisticResultCache.getHits());
+
+        // a reading inside the range drops the cached result
+        weatherMetricService.saveMetric(WeatherMetricEntity.builder().sensorId("sensor-11").timestamp(LocalDateTime.now().minusMinutes(1))
+                .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue(20.0).unit("C").build())).build());
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic")
+                        .param("sensorId", "sensor-11")
+                        .param("statistic", "max")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].metrics[0].metricValue").value(20.0));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/actuator/metrics/weather.statistic.cache.requests")
+                        .param("tag", "result:hit"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.measurements[0].value").value((double) statisticResultCache.getHits()));
+    }
+
+    @Test
+    void testGetStatisticSeriesIntegration() throws Exception {
+        // one reading every 10 minutes for a day, Temp is the hour of the reading
+        LocalDateTime start = LocalDateTime.of(2024, 12, 2, 0, 0);
+        for (int i = 0; i < 144; i++) {
+            LocalDateTime timestamp = start.plusMinutes(10L * i);
+            weatherMetricService.saveMetric(WeatherMetricEntity.builder().sensorId("sensor-10").timestamp(timestamp)
+                    .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue((double) timestamp.getHour()).unit("C").build())).build());
+        }
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic")
+                        .param("sensorId", "sensor-10")
+                        .param("statistic", "avg,max")
+                        .param("interval", "6h")
+                        .param("startDate", start.plusMinutes(5).toString())
+                        .param("endDate", start.plusDays(1).toString())
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(4))
+                .andExpect(jsonPath("$[0].timestamp").value("2024-12-02T00:00:00"))
+                .andExpect(jsonPath("$[0].metrics[0].statistics.max").value(5.0))
+                .andExpect(jsonPath("$[3].timestamp").value("2024-12-02T18:00:00"))
+                .andExpect(jsonPath("$[3].metrics[0].statistics.avg").value(20.5));
+
+        // hourly buckets downsampled to 5 points
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic")
+                        .param("sensorId", "sensor-10")
+                        .param("interval", "1h")
+                        .param("maxPoints", "5")
+                        .param("startDate", start.toString())
+                        .param("endDate", start.plusDays(1).minusSeconds(1).toString())
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(5))
+                .andExpect(jsonPath("$[0].timestamp").value("2024-12-02T00:00:00"))
+                .andExpect(jsonPath("$[4].timestamp").value("2024-12-02T23:00:00"));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic")
+                        .param("interval", "1m")
+                        .param("startDate", start.minusYears(1).toString())
+                        .param("endDate", start.toString()))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testGetPercentilesAndHistogramIntegration() throws Exception {
+        // readings 1..100 over five days, percentiles merge day and hour sketches with the raw edges
+        LocalDateTime start = LocalDateTime.of(2024, 12, 1, 10, 30, 15);
+        for (int i = 1; i <= 100; i++) {
+            weatherMetricService.saveMetric(WeatherMetricEntity.builder().sensorId("sensor-9").timestamp(start.plusMinutes(71L * i))
+                    .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue((double) i).unit("C").build())).build());
+        }
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic")
+                        .param("sensorId", "sensor-9")
+                        .param("statistic", "p50,p99,max")
+                        .param("startDate", start.toString())
+                        .param("endDate", start.plusDays(6).toString())
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].metrics[0].statistics.p50").value(closeTo(50.0, 0.5)))
+                .andExpect(jsonPath("$[0].metrics[0].statistics.p99").value(closeTo(99.0, 0.99)))
+                .andExpect(jsonPath("$[0].metrics[0].statistics.max").value(100.0));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/histogram")
+                        .param("sensorId", "sensor-9")
+                        .param("bins", "4")
+                        .param("startDate", start.toString())
+                        .param("endDate", start.plusDays(6).toString())
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].metricName").value("Temp"))
+                .andExpect(jsonPath("$[0].count").value(100))
+                .andExpect(jsonPath("$[0].min").value(1.0))
+                .andExpect(jsonPath("$[0].max").value(100.0))
+                .andExpect(jsonPath("$[0].bins.length()").value(4))
+                .andExpect(jsonPath("$[0].bins[0].count").value(25));
+
+        // rebuilding the sketches from the readings gives the same percentile
+        sketchRepository.deleteAll();
+        metricRollupBackfillJob.backfill();
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic")
+                        .param("sensorId", "sensor-9")
+                        .param("statistic", "p50")
+                        .param("startDate", start.toString())
+                        .param("endDate", start.plusDays(6).toString())
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].metrics[0].metricValue").value(closeTo(50.0, 0.5)));
+    }
+
+    @Test
+    void testConcurrentSketchFlushIntegration() throws Exception {
+        // two instances sharing the database flush into the same stored sketch at the same time, no merge is lost
+        MetricSketchService first = new MetricSketchService(sketchRepository, repository, metricStorage, entityManager, transactionManager, true);
+        MetricSketchService second = new MetricSketchService(sketchRepository, repository, metricStorage, entityManager, transactionManager, true);
+        LocalDateTime timestamp = LocalDateTime.of(2024, 11, 1, 10, 30);
+        first.onSaved(List.of(sketchReading(timestamp, 0.0)));
+        first.flush();
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 1; i <= 20; i++) {
+                first.onSaved(List.of(sketchReading(timestamp, i)));
+                second.onSaved(List.of(sketchReading(timestamp, -i)));
+                for (Future<Object> flush : executor.invokeAll(List.of(Executors.callable(first::flush), Executors.callable(second::flush)))) {
+                    flush.get();
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        MetricSketchEntity hour = sketchRepository.findById(new MetricRollupId("sensor-14", "Temp", RollupGranularity.HOUR, timestamp.withMinute(0))).orElseThrow();
+        assertEquals(41, QuantileSketch.fromBytes(hour.getSketch()).getCount());
+    }
+
+    private static WeatherMetricEntity sketchReading(LocalDateTime timestamp, double value) {
+        return WeatherMetricEntity.builder().sensorId("sensor-14").timestamp(timestamp)
+                .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue(value).unit("C").build())).build();
+    }
+
+    @Test
+    void testRetentionIntegration() throws Exception {
+        // a reading every 6 hours in December, Temp keeps the default 7 days of readings, Humidity 20 days
+        LocalDateTime start = LocalDateTime.of(2024, 12, 1, 0, 0);
+        for (int i = 0; i < 124; i++) {
+            weatherMetricService.saveMetric(WeatherMetricEntity.builder().sensorId("sensor-10").timestamp(start.plusHours(6L * i))
+                    .metrics(List.of(
+                            MetricEntity.builder().metricName("Temp").metricValue((double) i).unit("C").build(),
+                            MetricEntity.builder().metricName("Humidity").metricValue(50.0).unit("g/kg").build())).build());
+        }
+        MetricRetentionProperties.Policy humidity = new MetricRetentionProperties.Policy();
+        humidity.setRawDays(20);
+        retentionProperties.getMetrics().put("Humidity", humidity);
+        retentionProperties.setBatchSize(7);
+
+        RetentionReportModel report;
+        try {
+            report = metricRetentionJob.purge(LocalDateTime.of(2025, 1, 1, 0, 0));
+        } finally {
+            retentionProperties.getMetrics().clear();
+            retentionProperties.setBatchSize(1000);
+        }
+
+        // Temp before Dec 25th, Humidity and the weather metrics before Dec 12th, minute rollups of Dec 1st (30 days)
+        assertEquals(96 + 44, report.getMetrics());
+        assertEquals(44, report.getWeatherMetrics());
+        assertEquals(8, report.getRollups());
+        assertEquals(0, report.getSketches());
+        assertEquals(124 - 44, repository.count());
+        assertEquals(0, rollupRepository.findByBucketStartRange(RollupGranularity.MINUTE, start, start.plusDays(1)).size());
+
+        // expired readings are still counted from the day rollups
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic")
+                        .param("sensorId", "sensor-10")
+                        .param("metricName", "Temp")
+                        .param("statistic", "sum")
+                        .param("startDate", start.toString())
+                        .param("endDate", start.plusDays(30).toString())
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].metrics[0].metricValue").value(120 * 121 / 2.0));
+    }
+
+    @Test
+    void testBackfillAfterRetentionIntegration() throws Exception {
+        // a reading every 6 hours in December, the 7 days of readings end on Dec 25th at noon
+        LocalDateTime start = LocalDateTime.of(2024, 12, 1, 0, 0);
+        for (int i = 0; i < 124; i++) {
+            weatherMetricService.saveMetric(WeatherMetricEntity.builder().sensorId("sensor-15").timestamp(start.plusHours(6L * i))
+                    .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue((double) i).unit("C").build())).build());
+        }
+        LocalDateTime now = LocalDateTime.of(2025, 1, 1, 12, 0);
+        metricRetentionJob.purge(now);
+        assertEquals(124 - 98, repository.count());
+
+        // Dec 25th lost two readings, only the days after it are rebuilt
+        long written;
+        retentionProperties.setEnabled(true);
+        try {
+            written = metricRollupBackfillJob.backfill(now);
+        } finally {
+            retentionProperties.setEnabled(false);
+        }
+
+        assertTrue(written > 0);
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic")
+                        .param("sensorId", "sensor-15")
+                        .param("statistic", "sum,min")
+                        .param("startDate", start.toString())
+                        .param("endDate", start.plusDays(31).toString())
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].metrics[0].statistics.sum").value(123 * 124 / 2.0))
+                .andExpect(jsonPath("$[0].metrics[0].statistics.min").value(0.0));
+    }
+
+    @Test
+    void testGetLatestMetricsIntegration() throws Exception {
+        LocalDateTime timestamp = LocalDateTime.of(2024, 12, 20, 10, 0);
+        weatherMetricService.saveMetric(WeatherMetricEntity.builder().sensorId("sensor-13").timestamp(timestamp)
+                .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue(10.0).unit("C").build(),
+                        MetricEntity.builder().metricName("Humidity").metricValue(40.0).unit("g/kg").build())).build());
+        weatherMetricService.saveMetric(WeatherMetricEntity.builder().sensorId("sensor-13").timestamp(timestamp.plusMinutes(1))
+                .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue(11.0).unit("C").build())).build());
+        // an older reading saved late does not replace the latest one
+        weatherMetricService.saveMetric(WeatherMetricEntity.builder().sensorId("sensor-13").timestamp(timestamp.minusMinutes(1))
+                .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue(9.0).unit("C").build())).build());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/latest")
+                        .param("sensorId", "sensor-13")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].timestamp").value("2024-12-20T10:01:00"))
+                .andExpect(jsonPath("$[0].metrics[0].metricName").value("Humidity"))
+                .andExpect(jsonPath("$[0].metrics[0].metricValue").value(40.0))
+                .andExpect(jsonPath("$[0].metrics[1].metricName").value("Temp"))
+                .andExpect(jsonPath("$[0].metrics[1].metricValue").value(11.0));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/latest")
+                        .param("metricName", "Rain"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testSubscribeStatisticsIntegration() throws Exception {
+        LocalDateTime now = LocalDateTime.now();
+        weatherMetricService.saveMetric(WeatherMetricEntity.builder().sensorId("sensor-14").timestamp(now.minusMinutes(10))
+                .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue(10.0).unit("C").build())).build());
+
+        MvcResult subscription = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic/subscribe")
+                        .param("sensorId", "sensor-14")
+                        .param("statistic", "max")
+                        .param("window", "1h")
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        // the window is loaded and the current statistics sent by the next push
+        assertEquals("", subscription.getResponse().getContentAsString());
+        statisticSubscriptionService.pushChanges();
+        String initial = subscription.getResponse().getContentAsString();
+        assertEquals(1, initial.split("event:statistic").length - 1);
+        assertTrue(initial.contains("\"metricValue\":10.0"));
+
+        // a new reading is pushed, nothing is sent while the statistics do not change
+        weatherMetricService.saveMetric(WeatherMetricEntity.builder().sensorId("sensor-14").timestamp(now.minusMinutes(1))
+                .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue(12.0).unit("C").build())).build());
+        statisticSubscriptionService.pushChanges();
+        statisticSubscriptionService.pushChanges();
+        String pushed = subscription.getResponse().getContentAsString();
+        assertEquals(2, pushed.split("event:statistic").length - 1);
+        assertTrue(pushed.contains("\"metricValue\":12.0"));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic/subscribe")
+                        .param("statistic", "p95"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic/subscribe")
+                        .param("window", "30d"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testPrometheusInstrumentationIntegration() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/weather/metric")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"sensorId\": \"sensor-12\", \"timestamp\": \"" + LocalDateTime.now().minusHours(1) + "\", " +
+                                "\"metrics\": [{\"metricName\": \"Temp\", \"metricValue\": 10.0, \"unit\": \"C\"}]}"))
+                .andExpect(status().isOk());
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic")
+                        .param("sensorId", "sensor-12")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("weather_ingest_readings_total{sensor=\"sensor-12\"} 1.0")))
+                .andExpect(content().string(containsString("weather_ingest_queue_depth")))
+                .andExpect(content().string(containsString("weather_statistic_phase_seconds_count{phase=\"fetch\",source=\"push_down\"}")))
+                .andExpect(content().string(containsString("weather_statistic_rows_count{source=\"push_down\"}")))
+                .andExpect(content().string(containsString("weather_http_json_seconds_count{operation=\"read\",type=\"WeatherMetricEntity\"}")))
+                .andExpect(content().string(containsString("weather_http_json_seconds_count{operation=\"write\",type=\"WeatherMetricStatisticModel[]\"}")));
+    }
+
+    @Test
+    void testBinaryIngestIntegration() throws Exception {
+        LocalDateTime timestamp = LocalDateTime.now().withNano(0).minusMinutes(5);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        BinaryRecordCodec.encode(WeatherMetricEntity.builder().sensorId("sensor-15").timestamp(timestamp)
+                .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue(18.5).build(),
+                        MetricEntity.builder().metricName("WindSpeed").metricValue(3.0).build())).build(), buffer);
+        // metrics list can not be empty, rejected by the validation
+        BinaryRecordCodec.encode(WeatherMetricEntity.builder().sensorId("sensor-15").timestamp(timestamp).metrics(List.of()).build(), buffer);
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", binaryIngestServer.getTcpPort()))) {
+            channel.write(buffer.flip());
+        }
+        buffer.clear();
+        BinaryRecordCodec.encode(WeatherMetricEntity.builder().sensorId("sensor-16").timestamp(timestamp)
+                .metrics(List.of(MetricEntity.builder().metricName("Humidity").metricValue(70.0).build())).build(), buffer);
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.send(buffer.flip(), new InetSocketAddress("127.0.0.1", binaryIngestServer.getUdpPort()));
+        }
+
+        List<WeatherMetricEntity> saved = List.of();
+        for (int attempt = 0; attempt < 50 && saved.size() < 2; attempt++) {
+            Thread.sleep(100);
+            saved = repository.findBySensorIdsAndTimestampBetween(List.of("sensor-15", "sensor-16"), timestamp, timestamp);
+        }
+        assertEquals(2, saved.size());
+        WeatherMetricEntity tcp = saved.stream().filter(weatherMetric -> weatherMetric.getSensorId().equals("sensor-15")).findFirst().orElseThrow();
+        assertEquals(2, tcp.getMetrics().size());
+        assertEquals(timestamp, tcp.getTimestamp());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("weather_ingest_binary_records_total{result=\"accepted\"} 2.0")))
+                .andExpect(content().string(containsString("weather_ingest_binary_records_total{result=\"rejected\"} 1.0")));
+    }
+
+    @Test
+    void testDuplicateReadingsIntegration() throws Exception {
+        LocalDateTime timestamp = LocalDateTime.now().withNano(0).minusMinutes(10);
+        String reading = "{\"sensorId\": \"sensor-17\", \"timestamp\": \"" + timestamp + "\", " +
+                "\"metrics\": [{\"metricName\": \"Temp\", \"metricValue\": 10.0, \"unit\": \"C\"}]}";
+        // retried by the gateway, the second copy is dropped by the filter
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/weather/metric")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(reading))
+                    .andExpect(status().isOk());
+        }
+        // duplicate of a saved reading and within the batch, one new reading
+        String newReading = reading.replace(timestamp.toString(), timestamp.plusMinutes(1).toString());
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/weather/metric/bulk")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(reading + "\n" + newReading + "\n" + newReading + "\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.accepted").value(3));
+        // saved without the filter, the duplicate fails on the unique constraint
+        repository.save(WeatherMetricEntity.builder().sensorId("sensor-17").timestamp(timestamp.plusMinutes(2))
+                .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue(12.0).unit("C").build())).build());
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/weather/metric")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(reading.replace(timestamp.toString(), timestamp.plusMinutes(2).toString())))
+                .andExpect(status().isOk());
+
+        assertEquals(3, repository.findBySensorIds(List.of("sensor-17")).size());
+        // readings ingested through the service are counted once
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/weather/metric/statistic")
+                        .param("sensorId", "sensor-17")
+                        .param("metricName", "Temp")
+                        .param("statistic", "sum")
+                        .param("startDate", timestamp.minusMinutes(1).toString())
+                        .param("endDate", timestamp.plusSeconds(90).toString())
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].metrics[0].metricValue").value(20.0));
+        mockMvc.perform(MockMvcRequestBuilders.get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("weather_ingest_duplicates_total{detected_by=\"filter\"}")))
+                .andExpect(content().string(containsString("weather_ingest_duplicates_total{detected_by=\"constraint\"} 1.0")))
+                .andExpect(content().string(containsString("weather_ingest_dedup_rate")));
+    }
 }
@@ -0,0 +1,153 @@
+package com.ghulam.weather.metrics.integration;
+
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import com.ghulam.weather.metrics.store.SensorRegistry;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Limit;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+/**
+ * Number of statements per repository query does not grow with the number of weather metrics read
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Import(SensorRegistry.class)
+public class WeatherMetricRepositoryTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 12, 1, 0, 0);
+
+    @Autowired
+    private WeatherMetricRepository repository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    private Statistics statistics;
+
+    private int saved;
+
+    @BeforeEach
+    public void setUp() {
+        statistics = entityManager.getEntityManager().getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Test
+    public void testFindByTimestampBetweenStatementCount() {
+        assertStatementCount(1, () -> repository.findByTimestampBetween(START, START.plusDays(1)));
+    }
+
+    @Test
+    public void testFindBySensorIdsAndTimestampBetweenStatementCount() {
+        assertStatementCount(1, () -> repository.findBySensorIdsAndTimestampBetween(List.of("sensor-1", "sensor-2"), START, START.plusDays(1)));
+    }
+
+    @Test
+    public void testFindPageAfterIdStatementCount() {
+        // page ids, then the weather metrics of the page
+        assertStatementCount(2, () -> repository.findPageAfterId(0L, Limit.of(1000)));
+    }
+
+    @Test
+    public void testStreamAllStatementCount() {
+        assertStatementCount(1, () -> {
+            try (Stream<WeatherMetricEntity> weatherMetrics = repository.streamAll()) {
+                return weatherMetrics.toList();
+            }
+        });
+    }
+
+    @Test
+    public void testStreamByTimestampFromStatementCount() {
+        assertStatementCount(1, () -> {
+            try (Stream<WeatherMetricEntity> weatherMetrics = repository.streamByTimestampFrom(START)) {
+                return weatherMetrics.toList();
+            }
+        });
+    }
+
+    @Test
+    public void testFindAllFallsBackToBatchFetch() {
+        // no JOIN FETCH, the metrics of up to 500 weather metrics are loaded per statement
+        assertStatementCount(2, () -> repository.findAll());
+    }
+
+    @Test
+    public void testFindLatestValues() {
+        save(5);
+
+        // one row per sensor and metric name, of the newest reading
+        List<Object[]> latest = repository.findLatestValues();
+        assertEquals(4, latest.size());
+        Object[] sensor2Temp = latest.stream().filter(row -> row[0].equals("sensor-2") && row[1].equals("Temp")).findFirst().orElseThrow();
+        assertEquals(START.plusMinutes(3), sensor2Temp[2]);
+        assertEquals(23.0, sensor2Temp[3]);
+        assertEquals(2, repository.findLatestValuesBySensorIds(List.of("sensor-1")).size());
+    }
+
+    @Test
+    public void testSensorIdsAndMetricNamesStoredAsKeys() {
+        save(2);
+        entityManager.clear();
+
+        // integer key per sensor and code per metric name in the rows, strings in the entities
+        List<?> sensorKeys = entityManager.getEntityManager().createNativeQuery("SELECT DISTINCT sensor_id FROM weather_metric").getResultList();
+        assertEquals(2, sensorKeys.size());
+        sensorKeys.forEach(key -> assertInstanceOf(Integer.class, key));
+        List<?> metricCodes = entityManager.getEntityManager().createNativeQuery("SELECT DISTINCT metric_name FROM metric ORDER BY metric_name").getResultList();
+        assertEquals(List.of((short) 0, (short) 1), metricCodes);
+        List<WeatherMetricEntity> weatherMetrics = repository.findBySensorIdsAndTimestampBetween(List.of("sensor-1", "sensor-unknown"), START, START.plusDays(1));
+        assertEquals(1, weatherMetrics.size());
+        assertEquals("sensor-1", weatherMetrics.get(0).getSensorId());
+        assertEquals(Set.of("Temp", "Humidity"), weatherMetrics.get(0).getMetrics().stream().map(MetricEntity::getMetricName).collect(Collectors.toSet()));
+    }
+
+    /**
+     * Run the query over a few and over many weather metrics, each with all its metrics
+     */
+    private void assertStatementCount(long expected, Supplier<List<WeatherMetricEntity>> query) {
+        save(3);
+        assertEquals(expected, countStatements(query));
+        save(60);
+        assertEquals(expected, countStatements(query));
+    }
+
+    private long countStatements(Supplier<List<WeatherMetricEntity>> query) {
+        entityManager.clear();
+        statistics.clear();
+        List<WeatherMetricEntity> weatherMetrics = query.get();
+        assertEquals(saved, weatherMetrics.size());
+        weatherMetrics.forEach(weatherMetric -> assertEquals(2, weatherMetric.getMetrics().size()));
+        return statistics.getPrepareStatementCount();
+    }
+
+    private void save(int count) {
+        for (int i = 0; i < count; i++) {
+            entityManager.persist(WeatherMetricEntity.builder()
+                    .sensorId("sensor-" + (i % 2 + 1))
+                    .timestamp(START.plusMinutes(saved))
+                    .metrics(List.of(
+                            MetricEntity.builder().metricName("Temp").metricValue(20.0 + i).unit("C").build(),
+                            MetricEntity.builder().metricName("Humidity").metricValue(50.0).unit("g/kg").build()))
+                    .build());
+            saved++;
+        }
+        entityManager.flush();
+    }
+}
@@ -0,0 +1,65 @@
+package com.ghulam.weather.metrics.unit;
+
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builder of the readings of the unit tests, the unit of every metric follows its metric name
+ */
+public final class WeatherMetricFixture {
+
+    private final String sensorId;
+    private final LocalDateTime timestamp;
+    private final List<MetricEntity> metrics = new ArrayList<>();
+
+    private WeatherMetricFixture(String sensorId, LocalDateTime timestamp) {
+        this.sensorId = sensorId;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Reading of the sensor at the timestamp, metrics are added with {@link #metric}
+     */
+    public static WeatherMetricFixture weatherMetric(String sensorId, LocalDateTime timestamp) {
+        return new WeatherMetricFixture(sensorId, timestamp);
+    }
+
+    /**
+     * Reading of one metric
+     */
+    public static WeatherMetricEntity reading(String sensorId, LocalDateTime timestamp, String metricName, double value) {
+        return weatherMetric(sensorId, timestamp).metric(metricName, value).build();
+    }
+
+    /**
+     * Reading of a Temp and a Humidity metric
+     */
+    public static WeatherMetricEntity reading(String sensorId, LocalDateTime timestamp, double temp, double humidity) {
+        return weatherMetric(sensorId, timestamp).metric("Temp", temp).metric("Humidity", humidity).build();
+    }
+
+    /**
+     * Unit sent by the sensors for the metric name
+     */
+    public static String unitOf(String metricName) {
+        return switch (metricName) {
+            case "Temp" -> "C";
+            case "Humidity" -> "g/kg";
+            case "WindSpeed" -> "km/h";
+            default -> throw new IllegalArgumentException("No unit for metric name " + metricName);
+        };
+    }
+
+    public WeatherMetricFixture metric(String metricName, double value) {
+        metrics.add(MetricEntity.builder().metricName(metricName).metricValue(value).unit(unitOf(metricName)).build());
+        return this;
+    }
+
+    public WeatherMetricEntity build() {
+        return WeatherMetricEntity.builder().sensorId(sensorId).timestamp(timestamp).metrics(List.copyOf(metrics)).build();
+    }
+}
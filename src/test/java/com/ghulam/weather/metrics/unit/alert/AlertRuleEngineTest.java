@@ -0,0 +1,121 @@
+package com.ghulam.weather.metrics.unit.alert;
+
+import com.ghulam.weather.metrics.alert.AlertProperties;
+import com.ghulam.weather.metrics.alert.AlertRuleEngine;
+import com.ghulam.weather.metrics.model.AlertEventModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.ghulam.weather.metrics.unit.WeatherMetricFixture.reading;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AlertRuleEngineTest {
+
+    private final LocalDateTime now = LocalDateTime.of(2024, 12, 10, 12, 0);
+
+    private final List<AlertEventModel> alerts = new ArrayList<>();
+
+    @Test
+    void testOnSaved_ThresholdFiresAfterDurationAndResolves() {
+        // Arrange, Temp > 40 for 10 minutes on any sensor
+        AlertProperties.Rule rule = new AlertProperties.Rule();
+        rule.setName("hot");
+        rule.setMetricName("Temp");
+        rule.setThreshold(40);
+        rule.setDuration(Duration.ofMinutes(10));
+        AlertRuleEngine engine = engine(rule);
+
+        // Act, sensor-2 breaches only 5 minutes, the late reading of sensor-1 is ignored
+        engine.onSaved(List.of(reading("sensor-1", now, "Temp", 41.0), reading("sensor-2", now, "Temp", 45.0)));
+        engine.onSaved(List.of(reading("sensor-1", now.plusMinutes(5), "Temp", 42.0), reading("sensor-2", now.plusMinutes(5), "Temp", 30.0)));
+        engine.onSaved(List.of(reading("sensor-1", now.plusMinutes(10), "Temp", 43.0), reading("sensor-2", now.plusMinutes(10), "Temp", 45.0)));
+        engine.onSaved(List.of(reading("sensor-1", now.plusMinutes(11), "Temp", 44.0)));
+        engine.onSaved(List.of(reading("sensor-1", now.plusMinutes(1), "Temp", 10.0)));
+        engine.onSaved(List.of(reading("sensor-1", now.plusMinutes(12), "Temp", 39.0)));
+
+        // Assert
+        assertEquals(2, alerts.size());
+        assertEquals(AlertEventModel.State.FIRING, alerts.get(0).getState());
+        assertEquals("sensor-1", alerts.get(0).getSensorId());
+        assertEquals(now.plusMinutes(10), alerts.get(0).getTimestamp());
+        assertEquals("Temp 43.0 > 40.0 since 2024-12-10T12:00", alerts.get(0).getMessage());
+        assertEquals(AlertEventModel.State.RESOLVED, alerts.get(1).getState());
+        assertEquals(39.0, alerts.get(1).getMetricValue());
+    }
+
+    @Test
+    void testOnSaved_AnomalyFiresOnDeviationFromMean() {
+        // Arrange, WindSpeed deviates 3 standard deviations from its 24h mean, on sensor-1 only
+        AlertProperties.Rule rule = new AlertProperties.Rule();
+        rule.setName("gust");
+        rule.setType(AlertProperties.Type.ANOMALY);
+        rule.setMetricName("WindSpeed");
+        rule.setSensorId("sensor-1");
+        rule.setMinSamples(10);
+        AlertRuleEngine engine = engine(rule);
+
+        // Act, readings alternating 9 and 11: mean 10, standard deviation 1
+        for (int i = 0; i < 20; i++) {
+            engine.onSaved(List.of(reading("sensor-1", now.plusMinutes(i), "WindSpeed", i % 2 == 0 ? 9.0 : 11.0),
+                    reading("sensor-2", now.plusMinutes(i), "WindSpeed", i == 19 ? 100.0 : 10.0)));
+        }
+        engine.onSaved(List.of(reading("sensor-1", now.plusMinutes(20), "WindSpeed", 12.5)));
+        engine.onSaved(List.of(reading("sensor-1", now.plusMinutes(21), "WindSpeed", 20.0)));
+        engine.onSaved(List.of(reading("sensor-1", now.plusMinutes(22), "WindSpeed", 10.0)));
+
+        // Assert
+        assertEquals(2, alerts.size());
+        assertEquals(AlertEventModel.State.FIRING, alerts.get(0).getState());
+        assertEquals(20.0, alerts.get(0).getMetricValue());
+        assertEquals(AlertEventModel.State.RESOLVED, alerts.get(1).getState());
+    }
+
+    @Test
+    void testOnSaved_SensorRulesEvaluatedOnlyForTheirSensor() {
+        // Arrange, Temp > 40 on sensor-1 and Temp > 50 on any sensor
+        AlertProperties.Rule sensorRule = new AlertProperties.Rule();
+        sensorRule.setName("warm-sensor-1");
+        sensorRule.setMetricName("Temp");
+        sensorRule.setSensorId("sensor-1");
+        sensorRule.setThreshold(40);
+        AlertProperties.Rule anySensorRule = new AlertProperties.Rule();
+        anySensorRule.setName("hot");
+        anySensorRule.setMetricName("Temp");
+        anySensorRule.setThreshold(50);
+        AlertRuleEngine engine = engine(sensorRule, anySensorRule);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        engine.bindTo(registry);
+
+        // Act
+        engine.onSaved(List.of(reading("sensor-1", now, "Temp", 45.0), reading("sensor-2", now, "Temp", 45.0)));
+        engine.onSaved(List.of(reading("sensor-2", now.plusMinutes(1), "Temp", 55.0), reading("sensor-2", now.plusMinutes(1), "Humidity", 55.0)));
+
+        // Assert, two rules for sensor-1, one for sensor-2
+        assertEquals(List.of("warm-sensor-1", "hot"), alerts.stream().map(AlertEventModel::getRuleName).toList());
+        assertEquals("sensor-2", alerts.get(1).getSensorId());
+        assertEquals(4.0, registry.get("weather.alert.evaluations").functionCounter().count());
+    }
+
+    @Test
+    void testAlertRuleEngine_InvalidRuleRejected() {
+        AlertProperties.Rule rule = new AlertProperties.Rule();
+        rule.setName("hot");
+        rule.setMetricName("Temp");
+        rule.setOperator("!=");
+
+        assertThrows(IllegalArgumentException.class, () -> engine(rule));
+    }
+
+    private AlertRuleEngine engine(AlertProperties.Rule... rules) {
+        AlertProperties alertProperties = new AlertProperties();
+        alertProperties.setEnabled(true);
+        alertProperties.setRules(List.of(rules));
+        return new AlertRuleEngine(alertProperties, List.of(alerts::add));
+    }
+}
@@ -0,0 +1,108 @@
+package com.ghulam.weather.metrics.unit.ingest;
+
+import com.ghulam.weather.metrics.entity.MetricEntity;
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.ingest.BinaryRecordCodec;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BinaryRecordCodecTest {
+
+    private final LocalDateTime timestamp = LocalDateTime.of(2024, 12, 10, 12, 0, 30, 250_000_000);
+
+    private final BinaryRecordCodec codec = new BinaryRecordCodec(4096);
+
+    @Test
+    void testDecode_RecordsOfDirectBufferStopAtIncompleteRecord() {
+        // Arrange, two records and the first half of a third
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        BinaryRecordCodec.encode(weatherMetric("sensor-1", 21.5, 60.0), buffer);
+        BinaryRecordCodec.encode(weatherMetric("sensor-1", 22.0, 61.0), buffer);
+        int complete = buffer.position();
+        BinaryRecordCodec.encode(weatherMetric("sensor-2", 23.0, 62.0), buffer);
+        buffer.flip().limit(complete + 10);
+        List<WeatherMetricEntity> result = new ArrayList<>();
+
+        // Act
+        int skipped = codec.decode(buffer, result);
+
+        // Assert
+        assertEquals(0, skipped);
+        assertEquals(complete, buffer.position());
+        assertEquals(2, result.size());
+        assertEquals("sensor-1", result.get(0).getSensorId());
+        assertEquals(timestamp, result.get(0).getTimestamp());
+        assertEquals("Temp", result.get(0).getMetrics().get(0).getMetricName());
+        assertEquals(21.5, result.get(0).getMetrics().get(0).getMetricValue());
+        assertEquals("Humidity", result.get(1).getMetrics().get(1).getMetricName());
+        assertEquals(61.0, result.get(1).getMetrics().get(1).getMetricValue());
+        // decoded sensor ids are cached
+        assertSame(result.get(0).getSensorId(), result.get(1).getSensorId());
+    }
+
+    @Test
+    void testDecode_UnknownMetricCodeSkipsRecord() {
+        // Arrange, metric code of the second record replaced by an unknown code
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        BinaryRecordCodec.encode(weatherMetric("sensor-1", 21.5, 60.0), buffer);
+        int second = buffer.position();
+        BinaryRecordCodec.encode(weatherMetric("sensor-1", 22.0, 61.0), buffer);
+        BinaryRecordCodec.encode(weatherMetric("sensor-1", 23.0, 62.0), buffer);
+        buffer.put(second + 4 + 1 + "sensor-1".length() + 8 + 1, (byte) 99);
+        buffer.flip();
+        List<WeatherMetricEntity> result = new ArrayList<>();
+
+        // Act
+        int skipped = codec.decode(buffer, result);
+
+        // Assert
+        assertEquals(1, skipped);
+        assertEquals(2, result.size());
+        assertEquals(23.0, result.get(1).getMetrics().get(0).getMetricValue());
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    void testDecode_NonFiniteValueSkipsRecord() {
+        // Arrange
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        BinaryRecordCodec.encode(weatherMetric("sensor-1", Double.NaN, 60.0), buffer);
+        BinaryRecordCodec.encode(weatherMetric("sensor-1", 22.0, Double.POSITIVE_INFINITY), buffer);
+        BinaryRecordCodec.encode(weatherMetric("sensor-1", 23.0, 62.0), buffer);
+        buffer.flip();
+        List<WeatherMetricEntity> result = new ArrayList<>();
+
+        // Act
+        int skipped = codec.decode(buffer, result);
+
+        // Assert
+        assertEquals(2, skipped);
+        assertEquals(1, result.size());
+        assertEquals(23.0, result.get(0).getMetrics().get(0).getMetricValue());
+    }
+
+    @Test
+    void testDecode_InvalidLengthPrefixThrows() {
+        ByteBuffer buffer = ByteBuffer.allocate(16).putInt(1_000_000).flip();
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(buffer, new ArrayList<>()));
+    }
+
+    private WeatherMetricEntity weatherMetric(String sensorId, double temp, double humidity) {
+        return WeatherMetricEntity.builder()
+                .sensorId(sensorId)
+                .timestamp(timestamp)
+                .metrics(List.of(
+                        MetricEntity.builder().metricName("Temp").metricValue(temp).build(),
+                        MetricEntity.builder().metricName("Humidity").metricValue(humidity).build()))
+                .build();
+    }
+}
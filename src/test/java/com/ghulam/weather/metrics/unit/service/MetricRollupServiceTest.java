@@ -0,0 +1,133 @@
+package com.ghulam.weather.metrics.unit.service;
+
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import com.ghulam.weather.metrics.model.RollupGranularity;
+import com.ghulam.weather.metrics.repository.MetricRollupRepository;
+import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import com.ghulam.weather.metrics.service.MetricRollupService;
+import com.ghulam.weather.metrics.store.MetricStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static com.ghulam.weather.metrics.unit.WeatherMetricFixture.reading;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+public class MetricRollupServiceTest {
+
+    @Mock
+    private MetricRollupRepository metricRollupRepository;
+
+    @Mock
+    private WeatherMetricRepository weatherMetricRepository;
+
+    @Mock
+    private MetricStorage metricStorage;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Captor
+    private ArgumentCaptor<List<Object[]>> rows;
+
+    private MetricRollupService metricRollupService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        metricRollupService = new MetricRollupService(metricRollupRepository, weatherMetricRepository, metricStorage, jdbcTemplate, transactionManager, true);
+    }
+
+    @Test
+    void testAggregate_SplitsRangeIntoCoarsestBuckets() {
+        // Arrange
+        List<String> sensorIds = List.of("sensor-1");
+        LocalDateTime start = LocalDateTime.of(2024, 12, 1, 10, 30, 15);
+        LocalDateTime end = LocalDateTime.of(2024, 12, 4, 2, 0, 0);
+        when(metricRollupRepository.aggregateBySensorIds(eq(sensorIds), any(), any(), any()))
+                .thenAnswer(invocation -> List.of(aggregate(invocation.getArgument(2), 10, 1.0, 5.0)));
+        when(metricStorage.aggregate(eq(sensorIds), isNull(), any(), any()))
+                .thenAnswer(invocation -> List.of(aggregate(invocation.getArgument(2), 1, 0.5, 0.5)));
+
+        // Act
+        List<MetricAggregateModel> result = metricRollupService.aggregate(sensorIds, null, start, end);
+
+        // Assert, two days, two hour ranges, one minute range and two raw edges
+        verify(metricRollupRepository).aggregateBySensorIds(sensorIds, RollupGranularity.DAY,
+                LocalDateTime.of(2024, 12, 2, 0, 0), LocalDateTime.of(2024, 12, 4, 0, 0));
+        verify(metricRollupRepository).aggregateBySensorIds(sensorIds, RollupGranularity.HOUR,
+                LocalDateTime.of(2024, 12, 1, 11, 0), LocalDateTime.of(2024, 12, 2, 0, 0));
+        verify(metricRollupRepository).aggregateBySensorIds(sensorIds, RollupGranularity.HOUR,
+                LocalDateTime.of(2024, 12, 4, 0, 0), LocalDateTime.of(2024, 12, 4, 2, 0));
+        verify(metricRollupRepository).aggregateBySensorIds(sensorIds, RollupGranularity.MINUTE,
+                LocalDateTime.of(2024, 12, 1, 10, 31), LocalDateTime.of(2024, 12, 1, 11, 0));
+        verify(metricStorage).aggregate(sensorIds, null, start, LocalDateTime.of(2024, 12, 1, 10, 31));
+        verify(metricStorage).aggregate(sensorIds, null, end, end.plusNanos(1));
+        verifyNoMoreInteractions(metricRollupRepository);
+
+        assertEquals(1, result.size());
+        assertEquals(42, result.get(0).getCount());
+        assertEquals(0.5, result.get(0).getMin());
+        assertEquals(5.0, result.get(0).getMax());
+        assertEquals(start, result.get(0).getTimestamp());
+    }
+
+    @Test
+    void testAggregate_RangeInsideOneMinuteReadsOnlyRaw() {
+        // Arrange
+        LocalDateTime start = LocalDateTime.of(2024, 12, 1, 10, 30, 15);
+        LocalDateTime end = LocalDateTime.of(2024, 12, 1, 10, 30, 45);
+        when(metricStorage.aggregate(isNull(), isNull(), any(), any())).thenReturn(List.of(aggregate(start, 3, 1.0, 2.0)));
+
+        // Act
+        List<MetricAggregateModel> result = metricRollupService.aggregate(null, null, start, end);
+
+        // Assert
+        verify(metricStorage).aggregate(null, null, start, end.plusNanos(1));
+        verifyNoInteractions(metricRollupRepository);
+        assertEquals(3, result.get(0).getCount());
+    }
+
+    @Test
+    void testOnSaving_UpsertsAllBucketsInOneBatchInKeyOrder() {
+        // Arrange
+        LocalDateTime timestamp = LocalDateTime.of(2024, 12, 1, 10, 30, 15);
+        List<WeatherMetricEntity> weatherMetrics = List.of(
+                reading("sensor-2", timestamp, "Temp", 4.0),
+                reading("sensor-1", timestamp, "Temp", 1.0),
+                reading("sensor-1", timestamp.plusSeconds(10), "Temp", 3.0));
+
+        // Act
+        metricRollupService.onSaving(weatherMetrics);
+
+        // Assert, a minute, hour and day bucket per sensor, the readings of sensor-1 combined
+        verify(jdbcTemplate).batchUpdate(anyString(), rows.capture());
+        verifyNoMoreInteractions(jdbcTemplate);
+        assertEquals(6, rows.getValue().size());
+        assertArrayEquals(new Object[]{"sensor-1", "Temp", "MINUTE", Timestamp.valueOf(LocalDateTime.of(2024, 12, 1, 10, 30)), 2L, 4.0, 1.0, 3.0},
+                rows.getValue().get(0));
+        assertEquals("sensor-2", rows.getValue().get(3)[0]);
+    }
+
+    private static MetricAggregateModel aggregate(LocalDateTime timestamp, long count, double min, double max) {
+        return new MetricAggregateModel("sensor-1", "Temp", timestamp, count, min, max, count * max);
+    }
+}
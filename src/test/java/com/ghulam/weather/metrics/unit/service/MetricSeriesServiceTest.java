@@ -0,0 +1,89 @@
+package com.ghulam.weather.metrics.unit.service;
+
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import com.ghulam.weather.metrics.model.RollupGranularity;
+import com.ghulam.weather.metrics.repository.MetricRollupRepository;
+import com.ghulam.weather.metrics.service.MetricRollupService;
+import com.ghulam.weather.metrics.service.MetricSeriesService;
+import com.ghulam.weather.metrics.store.MetricStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+public class MetricSeriesServiceTest {
+
+    @Mock
+    private MetricRollupRepository metricRollupRepository;
+
+    @Mock
+    private MetricStorage metricStorage;
+
+    @Mock
+    private MetricRollupService metricRollupService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private MetricSeriesService metricSeriesService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        metricSeriesService = new MetricSeriesService(metricRollupRepository, metricStorage, metricRollupService, transactionManager);
+    }
+
+    @Test
+    void testAggregate_HourlyBucketsFromRollupsAndRawEdges() {
+        // Arrange
+        LocalDateTime start = LocalDateTime.of(2024, 12, 1, 10, 30, 15);
+        LocalDateTime end = LocalDateTime.of(2024, 12, 1, 12, 59, 59);
+        when(metricRollupService.isEnabled()).thenReturn(true);
+        when(metricRollupRepository.findByBucketStartRange(RollupGranularity.HOUR, LocalDateTime.of(2024, 12, 1, 11, 0), LocalDateTime.of(2024, 12, 1, 12, 0)))
+                .thenReturn(List.of(new MetricAggregateModel("sensor-1", "Temp", LocalDateTime.of(2024, 12, 1, 11, 0), 60, 1.0, 9.0, 300.0)));
+        when(metricRollupRepository.findByBucketStartRange(RollupGranularity.MINUTE, LocalDateTime.of(2024, 12, 1, 10, 31), LocalDateTime.of(2024, 12, 1, 11, 0)))
+                .thenReturn(List.of(new MetricAggregateModel("sensor-1", "Temp", LocalDateTime.of(2024, 12, 1, 10, 31), 29, 2.0, 4.0, 87.0)));
+        when(metricRollupRepository.findByBucketStartRange(RollupGranularity.MINUTE, LocalDateTime.of(2024, 12, 1, 12, 0), LocalDateTime.of(2024, 12, 1, 12, 59)))
+                .thenReturn(List.of());
+        doAnswer(invocation -> {
+            MetricStorage.ValueConsumer consumer = invocation.getArgument(3);
+            consumer.accept("sensor-1", "Temp", invocation.getArgument(1), 5.0);
+            consumer.accept("sensor-1", "Humidity", invocation.getArgument(1), 50.0);
+            return null;
+        }).when(metricStorage).forEachValue(isNull(), any(), any(), any());
+
+        // Act
+        List<MetricAggregateModel> result = metricSeriesService.aggregate(null, List.of("Temp"), start, end, Duration.ofHours(1));
+
+        // Assert, 10:00 from minutes and raw edge, 11:00 from the hour rollup, 12:00 from the raw edge
+        assertEquals(3, result.size());
+        assertEquals(LocalDateTime.of(2024, 12, 1, 10, 0), result.get(0).getTimestamp());
+        assertEquals(30, result.get(0).getCount());
+        assertEquals(5.0, result.get(0).getMax());
+        assertEquals(LocalDateTime.of(2024, 12, 1, 11, 0), result.get(1).getTimestamp());
+        assertEquals(5.0, result.get(1).getStatisticValue("avg"));
+        assertEquals(LocalDateTime.of(2024, 12, 1, 12, 0), result.get(2).getTimestamp());
+        assertEquals(1, result.get(2).getCount());
+        verify(metricRollupRepository, never()).findByBucketStartRange(eq(RollupGranularity.DAY), any(), any());
+    }
+
+    @Test
+    void testParseInterval() {
+        assertEquals(Duration.ofMinutes(15), MetricSeriesService.parseInterval("15m"));
+        assertEquals(Duration.ofHours(1), MetricSeriesService.parseInterval("1h"));
+        assertEquals(Duration.ofDays(7), MetricSeriesService.parseInterval("7d"));
+        assertThrows(IllegalArgumentException.class, () -> MetricSeriesService.parseInterval("0h"));
+        assertThrows(IllegalArgumentException.class, () -> MetricSeriesService.parseInterval("1w"));
+    }
+}
@@ -0,0 +1,98 @@
+package com.ghulam.weather.metrics.unit.service;
+
+import com.ghulam.weather.metrics.entity.MetricSketchEntity;
+import com.ghulam.weather.metrics.model.RollupGranularity;
+import com.ghulam.weather.metrics.repository.MetricSketchRepository;
+import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import com.ghulam.weather.metrics.service.MetricSketchService;
+import com.ghulam.weather.metrics.statistic.QuantileSketch;
+import com.ghulam.weather.metrics.store.MetricStorage;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static com.ghulam.weather.metrics.unit.WeatherMetricFixture.reading;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class MetricSketchServiceTest {
+
+    @Mock
+    private MetricSketchRepository metricSketchRepository;
+
+    @Mock
+    private WeatherMetricRepository weatherMetricRepository;
+
+    @Mock
+    private MetricStorage metricStorage;
+
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private MetricSketchService metricSketchService;
+
+    private final LocalDateTime timestamp = LocalDateTime.of(2024, 12, 1, 10, 30);
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        metricSketchService = new MetricSketchService(metricSketchRepository, weatherMetricRepository, metricStorage, entityManager, transactionManager, true);
+    }
+
+    @Test
+    void testFlush_MergesPendingSketchesLoadedWithOneQueryPerGranularity() {
+        // Arrange, the hour sketch is stored, the day sketch is not
+        MetricSketchEntity storedHour = MetricSketchEntity.builder().sensorId("sensor-1").metricName("Temp").granularity(RollupGranularity.HOUR)
+                .bucketStart(timestamp.withMinute(0)).sketch(sketch(5.0).toBytes()).build();
+        when(metricSketchRepository.findBySensorIdsAndBucketStarts(any(), eq(RollupGranularity.HOUR), any())).thenReturn(List.of(storedHour));
+        metricSketchService.onSaved(List.of(reading("sensor-1", timestamp, "Temp", 1.0), reading("sensor-1", timestamp.plusMinutes(1), "Temp", 2.0)));
+
+        // Act
+        metricSketchService.flush();
+        metricSketchService.flush();
+
+        // Assert, nothing written while pending, a single flush writes both buckets
+        verify(metricSketchRepository).findBySensorIdsAndBucketStarts(Set.of("sensor-1"), RollupGranularity.HOUR, Set.of(timestamp.withMinute(0)));
+        verify(metricSketchRepository).findBySensorIdsAndBucketStarts(Set.of("sensor-1"), RollupGranularity.DAY, Set.of(timestamp.toLocalDate().atStartOfDay()));
+        assertEquals(3, QuantileSketch.fromBytes(storedHour.getSketch()).getCount());
+        ArgumentCaptor<MetricSketchEntity> inserted = ArgumentCaptor.forClass(MetricSketchEntity.class);
+        verify(entityManager).persist(inserted.capture());
+        assertEquals(RollupGranularity.DAY, inserted.getValue().getGranularity());
+        assertEquals(2, QuantileSketch.fromBytes(inserted.getValue().getSketch()).getCount());
+    }
+
+    @Test
+    void testFlush_FailedTransactionKeepsSketchesPending() {
+        // Arrange
+        when(metricSketchRepository.findBySensorIdsAndBucketStarts(any(), any(), any()))
+                .thenThrow(new IllegalStateException("database unavailable"))
+                .thenReturn(List.of());
+        metricSketchService.onSaved(List.of(reading("sensor-1", timestamp, "Temp", 1.0)));
+
+        // Act
+        metricSketchService.flush();
+        metricSketchService.flush();
+
+        // Assert, the hour and day sketches are inserted by the second flush
+        verify(entityManager, times(2)).persist(any(MetricSketchEntity.class));
+    }
+
+    private static QuantileSketch sketch(double value) {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(value);
+        return sketch;
+    }
+}
@@ -0,0 +1,95 @@
+package com.ghulam.weather.metrics.unit.service;
+
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import com.ghulam.weather.metrics.service.WeatherMetricDeduplicator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static com.ghulam.weather.metrics.unit.WeatherMetricFixture.reading;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class WeatherMetricDeduplicatorTest {
+
+    @Mock
+    private WeatherMetricRepository weatherMetricRepository;
+
+    private WeatherMetricDeduplicator deduplicator;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final LocalDateTime timestamp = LocalDateTime.of(2024, 12, 10, 12, 0);
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        deduplicator = new WeatherMetricDeduplicator(weatherMetricRepository, true, 1_000, 0.01, 2);
+        deduplicator.bindTo(registry);
+    }
+
+    @Test
+    void testRemoveDuplicates_RecentSavedKeysAnsweredWithoutLookup() {
+        // Arrange, the first of three saved readings is no longer among the last two
+        deduplicator.markSaved(List.of(reading("sensor-1", timestamp, "Temp", 1.0),
+                reading("sensor-1", timestamp.plusSeconds(1), "Temp", 2.0),
+                reading("sensor-1", timestamp.plusSeconds(2), "Temp", 3.0)));
+        when(weatherMetricRepository.existsBySensorIdAndTimestamp("sensor-1", timestamp)).thenReturn(true);
+
+        // Act
+        List<WeatherMetricEntity> unique = deduplicator.removeDuplicates(List.of(
+                reading("sensor-1", timestamp, "Temp", 1.0),
+                reading("sensor-1", timestamp.plusSeconds(2), "Temp", 3.0),
+                reading("sensor-1", timestamp.plusSeconds(3), "Temp", 4.0),
+                reading("sensor-1", timestamp.plusSeconds(3), "Temp", 4.0)));
+
+        // Assert, one lookup for the evicted key, the copy within the list is dropped
+        assertEquals(1, unique.size());
+        assertEquals(timestamp.plusSeconds(3), unique.get(0).getTimestamp());
+        verify(weatherMetricRepository).existsBySensorIdAndTimestamp(any(), any());
+        assertEquals(4, registry.get("weather.ingest.dedup.checked").functionCounter().count());
+        assertEquals(3, registry.get("weather.ingest.duplicates").tag("detected_by", "filter").functionCounter().count());
+    }
+
+    @Test
+    void testRemoveDuplicates_KeysAddedOnlyOnceSaved() {
+        // Arrange
+        WeatherMetricEntity weatherMetric = reading("sensor-1", timestamp, "Temp", 1.0);
+
+        // Act, checked twice without being saved, e.g. the batch was rolled back
+        boolean firstCheck = deduplicator.isDuplicate(weatherMetric);
+        boolean secondCheck = deduplicator.isDuplicate(weatherMetric);
+        deduplicator.markSaved(List.of(weatherMetric));
+
+        // Assert
+        assertFalse(firstCheck);
+        assertFalse(secondCheck);
+        assertTrue(deduplicator.isDuplicate(weatherMetric));
+        verifyNoInteractions(weatherMetricRepository);
+    }
+
+    @Test
+    void testIsSaved_LooksUpWithoutCountingTheReadingAgain() {
+        // Arrange
+        WeatherMetricEntity weatherMetric = reading("sensor-1", timestamp, "Temp", 1.0);
+        when(weatherMetricRepository.existsBySensorIdAndTimestamp("sensor-1", timestamp)).thenReturn(true);
+        deduplicator.removeDuplicates(List.of(weatherMetric));
+
+        // Act
+        boolean saved = deduplicator.isSaved(weatherMetric);
+
+        // Assert
+        assertTrue(saved);
+        assertEquals(1, registry.get("weather.ingest.dedup.checked").functionCounter().count());
+        assertEquals(0, deduplicator.getDuplicateRate());
+    }
+}
@@ -0,0 +1,180 @@
+package com.ghulam.weather.metrics.unit.service;
+
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.exception.IngestionRejectedException;
+import com.ghulam.weather.metrics.service.WeatherMetricIngestionService;
+import com.ghulam.weather.metrics.service.WeatherMetricService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.ghulam.weather.metrics.unit.WeatherMetricFixture.reading;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+public class WeatherMetricIngestionServiceTest {
+
+    @Mock
+    private WeatherMetricService weatherMetricService;
+
+    private final LocalDateTime timestamp = LocalDateTime.of(2024, 12, 1, 10, 30);
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    void testIngest_SyncWhenAsyncDisabled() {
+        // Arrange
+        WeatherMetricIngestionService ingestionService = new WeatherMetricIngestionService(weatherMetricService, false, 10, 5, 50, "reject", 10, 0, 10);
+        WeatherMetricEntity entity = reading("sensor-1", timestamp, "Temp", 2.0);
+
+        // Act
+        ingestionService.ingest(entity);
+
+        // Assert
+        verify(weatherMetricService, times(1)).saveMetric(entity);
+        verify(weatherMetricService, never()).saveMetrics(anyList());
+    }
+
+    @Test
+    void testIngest_FlushesAllQueuedMetricsInBatchesOnStop() {
+        // Arrange
+        WeatherMetricIngestionService ingestionService = new WeatherMetricIngestionService(weatherMetricService, true, 100, 5, 50, "reject", 10, 0, 10);
+        ingestionService.start();
+
+        // Act
+        for (int i = 0; i < 12; i++) {
+            ingestionService.ingest(reading("sensor-" + i, timestamp, "Temp", 2.0));
+        }
+        ingestionService.stop();
+
+        // Assert
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<WeatherMetricEntity>> batches = ArgumentCaptor.forClass(List.class);
+        verify(weatherMetricService, atLeastOnce()).saveMetrics(batches.capture());
+        assertEquals(12, batches.getAllValues().stream().mapToInt(List::size).sum());
+        assertEquals(0, ingestionService.getQueueDepth());
+        verify(weatherMetricService, never()).saveMetric(any());
+    }
+
+    @Test
+    void testIngest_RejectWhenQueueIsFull() throws Exception {
+        // Arrange, flusher is blocked inside the first flush so the queue fills up
+        CountDownLatch flushing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(weatherMetricService.saveMetrics(anyList())).thenAnswer(invocation -> {
+            flushing.countDown();
+            release.await();
+            return invocation.getArgument(0);
+        });
+        WeatherMetricIngestionService ingestionService = new WeatherMetricIngestionService(weatherMetricService, true, 1, 1, 50, "reject", 10, 0, 10);
+        ingestionService.start();
+
+        // Act
+        ingestionService.ingest(reading("sensor-1", timestamp, "Temp", 2.0));
+        flushing.await();
+        boolean acceptedWithSpace = ingestionService.canAccept(5);
+        ingestionService.ingest(reading("sensor-2", timestamp, "Temp", 2.0));
+
+        // Assert, a batch larger than the queue only needs an empty queue
+        assertTrue(acceptedWithSpace);
+        assertFalse(ingestionService.canAccept(1));
+        assertThrows(IngestionRejectedException.class, () -> ingestionService.ingest(reading("sensor-3", timestamp, "Temp", 2.0)));
+        release.countDown();
+        ingestionService.stop();
+        verify(weatherMetricService, times(2)).saveMetrics(anyList());
+    }
+
+    @Test
+    void testIngest_InterruptedFlusherDrainsQueueAndExits() throws Exception {
+        // Arrange, the first flush ignores the interrupt so the flusher sees it on its next poll with metrics still queued
+        AtomicReference<Thread> flusher = new AtomicReference<>();
+        CountDownLatch flushing = new CountDownLatch(1);
+        AtomicBoolean release = new AtomicBoolean();
+        when(weatherMetricService.saveMetrics(anyList())).thenAnswer(invocation -> {
+            if (flusher.compareAndSet(null, Thread.currentThread())) {
+                flushing.countDown();
+                while (!release.get()) {
+                    Thread.onSpinWait();
+                }
+            }
+            return invocation.getArgument(0);
+        });
+        WeatherMetricIngestionService ingestionService = new WeatherMetricIngestionService(weatherMetricService, true, 10, 1, 50, "reject", 10, 0, 10);
+        ingestionService.start();
+        ingestionService.ingest(reading("sensor-1", timestamp, "Temp", 2.0));
+        flushing.await();
+        ingestionService.ingest(reading("sensor-2", timestamp, "Temp", 2.0));
+        ingestionService.ingest(reading("sensor-3", timestamp, "Temp", 2.0));
+
+        // Act
+        flusher.get().interrupt();
+        release.set(true);
+        flusher.get().join(5000);
+
+        // Assert
+        assertFalse(flusher.get().isAlive());
+        assertFalse(ingestionService.isRunning());
+        assertEquals(0, ingestionService.getQueueDepth());
+        verify(weatherMetricService, times(3)).saveMetrics(anyList());
+        // not running, persisted directly
+        ingestionService.ingest(reading("sensor-4", timestamp, "Temp", 2.0));
+        verify(weatherMetricService, times(1)).saveMetric(any());
+    }
+
+    @Test
+    void testIngestBatch_FailedBatchRetriedOneByOneWithoutCheckingAgain() {
+        // Arrange
+        WeatherMetricIngestionService ingestionService = new WeatherMetricIngestionService(weatherMetricService, false, 10, 5, 50, "reject", 10, 0, 10);
+        WeatherMetricEntity valid = reading("sensor-1", timestamp, "Temp", 2.0);
+        WeatherMetricEntity invalid = reading("sensor-2", timestamp, "Temp", 2.0);
+        when(weatherMetricService.saveMetrics(anyList())).thenThrow(new IllegalStateException("batch failed"));
+        when(weatherMetricService.retryMetric(invalid)).thenThrow(new IllegalStateException("invalid metric"));
+
+        // Act
+        List<WeatherMetricEntity> failed = ingestionService.ingestBatch(List.of(valid, invalid));
+
+        // Assert
+        assertEquals(List.of(invalid), failed);
+        verify(weatherMetricService).retryMetric(valid);
+        verify(weatherMetricService, never()).saveMetric(any());
+    }
+
+    @Test
+    void testIngest_QueuedMetricsOfFailedBatchRetriedWithBackoffThenDropped() {
+        // Arrange, the database is back for sensor-1 at the first retry, sensor-2 always fails
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        WeatherMetricIngestionService ingestionService = new WeatherMetricIngestionService(weatherMetricService, true, 10, 5, 50, "reject", 10, 2, 10);
+        ingestionService.bindTo(registry);
+        WeatherMetricEntity recovering = reading("sensor-1", timestamp, "Temp", 2.0);
+        WeatherMetricEntity failing = reading("sensor-2", timestamp, "Temp", 2.0);
+        when(weatherMetricService.saveMetrics(anyList())).thenThrow(new IllegalStateException("database unavailable"));
+        when(weatherMetricService.retryMetric(recovering)).thenThrow(new IllegalStateException("database unavailable")).thenReturn(recovering);
+        when(weatherMetricService.retryMetric(failing)).thenThrow(new IllegalStateException("database unavailable"));
+        ingestionService.start();
+
+        // Act
+        ingestionService.ingestBatch(List.of(recovering, failing));
+        ingestionService.stop();
+
+        // Assert, tried one by one once the batch failed, then by each of the 2 retries until it succeeds
+        verify(weatherMetricService, times(2)).retryMetric(recovering);
+        verify(weatherMetricService, times(3)).retryMetric(failing);
+        assertEquals(1, registry.get("weather.ingest.dropped").functionCounter().count());
+    }
+}
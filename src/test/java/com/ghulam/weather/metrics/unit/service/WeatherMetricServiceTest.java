@@ -2,21 +2,55 @@ package com.ghulam.weather.metrics.unit.service;
 
 import com.ghulam.weather.metrics.entity.MetricEntity;
 import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import com.ghulam.weather.metrics.model.MetricStatisticModel;
 import com.ghulam.weather.metrics.model.WeatherMetricResponse;
 import com.ghulam.weather.metrics.model.WeatherMetricStatisticModel;
 import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import com.ghulam.weather.metrics.service.MetricRollupService;
+import com.ghulam.weather.metrics.service.MetricSeriesService;
+import com.ghulam.weather.metrics.service.MetricSketchService;
+import com.ghulam.weather.metrics.service.WeatherMetricDeduplicator;
+import com.ghulam.weather.metrics.service.WeatherMetricInstrumentation;
 import com.ghulam.weather.metrics.service.WeatherMetricService;
+import com.ghulam.weather.metrics.statistic.ParallelStatisticAggregator;
+import com.ghulam.weather.metrics.statistic.QuantileSketch;
+import com.ghulam.weather.metrics.store.HotWindowMetricStore;
+import com.ghulam.weather.metrics.store.LatestReadingStore;
+import com.ghulam.weather.metrics.store.MetricStorage;
+import com.ghulam.weather.metrics.store.SensorRegistry;
+import com.ghulam.weather.metrics.store.StatisticResultCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.data.domain.Limit;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 import static org.mockito.internal.verification.VerificationModeFactory.times;
 
@@ -26,12 +60,54 @@ public class WeatherMetricServiceTest {
     @Mock
     private WeatherMetricRepository weatherMetricRepository;
 
-    @InjectMocks
+    @Mock
+    private MetricStorage metricStorage;
+
+    @Mock
+    private MetricRollupService metricRollupService;
+
+    @Mock
+    private HotWindowMetricStore hotWindowMetricStore;
+
+    @Mock
+    private MetricSketchService metricSketchService;
+
+    @Mock
+    private MetricSeriesService metricSeriesService;
+
+    @Mock
+    private StatisticResultCache statisticResultCache;
+
+    @Mock
+    private SensorRegistry sensorRegistry;
+
+    @Mock
+    private WeatherMetricDeduplicator deduplicator;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Spy
+    private ParallelStatisticAggregator parallelStatisticAggregator = new ParallelStatisticAggregator(2, 1000, 100);
+
+    @Spy
+    private WeatherMetricInstrumentation instrumentation = new WeatherMetricInstrumentation(new SimpleMeterRegistry(), 10);
+
+    @Mock
+    private LatestReadingStore latestReadingStore;
+
+    @Mock
+    private Executor statisticExecutor;
+
     private WeatherMetricService weatherMetricService;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        weatherMetricService = new WeatherMetricService(weatherMetricRepository, metricStorage, metricRollupService, hotWindowMetricStore,
+                latestReadingStore, metricSketchService, metricSeriesService, statisticResultCache, parallelStatisticAggregator, instrumentation,
+                sensorRegistry, deduplicator, transactionManager, statisticExecutor, 4);
+        ReflectionTestUtils.setField(weatherMetricService, "statisticParallelism", 1);
     }
 
     @Test
@@ -52,6 +128,25 @@ public class WeatherMetricServiceTest {
         verify(weatherMetricRepository, times(1)).save(mockEntity);
     }
 
+    @Test
+    void testSaveMetric_DuplicateNotSaved() {
+        // Arrange
+        WeatherMetricEntity mockEntity = WeatherMetricEntity.builder()
+                .sensorId("sensor-1")
+                .timestamp(LocalDateTime.now())
+                .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue(2.0).unit("C").build()))
+                .build();
+        when(deduplicator.isDuplicate(mockEntity)).thenReturn(true);
+
+        // Act
+        WeatherMetricEntity result = weatherMetricService.saveMetric(mockEntity);
+
+        // Assert
+        assertEquals(mockEntity, result);
+        verify(weatherMetricRepository, times(0)).save(any());
+        verify(sensorRegistry, times(0)).register(any());
+    }
+
     @Test
     void testGetWeatherActualData_WithSensorIds() {
         // Arrange
@@ -60,59 +155,189 @@ public class WeatherMetricServiceTest {
                 WeatherMetricEntity.builder().sensorId("sensor-1").build(),
                 WeatherMetricEntity.builder().sensorId("sensor-2").build()
         );
-        when(weatherMetricRepository.findBySensorIds(sensorIds)).thenReturn(mockData);
+        when(weatherMetricRepository.findPageBySensorIdsAfterId(sensorIds, 0L, Limit.of(10))).thenReturn(mockData);
 
         // Act
-        WeatherMetricResponse result = weatherMetricService.getWeatherActualData(sensorIds);
+        WeatherMetricResponse result = weatherMetricService.getWeatherActualData(sensorIds, null, 10);
 
         // Assert
         assertEquals(2, result.getWeatherMetrics().size());
-        verify(weatherMetricRepository, times(1)).findBySensorIds(sensorIds);
+        assertNull(result.getNextCursor());
+        verify(weatherMetricRepository, times(1)).findPageBySensorIdsAfterId(sensorIds, 0L, Limit.of(10));
     }
 
     @Test
     void testGetWeatherActualData_NoSensorIds() {
         // Arrange
         List<WeatherMetricEntity> mockData = List.of(
-                WeatherMetricEntity.builder().sensorId("sensor-1").build(),
-                WeatherMetricEntity.builder().sensorId("sensor-2").build()
+                WeatherMetricEntity.builder().id(11L).sensorId("sensor-1").build(),
+                WeatherMetricEntity.builder().id(12L).sensorId("sensor-2").build()
         );
-        when(weatherMetricRepository.findAll()).thenReturn(mockData);
+        when(weatherMetricRepository.findPageAfterId(10L, Limit.of(2))).thenReturn(mockData);
 
         // Act
-        WeatherMetricResponse result = weatherMetricService.getWeatherActualData(null);
+        WeatherMetricResponse result = weatherMetricService.getWeatherActualData(null, 10L, 2);
 
-        // Assert
+        // Assert, full page so there is a next page after the last id
         assertEquals(2, result.getWeatherMetrics().size());
-        verify(weatherMetricRepository, times(1)).findAll();
+        assertEquals(12L, result.getNextCursor());
+        verify(weatherMetricRepository, times(1)).findPageAfterId(10L, Limit.of(2));
     }
 
     @Test
     void testGetAllMetricStatistics_WithDateRange() {
         // Arrange
-        List<WeatherMetricEntity> mockData = List.of(
-                WeatherMetricEntity.builder()
-                        .sensorId("sensor-1")
-                        .timestamp(LocalDateTime.now())
-                        .metrics(List.of(MetricEntity.builder().metricName("Temp").metricValue(2.0).unit("C").build()))
-                        .build()
-        );
         List<String> sensorIds = List.of("sensor-1");
         LocalDateTime startDate = LocalDateTime.now().minusDays(7);
         LocalDateTime endDate = LocalDateTime.now();
 
-        when(weatherMetricRepository.findBySensorIdsAndTimestampBetween(sensorIds, startDate, endDate))
-                .thenReturn(mockData);
+        doAnswer(invocation -> {
+            invocation.<MetricStorage.ValueConsumer>getArgument(3).accept("sensor-1", "Temp", endDate, 2.0);
+            return null;
+        }).when(metricStorage).forEachValue(eq(sensorIds), eq(startDate), eq(endDate.plusNanos(1)), any());
 
         // Act
         List<WeatherMetricStatisticModel> result = weatherMetricService.getAllMetricStatistics(
-                List.of("temp"), sensorIds, "avg", startDate, endDate);
+                List.of("temp"), sensorIds, List.of("avg"), startDate, endDate);
 
         // Assert
         assertEquals(0, result.size());
 
     }
 
+    @Test
+    void testGetAllMetricStatistics_PushDown() {
+        // Arrange
+        ReflectionTestUtils.setField(weatherMetricService, "statisticPushDown", true);
+        List<String> sensorIds = List.of("sensor-1");
+        LocalDateTime startDate = LocalDateTime.now().minusDays(7);
+        LocalDateTime endDate = LocalDateTime.now();
+        when(metricStorage.aggregate(sensorIds, List.of("Temp"), startDate, endDate.plusNanos(1)))
+                .thenReturn(List.of(new MetricAggregateModel("sensor-1", "Temp", startDate, 2, 20.0, 30.0, 50.0)));
+
+        // Act
+        List<WeatherMetricStatisticModel> result = weatherMetricService.getAllMetricStatistics(
+                List.of("Temp"), sensorIds, List.of("avg"), startDate, endDate);
+
+        // Assert
+        assertEquals(1, result.size());
+        assertEquals(1, result.get(0).getMetrics().size());
+        assertEquals(25.0, result.get(0).getMetrics().get(0).getMetricValue());
+        verify(metricStorage, times(1)).aggregate(sensorIds, List.of("Temp"), startDate, endDate.plusNanos(1));
+    }
+
+    @Test
+    void testGetAllMetricStatistics_SensorGroupsAggregatedConcurrently() throws InterruptedException {
+        // Arrange, each group waits until both groups are being aggregated
+        ReflectionTestUtils.setField(weatherMetricService, "statisticPushDown", true);
+        ReflectionTestUtils.setField(weatherMetricService, "statisticParallelism", 2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ReflectionTestUtils.setField(weatherMetricService, "statisticExecutor", executor);
+        LocalDateTime startDate = LocalDateTime.now().minusDays(7);
+        LocalDateTime endDate = LocalDateTime.now();
+        CountDownLatch started = new CountDownLatch(2);
+        doAnswer(invocation -> {
+            started.countDown();
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            List<String> sensorIds = invocation.getArgument(0);
+            return sensorIds.stream().map(sensorId -> new MetricAggregateModel(sensorId, "Temp", startDate, 2, 20.0, 30.0, 50.0)).toList();
+        }).when(metricStorage).aggregate(any(), isNull(), eq(startDate), eq(endDate.plusNanos(1)));
+
+        // Act
+        List<WeatherMetricStatisticModel> result = weatherMetricService.getAllMetricStatistics(
+                null, List.of("sensor-1", "sensor-2", "sensor-3", "sensor-1"), List.of("avg"), startDate, endDate);
+        executor.shutdown();
+
+        // Assert, duplicate sensor ids are aggregated once, results keep the order of the sensors
+        verify(metricStorage).aggregate(List.of("sensor-1"), null, startDate, endDate.plusNanos(1));
+        verify(metricStorage).aggregate(List.of("sensor-2", "sensor-3"), null, startDate, endDate.plusNanos(1));
+        assertEquals(List.of("sensor-1", "sensor-2", "sensor-3"), result.stream().map(WeatherMetricStatisticModel::getSensorId).toList());
+        assertEquals(25.0, result.get(2).getMetrics().get(0).getMetricValue());
+    }
+
+    @Test
+    void testGetAllMetricStatistics_SensorGroupsWithoutFreeTaskRunOnRequestThread() {
+        // Arrange, no task of the executor left
+        ReflectionTestUtils.setField(weatherMetricService, "statisticPushDown", true);
+        ReflectionTestUtils.setField(weatherMetricService, "statisticParallelism", 3);
+        ReflectionTestUtils.setField(weatherMetricService, "statisticTaskPermits", new Semaphore(0));
+        Executor executor = mock(Executor.class);
+        ReflectionTestUtils.setField(weatherMetricService, "statisticExecutor", executor);
+        when(metricStorage.aggregate(any(), any(), any(), any())).thenAnswer(invocation -> invocation.<List<String>>getArgument(0).stream()
+                .map(sensorId -> new MetricAggregateModel(sensorId, "Temp", LocalDateTime.now(), 1, 20.0, 20.0, 20.0)).toList());
+
+        // Act
+        List<WeatherMetricStatisticModel> result = weatherMetricService.getAllMetricStatistics(
+                null, List.of("sensor-1", "sensor-2", "sensor-3"), List.of("avg"), LocalDateTime.now().minusDays(7), LocalDateTime.now());
+
+        // Assert
+        verifyNoInteractions(executor);
+        verify(metricStorage, times(3)).aggregate(any(), any(), any(), any());
+        assertEquals(List.of("sensor-1", "sensor-2", "sensor-3"), result.stream().map(WeatherMetricStatisticModel::getSensorId).toList());
+    }
+
+    @Test
+    void testGetAllMetricStatistics_SensorGroupFailureRethrown() {
+        // Arrange
+        ReflectionTestUtils.setField(weatherMetricService, "statisticPushDown", true);
+        ReflectionTestUtils.setField(weatherMetricService, "statisticParallelism", 2);
+        ReflectionTestUtils.setField(weatherMetricService, "statisticExecutor", (Executor) Runnable::run);
+        when(metricStorage.aggregate(any(), any(), any(), any())).thenThrow(new IllegalArgumentException("invalid range"));
+
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> weatherMetricService.getAllMetricStatistics(
+                null, List.of("sensor-1", "sensor-2"), List.of("avg"), LocalDateTime.now().minusDays(7), LocalDateTime.now()));
+    }
+
+    @Test
+    void testGetAllMetricStatistics_MultipleStatisticsOneQuery() {
+        // Arrange
+        ReflectionTestUtils.setField(weatherMetricService, "statisticPushDown", true);
+        LocalDateTime startDate = LocalDateTime.now().minusDays(7);
+        LocalDateTime endDate = LocalDateTime.now();
+        when(metricStorage.aggregate(null, null, startDate, endDate.plusNanos(1)))
+                .thenReturn(List.of(new MetricAggregateModel("sensor-1", "Temp", startDate, 2, 20.0, 30.0, 50.0)));
+
+        // Act
+        List<WeatherMetricStatisticModel> result = weatherMetricService.getAllMetricStatistics(
+                null, null, List.of("min", "max", "avg"), startDate, endDate);
+
+        // Assert
+        MetricStatisticModel temp = result.get(0).getMetrics().get(0);
+        assertEquals(List.of("min", "max", "avg"), List.copyOf(temp.getStatistics().keySet()));
+        assertEquals(20.0, temp.getStatistics().get("min"));
+        assertEquals(30.0, temp.getStatistics().get("max"));
+        assertEquals(25.0, temp.getStatistics().get("avg"));
+        assertEquals("min", temp.getStatistic());
+        assertEquals(20.0, temp.getMetricValue());
+        verify(metricStorage, times(1)).aggregate(null, null, startDate, endDate.plusNanos(1));
+    }
+
+    @Test
+    void testGetAllMetricStatistics_PercentileFromSketches() {
+        // Arrange
+        ReflectionTestUtils.setField(weatherMetricService, "statisticPushDown", true);
+        LocalDateTime startDate = LocalDateTime.now().minusDays(7);
+        LocalDateTime endDate = LocalDateTime.now();
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 1; i <= 100; i++) {
+            sketch.add(i);
+        }
+        when(metricStorage.aggregate(null, null, startDate, endDate.plusNanos(1)))
+                .thenReturn(List.of(new MetricAggregateModel("sensor-1", "Temp", startDate, 100, 1.0, 100.0, 5050.0),
+                        new MetricAggregateModel("sensor-2", "Temp", startDate, 1, 1.0, 1.0, 1.0)));
+        when(metricSketchService.aggregate(null, startDate, endDate)).thenReturn(Map.of(List.of("sensor-1", "Temp"), sketch));
+
+        // Act
+        List<WeatherMetricStatisticModel> result = weatherMetricService.getAllMetricStatistics(
+                null, null, List.of("p50", "avg"), startDate, endDate);
+
+        // Assert, sensor-2 has no sketch
+        assertEquals(50.0, result.get(0).getMetrics().get(0).getMetricValue(), 0.5);
+        assertEquals(50.5, result.get(0).getMetrics().get(0).getStatistics().get("avg"));
+        assertNull(result.get(1).getMetrics().get(0).getMetricValue());
+    }
+
     @Test
     void testCalculateStatistics_Average() {
         // Arrange
@@ -128,7 +353,7 @@ public class WeatherMetricServiceTest {
         );
 
         // Act
-        List<WeatherMetricStatisticModel> result = weatherMetricService.calculateStatics(mockData, "avg");
+        List<WeatherMetricStatisticModel> result = weatherMetricService.calculateStatics(mockData, List.of("avg"));
 
         // Assert
         assertEquals(1, result.size());
@@ -151,7 +376,7 @@ public class WeatherMetricServiceTest {
         );
 
         // Act
-        List<WeatherMetricStatisticModel> result = weatherMetricService.calculateStatics(mockData, "min");
+        List<WeatherMetricStatisticModel> result = weatherMetricService.calculateStatics(mockData, List.of("min"));
 
         // Assert
         assertEquals(1, result.size());
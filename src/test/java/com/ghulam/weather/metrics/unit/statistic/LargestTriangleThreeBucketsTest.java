@@ -0,0 +1,47 @@
+package com.ghulam.weather.metrics.unit.statistic;
+
+import com.ghulam.weather.metrics.statistic.LargestTriangleThreeBuckets;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LargestTriangleThreeBucketsTest {
+
+    @Test
+    void testDownsample_KeepsEdgesAndPeaks() {
+        // Arrange, flat series with one spike and one dip
+        List<double[]> points = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            double value = i == 333 ? 100 : i == 777 ? -100 : 0;
+            points.add(new double[]{i, value});
+        }
+
+        // Act
+        List<double[]> result = LargestTriangleThreeBuckets.downsample(points, 20, point -> point[0], point -> point[1]);
+
+        // Assert
+        assertEquals(20, result.size());
+        assertSame(points.get(0), result.get(0));
+        assertSame(points.get(999), result.get(19));
+        assertTrue(result.contains(points.get(333)));
+        assertTrue(result.contains(points.get(777)));
+        for (int i = 1; i < result.size(); i++) {
+            assertTrue(result.get(i)[0] > result.get(i - 1)[0]);
+        }
+    }
+
+    @Test
+    void testDownsample_ShortSeriesUnchanged() {
+        // Arrange
+        List<double[]> points = List.of(new double[]{0, 1}, new double[]{1, 2});
+
+        // Act
+        List<double[]> result = LargestTriangleThreeBuckets.downsample(points, 3, point -> point[0], point -> point[1]);
+
+        // Assert
+        assertSame(points, result);
+    }
+}
@@ -0,0 +1,80 @@
+package com.ghulam.weather.metrics.unit.statistic;
+
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import com.ghulam.weather.metrics.statistic.ParallelStatisticAggregator;
+import com.ghulam.weather.metrics.statistic.StatisticAggregator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.ghulam.weather.metrics.unit.WeatherMetricFixture.reading;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ParallelStatisticAggregatorTest {
+
+    private final LocalDateTime start = LocalDateTime.of(2024, 12, 1, 0, 0);
+
+    // 4 threads, parallel from 1000 readings, chunks of 97
+    private final ParallelStatisticAggregator parallelStatisticAggregator = new ParallelStatisticAggregator(4, 1000, 97);
+
+    @AfterEach
+    void tearDown() {
+        parallelStatisticAggregator.destroy();
+    }
+
+    @Test
+    void testAggregate_ChunksMatchSinglePass() {
+        // Arrange
+        List<WeatherMetricEntity> weatherMetrics = readings(10_000);
+
+        // Act
+        List<MetricAggregateModel> result = parallelStatisticAggregator.aggregate(weatherMetrics, List.of("Temp"));
+
+        // Assert, same aggregates in the same sensor order
+        assertAggregates(new StatisticAggregator(List.of("Temp")).addAll(weatherMetrics).getAggregates(), result);
+    }
+
+    @Test
+    void testCollector_InlineThenChunks() {
+        // Arrange, the first 1000 values are aggregated inline, the rest in chunks
+        List<WeatherMetricEntity> weatherMetrics = readings(5_000);
+        ParallelStatisticAggregator.Collector collector = parallelStatisticAggregator.collector(null);
+
+        // Act
+        for (WeatherMetricEntity weatherMetric : weatherMetrics) {
+            weatherMetric.getMetrics().forEach(metric ->
+                    collector.add(weatherMetric.getSensorId(), metric.getMetricName(), weatherMetric.getTimestamp(), metric.getMetricValue()));
+        }
+
+        // Assert
+        assertAggregates(new StatisticAggregator().addAll(weatherMetrics).getAggregates(), collector.getAggregates());
+    }
+
+    private static void assertAggregates(List<MetricAggregateModel> expected, List<MetricAggregateModel> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getSensorId(), actual.get(i).getSensorId());
+            assertEquals(expected.get(i).getMetricName(), actual.get(i).getMetricName());
+            assertEquals(expected.get(i).getCount(), actual.get(i).getCount());
+            assertEquals(expected.get(i).getMin(), actual.get(i).getMin());
+            assertEquals(expected.get(i).getMax(), actual.get(i).getMax());
+            assertEquals(expected.get(i).getSum(), actual.get(i).getSum(), 1e-6);
+            assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+        }
+    }
+
+    private List<WeatherMetricEntity> readings(int count) {
+        Random random = new Random(42);
+        List<WeatherMetricEntity> weatherMetrics = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            weatherMetrics.add(reading("sensor-" + random.nextInt(37), start.plusSeconds(random.nextInt(1_000_000)),
+                    random.nextDouble() * 40, random.nextDouble() * 100));
+        }
+        return weatherMetrics;
+    }
+}
@@ -0,0 +1,97 @@
+package com.ghulam.weather.metrics.unit.statistic;
+
+import com.ghulam.weather.metrics.statistic.QuantileSketch;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuantileSketchTest {
+
+    @Test
+    void testGetQuantile_WithinRelativeAccuracy() {
+        // Arrange, temperatures around zero, both signs
+        Random random = new Random(7);
+        double[] values = new double[10000];
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextGaussian() * 10 + 5;
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+
+        // Act & Assert
+        for (double quantile : new double[]{0.0, 0.01, 0.25, 0.5, 0.95, 0.99, 1.0}) {
+            double expected = values[(int) (quantile * (values.length - 1))];
+            assertEquals(expected, sketch.getQuantile(quantile), Math.abs(expected) * QuantileSketch.RELATIVE_ACCURACY + 1e-9, "quantile " + quantile);
+        }
+        assertEquals(values[0], sketch.getMin());
+        assertEquals(values[values.length - 1], sketch.getMax());
+    }
+
+    @Test
+    void testMerge_SameAsOneSketch() {
+        // Arrange
+        QuantileSketch all = new QuantileSketch();
+        QuantileSketch first = new QuantileSketch();
+        QuantileSketch second = new QuantileSketch();
+        for (int i = 1; i <= 1000; i++) {
+            all.add(i);
+            (i % 2 == 0 ? first : second).add(i);
+        }
+
+        // Act
+        QuantileSketch merged = first.merge(second);
+
+        // Assert
+        assertEquals(1000, merged.getCount());
+        assertEquals(all.getQuantile(0.5), merged.getQuantile(0.5));
+        assertEquals(all.getQuantile(0.99), merged.getQuantile(0.99));
+    }
+
+    @Test
+    void testToBytes_RoundTrip() {
+        // Arrange
+        QuantileSketch sketch = new QuantileSketch().add(-3.5).add(0).add(12.25).add(80);
+
+        // Act
+        QuantileSketch decoded = QuantileSketch.fromBytes(sketch.toBytes());
+
+        // Assert
+        assertEquals(4, decoded.getCount());
+        assertEquals(-3.5, decoded.getMin());
+        assertEquals(80, decoded.getMax());
+        assertEquals(sketch.getQuantile(0.3), decoded.getQuantile(0.3));
+        assertArrayEquals(sketch.getHistogram(4), decoded.getHistogram(4));
+    }
+
+    @Test
+    void testAdd_BinsAreBounded() {
+        // Arrange, values over 30 orders of magnitude need more than the maximum number of bins
+        QuantileSketch sketch = new QuantileSketch();
+        for (int exponent = -15; exponent <= 15; exponent++) {
+            for (int i = 1; i < 100; i++) {
+                sketch.add(i * Math.pow(10, exponent));
+            }
+        }
+
+        // Act
+        byte[] bytes = sketch.toBytes();
+
+        // Assert, highest quantiles keep their accuracy
+        assertTrue(bytes.length <= 64 + QuantileSketch.MAX_BINS * 12);
+        assertEquals(99e15, sketch.getQuantile(1.0));
+        assertEquals(97e15, sketch.getQuantile(0.9996), 97e15 * QuantileSketch.RELATIVE_ACCURACY);
+    }
+
+    @Test
+    void testIsQuantileStatistic() {
+        assertTrue(QuantileSketch.isQuantileStatistic("p50"));
+        assertTrue(QuantileSketch.isQuantileStatistic("p99.9"));
+        assertFalse(QuantileSketch.isQuantileStatistic("p101"));
+        assertFalse(QuantileSketch.isQuantileStatistic("avg"));
+        assertEquals(0.999, QuantileSketch.toQuantile("p99.9"), 1e-12);
+    }
+}
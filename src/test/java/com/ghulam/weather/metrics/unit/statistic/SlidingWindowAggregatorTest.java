@@ -0,0 +1,83 @@
+package com.ghulam.weather.metrics.unit.statistic;
+
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import com.ghulam.weather.metrics.statistic.SlidingWindowAggregator;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SlidingWindowAggregatorTest {
+
+    private final LocalDateTime now = LocalDateTime.of(2024, 12, 10, 12, 0);
+
+    @Test
+    void testGetAggregates_WindowsOfDifferentLengthShareTheBuckets() {
+        // Arrange, readings out of order, the max is the oldest
+        SlidingWindowAggregator aggregator = new SlidingWindowAggregator();
+        aggregator.add("sensor-1", "Temp", now.minusMinutes(10), 30.0);
+        aggregator.add("sensor-1", "Temp", now.minusMinutes(1), 20.0);
+        aggregator.add("sensor-1", "Temp", now.minusMinutes(5).plusSeconds(30), 10.0);
+
+        // Act
+        List<MetricAggregateModel> lastSixMinutes = aggregator.getAggregates(Set.of(), Set.of(), now.minusMinutes(6));
+        List<MetricAggregateModel> lastHour = aggregator.getAggregates(Set.of("sensor-1"), Set.of("Temp"), now.minusHours(1));
+
+        // Assert, stamped with the minute of the first reading of the window
+        assertEquals(1, lastSixMinutes.size());
+        assertEquals(2, lastSixMinutes.get(0).getCount());
+        assertEquals(10.0, lastSixMinutes.get(0).getStatisticValue("min"));
+        assertEquals(20.0, lastSixMinutes.get(0).getStatisticValue("max"));
+        assertEquals(30.0, lastSixMinutes.get(0).getStatisticValue("sum"));
+        assertEquals(now.minusMinutes(5), lastSixMinutes.get(0).getTimestamp());
+        assertEquals(3, lastHour.get(0).getCount());
+        assertEquals(30.0, lastHour.get(0).getStatisticValue("max"));
+    }
+
+    @Test
+    void testEvictBefore_DropsMinutesAndEmptySeries() {
+        // Arrange
+        SlidingWindowAggregator aggregator = new SlidingWindowAggregator();
+        aggregator.add("sensor-2", "Temp", now.minusMinutes(1), 5.0);
+        aggregator.add("sensor-1", "Humidity", now.minusMinutes(20), 40.0);
+        aggregator.add("sensor-1", "Temp", now.minusMinutes(1), 15.0);
+        aggregator.add("sensor-1", "Temp", now.minusMinutes(1).plusSeconds(59), 15.0);
+
+        // Act
+        boolean evicted = aggregator.evictBefore(now.minusMinutes(15));
+        List<MetricAggregateModel> result = aggregator.getAggregates(Set.of(), Set.of(), now.minusHours(1));
+
+        // Assert, ordered by sensor and metric, a duplicated value is counted twice
+        assertTrue(evicted);
+        assertFalse(aggregator.evictBefore(now.minusMinutes(15)));
+        assertEquals(2, result.size());
+        assertEquals("sensor-1", result.get(0).getSensorId());
+        assertEquals("Temp", result.get(0).getMetricName());
+        assertEquals(2, result.get(0).getCount());
+        assertEquals(15.0, result.get(0).getStatisticValue("avg"));
+        assertEquals("sensor-2", result.get(1).getSensorId());
+    }
+
+    @Test
+    void testGetAggregates_FiltersSensorsAndMetricNames() {
+        // Arrange
+        SlidingWindowAggregator aggregator = new SlidingWindowAggregator();
+        aggregator.add("sensor-1", "Temp", now, 1.0);
+        aggregator.add("sensor-1", "Humidity", now, 2.0);
+        aggregator.add("sensor-2", "Temp", now, 3.0);
+
+        // Act
+        List<MetricAggregateModel> result = aggregator.getAggregates(Set.of("sensor-2", "sensor-3"), Set.of("Temp"), now);
+        aggregator.remove("sensor-2");
+
+        // Assert
+        assertEquals(1, result.size());
+        assertEquals(3.0, result.get(0).getStatisticValue("sum"));
+        assertEquals(Set.of("sensor-1"), aggregator.getSensorIds());
+    }
+}
@@ -0,0 +1,58 @@
+package com.ghulam.weather.metrics.unit.statistic;
+
+import com.ghulam.weather.metrics.entity.WeatherMetricEntity;
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import com.ghulam.weather.metrics.statistic.StatisticAggregator;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static com.ghulam.weather.metrics.unit.WeatherMetricFixture.reading;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class StatisticAggregatorTest {
+
+    private final LocalDateTime now = LocalDateTime.now();
+
+    @Test
+    void testAddAll_AllStatisticsInOnePass() {
+        // Arrange
+        List<WeatherMetricEntity> weatherMetrics = List.of(
+                reading("sensor-1", now.minusHours(1), 25.0, 60.0),
+                reading("sensor-1", now.minusHours(2), 30.0, 40.0),
+                reading("sensor-2", now, 10.0, 50.0));
+
+        // Act
+        List<MetricAggregateModel> result = new StatisticAggregator(List.of("Temp")).addAll(weatherMetrics).getAggregates();
+
+        // Assert
+        assertEquals(2, result.size());
+        MetricAggregateModel sensor1 = result.get(0);
+        assertEquals("sensor-1", sensor1.getSensorId());
+        assertEquals("Temp", sensor1.getMetricName());
+        assertEquals(2, sensor1.getCount());
+        assertEquals(25.0, sensor1.getStatisticValue("min"));
+        assertEquals(30.0, sensor1.getStatisticValue("max"));
+        assertEquals(55.0, sensor1.getStatisticValue("sum"));
+        assertEquals(27.5, sensor1.getStatisticValue("avg"));
+        assertEquals(now.minusHours(2), sensor1.getTimestamp());
+    }
+
+    @Test
+    void testMerge_PartialAggregators() {
+        // Arrange
+        StatisticAggregator first = new StatisticAggregator().add(reading("sensor-1", now, 25.0, 60.0));
+        StatisticAggregator second = new StatisticAggregator().add("sensor-1", "Temp", now.minusDays(1), 5.0);
+
+        // Act
+        List<MetricAggregateModel> result = first.merge(second).getAggregates();
+
+        // Assert
+        MetricAggregateModel temp = result.stream().filter(aggregate -> aggregate.getMetricName().equals("Temp")).findFirst().orElseThrow();
+        assertEquals(2, temp.getCount());
+        assertEquals(5.0, temp.getMin());
+        assertEquals(25.0, temp.getMax());
+        assertEquals(now.minusDays(1), temp.getTimestamp());
+    }
+}
@@ -0,0 +1,131 @@
+package com.ghulam.weather.metrics.unit.store;
+
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import com.ghulam.weather.metrics.store.HotWindowMetricStore;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.ghulam.weather.metrics.unit.WeatherMetricFixture.reading;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+public class HotWindowMetricStoreTest {
+
+    @Mock
+    private WeatherMetricRepository weatherMetricRepository;
+
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final LocalDateTime now = LocalDateTime.now();
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    void testAggregate_LoadedAndIngestedReadings() {
+        // Arrange
+        when(weatherMetricRepository.streamByTimestampFrom(any()))
+                .thenReturn(Stream.of(reading("sensor-1", now.minusDays(2), 10.0, 40.0)));
+        HotWindowMetricStore store = new HotWindowMetricStore(weatherMetricRepository, entityManager, transactionManager, true, 7, 100);
+        store.start();
+
+        // Act
+        store.onSaved(List.of(reading("sensor-1", now.minusHours(1), 20.0, 60.0), reading("sensor-2", now.minusHours(1), 30.0, 50.0)));
+        List<MetricAggregateModel> result = store.aggregate(List.of("sensor-1"), List.of("Temp"), now.minusDays(3), now);
+
+        // Assert
+        assertTrue(store.canServe(null, null, now.minusDays(3)));
+        assertFalse(store.canServe(null, null, now.minusDays(8)));
+        assertEquals(1, result.size());
+        assertEquals(2, result.get(0).getCount());
+        assertEquals(15.0, result.get(0).getStatisticValue("avg"));
+        assertEquals(10.0, result.get(0).getMin());
+        assertEquals(20.0, result.get(0).getMax());
+        assertEquals(now.minusDays(2).withNano(now.getNano() / 1000 * 1000), result.get(0).getTimestamp());
+    }
+
+    @Test
+    void testCanServe_FalseWhenRangeWasOverwritten() {
+        // Arrange, two readings per series fit in the store
+        when(weatherMetricRepository.streamByTimestampFrom(any())).thenReturn(Stream.empty());
+        HotWindowMetricStore store = new HotWindowMetricStore(weatherMetricRepository, entityManager, transactionManager, true, 7, 2);
+        store.start();
+
+        // Act
+        store.onSaved(List.of(
+                reading("sensor-1", now.minusHours(3), 1.0, 1.0),
+                reading("sensor-1", now.minusHours(2), 2.0, 2.0),
+                reading("sensor-1", now.minusHours(1), 3.0, 3.0)));
+
+        // Assert
+        assertFalse(store.canServe(null, null, now.minusDays(1)));
+        assertTrue(store.canServe(null, null, now.minusMinutes(150)));
+        assertEquals(5.0, store.aggregate(null, null, now.minusMinutes(150), now).get(0).getSum());
+    }
+
+    @Test
+    void testCanServe_ChecksOnlyQueriedSeries() {
+        // Arrange, two readings per series fit in the store, only sensor-2 overwrote readings
+        when(weatherMetricRepository.streamByTimestampFrom(any())).thenReturn(Stream.empty());
+        HotWindowMetricStore store = new HotWindowMetricStore(weatherMetricRepository, entityManager, transactionManager, true, 7, 2);
+        store.start();
+
+        // Act
+        store.onSaved(List.of(
+                reading("sensor-1", now.minusHours(3), 1.0, 1.0),
+                reading("sensor-2", now.minusHours(3), 1.0, 1.0),
+                reading("sensor-2", now.minusHours(2), 2.0, 2.0),
+                reading("sensor-2", now.minusHours(1), 3.0, 3.0)));
+
+        // Assert
+        assertTrue(store.canServe(List.of("sensor-1"), null, now.minusDays(1)));
+        assertFalse(store.canServe(List.of("sensor-1", "sensor-2"), List.of("Temp"), now.minusDays(1)));
+        assertFalse(store.canServe(null, null, now.minusDays(1)));
+    }
+
+    @Test
+    void testEvictBefore_DropsReadingsLeavingTheWindow() {
+        // Arrange
+        when(weatherMetricRepository.streamByTimestampFrom(any()))
+                .thenReturn(Stream.of(reading("sensor-1", now.minusDays(2), 10.0, 40.0)));
+        HotWindowMetricStore store = new HotWindowMetricStore(weatherMetricRepository, entityManager, transactionManager, true, 7, 100);
+        store.start();
+        store.onSaved(List.of(reading("sensor-1", now.minusHours(1), 20.0, 60.0)));
+
+        // Act
+        store.evictBefore(now.minusDays(1));
+        store.onSaved(List.of(reading("sensor-1", now.minusDays(3), 30.0, 50.0)));
+
+        // Assert, the window starts at the cutoff and late readings before it are not added
+        assertFalse(store.canServe(null, null, now.minusDays(2)));
+        assertTrue(store.canServe(null, null, now.minusDays(1)));
+        List<MetricAggregateModel> result = store.aggregate(List.of("sensor-1"), List.of("Temp"), now.minusDays(7), now);
+        assertEquals(1, result.size());
+        assertEquals(1, result.get(0).getCount());
+        assertEquals(20.0, result.get(0).getSum());
+    }
+
+    @Test
+    void testCanServe_FalseWhenDisabled() {
+        HotWindowMetricStore store = new HotWindowMetricStore(weatherMetricRepository, entityManager, transactionManager, false, 7, 100);
+        store.start();
+
+        assertFalse(store.canServe(null, null, now.minusHours(1)));
+    }
+}
@@ -0,0 +1,94 @@
+package com.ghulam.weather.metrics.unit.store;
+
+import com.ghulam.weather.metrics.model.SensorSnapshotModel;
+import com.ghulam.weather.metrics.repository.WeatherMetricRepository;
+import com.ghulam.weather.metrics.store.LatestReadingStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static com.ghulam.weather.metrics.unit.WeatherMetricFixture.reading;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LatestReadingStoreTest {
+
+    @Mock
+    private WeatherMetricRepository weatherMetricRepository;
+
+    private final LocalDateTime now = LocalDateTime.of(2024, 12, 10, 12, 0);
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    void testGetLatest_LoadedAndNewerIngestedReadings() {
+        // Arrange
+        when(weatherMetricRepository.findLatestValues()).thenReturn(List.of(
+                new Object[]{"sensor-2", "Temp", now.minusDays(1), 5.0, "C"},
+                new Object[]{"sensor-1", "Temp", now.minusHours(2), 10.0, "C"},
+                new Object[]{"sensor-1", "Humidity", now.minusHours(2), 40.0, "g/kg"}));
+        LatestReadingStore store = new LatestReadingStore(weatherMetricRepository, true);
+        store.start();
+
+        // Act, a newer Temp and an older Humidity of sensor-1
+        store.onSaved(List.of(
+                reading("sensor-1", now.minusHours(1), "Temp", 20.0),
+                reading("sensor-1", now.minusHours(3), "Humidity", 60.0)));
+        List<SensorSnapshotModel> result = store.getLatest(null, null);
+
+        // Assert, sensors ordered by id, metrics by name
+        assertEquals(2, result.size());
+        assertEquals("sensor-1", result.get(0).getSensorId());
+        assertEquals(now.minusHours(1), result.get(0).getTimestamp());
+        assertEquals("Humidity", result.get(0).getMetrics().get(0).getMetricName());
+        assertEquals(40.0, result.get(0).getMetrics().get(0).getMetricValue());
+        assertEquals(now.minusHours(2), result.get(0).getMetrics().get(0).getTimestamp());
+        assertEquals("Temp", result.get(0).getMetrics().get(1).getMetricName());
+        assertEquals(20.0, result.get(0).getMetrics().get(1).getMetricValue());
+        assertEquals("sensor-2", result.get(1).getSensorId());
+    }
+
+    @Test
+    void testGetLatest_FilteredBySensorAndMetric() {
+        // Arrange
+        when(weatherMetricRepository.findLatestValues()).thenReturn(List.of());
+        LatestReadingStore store = new LatestReadingStore(weatherMetricRepository, true);
+        store.start();
+        store.onSaved(List.of(reading("sensor-1", now, "Temp", 20.0), reading("sensor-1", now, "Humidity", 50.0),
+                reading("sensor-3", now, "Temp", 30.0)));
+
+        // Act, unknown sensors are skipped and the order of the given sensors is kept
+        List<SensorSnapshotModel> result = store.getLatest(List.of("sensor-3", "sensor-9", "sensor-1"), List.of("Temp"));
+
+        // Assert
+        assertEquals(2, result.size());
+        assertEquals("sensor-3", result.get(0).getSensorId());
+        assertEquals("sensor-1", result.get(1).getSensorId());
+        assertEquals(1, result.get(1).getMetrics().size());
+        assertEquals(20.0, result.get(1).getMetrics().get(0).getMetricValue());
+    }
+
+    @Test
+    void testGetLatest_FromDatabaseWhenDisabled() {
+        // Arrange
+        when(weatherMetricRepository.findLatestValuesBySensorIds(List.of("sensor-1")))
+                .thenReturn(List.<Object[]>of(new Object[]{"sensor-1", "Temp", now, 10.0, "C"}));
+        LatestReadingStore store = new LatestReadingStore(weatherMetricRepository, false);
+        store.start();
+
+        // Act
+        List<SensorSnapshotModel> result = store.getLatest(List.of("sensor-1"), null);
+
+        // Assert
+        verify(weatherMetricRepository).findLatestValuesBySensorIds(List.of("sensor-1"));
+        assertEquals(10.0, result.get(0).getMetrics().get(0).getMetricValue());
+    }
+}
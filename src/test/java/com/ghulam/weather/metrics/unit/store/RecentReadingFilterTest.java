@@ -0,0 +1,61 @@
+package com.ghulam.weather.metrics.unit.store;
+
+import com.ghulam.weather.metrics.store.RecentReadingFilter;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RecentReadingFilterTest {
+
+    private final LocalDateTime now = LocalDateTime.of(2024, 12, 10, 12, 0);
+
+    @Test
+    void testPut_AddedKeysAreSeenAndFalsePositivesBounded() {
+        // Arrange
+        RecentReadingFilter filter = new RecentReadingFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("sensor-" + i % 100, now.plusSeconds(i / 100));
+        }
+
+        // Act, no false negative and new keys of the same sensors and other timestamps
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("sensor-" + i % 100, now.plusSeconds(i / 100)));
+            if (filter.put("sensor-" + i % 100, now.plusSeconds(i / 100).plusNanos(1_000_000))) {
+                falsePositives++;
+            }
+        }
+
+        // Assert, one generation and the first keys of the next, at most twice the rate
+        assertTrue(falsePositives < 10_000 * 0.02, "False positives: " + falsePositives);
+    }
+
+    @Test
+    void testPut_KeysOfTwoGenerationsAgoAreForgotten() {
+        // Arrange
+        RecentReadingFilter filter = new RecentReadingFilter(1_000, 0.01);
+        assertFalse(filter.put("sensor-1", now));
+
+        // Act, the generation of the key becomes the previous one then is dropped
+        for (int i = 1; i < 1_000; i++) {
+            filter.put("sensor-2", now.plusSeconds(i));
+        }
+        boolean seenInPreviousGeneration = filter.mightContain("sensor-1", now);
+        for (int i = 0; i < 1_000; i++) {
+            filter.put("sensor-3", now.plusSeconds(i));
+        }
+
+        // Assert
+        assertTrue(seenInPreviousGeneration);
+        assertFalse(filter.mightContain("sensor-1", now));
+    }
+
+    @Test
+    void testConstructor_InvalidFalsePositiveRateThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new RecentReadingFilter(1_000, 1.0));
+    }
+}
@@ -0,0 +1,79 @@
+package com.ghulam.weather.metrics.unit.store;
+
+import com.ghulam.weather.metrics.model.WeatherMetricStatisticModel;
+import com.ghulam.weather.metrics.store.StatisticResultCache;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.ghulam.weather.metrics.unit.WeatherMetricFixture.reading;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class StatisticResultCacheTest {
+
+    private final LocalDateTime start = LocalDateTime.of(2024, 12, 1, 0, 0);
+    private final LocalDateTime end = LocalDateTime.of(2024, 12, 8, 0, 0);
+
+    @Test
+    void testGet_HitUntilReadingInsideRangeSaved() {
+        // Arrange
+        StatisticResultCache cache = new StatisticResultCache(true, 10, 60);
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<List<WeatherMetricStatisticModel>> loader = () -> {
+            loads.incrementAndGet();
+            return List.of();
+        };
+
+        // Act
+        cache.get(List.of("Temp"), List.of("sensor-1", "sensor-2"), List.of("avg"), start, end, loader);
+        cache.get(List.of("Temp"), List.of("sensor-2", "sensor-1"), List.of("avg"), start, end, loader);
+        // other sensor, reading outside the range and other metric keep the entry
+        cache.invalidate(List.of(reading("sensor-3", start.plusDays(1), "Temp", 1.0)));
+        cache.invalidate(List.of(reading("sensor-1", end.plusSeconds(1), "Temp", 1.0)));
+        cache.invalidate(List.of(reading("sensor-1", start.plusDays(1), "Humidity", 1.0)));
+        cache.get(List.of("Temp"), List.of("sensor-1", "sensor-2"), List.of("avg"), start, end, loader);
+        cache.invalidate(List.of(reading("sensor-2", end, "Temp", 1.0)));
+        cache.get(List.of("Temp"), List.of("sensor-1", "sensor-2"), List.of("avg"), start, end, loader);
+
+        // Assert
+        assertEquals(2, loads.get());
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void testGet_ReadingSavedWhileComputingIsNotCached() {
+        // Arrange
+        StatisticResultCache cache = new StatisticResultCache(true, 10, 60);
+
+        // Act
+        cache.get(null, null, List.of("avg"), start, end, () -> {
+            cache.invalidate(List.of(reading("sensor-1", start, "Temp", 1.0)));
+            return List.of();
+        });
+
+        // Assert
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testGet_BoundedAndExpiring() {
+        // Arrange
+        StatisticResultCache bounded = new StatisticResultCache(true, 2, 60);
+        StatisticResultCache expiring = new StatisticResultCache(true, 2, 0);
+
+        // Act
+        for (int i = 0; i < 3; i++) {
+            bounded.get(null, List.of("sensor-" + i), List.of("avg"), start, end, List::of);
+        }
+        expiring.get(null, null, List.of("avg"), start, end, List::of);
+        expiring.get(null, null, List.of("avg"), start, end, List::of);
+
+        // Assert
+        assertEquals(2, bounded.size());
+        assertEquals(0, expiring.getHits());
+    }
+}
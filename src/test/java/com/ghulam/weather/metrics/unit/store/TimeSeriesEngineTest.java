@@ -0,0 +1,234 @@
+package com.ghulam.weather.metrics.unit.store;
+
+import com.ghulam.weather.metrics.model.MetricAggregateModel;
+import com.ghulam.weather.metrics.store.GorillaDecoder;
+import com.ghulam.weather.metrics.store.GorillaEncoder;
+import com.ghulam.weather.metrics.store.TimeSeriesEngine;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimeSeriesEngineTest {
+
+    private static final long MINUTE = 60_000_000L;
+    private static final long DAY = 1440 * MINUTE;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testGorilla_RoundTrip() {
+        // Arrange, regular and jittered intervals, out of order, repeated and extreme values
+        Random random = new Random(42);
+        long[] timestamps = new long[2000];
+        double[] values = new double[timestamps.length];
+        long timestamp = 1_733_011_200_000_000L;
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamp += i % 10 == 0 ? random.nextInt(5_000_000) - 2_500_000 : MINUTE;
+            timestamps[i] = i % 97 == 0 ? timestamp - 3 * MINUTE : timestamp;
+            values[i] = switch (i % 7) {
+                case 0 -> values[Math.max(0, i - 1)];
+                case 1 -> -random.nextDouble() * 1e9;
+                case 2 -> Double.MAX_VALUE;
+                case 3 -> 0.0;
+                default -> Math.round(random.nextDouble() * 400) / 10.0;
+            };
+        }
+        GorillaEncoder encoder = new GorillaEncoder();
+        for (int i = 0; i < timestamps.length; i++) {
+            encoder.add(timestamps[i], values[i]);
+        }
+
+        // Act
+        GorillaDecoder decoder = new GorillaDecoder(ByteBuffer.wrap(encoder.toBytes()), 0, encoder.getCount());
+
+        // Assert
+        for (int i = 0; i < timestamps.length; i++) {
+            assertTrue(decoder.next());
+            assertEquals(timestamps[i], decoder.getTimestamp());
+            assertEquals(values[i], decoder.getValue());
+        }
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    void testGorilla_RegularReadingsCompress() {
+        // Arrange, a reading per minute of a value drifting by 0.1
+        Random random = new Random(1);
+        GorillaEncoder encoder = new GorillaEncoder();
+        double value = 20.0;
+        for (int i = 0; i < 1024; i++) {
+            value += (random.nextInt(3) - 1) * 0.1;
+            encoder.add(i * MINUTE, Math.round(value * 10) / 10.0);
+        }
+
+        // Assert, raw points take 16 bytes
+        assertTrue(encoder.toBytes().length < 1024 * 16 / 3);
+    }
+
+    @Test
+    void testAggregate_MatchesReadings() throws IOException {
+        // Arrange
+        Map<List<String>, List<long[]>> readings = new HashMap<>();
+        try (TimeSeriesEngine engine = new TimeSeriesEngine(directory, 64, 4096, DAY)) {
+            append(engine, readings, 1000);
+
+            // Act & Assert, ranges inside blocks, across blocks and covering the open blocks
+            assertAggregates(engine, readings, 0, 1000 * MINUTE);
+            assertAggregates(engine, readings, 100 * MINUTE + 1, 700 * MINUTE);
+            assertAggregates(engine, readings, 999 * MINUTE, 1001 * MINUTE);
+            assertTrue(engine.getBlockCount() > 0);
+            assertTrue(engine.getSegmentBytes() < 1000 * 2 * 3 * 16);
+        }
+    }
+
+    @Test
+    void testReopen_IndexesWrittenSegments() throws IOException {
+        // Arrange
+        Map<List<String>, List<long[]>> readings = new HashMap<>();
+        try (TimeSeriesEngine engine = new TimeSeriesEngine(directory, 64, 4096, DAY)) {
+            append(engine, readings, 500);
+        }
+
+        // Act
+        try (TimeSeriesEngine engine = new TimeSeriesEngine(directory, 64, 4096, DAY)) {
+            // Assert
+            assertAggregates(engine, readings, 0, 500 * MINUTE);
+            assertAggregates(engine, readings, 33 * MINUTE, 333 * MINUTE);
+
+            List<long[]> points = new ArrayList<>();
+            engine.forEachPoint(List.of("sensor-1"), 10 * MINUTE, 20 * MINUTE,
+                    (sensorId, metricName, timestamp, value) -> points.add(new long[]{timestamp}));
+            assertEquals(20, points.size());
+        }
+    }
+
+    @Test
+    void testReopen_TruncatesIncompleteBlock() throws IOException {
+        // Arrange, a crash left half a block at the end of a segment
+        Map<List<String>, List<long[]>> readings = new HashMap<>();
+        try (TimeSeriesEngine engine = new TimeSeriesEngine(directory, 64, 1 << 20, DAY)) {
+            append(engine, readings, 100);
+        }
+        Path segment;
+        try (Stream<Path> files = Files.walk(directory)) {
+            segment = files.filter(path -> path.toString().endsWith(".seg")).findFirst().orElseThrow();
+        }
+        long size = Files.size(segment);
+        Files.write(segment, new byte[]{0x42, 0x4c, 0x4b, 0x31, 0, 4}, StandardOpenOption.APPEND);
+
+        // Act
+        try (TimeSeriesEngine engine = new TimeSeriesEngine(directory, 64, 1 << 20, DAY)) {
+            // Assert
+            assertEquals(size, Files.size(segment));
+            assertAggregates(engine, readings, 0, 100 * MINUTE);
+            engine.append("sensor-1", "Temp", 100 * MINUTE, 1.0);
+            engine.flush();
+            assertEquals(1, engine.aggregate(List.of("sensor-1"), null, 100 * MINUTE, 101 * MINUTE).get(0).getCount());
+        }
+    }
+
+    @Test
+    void testDeleteSegmentsBefore_KeepsSegmentsWithNewerPoints() throws IOException {
+        // Arrange, small segments so every sensor rolls several of them
+        Map<List<String>, List<long[]>> readings = new HashMap<>();
+        try (TimeSeriesEngine engine = new TimeSeriesEngine(directory, 64, 2048, DAY)) {
+            append(engine, readings, 1000);
+            engine.flush();
+            long bytes = engine.getSegmentBytes();
+
+            // Act
+            long deleted = engine.deleteSegmentsBefore(500 * MINUTE);
+
+            // Assert, points before the cutoff are gone only with whole segments, newer points are all kept
+            long remaining = engine.aggregate(null, null, 0, 1000 * MINUTE).stream().mapToLong(MetricAggregateModel::getCount).sum();
+            assertTrue(deleted > 0);
+            assertEquals(1000 * 2 * 3, deleted + remaining);
+            assertTrue(engine.getSegmentBytes() < bytes);
+            readings.values().forEach(points -> points.removeIf(point -> point[0] < 500 * MINUTE));
+            assertAggregates(engine, readings, 500 * MINUTE, 1000 * MINUTE);
+        }
+    }
+
+    @Test
+    void testDeleteSegmentsBefore_SegmentsRolledPerDay() throws IOException {
+        // Arrange, three days of readings, far below the segment size
+        Map<List<String>, List<long[]>> readings = new HashMap<>();
+        try (TimeSeriesEngine engine = new TimeSeriesEngine(directory, 64, 1 << 20, DAY)) {
+            append(engine, readings, 3 * 1440);
+            engine.flush();
+
+            // Act
+            long deleted = engine.deleteSegmentsBefore(2 * DAY);
+
+            // Assert, the first day is deleted, a block crossing midnight keeps the second one
+            long remaining = engine.aggregate(null, null, 0, 3 * DAY).stream().mapToLong(MetricAggregateModel::getCount).sum();
+            assertTrue(deleted >= 1440 * 2 * 3);
+            assertEquals(3 * 1440 * 2 * 3, deleted + remaining);
+            readings.values().forEach(points -> points.removeIf(point -> point[0] < 2 * DAY));
+            assertAggregates(engine, readings, 2 * DAY, 3 * DAY);
+        }
+    }
+
+    @Test
+    void testDeleteSegmentsBefore_ExpiredActiveSegmentDeleted() throws IOException {
+        // Arrange, the sensors stopped reporting, their only segments are the active ones
+        Map<List<String>, List<long[]>> readings = new HashMap<>();
+        try (TimeSeriesEngine engine = new TimeSeriesEngine(directory, 64, 1 << 20, DAY)) {
+            append(engine, readings, 100);
+            engine.flush();
+
+            // Act
+            long deleted = engine.deleteSegmentsBefore(DAY);
+            engine.append("sensor-1", "Temp", DAY, 1.0);
+            engine.flush();
+
+            // Assert, a new segment is started for the next reading
+            assertEquals(100 * 2 * 3, deleted);
+            assertEquals(1, engine.aggregate(null, null, 0, 2 * DAY).stream().mapToLong(MetricAggregateModel::getCount).sum());
+            assertTrue(engine.getSegmentBytes() > 0);
+        }
+    }
+
+    /**
+     * A reading per minute of 3 sensors with 2 metrics each
+     */
+    private static void append(TimeSeriesEngine engine, Map<List<String>, List<long[]>> readings, int minutes) throws IOException {
+        Random random = new Random(7);
+        for (int minute = 0; minute < minutes; minute++) {
+            for (int sensor = 0; sensor < 3; sensor++) {
+                for (String metricName : List.of("Temp", "Humidity")) {
+                    long timestamp = minute * MINUTE + sensor;
+                    double value = Math.round(random.nextDouble() * 1000) / 10.0;
+                    engine.append("sensor-" + sensor, metricName, timestamp, value);
+                    readings.computeIfAbsent(List.of("sensor-" + sensor, metricName), key -> new ArrayList<>())
+                            .add(new long[]{timestamp, Double.doubleToLongBits(value)});
+                }
+            }
+        }
+    }
+
+    private static void assertAggregates(TimeSeriesEngine engine, Map<List<String>, List<long[]>> readings, long from, long to) {
+        List<MetricAggregateModel> aggregates = engine.aggregate(null, null, from, to);
+        assertEquals(readings.size(), aggregates.size());
+        for (MetricAggregateModel aggregate : aggregates) {
+            List<long[]> expected = readings.get(List.of(aggregate.getSensorId(), aggregate.getMetricName())).stream()
+                    .filter(reading -> reading[0] >= from && reading[0] < to).toList();
+            DoubleSummaryStatistics statistics = expected.stream().mapToDouble(reading -> Double.longBitsToDouble(reading[1])).summaryStatistics();
+            assertEquals(statistics.getCount(), aggregate.getCount());
+            assertEquals(statistics.getSum(), aggregate.getSum(), 1e-6);
+            assertEquals(statistics.getMin(), aggregate.getMin());
+            assertEquals(statistics.getMax(), aggregate.getMax());
+            assertEquals(TimeSeriesEngine.fromEpochMicros(expected.get(0)[0]), aggregate.getTimestamp());
+        }
+    }
+}